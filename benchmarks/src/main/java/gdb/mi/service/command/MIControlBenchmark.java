@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (C) 2022 IBM Corporation
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *******************************************************************************/
+
+package gdb.mi.service.command;
+
+import gdb.mi.service.command.commands.MICommand;
+import gdb.mi.service.command.output.MIInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Round trips through AbstractMIControl: queueing, the TX thread, the reply read and parsed by the
+ * RX thread, and the future completed for the caller.
+ * <p>
+ * GDB is stood in for by a stream that answers every command as soon as it is written, so this
+ * measures the cost of the control itself. "single" waits for each reply with getResponse, the way
+ * most JDWP commands do; "pipelined" queues a batch with queueAsyncCommand and then waits for all
+ * of them, the way the stack cache and breakpoint inserts do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MIControlBenchmark {
+
+	private static final int BATCH = 64;
+
+	@Param({ "done", "frames" })
+	public String reply;
+
+	private AbstractMIControl control;
+	private PipedOutputStream gdbOutput;
+	private byte[] replyBytes;
+	private final AtomicInteger tokens = new AtomicInteger();
+
+	/**
+	 * Stands in for GDB: answers every command as soon as it is written.
+	 */
+	private class FakeGDBInput extends OutputStream {
+		@Override
+		public void write(int b) {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			int end = off;
+			while (end < off + len && b[end] != '-') {
+				end++;
+			}
+			try {
+				gdbOutput.write(b, off, end - off); // the token
+				gdbOutput.write(replyBytes);
+				gdbOutput.flush();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	@Setup
+	public void setUp() throws IOException {
+		String record;
+		switch (reply) {
+		case "done":
+			record = "^done";
+			break;
+		case "frames":
+			StringBuilder sb = new StringBuilder("^done,stack=[");
+			for (int i = 0; i < 40; i++) {
+				if (i > 0) {
+					sb.append(',');
+				}
+				sb.append("frame={level=\"").append(i).append("\",addr=\"0x00000000004").append(10000 + i)
+						.append("\",func=\"io.quarkus.runtime.Generated").append(i).append("::run(java.lang.String *)\"")
+						.append(",file=\"Generated.java\",fullname=\"/src/Generated.java\",line=\"").append(20 + i).append("\"}");
+			}
+			record = sb.append(']').toString();
+			break;
+		default:
+			throw new IllegalArgumentException(reply);
+		}
+		replyBytes = (record + "\n(gdb)\n").getBytes(StandardCharsets.UTF_8);
+
+		control = new AbstractMIControl() {
+		};
+		gdbOutput = new PipedOutputStream();
+		control.startCommandProcessing(new PipedInputStream(gdbOutput, 1 << 20), new FakeGDBInput(), null);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		gdbOutput.close();
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private MICommand<MIInfo> command() {
+		MICommand cmd = control.getCommandFactory().createMIStackListFrames("1");
+		return cmd;
+	}
+
+	@Benchmark
+	public MIInfo single() {
+		int token = tokens.incrementAndGet();
+		control.queueCommand(token, command());
+		return control.getResponse(token, 5000);
+	}
+
+	@Benchmark
+	public void pipelined(Blackhole bh) {
+		@SuppressWarnings("unchecked")
+		CompletableFuture<MIInfo>[] futures = new CompletableFuture[BATCH];
+		for (int i = 0; i < BATCH; i++) {
+			futures[i] = control.queueAsyncCommand(tokens.incrementAndGet(), command());
+		}
+		for (CompletableFuture<MIInfo> future : futures) {
+			bh.consume(future.join());
+		}
+	}
+}
@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Copyright (C) 2022 IBM Corporation
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *******************************************************************************/
+
+package gdb.mi.service.command;
+
+import gdb.mi.service.command.output.MIParser;
+import gdb.mi.service.command.output.MIStreamParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the MI parser the RX thread used to run, fed by a BufferedReader, with
+ * MIStreamParser fed by MILineReader.
+ * <p>
+ * The "session" input is the recorded GDB session from src/test/data/mi. "stack" and "symbols"
+ * are single large replies shaped like -stack-list-variables on a deep stack and
+ * -symbol-info-functions on a big image, which are the ones that hurt most.
+ * Run with -prof gc to compare allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MIParserBenchmark {
+
+	@Param({ "session", "stack", "symbols" })
+	public String input;
+
+	private byte[] output;
+	private String[] lines;
+
+	@Setup
+	public void setUp() throws IOException {
+		String text;
+		switch (input) {
+		case "session":
+			try (InputStream in = MIParserBenchmark.class.getResourceAsStream("/mi/gdb-session.mi")) {
+				text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+			}
+			break;
+		case "stack":
+			text = stackListVariables(2000);
+			break;
+		case "symbols":
+			text = symbolInfoFunctions(20000);
+			break;
+		default:
+			throw new IllegalArgumentException(input);
+		}
+		output = text.getBytes(StandardCharsets.UTF_8);
+		lines = text.split("\n");
+	}
+
+	private static String stackListVariables(int count) {
+		StringBuilder sb = new StringBuilder("42^done,variables=[");
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append("{name=\"local").append(i).append("\",value=\"{hub = 0x7ffff7d0").append(i)
+					.append(", value = 0x7ffff7d8e2").append(i).append(", name = \\\"io.quarkus.Arc$").append(i)
+					.append("\\\"}\"}");
+		}
+		return sb.append("]\n(gdb)\n").toString();
+	}
+
+	private static String symbolInfoFunctions(int count) {
+		StringBuilder sb = new StringBuilder("43^done,symbols={debug=[{filename=\"Main.java\",fullname=\"/src/Main.java\",symbols=[");
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append("{line=\"").append(i).append("\",name=\"io.quarkus.runtime.Generated").append(i % 97)
+					.append("::method").append(i).append("(java.lang.String, int)\",type=\"void (java.lang.String *, int)\"")
+					.append(",description=\"void io.quarkus.runtime.Generated::method").append(i).append("(java.lang.String *, int);\"}");
+		}
+		return sb.append("]}]}\n(gdb)\n").toString();
+	}
+
+	@Benchmark
+	public void miParser(Blackhole bh) {
+		MIParser parser = new MIParser();
+		for (String line : lines) {
+			parse(parser, line, bh);
+		}
+	}
+
+	@Benchmark
+	public void streamParser(Blackhole bh) {
+		MIStreamParser parser = new MIStreamParser();
+		for (String line : lines) {
+			char[] chars = line.toCharArray();
+			parse(parser, chars, 0, chars.length, bh);
+		}
+	}
+
+	/**
+	 * Reading and parsing the output as the RX thread used to.
+	 */
+	@Benchmark
+	public void readLineAndMIParser(Blackhole bh) throws IOException {
+		MIParser parser = new MIParser();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(output)));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.length() != 0) {
+				parse(parser, line, bh);
+			}
+		}
+	}
+
+	/**
+	 * Reading and parsing the output as the RX thread does now.
+	 */
+	@Benchmark
+	public void lineReaderAndStreamParser(Blackhole bh) throws IOException {
+		MIStreamParser parser = new MIStreamParser();
+		MILineReader reader = new MILineReader(new ByteArrayInputStream(output));
+		while (reader.next()) {
+			if (reader.length() != 0) {
+				parse(parser, reader.buffer(), reader.start(), reader.length(), bh);
+			}
+		}
+	}
+
+	private static void parse(MIParser parser, String line, Blackhole bh) {
+		MIParser.RecordType type = parser.getRecordType(line);
+		if (type == MIParser.RecordType.ResultRecord) {
+			bh.consume(parser.parseMIResultRecord(line));
+		} else if (type == MIParser.RecordType.OOBRecord) {
+			bh.consume(parser.parseMIOOBRecord(line));
+		}
+	}
+
+	private static void parse(MIStreamParser parser, char[] buf, int offset, int length, Blackhole bh) {
+		MIParser.RecordType type = parser.getRecordType(buf, offset, length);
+		if (type == MIParser.RecordType.ResultRecord) {
+			bh.consume(parser.parseMIResultRecord(buf, offset, length));
+		} else if (type == MIParser.RecordType.OOBRecord) {
+			bh.consume(parser.parseMIOOBRecord(buf, offset, length));
+		}
+	}
+}
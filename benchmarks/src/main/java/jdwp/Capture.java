@@ -0,0 +1,470 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The JDWP packets of a debugging session captured by Wireshark or tcpdump, in pcapng or pcap
+ * format. The TCP segments of the first connection that starts with the JDWP handshake are put
+ * back in sequence order, retransmissions dropped, and the two streams cut into packets. Each
+ * packet gets the time at which the segment holding its last byte was captured.
+ * <p>
+ * Captures of the loopback interface (NULL and LOOP links), of Ethernet, of raw IP and of Linux
+ * "any" devices (SLL and SLL2) are read, over IPv4 and IPv6.
+ */
+public class Capture {
+
+    private static final byte[] HANDSHAKE = "JDWP-Handshake".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_SIZE = 11;
+    private static final byte REPLY = (byte) 0x80;
+
+    private static final int LINKTYPE_NULL = 0;
+    private static final int LINKTYPE_ETHERNET = 1;
+    private static final int LINKTYPE_RAW = 101;
+    private static final int LINKTYPE_LOOP = 108;
+    private static final int LINKTYPE_LINUX_SLL = 113;
+    private static final int LINKTYPE_LINUX_SLL2 = 276;
+
+    /**
+     * A JDWP packet of the capture.
+     */
+    static final class Captured {
+        final boolean fromDebugger;
+        final long time;
+        final int id;
+        final byte flags;
+        final byte cmdSet;
+        final byte cmd;
+        final short errorCode;
+        final byte[] data;
+
+        Captured(boolean fromDebugger, long time, ByteBuffer packet) {
+            this.fromDebugger = fromDebugger;
+            this.time = time;
+            this.id = packet.getInt();
+            this.flags = packet.get();
+            if (isReply()) {
+                this.cmdSet = 0;
+                this.cmd = 0;
+                this.errorCode = packet.getShort();
+            } else {
+                this.cmdSet = packet.get();
+                this.cmd = packet.get();
+                this.errorCode = 0;
+            }
+            this.data = new byte[packet.remaining()];
+            packet.get(data);
+        }
+
+        boolean isReply() {
+            return (flags & REPLY) != 0;
+        }
+
+        /**
+         * Returns true for the commands of the debugger, false for replies and events.
+         */
+        boolean isCommand() {
+            return fromDebugger && !isReply();
+        }
+
+        boolean isEvent() {
+            return !fromDebugger && !isReply();
+        }
+    }
+
+    /**
+     * A TCP segment with data, as captured.
+     */
+    private static final class Segment {
+        final long seq;
+        final byte[] payload;
+        final long time;
+
+        Segment(long seq, byte[] payload, long time) {
+            this.seq = seq;
+            this.payload = payload;
+            this.time = time;
+        }
+    }
+
+    /**
+     * The segments sent one way on a connection.
+     */
+    private static final class Flow {
+        final String from;
+        final String to;
+        final List<Segment> segments = new ArrayList<>();
+
+        Flow(String from, String to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        long firstTime() {
+            return segments.isEmpty() ? Long.MAX_VALUE : segments.get(0).time;
+        }
+    }
+
+    private final Map<String, Flow> flows = new LinkedHashMap<>();
+    private final List<Captured> packets = new ArrayList<>();
+    private String debugger;
+    private String debuggee;
+
+    private Capture() {
+    }
+
+    /**
+     * Returns the packets of both sides, in the order they were captured.
+     */
+    List<Captured> packets() {
+        return packets;
+    }
+
+    /**
+     * Returns the address and port of the debugger, the side that sent the handshake first.
+     */
+    String debugger() {
+        return debugger;
+    }
+
+    String debuggee() {
+        return debuggee;
+    }
+
+    /**
+     * Reads the first JDWP session of the given pcapng or pcap file.
+     */
+    static Capture read(Path file) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file));
+        Capture capture = new Capture();
+        if (bytes.remaining() < 24) {
+            throw new IOException(file + " is not a capture");
+        }
+        int magic = bytes.getInt(0);
+        if (magic == 0x0A0D0D0A) {
+            capture.readPcapng(bytes);
+        } else {
+            capture.readPcap(bytes);
+        }
+        capture.cutPackets(file);
+        return capture;
+    }
+
+    private void readPcapng(ByteBuffer bytes) throws IOException {
+        List<Integer> linkTypes = new ArrayList<>();
+        List<Long> resolutions = new ArrayList<>();
+        while (bytes.remaining() >= 12) {
+            int start = bytes.position();
+            if (bytes.getInt(start) == 0x0A0D0D0A) {
+                // a section header: its byte order magic tells the order of the whole section
+                bytes.order(bytes.getInt(start + 8) == 0x1A2B3C4D ? bytes.order() : swapped(bytes.order()));
+                linkTypes.clear();
+                resolutions.clear();
+            }
+            int type = bytes.getInt(start);
+            int length = bytes.getInt(start + 4);
+            if (length < 12 || start + length > bytes.limit()) {
+                throw new IOException("truncated pcapng block at " + start);
+            }
+            switch (type) {
+                case 1: // interface description
+                    linkTypes.add(bytes.getShort(start + 8) & 0xffff);
+                    resolutions.add(timeResolution(bytes, start + 16, start + length - 4));
+                    break;
+                case 6: { // enhanced packet
+                    int iface = bytes.getInt(start + 8);
+                    long ticks = (bytes.getInt(start + 12) & 0xffffffffL) << 32 | bytes.getInt(start + 16) & 0xffffffffL;
+                    int captured = bytes.getInt(start + 20);
+                    frame(linkTypes.get(iface), slice(bytes, start + 28, captured), ticks * resolutions.get(iface));
+                    break;
+                }
+                case 3: { // simple packet, always of the first interface and without a time
+                    int captured = Math.min(bytes.getInt(start + 8), length - 16);
+                    frame(linkTypes.get(0), slice(bytes, start + 12, captured), 0);
+                    break;
+                }
+                case 2: { // obsolete packet block
+                    int iface = bytes.getShort(start + 8) & 0xffff;
+                    long ticks = (bytes.getInt(start + 12) & 0xffffffffL) << 32 | bytes.getInt(start + 16) & 0xffffffffL;
+                    int captured = bytes.getInt(start + 20);
+                    frame(linkTypes.get(iface), slice(bytes, start + 28, captured), ticks * resolutions.get(iface));
+                    break;
+                }
+                default:
+                    break;
+            }
+            bytes.position(start + length);
+        }
+    }
+
+    /**
+     * Returns the nanoseconds of one tick of the interface, from its if_tsresol option.
+     */
+    private static long timeResolution(ByteBuffer bytes, int options, int end) {
+        while (options + 4 <= end) {
+            int code = bytes.getShort(options) & 0xffff;
+            int length = bytes.getShort(options + 2) & 0xffff;
+            if (code == 0) {
+                break;
+            }
+            if (code == 9 && length == 1) {
+                int resolution = bytes.get(options + 4);
+                if ((resolution & 0x80) != 0) {
+                    return Math.max(1, (long) (1e9 / Math.pow(2, resolution & 0x7f)));
+                }
+                return Math.max(1, (long) (1e9 / Math.pow(10, resolution)));
+            }
+            options += 4 + (length + 3) / 4 * 4;
+        }
+        return 1000; // microseconds
+    }
+
+    private void readPcap(ByteBuffer bytes) throws IOException {
+        int magic = bytes.getInt(0);
+        if (magic != 0xA1B2C3D4 && magic != 0xA1B23C4D) {
+            bytes.order(swapped(bytes.order()));
+            magic = bytes.getInt(0);
+        }
+        long fraction;
+        if (magic == 0xA1B2C3D4) {
+            fraction = 1000;
+        } else if (magic == 0xA1B23C4D) {
+            fraction = 1;
+        } else {
+            throw new IOException("not a pcapng or pcap file");
+        }
+        int linkType = bytes.getInt(20) & 0xffff;
+        int position = 24;
+        while (position + 16 <= bytes.limit()) {
+            long seconds = bytes.getInt(position) & 0xffffffffL;
+            long fractions = bytes.getInt(position + 4) & 0xffffffffL;
+            int captured = bytes.getInt(position + 8);
+            if (position + 16 + captured > bytes.limit()) {
+                throw new IOException("truncated pcap record at " + position);
+            }
+            frame(linkType, slice(bytes, position + 16, captured), seconds * 1_000_000_000L + fractions * fraction);
+            position += 16 + captured;
+        }
+    }
+
+    private static ByteOrder swapped(ByteOrder order) {
+        return order == ByteOrder.BIG_ENDIAN ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+    }
+
+    private static ByteBuffer slice(ByteBuffer bytes, int offset, int length) {
+        ByteBuffer slice = bytes.duplicate();
+        slice.position(offset).limit(offset + length);
+        return slice.slice().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Takes the TCP segment out of a captured frame, if it holds one.
+     */
+    private void frame(int linkType, ByteBuffer frame, long time) {
+        int offset;
+        switch (linkType) {
+            case LINKTYPE_NULL:
+            case LINKTYPE_LOOP:
+                offset = 4; // address family, told apart by the IP version instead
+                break;
+            case LINKTYPE_RAW:
+                offset = 0;
+                break;
+            case LINKTYPE_ETHERNET: {
+                offset = 12;
+                while (offset + 2 <= frame.limit() && (frame.getShort(offset) & 0xffff) == 0x8100) {
+                    offset += 4; // VLAN tag
+                }
+                offset += 2;
+                break;
+            }
+            case LINKTYPE_LINUX_SLL:
+                offset = 16;
+                break;
+            case LINKTYPE_LINUX_SLL2:
+                offset = 20;
+                break;
+            default:
+                return;
+        }
+        if (offset >= frame.limit()) {
+            return;
+        }
+        int version = (frame.get(offset) & 0xff) >> 4;
+        String source;
+        String destination;
+        int tcp;
+        int end;
+        if (version == 4) {
+            int headerLength = (frame.get(offset) & 0x0f) * 4;
+            if (frame.get(offset + 9) != 6) {
+                return;
+            }
+            source = address(frame, offset + 12, 4);
+            destination = address(frame, offset + 16, 4);
+            tcp = offset + headerLength;
+            end = Math.min(frame.limit(), offset + (frame.getShort(offset + 2) & 0xffff));
+        } else if (version == 6) {
+            if (frame.get(offset + 6) != 6) {
+                return; // extension headers are not followed
+            }
+            source = address(frame, offset + 8, 16);
+            destination = address(frame, offset + 24, 16);
+            tcp = offset + 40;
+            end = Math.min(frame.limit(), tcp + (frame.getShort(offset + 4) & 0xffff));
+        } else {
+            return;
+        }
+        if (tcp + 20 > end) {
+            return;
+        }
+        int sourcePort = frame.getShort(tcp) & 0xffff;
+        int destinationPort = frame.getShort(tcp + 2) & 0xffff;
+        long seq = frame.getInt(tcp + 4) & 0xffffffffL;
+        int data = tcp + ((frame.get(tcp + 12) & 0xff) >> 4) * 4;
+        if (data >= end) {
+            return;
+        }
+        byte[] payload = new byte[end - data];
+        frame.position(data);
+        frame.get(payload);
+        String from = source + ":" + sourcePort;
+        String to = destination + ":" + destinationPort;
+        flows.computeIfAbsent(from + " " + to, key -> new Flow(from, to)).segments.add(new Segment(seq, payload, time));
+    }
+
+    private static String address(ByteBuffer frame, int offset, int length) {
+        StringBuilder address = new StringBuilder();
+        if (length == 4) {
+            for (int i = 0; i < 4; i++) {
+                address.append(i == 0 ? "" : ".").append(frame.get(offset + i) & 0xff);
+            }
+            return address.toString();
+        }
+        address.append('[');
+        for (int i = 0; i < length; i += 2) {
+            address.append(i == 0 ? "" : ":").append(Integer.toHexString(frame.getShort(offset + i) & 0xffff));
+        }
+        return address.append(']').toString();
+    }
+
+    /**
+     * Puts the segments of a flow back in sequence order, and returns the stream with, for each
+     * segment that added to it, the offset it ended at and its time.
+     */
+    private static byte[] reassemble(Flow flow, List<long[]> ends) throws IOException {
+        long earliest = flow.segments.get(0).seq;
+        for (Segment segment : flow.segments) {
+            if ((int) (segment.seq - earliest) < 0) {
+                earliest = segment.seq; // captured out of order
+            }
+        }
+        long first = earliest;
+        List<Segment> ordered = new ArrayList<>(flow.segments);
+        ordered.sort((a, b) -> Long.compare((a.seq - first) & 0xffffffffL, (b.seq - first) & 0xffffffffL));
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        long next = 0;
+        for (Segment segment : ordered) {
+            long start = (segment.seq - first) & 0xffffffffL;
+            if (start > next) {
+                throw new IOException("the capture misses " + (start - next) + " bytes from " + flow.from);
+            }
+            long skip = next - start;
+            if (skip >= segment.payload.length) {
+                continue; // a retransmission
+            }
+            stream.write(segment.payload, (int) skip, segment.payload.length - (int) skip);
+            next = start + segment.payload.length;
+            ends.add(new long[]{next, segment.time});
+        }
+        return stream.toByteArray();
+    }
+
+    private static boolean startsWithHandshake(byte[] stream) {
+        return stream.length >= HANDSHAKE.length && Arrays.equals(Arrays.copyOf(stream, HANDSHAKE.length), HANDSHAKE);
+    }
+
+    private void cutPackets(Path file) throws IOException {
+        Map<String, byte[]> streams = new HashMap<>();
+        Map<String, List<long[]>> ends = new HashMap<>();
+        Flow client = null;
+        for (Flow flow : flows.values()) {
+            Flow reverse = flows.get(flow.to + " " + flow.from);
+            if (reverse == null) {
+                continue;
+            }
+            List<long[]> flowEnds = new ArrayList<>();
+            byte[] stream = reassemble(flow, flowEnds);
+            if (!startsWithHandshake(stream)) {
+                continue;
+            }
+            streams.put(flow.from, stream);
+            ends.put(flow.from, flowEnds);
+            if (flow.firstTime() <= reverse.firstTime() && (client == null || flow.firstTime() < client.firstTime())) {
+                client = flow;
+            }
+        }
+        if (client == null || !streams.containsKey(client.to)) {
+            throw new IOException("no JDWP connection in " + file);
+        }
+        debugger = client.from;
+        debuggee = client.to;
+        List<Captured> fromDebugger = cut(true, streams.get(debugger), ends.get(debugger));
+        List<Captured> fromDebuggee = cut(false, streams.get(debuggee), ends.get(debuggee));
+
+        // merge the two sides by time, keeping the order within each
+        int i = 0;
+        int j = 0;
+        while (i < fromDebugger.size() || j < fromDebuggee.size()) {
+            if (j == fromDebuggee.size() || i < fromDebugger.size() && fromDebugger.get(i).time <= fromDebuggee.get(j).time) {
+                packets.add(fromDebugger.get(i++));
+            } else {
+                packets.add(fromDebuggee.get(j++));
+            }
+        }
+    }
+
+    private static List<Captured> cut(boolean fromDebugger, byte[] stream, List<long[]> ends) {
+        List<Captured> packets = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(stream);
+        int position = HANDSHAKE.length;
+        int segment = 0;
+        while (position + HEADER_SIZE <= stream.length) {
+            int length = buffer.getInt(position);
+            if (length < HEADER_SIZE || position + length > stream.length) {
+                break; // the capture ends in the middle of a packet
+            }
+            while (ends.get(segment)[0] < position + length) {
+                segment++;
+            }
+            ByteBuffer packet = buffer.duplicate();
+            packet.position(position + 4).limit(position + length);
+            packets.add(new Captured(fromDebugger, ends.get(segment)[1], packet));
+            position += length;
+        }
+        return packets;
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.ToLongFunction;
+
+/**
+ * Replays the debugger side of a captured JDWP session, such as tools/hellonested.pcapng, against a
+ * running server, and reports how its replies compare with the recorded ones:
+ * <pre>
+ *     java -cp target/benchmarks.jar jdwp.CaptureReplay session.pcapng [localhost:8082] [--timeout 10000]
+ * </pre>
+ * Without an address the recorded session is only summed up. The commands are sent one at a time,
+ * in the order they were captured, each once the reply to the previous one came in. Before a
+ * command that was sent after an event that suspended the target, the replay waits for a live
+ * event of the same kind. The IDs in the commands are those of the live server: they are learned
+ * by walking each recorded reply or event next to the live one, see {@link PacketLayouts}.
+ * <p>
+ * A reply is counted as mismatched when its error code differs from the recorded one, and as
+ * malformed when its data does not follow the layout of the command. The report gives, per
+ * command, the recorded and the live latencies, so that a session captured in the IDE can be
+ * replayed against one build of the server and the next.
+ */
+public class CaptureReplay {
+
+    private static final int MISMATCHES_SHOWN = 20;
+
+    /**
+     * How one command fared over the session.
+     */
+    static final class Result {
+        final LoadGenerator.Stats recorded;
+        final LoadGenerator.Stats live;
+        int mismatched = 0;
+        int malformed = 0;
+
+        Result(String name) {
+            this.recorded = new LoadGenerator.Stats(name);
+            this.live = new LoadGenerator.Stats(name);
+        }
+    }
+
+    private final Capture capture;
+    private final Map<Integer, Capture.Captured> replies = new HashMap<>();
+    private final Map<String, Result> results = new LinkedHashMap<>();
+    private final PacketLayouts.Ids ids = new PacketLayouts.Ids();
+    private final List<LoadGenerator.Reply> unmatchedEvents = new LinkedList<>();
+    private int mismatchesShown = 0;
+    private int missedEvents = 0;
+
+    CaptureReplay(Capture capture) {
+        this.capture = capture;
+        for (Capture.Captured packet : capture.packets()) {
+            if (packet.isReply() && !packet.fromDebugger) {
+                replies.put(packet.id, packet);
+            }
+        }
+    }
+
+    private Result result(Capture.Captured command) {
+        return results.computeIfAbsent(PacketLayouts.name(command.cmdSet, command.cmd), Result::new);
+    }
+
+    private static byte suspendPolicy(byte[] event) {
+        return event.length > 0 ? event[0] : JDWP.SuspendPolicy.NONE;
+    }
+
+    /**
+     * Returns the kind of the first event of a composite event packet, or -1.
+     */
+    private static int kind(byte[] event) {
+        return event.length > 5 ? event[5] : -1;
+    }
+
+    private static byte[] bytes(LoadGenerator.Reply reply) {
+        return reply.data.array();
+    }
+
+    /**
+     * Sums up the recorded session: the commands and their recorded latencies.
+     */
+    void summary() {
+        List<Capture.Captured> packets = capture.packets();
+        int events = 0;
+        for (Capture.Captured packet : packets) {
+            if (packet.isCommand()) {
+                Capture.Captured reply = replies.get(packet.id);
+                if (reply != null) {
+                    result(packet).recorded.add(reply.time - packet.time, reply.errorCode != 0);
+                }
+            } else if (packet.isEvent()) {
+                events++;
+            }
+        }
+        long elapsed = packets.isEmpty() ? 0 : packets.get(packets.size() - 1).time - packets.get(0).time;
+        System.out.printf("%s -> %s: %d packets, %d event packets, over %.1f s%n", capture.debugger(), capture.debuggee(),
+                packets.size(), events, elapsed / 1e9);
+        System.out.printf("%n%-45s %8s %7s %12s %12s %10s%n", "command", "count", "errors", "rec p50 ms", "rec p99 ms", "total ms");
+        for (Result result : sorted(r -> r.recorded.total())) {
+            LoadGenerator.Stats recorded = result.recorded;
+            System.out.printf("%-45s %8d %7d %12.3f %12.3f %10.1f%n", recorded.name, recorded.latencies.size(), recorded.errors,
+                    recorded.percentile(50), recorded.percentile(99), recorded.total() / 1e6);
+        }
+    }
+
+    private List<Result> sorted(ToLongFunction<Result> by) {
+        List<Result> all = new ArrayList<>(results.values());
+        all.sort((a, b) -> Long.compare(by.applyAsLong(b), by.applyAsLong(a)));
+        return all;
+    }
+
+    /**
+     * Plays the commands of the capture against the server behind the client.
+     */
+    void replay(LoadGenerator client, long timeout) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        for (Capture.Captured packet : capture.packets()) {
+            if (packet.isCommand()) {
+                command(client, packet);
+            } else if (packet.isEvent()) {
+                event(client, packet, timeout);
+            }
+        }
+        report(System.nanoTime() - start);
+    }
+
+    private void command(LoadGenerator client, Capture.Captured command) throws IOException {
+        Result result = result(command);
+        Capture.Captured recorded = replies.get(command.id);
+        if (recorded != null) {
+            result.recorded.add(recorded.time - command.time, recorded.errorCode != 0);
+        }
+        byte[] data = PacketLayouts.rewrite(command.cmdSet, command.cmd, command.data, ids);
+
+        long start = System.nanoTime();
+        LoadGenerator.Reply live = client.sendBytes(command.cmdSet, command.cmd, data);
+        long elapsed = System.nanoTime() - start;
+        if (live == null) {
+            synchronized (result.live) {
+                result.live.timeouts++;
+            }
+            return;
+        }
+        result.live.add(elapsed, !live.ok());
+        if (recorded == null) {
+            return; // the capture ended before the reply
+        }
+
+        String layout = PacketLayouts.replyLayout(command.cmdSet, command.cmd);
+        if (recorded.errorCode != live.errorCode) {
+            result.mismatched++;
+            if (mismatchesShown++ < MISMATCHES_SHOWN) {
+                System.out.printf("%s (id %d): error %d recorded, %d now%n", result.live.name, command.id,
+                        recorded.errorCode, live.errorCode);
+            }
+        } else if (live.ok() && layout != null) {
+            if (!PacketLayouts.wellFormed(layout, bytes(live), ids.liveSizes)) {
+                result.malformed++;
+                if (mismatchesShown++ < MISMATCHES_SHOWN) {
+                    System.out.printf("%s (id %d): %d bytes do not follow %s%n", result.live.name, command.id,
+                            bytes(live).length, layout);
+                }
+            } else if (command.cmdSet == 1 && command.cmd == 7) {
+                ids.sizes(recorded.data, bytes(live));
+            } else {
+                PacketLayouts.learn(layout, recorded.data, bytes(live), ids);
+            }
+        }
+    }
+
+    /**
+     * Pairs a recorded event with a live one. The replay waits for the events that suspended the
+     * target, since the debugger waited for them too; others are only paired with a live event of
+     * the same kind and strings that already came in.
+     */
+    private void event(LoadGenerator client, Capture.Captured recorded, long timeout) throws InterruptedException {
+        String layout = PacketLayouts.commandLayout(recorded.cmdSet, recorded.cmd);
+        for (LoadGenerator.Reply live = client.nextEvent(0); live != null; live = client.nextEvent(0)) {
+            unmatchedEvents.add(live);
+        }
+        if (suspendPolicy(recorded.data) == JDWP.SuspendPolicy.NONE) {
+            String strings = PacketLayouts.strings(layout, recorded.data, ids.recordedSizes);
+            for (Iterator<LoadGenerator.Reply> it = unmatchedEvents.iterator(); it.hasNext(); ) {
+                byte[] live = bytes(it.next());
+                if (suspendPolicy(live) == JDWP.SuspendPolicy.NONE && kind(live) == kind(recorded.data)
+                        && Objects.equals(strings, PacketLayouts.strings(layout, live, ids.liveSizes))) {
+                    it.remove();
+                    PacketLayouts.learn(layout, recorded.data, live, ids);
+                    return;
+                }
+            }
+            return;
+        }
+
+        for (Iterator<LoadGenerator.Reply> it = unmatchedEvents.iterator(); it.hasNext(); ) {
+            byte[] live = bytes(it.next());
+            if (suspendPolicy(live) != JDWP.SuspendPolicy.NONE && kind(live) == kind(recorded.data)) {
+                it.remove();
+                PacketLayouts.learn(layout, recorded.data, live, ids);
+                return;
+            }
+        }
+        long deadline = System.nanoTime() + timeout * 1_000_000;
+        for (long left = timeout; left > 0; left = (deadline - System.nanoTime()) / 1_000_000) {
+            LoadGenerator.Reply next = client.nextEvent(left);
+            if (next == null) {
+                break;
+            }
+            byte[] live = bytes(next);
+            if (suspendPolicy(live) != JDWP.SuspendPolicy.NONE && kind(live) == kind(recorded.data)) {
+                PacketLayouts.learn(layout, recorded.data, live, ids);
+                return;
+            }
+            unmatchedEvents.add(next);
+        }
+        missedEvents++;
+    }
+
+    private void report(long elapsed) {
+        int commands = 0;
+        int mismatched = 0;
+        int malformed = 0;
+        System.out.printf("%n%-45s %8s %7s %9s %9s %12s %12s %12s%n", "command", "count", "errors", "mismatch", "timeouts",
+                "rec p50 ms", "p50 ms", "p99 ms");
+        for (Result result : sorted(r -> r.live.total())) {
+            LoadGenerator.Stats live = result.live;
+            commands += live.latencies.size();
+            mismatched += result.mismatched + result.malformed;
+            malformed += result.malformed;
+            System.out.printf("%-45s %8d %7d %9d %9d %12.3f %12.3f %12.3f%n", live.name, live.latencies.size(), live.errors,
+                    result.mismatched + result.malformed, live.timeouts, result.recorded.percentile(50),
+                    live.percentile(50), live.percentile(99));
+        }
+        System.out.printf("%n%d commands in %.1f s: %.0f commands/s%n", commands, elapsed / 1e9, commands / (elapsed / 1e9));
+        System.out.printf("%d replies differ from the recording (%d malformed), %d suspending events not seen, "
+                + "%d IDs sent as recorded for want of a live one%n", mismatched, malformed, missedEvents, ids.unmapped);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: CaptureReplay <capture.pcapng> [host:port] [--timeout 10000]");
+            System.exit(2);
+        }
+        String address = null;
+        long timeout = 10000;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--timeout") && i + 1 < args.length) {
+                timeout = Long.parseLong(args[++i]);
+            } else if (args[i].contains(":")) {
+                address = args[i];
+            } else {
+                throw new IllegalArgumentException(args[i]);
+            }
+        }
+        CaptureReplay replay = new CaptureReplay(Capture.read(Paths.get(args[0])));
+        if (address == null) {
+            replay.summary();
+            return;
+        }
+        String host = address.substring(0, address.lastIndexOf(':'));
+        int port = Integer.parseInt(address.substring(address.lastIndexOf(':') + 1));
+        LoadGenerator client = new LoadGenerator(host, port, timeout);
+        try {
+            replay.replay(client, timeout);
+        } finally {
+            client.close();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two runs of the benchmarks saved with "-rf csv -rff file.csv" and exits with 1 if any
+ * benchmark got slower than the allowed percentage, default 10:
+ * <pre>
+ *     java -cp target/benchmarks.jar jdwp.CompareResults baseline.csv current.csv [percent]
+ * </pre>
+ * A change within the error margins of both runs is not counted as a regression.
+ */
+public class CompareResults {
+
+    /**
+     * One line of a JMH CSV result file.
+     */
+    static final class Result {
+        final String mode;
+        final double score;
+        final double error;
+        final String unit;
+
+        Result(String mode, double score, double error, String unit) {
+            this.mode = mode;
+            this.score = score;
+            this.error = error;
+            this.unit = unit;
+        }
+
+        /**
+         * Throughput modes are better when higher, time modes when lower.
+         */
+        boolean higherIsBetter() {
+            return mode.equals("thrpt");
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CompareResults <baseline.csv> <current.csv> [percent]");
+            System.exit(2);
+        }
+        double percent = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        Map<String, Result> baseline = read(args[0]);
+        Map<String, Result> current = read(args[1]);
+
+        int regressions = 0;
+        for (Map.Entry<String, Result> entry : current.entrySet()) {
+            Result before = baseline.get(entry.getKey());
+            if (before == null) {
+                System.out.printf("%-80s %12s -> %12.3f %s  new%n", entry.getKey(), "", entry.getValue().score, entry.getValue().unit);
+                continue;
+            }
+            Result after = entry.getValue();
+            double change = (after.score - before.score) / before.score * 100;
+            boolean regression = isRegression(before, after, percent);
+            if (regression) {
+                regressions++;
+            }
+            System.out.printf("%-80s %12.3f -> %12.3f %s %+7.1f%%%s%n", entry.getKey(), before.score, after.score,
+                    after.unit, change, regression ? "  REGRESSION" : "");
+        }
+        System.exit(regressions == 0 ? 0 : 1);
+    }
+
+    /**
+     * Returns whether the current result is worse than the baseline by more than the given
+     * percentage, and by more than the two error margins together.
+     */
+    static boolean isRegression(Result before, Result after, double percent) {
+        double worse = before.higherIsBetter() ? before.score - after.score : after.score - before.score;
+        if (worse <= before.score * percent / 100) {
+            return false;
+        }
+        double margin = (Double.isNaN(before.error) ? 0 : before.error) + (Double.isNaN(after.error) ? 0 : after.error);
+        return worse > margin;
+    }
+
+    /**
+     * Reads the results of a CSV file, keyed by benchmark name and parameters.
+     */
+    static Map<String, Result> read(String file) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+        Map<String, Result> results = new LinkedHashMap<>();
+        if (lines.isEmpty()) {
+            return results;
+        }
+        List<String> header = split(lines.get(0));
+        int mode = header.indexOf("Mode");
+        int score = header.indexOf("Score");
+        int error = header.indexOf("Score Error (99.9%)");
+        int unit = header.indexOf("Unit");
+        for (String line : lines.subList(1, lines.size())) {
+            List<String> fields = split(line);
+            if (fields.size() != header.size()) {
+                continue;
+            }
+            StringBuilder key = new StringBuilder(fields.get(0));
+            for (int i = unit + 1; i < fields.size(); i++) {
+                if (!fields.get(i).isEmpty()) {
+                    key.append(' ').append(header.get(i).replace("Param: ", "")).append('=').append(fields.get(i));
+                }
+            }
+            results.put(key.toString(), new Result(fields.get(mode), number(fields.get(score)),
+                    number(fields.get(error)), fields.get(unit)));
+        }
+        return results;
+    }
+
+    private static double number(String field) {
+        try {
+            return Double.parseDouble(field.replace(',', '.'));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Splits a CSV line, removing the quotes around the fields.
+     */
+    static List<String> split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
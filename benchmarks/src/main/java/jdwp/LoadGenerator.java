@@ -0,0 +1,671 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives a running server the way an IDE does, and reports how fast it answered:
+ * <pre>
+ *     java -cp target/benchmarks.jar jdwp.LoadGenerator localhost:8082 [--breakpoints 200] [--steps 1000]
+ *         [--expand 3] [--timeout 10000]
+ * </pre>
+ * The session attaches (Version, IDSizes, CapabilitiesNew, AllClassesWithGeneric, AllThreads), sets
+ * breakpoints on the first lines of the methods of the first classes, resumes to the first hit,
+ * then steps over line by line. After every stop it refreshes the Frames view and expands the
+ * variables of the top frame, and the fields of up to --expand of the objects among them, as the
+ * Variables view does.
+ * <p>
+ * Every command is timed from the moment it is written to the moment its reply is read. The
+ * report gives commands per second over the session and, per command, the count, the errors and
+ * the 50th and 99th percentiles of the latency. Commands that get an error reply are counted but
+ * the session goes on, so it can also be run against the replay backend, where the commands that
+ * need the target VM fail.
+ */
+public class LoadGenerator {
+
+    private static final byte[] HANDSHAKE = "JDWP-Handshake".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_SIZE = 11;
+    private static final byte REPLY = (byte) 0x80;
+
+    private static final Map<Integer, String> NAMES = new HashMap<>();
+
+    static {
+        name(1, 1, "VirtualMachine.Version");
+        name(1, 4, "VirtualMachine.AllThreads");
+        name(1, 6, "VirtualMachine.Dispose");
+        name(1, 7, "VirtualMachine.IDSizes");
+        name(1, 9, "VirtualMachine.Resume");
+        name(1, 17, "VirtualMachine.CapabilitiesNew");
+        name(1, 20, "VirtualMachine.AllClassesWithGeneric");
+        name(2, 14, "ReferenceType.FieldsWithGeneric");
+        name(2, 15, "ReferenceType.MethodsWithGeneric");
+        name(6, 1, "Method.LineTable");
+        name(6, 5, "Method.VariableTableWithGeneric");
+        name(9, 1, "ObjectReference.ReferenceType");
+        name(9, 2, "ObjectReference.GetValues");
+        name(10, 1, "StringReference.Value");
+        name(11, 6, "ThreadReference.Frames");
+        name(15, 1, "EventRequest.Set");
+        name(15, 2, "EventRequest.Clear");
+        name(15, 3, "EventRequest.ClearAllBreakpoints");
+        name(16, 1, "StackFrame.GetValues");
+    }
+
+    private static void name(int cmdSet, int cmd, String name) {
+        NAMES.put(cmdSet << 8 | cmd, name);
+    }
+
+    /**
+     * A reply, or an event packet.
+     */
+    static final class Reply {
+        final short errorCode;
+        final ByteBuffer data;
+
+        Reply(short errorCode, ByteBuffer data) {
+            this.errorCode = errorCode;
+            this.data = data;
+        }
+
+        boolean ok() {
+            return errorCode == 0;
+        }
+    }
+
+    /**
+     * The latencies of one command, in nanoseconds.
+     */
+    static final class Stats {
+        final String name;
+        final List<Long> latencies = new ArrayList<>();
+        int errors = 0;
+        int timeouts = 0;
+
+        Stats(String name) {
+            this.name = name;
+        }
+
+        synchronized void add(long nanos, boolean error) {
+            latencies.add(nanos);
+            if (error) {
+                errors++;
+            }
+        }
+
+        synchronized long total() {
+            long total = 0;
+            for (long latency : latencies) {
+                total += latency;
+            }
+            return total;
+        }
+
+        /**
+         * Returns the given percentile of the latencies, in milliseconds.
+         */
+        synchronized double percentile(double p) {
+            if (latencies.isEmpty()) {
+                return 0;
+            }
+            List<Long> sorted = new ArrayList<>(latencies);
+            Collections.sort(sorted);
+            int index = (int) Math.ceil(p / 100 * sorted.size()) - 1;
+            return sorted.get(Math.max(index, 0)) / 1e6;
+        }
+    }
+
+    /**
+     * The data of a command packet.
+     */
+    final class Data {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        Data writeByte(int b) throws IOException {
+            out.writeByte(b);
+            return this;
+        }
+
+        Data writeInt(int i) throws IOException {
+            out.writeInt(i);
+            return this;
+        }
+
+        Data writeLong(long l) throws IOException {
+            out.writeLong(l);
+            return this;
+        }
+
+        Data writeID(int size, long id) throws IOException {
+            switch (size) {
+                case 8:
+                    out.writeLong(id);
+                    break;
+                case 4:
+                    out.writeInt((int) id);
+                    break;
+                default:
+                    out.writeShort((short) id);
+            }
+            return this;
+        }
+
+        Data writeObject(long id) throws IOException {
+            return writeID(objectIdSize, id);
+        }
+
+        Data writeType(long id) throws IOException {
+            return writeID(referenceTypeIdSize, id);
+        }
+
+        Data writeMethod(long id) throws IOException {
+            return writeID(methodIdSize, id);
+        }
+
+        Data writeLocation(Location location) throws IOException {
+            writeByte(location.tag).writeType(location.typeId).writeMethod(location.methodId);
+            return writeLong(location.index);
+        }
+    }
+
+    /**
+     * A code location, as JDWP writes it.
+     */
+    static final class Location {
+        final byte tag;
+        final long typeId;
+        final long methodId;
+        final long index;
+
+        Location(byte tag, long typeId, long methodId, long index) {
+            this.tag = tag;
+            this.typeId = typeId;
+            this.methodId = methodId;
+            this.index = index;
+        }
+    }
+
+    private final Socket socket;
+    private final DataOutputStream out;
+    private final DataInputStream in;
+    private final long timeout;
+    private final AtomicInteger ids = new AtomicInteger();
+    private final Map<Integer, CompletableFuture<Reply>> pending = new ConcurrentHashMap<>();
+    private final BlockingQueue<Reply> events = new LinkedBlockingQueue<>();
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+
+    private int fieldIdSize = 8;
+    private int methodIdSize = 8;
+    private int objectIdSize = 8;
+    private int referenceTypeIdSize = 8;
+    private int frameIdSize = 8;
+
+    LoadGenerator(String host, int port, long timeout) throws IOException {
+        this.socket = new Socket(host, port);
+        this.socket.setTcpNoDelay(true);
+        this.out = new DataOutputStream(socket.getOutputStream());
+        this.in = new DataInputStream(socket.getInputStream());
+        this.timeout = timeout;
+
+        out.write(HANDSHAKE);
+        out.flush();
+        byte[] answer = new byte[HANDSHAKE.length];
+        in.readFully(answer);
+        Thread reader = new Thread(this::read, "JDWP Load Reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void read() {
+        try {
+            while (true) {
+                int length = in.readInt();
+                int id = in.readInt();
+                byte flags = in.readByte();
+                short errorCode;
+                if ((flags & REPLY) != 0) {
+                    errorCode = in.readShort();
+                } else {
+                    in.readByte(); // command set
+                    in.readByte(); // command
+                    errorCode = 0;
+                }
+                byte[] data = new byte[length - HEADER_SIZE];
+                in.readFully(data);
+                Reply reply = new Reply(errorCode, ByteBuffer.wrap(data));
+                if ((flags & REPLY) != 0) {
+                    CompletableFuture<Reply> future = pending.remove(id);
+                    if (future != null) {
+                        future.complete(reply);
+                    }
+                } else {
+                    events.add(reply);
+                }
+            }
+        } catch (IOException e) {
+            pending.values().forEach(future -> future.completeExceptionally(e));
+        }
+    }
+
+    Data data() {
+        return new Data();
+    }
+
+    /**
+     * Sends a command and waits for its reply; returns null if none came in time.
+     */
+    Reply send(int cmdSet, int cmd, Data data) throws IOException {
+        return sendBytes(cmdSet, cmd, data == null ? new byte[0] : data.bytes.toByteArray());
+    }
+
+    /**
+     * Sends a command with the given data and waits for its reply; returns null if none came in
+     * time.
+     */
+    Reply sendBytes(int cmdSet, int cmd, byte[] bytes) throws IOException {
+        int id = ids.incrementAndGet();
+        CompletableFuture<Reply> future = new CompletableFuture<>();
+        pending.put(id, future);
+        String name = NAMES.getOrDefault(cmdSet << 8 | cmd, cmdSet + "." + cmd);
+        Stats stats = this.stats.computeIfAbsent(name, Stats::new);
+
+        long start = System.nanoTime();
+        synchronized (out) {
+            out.writeInt(HEADER_SIZE + bytes.length);
+            out.writeInt(id);
+            out.writeByte(0);
+            out.writeByte(cmdSet);
+            out.writeByte(cmd);
+            out.write(bytes);
+            out.flush();
+        }
+        try {
+            Reply reply = future.get(timeout, TimeUnit.MILLISECONDS);
+            stats.add(System.nanoTime() - start, !reply.ok());
+            return reply;
+        } catch (TimeoutException e) {
+            pending.remove(id);
+            synchronized (stats) {
+                stats.timeouts++;
+            }
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Waits for the next event packet and returns the thread of its first event, or 0 if none
+     * came in time or it has no thread.
+     */
+    long awaitEvent() throws InterruptedException {
+        Reply event = nextEvent(timeout);
+        if (event == null) {
+            return 0;
+        }
+        ByteBuffer data = event.data;
+        data.get(); // suspend policy
+        if (data.getInt() == 0) {
+            return 0;
+        }
+        byte kind = data.get();
+        data.getInt(); // request ID
+        return kind == JDWP.EventKind.VM_DEATH ? 0 : readID(data, objectIdSize);
+    }
+
+    /**
+     * Returns the next event packet, waiting up to the given milliseconds for it, or null.
+     */
+    Reply nextEvent(long millis) throws InterruptedException {
+        return events.poll(millis, TimeUnit.MILLISECONDS);
+    }
+
+    private static long readID(ByteBuffer data, int size) {
+        switch (size) {
+            case 8:
+                return data.getLong();
+            case 4:
+                return data.getInt();
+            default:
+                return data.getShort();
+        }
+    }
+
+    private static String readString(ByteBuffer data) {
+        byte[] bytes = new byte[data.getInt()];
+        data.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Skips a value of the given tag.
+     */
+    private long readValue(ByteBuffer data, byte tag) {
+        switch (tag) {
+            case JDWP.Tag.BYTE:
+            case JDWP.Tag.BOOLEAN:
+                return data.get();
+            case JDWP.Tag.CHAR:
+            case JDWP.Tag.SHORT:
+                return data.getShort();
+            case JDWP.Tag.INT:
+            case JDWP.Tag.FLOAT:
+                return data.getInt();
+            case JDWP.Tag.LONG:
+            case JDWP.Tag.DOUBLE:
+                return data.getLong();
+            case JDWP.Tag.VOID:
+                return 0;
+            default:
+                return readID(data, objectIdSize);
+        }
+    }
+
+    // The session
+
+    /**
+     * Attaches as an IDE does, and returns the classes of the target with their type tags.
+     */
+    Map<Long, Byte> attach() throws IOException {
+        send(1, 1, null);
+        Reply sizes = send(1, 7, null);
+        if (sizes != null && sizes.ok()) {
+            fieldIdSize = sizes.data.getInt();
+            methodIdSize = sizes.data.getInt();
+            objectIdSize = sizes.data.getInt();
+            referenceTypeIdSize = sizes.data.getInt();
+            frameIdSize = sizes.data.getInt();
+        }
+        send(1, 17, null);
+        Map<Long, Byte> classes = new LinkedHashMap<>();
+        Reply all = send(1, 20, null);
+        if (all != null && all.ok()) {
+            for (int i = all.data.getInt(); i > 0; i--) {
+                byte tag = all.data.get();
+                long id = readID(all.data, referenceTypeIdSize);
+                readString(all.data); // signature
+                readString(all.data); // generic signature
+                all.data.getInt(); // status
+                classes.put(id, tag);
+            }
+        }
+        send(1, 4, null);
+        return classes;
+    }
+
+    /**
+     * Returns up to count locations: the first line of the methods of the first classes.
+     */
+    List<Location> locations(Map<Long, Byte> classes, int count) throws IOException {
+        List<Location> locations = new ArrayList<>();
+        for (Map.Entry<Long, Byte> cls : classes.entrySet()) {
+            Reply methods = send(2, 15, data().writeType(cls.getKey()));
+            if (methods == null || !methods.ok()) {
+                continue;
+            }
+            List<Long> methodIds = new ArrayList<>();
+            for (int i = methods.data.getInt(); i > 0; i--) {
+                methodIds.add(readID(methods.data, methodIdSize));
+                readString(methods.data); // name
+                readString(methods.data); // signature
+                readString(methods.data); // generic signature
+                methods.data.getInt(); // modifiers
+            }
+            for (long methodId : methodIds) {
+                Reply lines = send(6, 1, data().writeType(cls.getKey()).writeMethod(methodId));
+                if (lines == null || !lines.ok()) {
+                    continue;
+                }
+                lines.data.getLong(); // start
+                lines.data.getLong(); // end
+                if (lines.data.getInt() > 0) {
+                    locations.add(new Location(cls.getValue(), cls.getKey(), methodId, lines.data.getLong()));
+                    if (locations.size() == count) {
+                        return locations;
+                    }
+                }
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * Sets a breakpoint on each of the given number of locations, using the given ones in turn.
+     */
+    void setBreakpoints(List<Location> locations, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            Location location = locations.isEmpty() ? new Location(JDWP.TypeTag.CLASS, 0, 0, 0) : locations.get(i % locations.size());
+            send(15, 1, data().writeByte(JDWP.EventKind.BREAKPOINT).writeByte(JDWP.SuspendPolicy.ALL).writeInt(1)
+                    .writeByte(JDWP.ModKind.LOCATION_ONLY).writeLocation(location));
+        }
+    }
+
+    /**
+     * Steps over one line of the given thread; returns the thread that stopped, or 0.
+     */
+    long step(long thread) throws IOException, InterruptedException {
+        Reply request = send(15, 1, data().writeByte(JDWP.EventKind.SINGLE_STEP).writeByte(JDWP.SuspendPolicy.ALL).writeInt(2)
+                .writeByte(JDWP.ModKind.STEP).writeObject(thread).writeInt(JDWP.StepSize.LINE).writeInt(JDWP.StepDepth.OVER)
+                .writeByte(JDWP.ModKind.COUNT).writeInt(1));
+        send(1, 9, null);
+        long stopped = awaitEvent();
+        if (request != null && request.ok()) {
+            send(15, 2, data().writeByte(JDWP.EventKind.SINGLE_STEP).writeInt(request.data.getInt()));
+        }
+        return stopped;
+    }
+
+    /**
+     * Refreshes the views after a stop: the frames of the thread, the variables of the top frame,
+     * and the fields of up to the given number of objects among them.
+     */
+    void refresh(long thread, int expand) throws IOException {
+        Reply frames = send(11, 6, data().writeObject(thread).writeInt(0).writeInt(-1));
+        if (frames == null || !frames.ok() || frames.data.getInt() == 0) {
+            return;
+        }
+        long frame = readID(frames.data, frameIdSize);
+        byte tag = frames.data.get();
+        long type = readID(frames.data, referenceTypeIdSize);
+        long method = readID(frames.data, methodIdSize);
+        long index = frames.data.getLong();
+
+        Reply table = send(6, 5, data().writeType(type).writeMethod(method));
+        if (table == null || !table.ok()) {
+            return;
+        }
+        table.data.getInt(); // argument count
+        List<Integer> slots = new ArrayList<>();
+        List<Byte> tags = new ArrayList<>();
+        for (int i = table.data.getInt(); i > 0; i--) {
+            long start = table.data.getLong();
+            readString(table.data); // name
+            String signature = readString(table.data);
+            readString(table.data); // generic signature
+            int length = table.data.getInt();
+            int slot = table.data.getInt();
+            if (start <= index && index < start + length) {
+                slots.add(slot);
+                tags.add((byte) signature.charAt(0));
+            }
+        }
+        Data request = data().writeObject(thread).writeID(frameIdSize, frame).writeInt(slots.size());
+        for (int i = 0; i < slots.size(); i++) {
+            request.writeInt(slots.get(i)).writeByte(tags.get(i));
+        }
+        Reply values = send(16, 1, request);
+        if (values == null || !values.ok()) {
+            return;
+        }
+        int expanded = 0;
+        for (int i = values.data.getInt(); i > 0; i--) {
+            byte valueTag = values.data.get();
+            long value = readValue(values.data, valueTag);
+            if (value == 0 || expanded == expand) {
+                continue;
+            }
+            if (valueTag == JDWP.Tag.STRING) {
+                send(10, 1, data().writeObject(value));
+                expanded++;
+            } else if (valueTag == JDWP.Tag.OBJECT) {
+                expand(value);
+                expanded++;
+            }
+        }
+    }
+
+    private void expand(long object) throws IOException {
+        Reply type = send(9, 1, data().writeObject(object));
+        if (type == null || !type.ok()) {
+            return;
+        }
+        type.data.get(); // type tag
+        Reply fields = send(2, 14, data().writeType(readID(type.data, referenceTypeIdSize)));
+        if (fields == null || !fields.ok()) {
+            return;
+        }
+        List<Long> instanceFields = new ArrayList<>();
+        for (int i = fields.data.getInt(); i > 0; i--) {
+            long field = readID(fields.data, fieldIdSize);
+            readString(fields.data); // name
+            readString(fields.data); // signature
+            readString(fields.data); // generic signature
+            if ((fields.data.getInt() & 0x8) == 0) { // not static
+                instanceFields.add(field);
+            }
+        }
+        Data request = data().writeObject(object).writeInt(instanceFields.size());
+        for (long field : instanceFields) {
+            request.writeID(fieldIdSize, field);
+        }
+        send(9, 2, request);
+    }
+
+    /**
+     * Runs the whole session and prints the report.
+     */
+    void run(int breakpoints, int steps, int expand) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        long thread = awaitEvent(); // VM_START
+
+        long phase = System.nanoTime();
+        Map<Long, Byte> classes = attach();
+        System.out.printf("attach: %d classes in %.1f ms%n", classes.size(), (System.nanoTime() - phase) / 1e6);
+
+        phase = System.nanoTime();
+        List<Location> locations = locations(classes, breakpoints);
+        setBreakpoints(locations, breakpoints);
+        System.out.printf("breakpoints: %d on %d distinct locations in %.1f ms%n", breakpoints, locations.size(),
+                (System.nanoTime() - phase) / 1e6);
+
+        phase = System.nanoTime();
+        send(1, 9, null);
+        long stopped = awaitEvent();
+        if (stopped != 0) {
+            thread = stopped;
+        }
+        refresh(thread, expand);
+        int missed = 0;
+        for (int i = 0; i < steps; i++) {
+            stopped = step(thread);
+            if (stopped == 0) {
+                missed++;
+            } else {
+                thread = stopped;
+            }
+            refresh(thread, expand);
+        }
+        System.out.printf("steps: %d, %d without a step event, in %.1f ms%n", steps, missed, (System.nanoTime() - phase) / 1e6);
+
+        send(15, 3, null);
+        send(1, 6, null);
+        report(System.nanoTime() - start);
+    }
+
+    private void report(long elapsed) {
+        List<Stats> all = new ArrayList<>(stats.values());
+        all.sort((a, b) -> Long.compare(b.total(), a.total()));
+        int commands = 0;
+        System.out.printf("%n%-40s %8s %7s %9s %10s %10s %10s%n", "command", "count", "errors", "timeouts", "p50 ms", "p99 ms", "total ms");
+        for (Stats command : all) {
+            commands += command.latencies.size();
+            System.out.printf("%-40s %8d %7d %9d %10.3f %10.3f %10.1f%n", command.name, command.latencies.size(), command.errors,
+                    command.timeouts, command.percentile(50), command.percentile(99), command.total() / 1e6);
+        }
+        System.out.printf("%n%d commands in %.1f s: %.0f commands/s%n", commands, elapsed / 1e9, commands / (elapsed / 1e9));
+    }
+
+    void close() throws IOException {
+        socket.close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || !args[0].contains(":")) {
+            System.err.println("Usage: LoadGenerator <host:port> [--breakpoints 200] [--steps 1000] [--expand 3] [--timeout 10000]");
+            System.exit(2);
+        }
+        int breakpoints = 200;
+        int steps = 1000;
+        int expand = 3;
+        long timeout = 10000;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--breakpoints":
+                    breakpoints = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--steps":
+                    steps = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--expand":
+                    expand = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--timeout":
+                    timeout = Long.parseLong(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException(args[i]);
+            }
+        }
+        String host = args[0].substring(0, args[0].lastIndexOf(':'));
+        int port = Integer.parseInt(args[0].substring(args[0].lastIndexOf(':') + 1));
+        LoadGenerator generator = new LoadGenerator(host, port, timeout);
+        try {
+            generator.run(breakpoints, steps, expand);
+        } finally {
+            generator.close();
+        }
+    }
+}
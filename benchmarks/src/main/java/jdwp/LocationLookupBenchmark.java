@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import jdwp.jdi.FunctionIndex;
+import jdwp.jdi.LineTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves the frames of one stop the way Frames does, before and after the function index.
+ *
+ * The method population is shaped like a Quarkus image: methods spread over packages and classes,
+ * with a handful of lines each. A stop has 40 frames; "full" frames come with parameter types,
+ * "partial" ones only with class and method name, which used to fall back to a scan of all methods.
+ * Locations are stood in for by strings, as real ones need a target VM.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocationLookupBenchmark {
+
+    private static final int FRAMES = 40;
+
+    @Param({ "5000", "50000" })
+    public int methodCount;
+
+    /** What MethodImpl.methods and the line mappers used to be. */
+    private Map<String, Map<Integer, List<String>>> methods;
+    /** What they are now. */
+    private FunctionIndex<LineTable<String>> index;
+
+    private String[] fullFrames;
+    private String[] partialFrames;
+    private int[] lines;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        methods = new HashMap<>();
+        index = new FunctionIndex<>();
+        List<String> gdbNames = new ArrayList<>();
+        List<Integer> firstLines = new ArrayList<>();
+        for (int i = 0; i < methodCount; i++) {
+            String pkg = "io/quarkus/runtime/p" + (i % 50);
+            String cls = "Generated" + (i % 2000) + "_Bean";
+            String method = "method" + i;
+            String signature = pkg + "/" + cls + "::" + method + "(Ljava/lang/String;I)";
+
+            Map<Integer, List<String>> lineMapper = new HashMap<>();
+            int firstLine = 10 + random.nextInt(500);
+            for (int line = firstLine; line < firstLine + 8; line++) {
+                lineMapper.put(line, Collections.singletonList(signature + ":" + line));
+            }
+            methods.put(signature, lineMapper);
+            index.put(signature, new LineTable<>(lineMapper));
+
+            gdbNames.add(pkg.replace('/', '.') + "." + cls + "::" + method + "(java.lang.String *, int)");
+            firstLines.add(firstLine);
+        }
+
+        fullFrames = new String[FRAMES];
+        partialFrames = new String[FRAMES];
+        lines = new int[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            int m = random.nextInt(methodCount);
+            fullFrames[i] = gdbNames.get(m);
+            partialFrames[i] = "Generated" + (m % 2000) + "_Bean::method" + m;
+            lines[i] = firstLines.get(m) + 3;
+        }
+    }
+
+    @Benchmark
+    public void normalizeUncached(Blackhole bh) {
+        for (String frame : fullFrames) {
+            bh.consume(Translator.doNormalizeFunc(frame));
+        }
+    }
+
+    @Benchmark
+    public void normalizeCached(Blackhole bh) {
+        for (String frame : fullFrames) {
+            bh.consume(Translator.normalizeFunc(frame));
+        }
+    }
+
+    @Benchmark
+    public void fullScan(Blackhole bh) {
+        for (int i = 0; i < FRAMES; i++) {
+            Map<Integer, List<String>> lineMapper = methods.get(Translator.doNormalizeFunc(fullFrames[i]));
+            List<String> list = lineMapper == null ? null : lineMapper.get(lines[i]);
+            bh.consume(list == null || list.isEmpty() ? null : list.get(0));
+        }
+    }
+
+    @Benchmark
+    public void fullIndex(Blackhole bh) {
+        for (int i = 0; i < FRAMES; i++) {
+            LineTable<String> table = index.get(Translator.normalizeFunc(fullFrames[i]));
+            bh.consume(table == null ? null : table.first(lines[i]));
+        }
+    }
+
+    @Benchmark
+    public void partialScan(Blackhole bh) {
+        for (int i = 0; i < FRAMES; i++) {
+            bh.consume(scan(partialFrames[i], lines[i]));
+        }
+    }
+
+    private String scan(String name, int line) {
+        for (String key : methods.keySet()) {
+            if (key.contains(name)) {
+                List<String> list = methods.get(key).get(line);
+                if (list != null && list.size() >= 1) {
+                    return list.get(0);
+                }
+            }
+        }
+        return null;
+    }
+
+    @Benchmark
+    public void partialIndex(Blackhole bh) {
+        for (int i = 0; i < FRAMES; i++) {
+            String location = null;
+            for (LineTable<String> table : index.withName(partialFrames[i])) {
+                location = table.first(lines[i]);
+                if (location != null) {
+                    break;
+                }
+            }
+            bh.consume(location);
+        }
+    }
+}
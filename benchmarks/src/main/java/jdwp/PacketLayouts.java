@@ -0,0 +1,694 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * The layouts of the data of JDWP commands, replies and events, written in one letter per field,
+ * used to check the shape of replies and to carry the IDs of a recorded session over to a live one:
+ * <pre>
+ *     b byte       i int       l long      s string      T type tag
+ *     o object     r type      m method    f field       F frame
+ *     q request ID             L location (T r m l)      v tagged value
+ *     A array region           e event     k event request modifier
+ *     (...) an int count and that many items, paired by position
+ *     {...} an int count and that many items, paired by the strings in them
+ *     *     the rest, not interpreted
+ * </pre>
+ * Learning walks a recorded reply and the live reply to the same command side by side, and maps
+ * every ID of the one to the ID at the same place in the other. Rewriting walks the data of a
+ * recorded command and replaces the IDs found in it with the live ones learned so far.
+ */
+class PacketLayouts {
+
+    private static final Map<Integer, String[]> LAYOUTS = new HashMap<>();
+    private static final Map<Integer, String> EVENTS = new HashMap<>();
+    private static final Map<Integer, String> MODIFIERS = new HashMap<>();
+
+    static {
+        define(1, 1, "VirtualMachine.Version", "", "siiss");
+        define(1, 2, "VirtualMachine.ClassesBySignature", "s", "(Tri)");
+        define(1, 3, "VirtualMachine.AllClasses", "", "{Trsi}");
+        define(1, 4, "VirtualMachine.AllThreads", "", "(o)");
+        define(1, 5, "VirtualMachine.TopLevelThreadGroups", "", "(o)");
+        define(1, 6, "VirtualMachine.Dispose", "", "");
+        define(1, 7, "VirtualMachine.IDSizes", "", "iiiii");
+        define(1, 8, "VirtualMachine.Suspend", "", "");
+        define(1, 9, "VirtualMachine.Resume", "", "");
+        define(1, 10, "VirtualMachine.Exit", "i", "");
+        define(1, 11, "VirtualMachine.CreateString", "s", "o");
+        define(1, 12, "VirtualMachine.Capabilities", "", "*");
+        define(1, 13, "VirtualMachine.ClassPaths", "", "s(s)(s)");
+        define(1, 14, "VirtualMachine.DisposeObjects", "(oi)", "");
+        define(1, 15, "VirtualMachine.HoldEvents", "", "");
+        define(1, 16, "VirtualMachine.ReleaseEvents", "", "");
+        define(1, 17, "VirtualMachine.CapabilitiesNew", "", "*");
+        define(1, 18, "VirtualMachine.RedefineClasses", "(r(b))", "");
+        define(1, 19, "VirtualMachine.SetDefaultStratum", "s", "");
+        define(1, 20, "VirtualMachine.AllClassesWithGeneric", "", "{Trssi}");
+        define(1, 21, "VirtualMachine.InstanceCounts", "(r)", "(l)");
+        define(1, 22, "VirtualMachine.AllModules", "", "(o)");
+
+        define(2, 1, "ReferenceType.Signature", "r", "s");
+        define(2, 2, "ReferenceType.ClassLoader", "r", "o");
+        define(2, 3, "ReferenceType.Modifiers", "r", "i");
+        define(2, 4, "ReferenceType.Fields", "r", "{fssi}");
+        define(2, 5, "ReferenceType.Methods", "r", "{mssi}");
+        define(2, 6, "ReferenceType.GetValues", "r(f)", "(v)");
+        define(2, 7, "ReferenceType.SourceFile", "r", "s");
+        define(2, 8, "ReferenceType.NestedTypes", "r", "(Tr)");
+        define(2, 9, "ReferenceType.Status", "r", "i");
+        define(2, 10, "ReferenceType.Interfaces", "r", "(r)");
+        define(2, 11, "ReferenceType.ClassObject", "r", "o");
+        define(2, 12, "ReferenceType.SourceDebugExtension", "r", "s");
+        define(2, 13, "ReferenceType.SignatureWithGeneric", "r", "ss");
+        define(2, 14, "ReferenceType.FieldsWithGeneric", "r", "{fsssi}");
+        define(2, 15, "ReferenceType.MethodsWithGeneric", "r", "{msssi}");
+        define(2, 16, "ReferenceType.Instances", "ri", "(v)");
+        define(2, 17, "ReferenceType.ClassFileVersion", "r", "ii");
+        define(2, 18, "ReferenceType.ConstantPool", "r", "i(b)");
+        define(2, 19, "ReferenceType.Module", "r", "o");
+
+        // the values of SetValues are untagged, so their sizes are not known here
+        define(3, 1, "ClassType.Superclass", "r", "r");
+        define(3, 2, "ClassType.SetValues", "r*", "");
+        define(3, 3, "ClassType.InvokeMethod", "rom(v)i", "vv");
+        define(3, 4, "ClassType.NewInstance", "rom(v)i", "vv");
+        define(4, 1, "ArrayType.NewInstance", "ri", "v");
+        define(5, 1, "InterfaceType.InvokeMethod", "rom(v)i", "vv");
+
+        define(6, 1, "Method.LineTable", "rm", "ll(li)");
+        define(6, 2, "Method.VariableTable", "rm", "i(lssii)");
+        define(6, 3, "Method.Bytecodes", "rm", "(b)");
+        define(6, 4, "Method.IsObsolete", "rm", "b");
+        define(6, 5, "Method.VariableTableWithGeneric", "rm", "i(lsssii)");
+
+        define(9, 1, "ObjectReference.ReferenceType", "o", "Tr");
+        define(9, 2, "ObjectReference.GetValues", "o(f)", "(v)");
+        define(9, 3, "ObjectReference.SetValues", "o*", "");
+        define(9, 5, "ObjectReference.MonitorInfo", "o", "oii(o)");
+        define(9, 6, "ObjectReference.InvokeMethod", "oorm(v)i", "vv");
+        define(9, 7, "ObjectReference.DisableCollection", "o", "");
+        define(9, 8, "ObjectReference.EnableCollection", "o", "");
+        define(9, 9, "ObjectReference.IsCollected", "o", "b");
+        define(9, 10, "ObjectReference.ReferringObjects", "oi", "(v)");
+        define(10, 1, "StringReference.Value", "o", "s");
+
+        define(11, 1, "ThreadReference.Name", "o", "s");
+        define(11, 2, "ThreadReference.Suspend", "o", "");
+        define(11, 3, "ThreadReference.Resume", "o", "");
+        define(11, 4, "ThreadReference.Status", "o", "ii");
+        define(11, 5, "ThreadReference.ThreadGroup", "o", "o");
+        define(11, 6, "ThreadReference.Frames", "oii", "(FL)");
+        define(11, 7, "ThreadReference.FrameCount", "o", "i");
+        define(11, 8, "ThreadReference.OwnedMonitors", "o", "(v)");
+        define(11, 9, "ThreadReference.CurrentContendedMonitor", "o", "v");
+        define(11, 10, "ThreadReference.Stop", "oo", "");
+        define(11, 11, "ThreadReference.Interrupt", "o", "");
+        define(11, 12, "ThreadReference.SuspendCount", "o", "i");
+        define(11, 13, "ThreadReference.OwnedMonitorsStackDepthInfo", "o", "(vi)");
+        define(11, 14, "ThreadReference.ForceEarlyReturn", "ov", "");
+        define(11, 15, "ThreadReference.IsVirtual", "o", "b");
+
+        define(12, 1, "ThreadGroupReference.Name", "o", "s");
+        define(12, 2, "ThreadGroupReference.Parent", "o", "o");
+        define(12, 3, "ThreadGroupReference.Children", "o", "(o)(o)");
+        define(13, 1, "ArrayReference.Length", "o", "i");
+        define(13, 2, "ArrayReference.GetValues", "oii", "A");
+        define(13, 3, "ArrayReference.SetValues", "oi*", "");
+        define(14, 1, "ClassLoaderReference.VisibleClasses", "o", "(Tr)");
+
+        define(15, 1, "EventRequest.Set", "bb(k)", "q");
+        define(15, 2, "EventRequest.Clear", "bq", "");
+        define(15, 3, "EventRequest.ClearAllBreakpoints", "", "");
+
+        define(16, 1, "StackFrame.GetValues", "oF(ib)", "(v)");
+        define(16, 2, "StackFrame.SetValues", "oF(iv)", "");
+        define(16, 3, "StackFrame.ThisObject", "oF", "v");
+        define(16, 4, "StackFrame.PopFrames", "oF", "");
+        define(17, 1, "ClassObjectReference.ReflectedType", "o", "Tr");
+        define(18, 1, "ModuleReference.Name", "o", "s");
+        define(18, 2, "ModuleReference.ClassLoader", "o", "o");
+
+        define(64, 100, "Event.Composite", "b(e)", "");
+
+        event(JDWP.EventKind.SINGLE_STEP, "qoL");
+        event(JDWP.EventKind.BREAKPOINT, "qoL");
+        event(JDWP.EventKind.METHOD_ENTRY, "qoL");
+        event(JDWP.EventKind.METHOD_EXIT, "qoL");
+        event(JDWP.EventKind.METHOD_EXIT_WITH_RETURN_VALUE, "qoLv");
+        event(JDWP.EventKind.MONITOR_CONTENDED_ENTER, "qovL");
+        event(JDWP.EventKind.MONITOR_CONTENDED_ENTERED, "qovL");
+        event(JDWP.EventKind.MONITOR_WAIT, "qovLl");
+        event(JDWP.EventKind.MONITOR_WAITED, "qovLb");
+        event(JDWP.EventKind.EXCEPTION, "qoLvL");
+        event(JDWP.EventKind.THREAD_START, "qo");
+        event(JDWP.EventKind.THREAD_DEATH, "qo");
+        event(JDWP.EventKind.CLASS_PREPARE, "qoTrsi");
+        event(JDWP.EventKind.CLASS_UNLOAD, "qs");
+        event(JDWP.EventKind.FIELD_ACCESS, "qoLTrfv");
+        event(JDWP.EventKind.FIELD_MODIFICATION, "qoLTrfvv");
+        event(JDWP.EventKind.VM_START, "qo");
+        event(JDWP.EventKind.VM_DEATH, "q");
+
+        modifier(JDWP.ModKind.COUNT, "i");
+        modifier(JDWP.ModKind.CONDITIONAL, "i");
+        modifier(JDWP.ModKind.THREAD_ONLY, "o");
+        modifier(JDWP.ModKind.CLASS_ONLY, "r");
+        modifier(JDWP.ModKind.CLASS_MATCH, "s");
+        modifier(JDWP.ModKind.CLASS_EXCLUDE, "s");
+        modifier(JDWP.ModKind.LOCATION_ONLY, "L");
+        modifier(JDWP.ModKind.EXCEPTION_ONLY, "rbb");
+        modifier(JDWP.ModKind.FIELD_ONLY, "rf");
+        modifier(JDWP.ModKind.STEP, "oii");
+        modifier(JDWP.ModKind.INSTANCE_ONLY, "o");
+        modifier(JDWP.ModKind.SOURCE_NAME_MATCH, "s");
+    }
+
+    private static void define(int cmdSet, int cmd, String name, String command, String reply) {
+        LAYOUTS.put(cmdSet << 8 | cmd, new String[]{name, command, reply});
+    }
+
+    private static void event(int kind, String layout) {
+        EVENTS.put(kind, layout);
+    }
+
+    private static void modifier(int modKind, String layout) {
+        MODIFIERS.put(modKind, layout);
+    }
+
+    static String name(int cmdSet, int cmd) {
+        String[] layout = LAYOUTS.get((cmdSet & 0xff) << 8 | cmd & 0xff);
+        return layout != null ? layout[0] : (cmdSet & 0xff) + "." + (cmd & 0xff);
+    }
+
+    static String commandLayout(int cmdSet, int cmd) {
+        String[] layout = LAYOUTS.get((cmdSet & 0xff) << 8 | cmd & 0xff);
+        return layout != null ? layout[1] : null;
+    }
+
+    static String replyLayout(int cmdSet, int cmd) {
+        String[] layout = LAYOUTS.get((cmdSet & 0xff) << 8 | cmd & 0xff);
+        return layout != null ? layout[2] : null;
+    }
+
+    /**
+     * The IDs of a recorded session mapped to those of a live one, and the ID sizes of both.
+     */
+    static final class Ids {
+        private final Map<Character, Map<Long, Long>> maps = new HashMap<>();
+        final int[] recordedSizes = {8, 8, 8, 8, 8};
+        final int[] liveSizes = {8, 8, 8, 8, 8};
+        int unmapped = 0;
+
+        /**
+         * Returns the live ID of a recorded one, or the recorded one itself if it was not seen
+         * in a reply or event yet.
+         */
+        long map(char kind, long recorded) {
+            if (recorded == 0) {
+                return 0;
+            }
+            Long live = maps.computeIfAbsent(kind, k -> new HashMap<>()).get(recorded);
+            if (live == null) {
+                unmapped++;
+                return recorded;
+            }
+            return live;
+        }
+
+        void learn(char kind, long recorded, long live) {
+            if (recorded != 0) {
+                maps.computeIfAbsent(kind, k -> new HashMap<>()).put(recorded, live);
+            }
+        }
+
+        /**
+         * Takes the ID sizes from the recorded and the live reply to VirtualMachine.IDSizes.
+         */
+        void sizes(byte[] recorded, byte[] live) {
+            ByteBuffer r = ByteBuffer.wrap(recorded);
+            ByteBuffer l = ByteBuffer.wrap(live);
+            for (int i = 0; i < recordedSizes.length; i++) {
+                recordedSizes[i] = r.getInt();
+                liveSizes[i] = l.getInt();
+            }
+        }
+
+        static int size(int[] sizes, char kind) {
+            switch (kind) {
+                case 'f':
+                    return sizes[0];
+                case 'm':
+                    return sizes[1];
+                case 'o':
+                    return sizes[2];
+                case 'r':
+                    return sizes[3];
+                default:
+                    return sizes[4];
+            }
+        }
+    }
+
+    /**
+     * Returns the recorded command data with the IDs in it replaced by the live ones, or the data
+     * as it is if the command has no known layout.
+     */
+    static byte[] rewrite(int cmdSet, int cmd, byte[] data, Ids ids) {
+        String layout = commandLayout(cmdSet, cmd);
+        if (layout == null || layout.isEmpty()) {
+            return data;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length);
+        try {
+            new Walk(ByteBuffer.wrap(data), ids.recordedSizes, null, null, new DataOutputStream(bytes), ids).items(layout, 0);
+        } catch (RuntimeException e) {
+            return data;
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns true if the data follows the layout to its last byte.
+     */
+    static boolean wellFormed(String layout, byte[] data, int[] sizes) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        try {
+            new Walk(buffer, sizes, null, null, null, null).items(layout, 0);
+        } catch (RuntimeException e) {
+            return false;
+        }
+        return !buffer.hasRemaining();
+    }
+
+    /**
+     * Returns the strings of the data, each followed by a NUL, or null if it does not follow the
+     * layout.
+     */
+    static String strings(String layout, byte[] data, int[] sizes) {
+        try {
+            return Walk.key(ByteBuffer.wrap(data), sizes, layout, 0);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Maps the IDs of recorded data to those at the same places in the live data of the same
+     * layout.
+     */
+    static void learn(String layout, byte[] recorded, byte[] live, Ids ids) {
+        try {
+            new Walk(ByteBuffer.wrap(recorded), ids.recordedSizes, ByteBuffer.wrap(live), ids.liveSizes, null, ids).items(layout, 0);
+        } catch (RuntimeException e) {
+            // what was walked so far has been learned
+        }
+    }
+
+    /**
+     * Walks data of a layout: the recorded data alone, optionally copying it with its IDs mapped,
+     * or the recorded and the live data side by side.
+     */
+    private static final class Walk {
+        private final ByteBuffer a;
+        private final int[] aSizes;
+        private final ByteBuffer b;
+        private final int[] bSizes;
+        private final DataOutputStream out;
+        private final Ids ids;
+        private StringBuilder key;
+
+        Walk(ByteBuffer a, int[] aSizes, ByteBuffer b, int[] bSizes, DataOutputStream out, Ids ids) {
+            this.a = a;
+            this.aSizes = aSizes;
+            this.b = b;
+            this.bSizes = bSizes;
+            this.out = out;
+            this.ids = ids;
+        }
+
+        /**
+         * Returns a walk over one side alone, to skip what has nothing to pair with.
+         */
+        private static Walk alone(ByteBuffer side, int[] sizes) {
+            return new Walk(side, sizes, null, null, null, null);
+        }
+
+        /**
+         * Walks the items from the given index of the layout to the end of its list, and returns
+         * the index of the end.
+         */
+        int items(String layout, int at) {
+            while (at < layout.length() && layout.charAt(at) != ')' && layout.charAt(at) != '}') {
+                at = item(layout, at);
+            }
+            return at;
+        }
+
+        private int item(String layout, int at) {
+            char c = layout.charAt(at);
+            switch (c) {
+                case 'b':
+                case 'T':
+                    copy(1);
+                    break;
+                case 'i':
+                    copy(4);
+                    break;
+                case 'l':
+                    copy(8);
+                    break;
+                case 's':
+                    string();
+                    break;
+                case 'o':
+                case 'r':
+                case 'm':
+                case 'f':
+                case 'F':
+                    id(c);
+                    break;
+                case 'q':
+                    requestId();
+                    break;
+                case 'L':
+                    items("Trml", 0);
+                    break;
+                case 'v':
+                    value();
+                    break;
+                case 'A':
+                    arrayRegion();
+                    break;
+                case 'e':
+                    choice(EVENTS, "event kind");
+                    break;
+                case 'k':
+                    choice(MODIFIERS, "modifier kind");
+                    break;
+                case '*':
+                    rest();
+                    return layout.length();
+                case '(':
+                case '{':
+                    return list(layout, at);
+                default:
+                    throw new IllegalArgumentException("unknown layout letter " + c);
+            }
+            return at + 1;
+        }
+
+        private void write(byte[] bytes) {
+            if (out != null) {
+                try {
+                    out.write(bytes);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        private void copy(int size) {
+            byte[] bytes = new byte[size];
+            a.get(bytes);
+            write(bytes);
+            if (b != null) {
+                b.position(b.position() + size);
+            }
+        }
+
+        private void rest() {
+            byte[] bytes = new byte[a.remaining()];
+            a.get(bytes);
+            write(bytes);
+            if (b != null) {
+                b.position(b.limit());
+            }
+        }
+
+        private void string() {
+            int length = a.getInt(a.position());
+            byte[] bytes = new byte[4 + length];
+            a.get(bytes);
+            write(bytes);
+            if (key != null) {
+                key.append(new String(bytes, 4, length, StandardCharsets.UTF_8)).append('\0');
+            }
+            if (b != null) {
+                int liveLength = b.getInt();
+                b.position(b.position() + liveLength);
+            }
+        }
+
+        private static long readID(ByteBuffer data, int size) {
+            switch (size) {
+                case 8:
+                    return data.getLong();
+                case 4:
+                    return data.getInt();
+                case 2:
+                    return data.getShort();
+                default:
+                    throw new IllegalStateException("ID size " + size);
+            }
+        }
+
+        private void writeID(long id, int size) {
+            ByteBuffer bytes = ByteBuffer.allocate(size);
+            switch (size) {
+                case 8:
+                    bytes.putLong(id);
+                    break;
+                case 4:
+                    bytes.putInt((int) id);
+                    break;
+                default:
+                    bytes.putShort((short) id);
+            }
+            write(bytes.array());
+        }
+
+        private void id(char kind) {
+            long recorded = readID(a, Ids.size(aSizes, kind));
+            if (out != null) {
+                writeID(ids.map(kind, recorded), Ids.size(ids.liveSizes, kind));
+            }
+            if (b != null) {
+                ids.learn(kind, recorded, readID(b, Ids.size(bSizes, kind)));
+            }
+        }
+
+        private void requestId() {
+            int recorded = a.getInt();
+            if (out != null) {
+                writeID(ids.map('q', recorded), 4);
+            }
+            if (b != null) {
+                ids.learn('q', recorded, b.getInt());
+            }
+        }
+
+        private static boolean isObject(byte tag) {
+            switch (tag) {
+                case JDWP.Tag.ARRAY:
+                case JDWP.Tag.OBJECT:
+                case JDWP.Tag.STRING:
+                case JDWP.Tag.THREAD:
+                case JDWP.Tag.THREAD_GROUP:
+                case JDWP.Tag.CLASS_LOADER:
+                case JDWP.Tag.CLASS_OBJECT:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        private static int primitiveSize(byte tag) {
+            switch (tag) {
+                case JDWP.Tag.BYTE:
+                case JDWP.Tag.BOOLEAN:
+                    return 1;
+                case JDWP.Tag.CHAR:
+                case JDWP.Tag.SHORT:
+                    return 2;
+                case JDWP.Tag.INT:
+                case JDWP.Tag.FLOAT:
+                    return 4;
+                case JDWP.Tag.LONG:
+                case JDWP.Tag.DOUBLE:
+                    return 8;
+                case JDWP.Tag.VOID:
+                    return 0;
+                default:
+                    throw new IllegalStateException("unknown tag " + tag);
+            }
+        }
+
+        /**
+         * Walks an untagged value of the given tag.
+         */
+        private void untagged(byte tag) {
+            if (isObject(tag)) {
+                id('o');
+            } else {
+                copy(primitiveSize(tag));
+            }
+        }
+
+        private void value() {
+            byte tag = a.get(a.position());
+            if (b != null && b.get(b.position()) != tag) {
+                alone(a, aSizes).value();
+                alone(b, bSizes).value();
+                return;
+            }
+            copy(1);
+            untagged(tag);
+        }
+
+        private void arrayRegion() {
+            byte tag = a.get(a.position());
+            if (b != null && b.get(b.position()) != tag) {
+                alone(a, aSizes).arrayRegion();
+                alone(b, bSizes).arrayRegion();
+                return;
+            }
+            copy(1);
+            positional(() -> {
+                if (isObject(tag)) {
+                    value();
+                } else {
+                    untagged(tag);
+                }
+            }, side -> {
+                if (isObject(tag)) {
+                    side.value();
+                } else {
+                    side.untagged(tag);
+                }
+            });
+        }
+
+        /**
+         * Walks an item whose layout is chosen by the byte it starts with.
+         */
+        private void choice(Map<Integer, String> layouts, String what) {
+            int kind = a.get(a.position());
+            String layout = layouts.get(kind);
+            if (layout == null) {
+                throw new IllegalStateException("unknown " + what + " " + kind);
+            }
+            if (b != null && b.get(b.position()) != kind) {
+                alone(a, aSizes).choice(layouts, what);
+                alone(b, bSizes).choice(layouts, what);
+                return;
+            }
+            copy(1);
+            items(layout, 0);
+        }
+
+        /**
+         * Walks an int count and that many items, the first ones of both sides paired, the rest
+         * of the longer side alone.
+         */
+        private void positional(Runnable paired, Consumer<Walk> alone) {
+            int count = a.getInt(a.position());
+            int liveCount = b != null ? b.getInt(b.position()) : 0;
+            copy(4);
+            int items = b != null ? Math.min(count, liveCount) : count;
+            for (int i = 0; i < items; i++) {
+                paired.run();
+            }
+            for (int i = items; i < count; i++) {
+                alone.accept(alone(a, aSizes));
+            }
+            if (b != null) {
+                for (int i = items; i < liveCount; i++) {
+                    alone.accept(alone(b, bSizes));
+                }
+            }
+        }
+
+        private int list(String layout, int at) {
+            int close = close(layout, at);
+            if (layout.charAt(at) == '(' || b == null) {
+                positional(() -> items(layout, at + 1), side -> side.items(layout, at + 1));
+            } else {
+                keyed(layout, at + 1);
+            }
+            return close + 1;
+        }
+
+        /**
+         * Pairs the items of the two sides that hold the same strings, such as the classes of
+         * AllClasses by their signatures, since their order and number differ between targets.
+         */
+        private void keyed(String layout, int at) {
+            List<String> keys = new ArrayList<>();
+            List<Integer> starts = new ArrayList<>();
+            for (int i = a.getInt(); i > 0; i--) {
+                starts.add(a.position());
+                keys.add(key(a, aSizes, layout, at));
+            }
+            int aEnd = a.position();
+            Map<String, Integer> live = new HashMap<>();
+            for (int i = b.getInt(); i > 0; i--) {
+                int start = b.position();
+                live.putIfAbsent(key(b, bSizes, layout, at), start);
+            }
+            int bEnd = b.position();
+            for (int i = 0; i < keys.size(); i++) {
+                Integer start = live.get(keys.get(i));
+                if (start != null) {
+                    a.position(starts.get(i));
+                    b.position(start);
+                    items(layout, at);
+                }
+            }
+            a.position(aEnd);
+            b.position(bEnd);
+        }
+
+        private static String key(ByteBuffer side, int[] sizes, String layout, int at) {
+            Walk walk = alone(side, sizes);
+            walk.key = new StringBuilder();
+            walk.items(layout, at);
+            return walk.key.toString();
+        }
+
+        private static int close(String layout, int at) {
+            int depth = 0;
+            for (int i = at; i < layout.length(); i++) {
+                char c = layout.charAt(i);
+                if (c == '(' || c == '{') {
+                    depth++;
+                } else if ((c == ')' || c == '}') && --depth == 0) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("unbalanced layout " + layout);
+        }
+    }
+}
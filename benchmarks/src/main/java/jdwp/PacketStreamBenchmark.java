@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import com.sun.jdi.connect.spi.Connection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes and reads back the replies the IDE asks for most: ThreadReference.Frames on every stop,
+ * VirtualMachine.AllClassesWithGeneric once per session on a big image, and Method.LineTable for
+ * every method it shows.
+ * <p>
+ * Writing goes through PacketStream.send, so it includes the buffer pool, up to a connection that
+ * drops the bytes. Locations are written field by field, as writeLocation does, since real ones need
+ * a target VM.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketStreamBenchmark {
+
+    private static final int FRAMES = 40;
+    private static final int LINES = 60;
+
+    @Param({ "1000", "20000" })
+    public int classCount;
+
+    private GDBControl gc;
+    private String[] signatures;
+    private byte[] lastData;
+
+    private Packet frames;
+    private Packet allClasses;
+    private Packet lineTable;
+
+    /**
+     * Keeps the data of the last packet written, and nothing else.
+     */
+    private class Sink extends Connection {
+        @Override
+        public byte[] readPacket() {
+            return new byte[0];
+        }
+
+        @Override
+        public void writePacket(byte[] pkt) {
+            lastData = pkt;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        gc = new GDBControl(new Sink());
+        signatures = new String[classCount];
+        for (int i = 0; i < classCount; i++) {
+            signatures[i] = "Lio/quarkus/runtime/p" + (i % 50) + "/Generated" + i + "_Bean;";
+        }
+        frames = written(this::writeFrames);
+        allClasses = written(this::writeAllClasses);
+        lineTable = written(this::writeLineTable);
+    }
+
+    private interface Writer {
+        void write(PacketStream answer);
+    }
+
+    private Packet written(Writer writer) {
+        writer.write(reply());
+        Packet packet = new Packet(Packet.Reply);
+        packet.data = Arrays.copyOfRange(lastData, 11, lastData.length); // skip the header
+        return packet;
+    }
+
+    private PacketStream reply() {
+        return new PacketStream(gc, 1, 0, 0);
+    }
+
+    private void writeFrames(PacketStream answer) {
+        answer.writeInt(FRAMES);
+        for (int i = 0; i < FRAMES; i++) {
+            answer.writeFrameRef(i);
+            answer.writeByte(JDWP.TypeTag.CLASS);
+            answer.writeClassRef(0x7f0000001000L + i * 64);
+            answer.writeMethodRef(0x7f0000200000L + i * 32);
+            answer.writeLong(i * 4);
+        }
+        answer.send();
+    }
+
+    private void writeAllClasses(PacketStream answer) {
+        answer.writeInt(signatures.length);
+        for (int i = 0; i < signatures.length; i++) {
+            answer.writeByte(JDWP.TypeTag.CLASS);
+            answer.writeClassRef(0x7f0000001000L + i * 64);
+            answer.writeString(signatures[i]);
+            answer.writeStringOrEmpty(null);
+            answer.writeInt(JDWP.ClassStatus.VERIFIED | JDWP.ClassStatus.PREPARED | JDWP.ClassStatus.INITIALIZED);
+        }
+        answer.send();
+    }
+
+    private void writeLineTable(PacketStream answer) {
+        answer.writeLong(0);
+        answer.writeLong(LINES * 8);
+        answer.writeInt(LINES);
+        for (int i = 0; i < LINES; i++) {
+            answer.writeLong(i * 8);
+            answer.writeInt(100 + i);
+        }
+        answer.send();
+    }
+
+    @Benchmark
+    public void writeFrames() {
+        writeFrames(reply());
+    }
+
+    @Benchmark
+    public void writeAllClassesWithGeneric() {
+        writeAllClasses(reply());
+    }
+
+    @Benchmark
+    public void writeLineTable() {
+        writeLineTable(reply());
+    }
+
+    @Benchmark
+    public void readFrames(Blackhole bh) {
+        PacketStream in = new PacketStream(gc, frames);
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            bh.consume(in.readFrameRef());
+            bh.consume(in.readByte());
+            bh.consume(in.readClassRef());
+            bh.consume(in.readMethodRef());
+            bh.consume(in.readLong());
+        }
+    }
+
+    @Benchmark
+    public void readAllClassesWithGeneric(Blackhole bh) {
+        PacketStream in = new PacketStream(gc, allClasses);
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            bh.consume(in.readByte());
+            bh.consume(in.readClassRef());
+            bh.consume(in.readString());
+            bh.consume(in.readString());
+            bh.consume(in.readInt());
+        }
+    }
+
+    @Benchmark
+    public void readLineTable(Blackhole bh) {
+        PacketStream in = new PacketStream(gc, lineTable);
+        bh.consume(in.readLong());
+        bh.consume(in.readLong());
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            bh.consume(in.readLong());
+            bh.consume(in.readInt());
+        }
+    }
+}
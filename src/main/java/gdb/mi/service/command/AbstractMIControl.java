@@ -37,8 +37,17 @@ import gdb.mi.service.command.output.*;
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Base implementation of an MI control service.  It provides basic handling
@@ -48,7 +57,10 @@ import java.util.concurrent.RejectedExecutionException;
  */
 public abstract class AbstractMIControl {
 	private static final String MI_TRACE_IDENTIFIER = "[MI]"; //$NON-NLS-1$
-	private static final int NUMBER_CONCURRENT_COMMANDS = 3;
+	/**
+	 *   Print every line received from GDB to System.out.
+	 */
+	private static final boolean MI_TRACE = Boolean.getBoolean("gdb.mi.trace"); //$NON-NLS-1$
 
 	/*
 	 *  Thread control variables for the transmit and receive threads.
@@ -58,16 +70,32 @@ public abstract class AbstractMIControl {
 	private ErrorThread fErrorThread;
 
 	private final BlockingQueue<CommandHandle> fTxCommands = new LinkedBlockingQueue<>();
-	private final Map<Integer, CommandHandle> fRxCommands = Collections
-			.synchronizedMap(new HashMap<Integer, CommandHandle>());
+	private final Map<Integer, CommandHandle> fRxCommands = new ConcurrentHashMap<>();
 
-	private Map<Integer, MIInfo> fReplyPackets = Collections
-		.synchronizedMap(new HashMap<Integer, MIInfo>());
-	private List<Listener> fEventProcessors = new ArrayList<>();
+	/**
+	 *   Replies of queued commands by token id. An entry is completed by the RX thread as soon as
+	 *   the result record for its token is parsed, and removed by {@link #getResponse(int, long)}.
+	 */
+	private final Map<Integer, CompletableFuture<MIInfo>> fReplyFutures = new ConcurrentHashMap<>();
+	private final List<Listener> fEventProcessors = new CopyOnWriteArrayList<>();
 	/**
 	 *   Current command which have not been handed off to the backend yet.
 	 */
-	private final List<CommandHandle> fCommandQueue = new ArrayList<>();
+	private final Queue<CommandHandle> fCommandQueue = new ConcurrentLinkedQueue<>();
+	/**
+	 *   Number of commands handed off to the backend which have not been answered yet.
+	 */
+	private final AtomicInteger fCommandsInFlight = new AtomicInteger();
+	private final CommandWindow fWindow = CommandWindow.fromProperties();
+	/**
+	 *   Counts and histograms per MI operation of the time commands waited for a slot, the time
+	 *   GDB took to answer them and the time their result record took to parse.
+	 */
+	private final CommandMetrics fMetrics = new CommandMetrics("queue", "service", "parse"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	/**
+	 *   Where the spans of the commands are written, if anywhere besides Flight Recorder.
+	 */
+	private volatile ChromeTrace fTrace;
 
 	private CommandFactory fCommandFactory;
 
@@ -85,6 +113,31 @@ public abstract class AbstractMIControl {
 		return fCommandFactory;
 	}
 
+	/**
+	 * Returns the window that limits the number of commands on the wire, with its statistics.
+	 */
+	public CommandWindow getCommandWindow() {
+		return fWindow;
+	}
+
+	/**
+	 * Returns the counts and latency histograms of the commands answered so far, per operation.
+	 */
+	public CommandMetrics getCommandMetrics() {
+		return fMetrics;
+	}
+
+	/**
+	 * Writes a span for every command answered from now on to the given trace, or stops if null.
+	 */
+	public void setTrace(ChromeTrace trace) {
+		fTrace = trace;
+	}
+
+	public ChromeTrace getTrace() {
+		return fTrace;
+	}
+
 	public void addEventListener(Listener processor) {
 		fEventProcessors.add(processor);
 	}
@@ -119,91 +172,116 @@ public abstract class AbstractMIControl {
 		}
 	}
 
-	public CommandHandle queueCommand(int id, final MICommand<MIInfo> miCommand) {
+	/**
+	 * Starts processing commands on the streams of the given backend.
+	 */
+	public void startCommandProcessing(MIBackend backend) {
+		startCommandProcessing(backend.getMIOutput(), backend.getMIInput(), backend.getErrorStream());
+	}
+
+	/**
+	 * Queues a command for the backend and returns the future of its reply.
+	 * <p>
+	 * The future is completed on the MI RX thread, so dependent actions attached to it must not
+	 * block, and in particular must not wait for the reply of another command.
+	 * RawCommands never get a reply; their future is completed with null once they are queued.
+	 */
+	public CompletableFuture<MIInfo> queueCommand(int id, final MICommand<MIInfo> miCommand) {
+		return queueCommand(id, miCommand, true);
+	}
+
+	/**
+	 * Queues a command whose reply is only consumed through the returned future, without waiting
+	 * for it. Unlike {@link #queueCommand(int, MICommand)} the reply is not kept for
+	 * {@link #getResponse(int, long)}, so commands can be issued back to back and their replies
+	 * handled as they arrive.
+	 */
+	public CompletableFuture<MIInfo> queueAsyncCommand(int id, final MICommand<MIInfo> miCommand) {
+		return queueCommand(id, miCommand, false);
+	}
+
+	private CompletableFuture<MIInfo> queueCommand(int id, final MICommand<MIInfo> miCommand, boolean keepReply) {
 
 		final CommandHandle handle = new CommandHandle(id, miCommand);
+		if (miCommand instanceof RawCommand) {
+			handle.getFuture().complete(null);
+		} else if (keepReply) {
+			fReplyFutures.put(id, handle.getFuture());
+		}
 
-		// If the command control stopped processing commands, just return an error immediately.
-			/*
-			 *  We only allow three outstanding commands to be on the wire to the backend
-			 *  at any one time. This allows for coalescing as well as canceling
-			 *  existing commands on a state change. So we add it to the waiting list and let
-			 *  the user know they can now work with this item if need be.
-			 */
-			fCommandQueue.add(handle);
-
-			if (fRxCommands.size() < NUMBER_CONCURRENT_COMMANDS) {
-				processNextQueuedCommand();
-			}
+		/*
+		 *  We only allow a window of outstanding commands to be on the wire to the backend
+		 *  at any one time. This allows for coalescing as well as canceling
+		 *  existing commands on a state change. So we add it to the waiting list and let
+		 *  the user know they can now work with this item if need be.
+		 */
+		fCommandQueue.add(handle);
+		processNextQueuedCommand();
 
-		return handle;
+		return handle.getFuture();
 	}
 
+	/**
+	 * Hands queued commands to the TX thread for as long as there is room on the wire.
+	 * Called by the queueing threads and by the RX thread whenever a reply frees a slot.
+	 */
 	private void processNextQueuedCommand() {
-		if (!fCommandQueue.isEmpty()) {
-			final CommandHandle handle = fCommandQueue.remove(0);
-			if (handle != null) {
-				fTxCommands.add(handle);
+		while (!fCommandQueue.isEmpty() && tryAcquireSlot()) {
+			final CommandHandle handle = fCommandQueue.poll();
+			if (handle == null) {
+				// Another thread took the last command.
+				fCommandsInFlight.decrementAndGet();
+				return;
 			}
+			fTxCommands.add(handle);
 		}
 	}
 
-	private void addResponse(int id, MIInfo response) {
-		synchronized (fReplyPackets) {
-			fReplyPackets.put(id, response);
-			fReplyPackets.notifyAll();
+	private boolean tryAcquireSlot() {
+		while (true) {
+			int inFlight = fCommandsInFlight.get();
+			if (inFlight >= fWindow.getLimit()) {
+				return false;
+			}
+			if (fCommandsInFlight.compareAndSet(inFlight, inFlight + 1)) {
+				return true;
+			}
 		}
 	}
 
-	private MIInfo removeResponse(int id) {
-		return fReplyPackets.remove(id);
+	private void releaseSlot() {
+		fCommandsInFlight.decrementAndGet();
+		processNextQueuedCommand();
 	}
 
 	/**
-	 * Returns a response for the command with token ID id
+	 * Returns a response for the command with token ID id, or null if none arrives
+	 * within timeToWait milliseconds.
 	 */
 	public MIInfo getResponse(int id, long timeToWait) {
-		MIInfo response = null;
-		long remainingTime = timeToWait;
-		synchronized (fReplyPackets) {
-			final long timeBeforeWait = System.currentTimeMillis();
-			// Wait until reply is available.
-			while (remainingTime > 0) {
-				response = removeResponse(id);
-				if (response != null) {
-					break;
-				}
-				try {
-					waitForResponse(remainingTime, fReplyPackets);
-				}
-				// just stop waiting for the reply and treat it as a timeout
-				catch (InterruptedException e) {
-
-				}
-				long waitedTime = System.currentTimeMillis() - timeBeforeWait;
-				remainingTime = timeToWait - waitedTime;
-			}
+		CompletableFuture<MIInfo> future = fReplyFutures.get(id);
+		if (future == null) {
+			return null;
 		}
-		if (response == null) {
-			synchronized (fReplyPackets) {
-				response = removeResponse(id);
+		try {
+			if (timeToWait <= 0) {
+				return future.getNow(null);
+			}
+			return future.get(timeToWait, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			// just stop waiting for the reply and treat it as a timeout
+			future.completeExceptionally(e);
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException | CancellationException e) {
+			return null;
+		} finally {
+			if (future.isDone()) {
+				fReplyFutures.remove(id, future);
 			}
 		}
-
-		return response;
-	}
-
-	/**
-	 * Wait for a response from GDB.
-	 */
-	private void waitForResponse(long timeToWait, Object lock)
-			throws InterruptedException {
-		if (timeToWait == 0)
-			return;
-		else if (timeToWait < 0)
-			lock.wait();
-		else
-			lock.wait(timeToWait);
 	}
 
 	/*
@@ -214,10 +292,32 @@ public abstract class AbstractMIControl {
 
 		private MICommand<MIInfo> fCommand;
 		private int fTokenId;
+		private final CompletableFuture<MIInfo> fFuture = new CompletableFuture<>();
+		private final long fQueuedTime = System.nanoTime();
+		private long fSentTime;
+		private final TraceContext fContext = TraceContext.current();
+		private final MICommandEvent fEvent = new MICommandEvent();
 
 		CommandHandle(int id, MICommand<MIInfo> c) {
 			fCommand = c;
 			fTokenId = id;
+			fEvent.begin();
+		}
+
+		public CompletableFuture<MIInfo> getFuture() {
+			return fFuture;
+		}
+
+		void sent() {
+			fSentTime = System.nanoTime();
+		}
+
+		long getQueueWaitTime() {
+			return fSentTime - fQueuedTime;
+		}
+
+		long getServiceTime(long now) {
+			return now - fSentTime;
 		}
 
 		public MICommand<MIInfo> getCommand() {
@@ -228,6 +328,40 @@ public abstract class AbstractMIControl {
 			return fTokenId;
 		}
 
+		TraceContext getContext() {
+			return fContext;
+		}
+
+		/**
+		 * Ends the span of the command, which was just answered, in Flight Recorder and in the
+		 * trace if there is one.
+		 */
+		void traced(boolean error) {
+			long now = System.nanoTime();
+			String operation = fCommand.getOperation();
+			fEvent.end();
+			if (fEvent.shouldCommit()) {
+				if (fContext != null) {
+					fEvent.packetId = fContext.getPacketId();
+					fEvent.command = fContext.getName();
+				}
+				fEvent.token = fTokenId;
+				fEvent.operation = operation;
+				fEvent.queueWait = getQueueWaitTime();
+				fEvent.error = error;
+				fEvent.commit();
+			}
+			ChromeTrace trace = fTrace;
+			if (trace != null) {
+				Map<String, Object> args = new LinkedHashMap<>();
+				args.put("token", fTokenId); //$NON-NLS-1$
+				args.put("queueMicros", getQueueWaitTime() / 1000); //$NON-NLS-1$
+				args.put("serviceMicros", getServiceTime(now) / 1000); //$NON-NLS-1$
+				args.put("error", error); //$NON-NLS-1$
+				trace.span("mi", operation, fContext, fQueuedTime, now, args); //$NON-NLS-1$
+			}
+		}
+
 		@Override
 		public String toString() {
 			return Integer.toString(fTokenId) + fCommand;
@@ -264,6 +398,7 @@ public abstract class AbstractMIControl {
 				/*
 				 *  We note that this is an outstanding request at this point.
 				 */
+				commandHandle.sent();
 				if (!(commandHandle.getCommand() instanceof RawCommand)) {
 					// RawCommands will not get an answer, so we cannot put them in the receive queue.
 					fRxCommands.put(commandHandle.getTokenId(), commandHandle);
@@ -288,6 +423,10 @@ public abstract class AbstractMIControl {
 				} catch (IOException e) {
 					break;
 				}
+
+				if (commandHandle.getCommand() instanceof RawCommand) {
+					releaseSlot();
+				}
 			}
 			// Must close the stream here to avoid leaking
 			try {
@@ -300,7 +439,7 @@ public abstract class AbstractMIControl {
 
 	private class RxThread extends Thread {
 		private final InputStream fInputStream;
-		private final MIParser fMiParser = new MIParser();
+		private final MIStreamParser fMiParser = new MIStreamParser();
 
 		/**
 		 * List of out of band records since the last result record. Out of band
@@ -323,13 +462,14 @@ public abstract class AbstractMIControl {
 
 		@Override
 		public void run() {
-			BufferedReader reader = new BufferedReader(new InputStreamReader(fInputStream));
+			MILineReader reader = new MILineReader(fInputStream);
 			try {
-				String line;
-				while ((line = reader.readLine()) != null) {
-					if (line.length() != 0) {
-						System.out.println(line);
-						processMIOutput(line);
+				while (reader.next()) {
+					if (reader.length() != 0) {
+						if (MI_TRACE) {
+							System.out.println(reader.line());
+						}
+						processMIOutput(reader.buffer(), reader.start(), reader.length());
 					}
 				}
 			} catch (IOException e) {
@@ -345,11 +485,12 @@ public abstract class AbstractMIControl {
 			}
 		}
 
-		void processMIOutput(String line) {
-			MIParser.RecordType recordType = fMiParser.getRecordType(line);
+		void processMIOutput(char[] buf, int offset, int length) {
+			MIParser.RecordType recordType = fMiParser.getRecordType(buf, offset, length);
 
 			if (recordType == MIParser.RecordType.ResultRecord) {
-				final MIResultRecord rr = fMiParser.parseMIResultRecord(line);
+				final long received = System.nanoTime();
+				final MIResultRecord rr = fMiParser.parseMIResultRecord(buf, offset, length);
 
 				/*
 				 *  Find the command in the current output list. If we cannot then this is
@@ -367,8 +508,22 @@ public abstract class AbstractMIControl {
 					fAccumulatedOOBRecords.clear();
 					fAccumulatedStreamRecords.clear();
 
+					long serviceTime = commandHandle.getServiceTime(received);
+					fWindow.onReply(commandHandle.getQueueWaitTime(), serviceTime, !fCommandQueue.isEmpty());
 					result = commandHandle.getCommand().getResult(response);
+					boolean error = MIResultRecord.ERROR.equals(rr.getResultClass());
+					fMetrics.record(commandHandle.getCommand().getOperation(), error,
+							commandHandle.getQueueWaitTime(), serviceTime, System.nanoTime() - received);
+					commandHandle.traced(error);
 					//System.out.println("MI command output received for: " + commandHandle.getCommand() + ": " + result);
+					// commands queued by the dependent actions belong to the same JDWP command
+					TraceContext previous = TraceContext.attach(commandHandle.getContext());
+					try {
+						commandHandle.getFuture().complete(result);
+					} finally {
+						TraceContext.attach(previous);
+					}
+					releaseSlot();
 				} else {
 					/*
 					 *  GDB apparently can sometimes send multiple responses to the same command.  In those cases,
@@ -382,9 +537,8 @@ public abstract class AbstractMIControl {
 					//System.out.println("MI asynchronous output received: " + result);
 
 				}
-				addResponse(id, result);
 			} else if (recordType == MIParser.RecordType.OOBRecord) {
-				final MIOOBRecord oob = fMiParser.parseMIOOBRecord(line);
+				final MIOOBRecord oob = fMiParser.parseMIOOBRecord(buf, offset, length);
 
 				fAccumulatedOOBRecords.add(oob);
 				// limit growth, but only if these are not responses to CLI commands
@@ -414,8 +568,6 @@ public abstract class AbstractMIControl {
 				processEvent(response);
 				//System.out.println("********* MI asynchronous output received: " + response);
 			}
-			
-			processNextQueuedCommand();
 		}
 	}
 
@@ -434,7 +586,7 @@ public abstract class AbstractMIControl {
 	 */
 	private class ErrorThread extends Thread {
 		private final InputStream fErrorStream;
-		private final MIParser fMiParser = new MIParser();
+		private final MIStreamParser fMiParser = new MIStreamParser();
 
 		public ErrorThread(InputStream errorStream) {
 			super("MI Error Thread"); //$NON-NLS-1$
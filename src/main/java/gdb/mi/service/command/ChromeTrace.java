@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (C) 2022 IBM Corporation
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *******************************************************************************/
+
+package gdb.mi.service.command;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes spans in the Chrome trace event format, which chrome://tracing and ui.perfetto.dev
+ * open. Every span is a pair of nestable async events whose id is the id of the JDWP packet it
+ * belongs to, so the spans of one JDWP command show as one tree: the command, and below it the
+ * MI commands sent for it. Spans outside of any JDWP command get the id 0.
+ * <p>
+ * The events are written as a JSON array, flushed after each span. The closing bracket is only
+ * written by {@link #close()}, but the viewers accept a file without it.
+ */
+public class ChromeTrace implements Closeable {
+	private final Writer fOut;
+	private final long fOrigin = System.nanoTime();
+	private final long fPid = ProcessHandle.current().pid();
+
+	public ChromeTrace(Writer out) throws IOException {
+		fOut = out;
+		fOut.write("[\n"); //$NON-NLS-1$
+		fOut.write("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":" + fPid //$NON-NLS-1$
+				+ ",\"args\":{\"name\":\"NativeJDB\"}}"); //$NON-NLS-1$
+		fOut.flush();
+	}
+
+	public static ChromeTrace open(Path path) throws IOException {
+		BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+		try {
+			return new ChromeTrace(out);
+		} catch (IOException e) {
+			out.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes a span of the given category and name, between two System.nanoTime() values.
+	 *
+	 * @param context the JDWP command the span belongs to, or null
+	 * @param args values shown with the span: strings, numbers or booleans
+	 */
+	public synchronized void span(String category, String name, TraceContext context, long start, long end,
+			Map<String, ?> args) {
+		String id = Integer.toString(context != null ? context.getPacketId() : 0);
+		try {
+			event(category, name, 'b', id, start, args);
+			event(category, name, 'e', id, Math.max(start, end), null);
+			fOut.flush();
+		} catch (IOException e) {
+			// the trace is lost, not the command
+		}
+	}
+
+	private void event(String category, String name, char phase, String id, long nanos, Map<String, ?> args)
+			throws IOException {
+		StringBuilder event = new StringBuilder(",\n{\"name\":"); //$NON-NLS-1$
+		string(event, name);
+		event.append(",\"cat\":"); //$NON-NLS-1$
+		string(event, category);
+		event.append(",\"ph\":\"").append(phase); //$NON-NLS-1$
+		event.append("\",\"id\":\"").append(id); //$NON-NLS-1$
+		event.append("\",\"ts\":").append(String.format(Locale.ROOT, "%.3f", (nanos - fOrigin) / 1e3)); //$NON-NLS-1$ //$NON-NLS-2$
+		event.append(",\"pid\":").append(fPid); //$NON-NLS-1$
+		event.append(",\"tid\":").append(Thread.currentThread().getId()); //$NON-NLS-1$
+		if (args != null && !args.isEmpty()) {
+			event.append(",\"args\":{"); //$NON-NLS-1$
+			String separator = ""; //$NON-NLS-1$
+			for (Map.Entry<String, ?> arg : args.entrySet()) {
+				event.append(separator);
+				string(event, arg.getKey());
+				event.append(':');
+				Object value = arg.getValue();
+				if (value instanceof Number || value instanceof Boolean) {
+					event.append(value);
+				} else {
+					string(event, String.valueOf(value));
+				}
+				separator = ","; //$NON-NLS-1$
+			}
+			event.append('}');
+		}
+		event.append('}');
+		fOut.write(event.toString());
+	}
+
+	private static void string(StringBuilder out, String value) {
+		out.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				out.append('\\').append(c);
+			} else if (c < 0x20) {
+				out.append(String.format("\\u%04x", (int) c)); //$NON-NLS-1$
+			} else {
+				out.append(c);
+			}
+		}
+		out.append('"');
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		fOut.write("\n]\n"); //$NON-NLS-1$
+		fOut.close();
+	}
+}
@@ -114,6 +114,19 @@ public class CommandFactory {
 		return new MIDataDisassemble(file, linenum, lines, mode);
 	}
 
+	public MICommand<MIDataEvaluateExpressionInfo> createMIDataEvaluateExpression(String expression) {
+		return new MIDataEvaluateExpression(expression);
+	}
+
+	public MICommand<MIDataEvaluateExpressionInfo> createMIDataEvaluateExpression(String threadId, String frameId,
+																				  String expression) {
+		return new MIDataEvaluateExpression(threadId, frameId, expression);
+	}
+
+	public MICommand<MIDataReadMemoryBytesInfo> createMIDataReadMemoryBytes(long address, int count) {
+		return new MIDataReadMemoryBytes(address, count);
+	}
+
 	public MICommand<MIInfo> createMIExecContinue() {
 		return new MIExecContinue();
 	}
@@ -146,6 +159,10 @@ public class CommandFactory {
 		return new MIExecNext();
 	}
 
+	public MICommand<MIInfo> createMIExecFinish() {
+		return new MIExecFinish();
+	}
+
 	public MICommand<MIInfo> createMIExecNext(int count) {
 		return new MIExecNext(count);
 	}
@@ -268,6 +285,11 @@ public class CommandFactory {
 		return new MIVarCreate(name, frameAddr, expression);
 	}
 
+	public MICommand<MIVarCreateInfo> createMIVarCreate(String threadId, String frameId, String name,
+													   String frameAddr, String expression) {
+		return new MIVarCreate(threadId, frameId, name, frameAddr, expression);
+	}
+
 	public MICommand<MIVarDeleteInfo> createMIVarDelete(String name) {
 		return new MIVarDelete(name);
 	}
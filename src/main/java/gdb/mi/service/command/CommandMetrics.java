@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright (C) 2022 IBM Corporation
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *******************************************************************************/
+
+package gdb.mi.service.command;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts and latency histograms of commands, kept per command name and split in phases, such as
+ * the time an MI command waited for a slot in the window and the time GDB took to answer it.
+ */
+public class CommandMetrics {
+	/** The quantiles written for every phase. */
+	static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	/**
+	 * The counts and histograms of one command.
+	 */
+	public static final class Row {
+		private final String fName;
+		private final AtomicLong fCount = new AtomicLong();
+		private final AtomicLong fErrors = new AtomicLong();
+		private final LatencyHistogram[] fPhases;
+
+		Row(String name, int phases) {
+			fName = name;
+			fPhases = new LatencyHistogram[phases];
+			for (int i = 0; i < phases; i++) {
+				fPhases[i] = new LatencyHistogram();
+			}
+		}
+
+		public String getName() {
+			return fName;
+		}
+
+		public long getCount() {
+			return fCount.get();
+		}
+
+		public long getErrors() {
+			return fErrors.get();
+		}
+
+		public LatencyHistogram getPhase(int phase) {
+			return fPhases[phase];
+		}
+	}
+
+	private final String[] fPhases;
+	private final Map<String, Row> fRows = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates metrics whose commands are timed in the given phases, in the order their times
+	 * are passed to {@link #record(String, boolean, long...)}.
+	 */
+	public CommandMetrics(String... phases) {
+		fPhases = phases.clone();
+	}
+
+	public String[] getPhases() {
+		return fPhases.clone();
+	}
+
+	/**
+	 * Records one command, with the nanoseconds it spent in each phase.
+	 */
+	public void record(String name, boolean error, long... nanos) {
+		Row row = fRows.computeIfAbsent(name, n -> new Row(n, fPhases.length));
+		row.fCount.incrementAndGet();
+		if (error) {
+			row.fErrors.incrementAndGet();
+		}
+		for (int i = 0; i < nanos.length && i < fPhases.length; i++) {
+			row.fPhases[i].record(nanos[i]);
+		}
+	}
+
+	public Row getRow(String name) {
+		return fRows.get(name);
+	}
+
+	/**
+	 * Returns the rows of the commands recorded so far, by name.
+	 */
+	public List<Row> getRows() {
+		return new ArrayList<>(new TreeMap<>(fRows).values());
+	}
+
+	/**
+	 * Writes the metrics in the Prometheus text format: a counter of commands and one of errors,
+	 * and a summary per phase, in seconds, each labelled with the command name.
+	 *
+	 * @param prefix the prefix of the metric names, such as nativejdb_mi
+	 * @param label the name of the label holding the command name
+	 */
+	public void writePrometheus(StringBuilder out, String prefix, String label) {
+		List<Row> rows = getRows();
+		out.append("# TYPE ").append(prefix).append("_commands_total counter\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		for (Row row : rows) {
+			sample(out, prefix + "_commands_total", label, row.fName, null, row.getCount()); //$NON-NLS-1$
+		}
+		out.append("# TYPE ").append(prefix).append("_errors_total counter\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		for (Row row : rows) {
+			sample(out, prefix + "_errors_total", label, row.fName, null, row.getErrors()); //$NON-NLS-1$
+		}
+		for (int phase = 0; phase < fPhases.length; phase++) {
+			String name = prefix + '_' + fPhases[phase] + "_seconds"; //$NON-NLS-1$
+			out.append("# TYPE ").append(name).append(" summary\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			for (Row row : rows) {
+				LatencyHistogram histogram = row.fPhases[phase];
+				for (double quantile : QUANTILES) {
+					sample(out, name, label, row.fName, quantile, histogram.getValueAtPercentile(quantile * 100) / 1e9);
+				}
+				sample(out, name + "_sum", label, row.fName, null, histogram.getSum() / 1e9); //$NON-NLS-1$
+				sample(out, name + "_count", label, row.fName, null, histogram.getCount()); //$NON-NLS-1$
+			}
+		}
+	}
+
+	private static void sample(StringBuilder out, String name, String label, String value, Double quantile, Number sample) {
+		out.append(name).append('{').append(label).append("=\""); //$NON-NLS-1$
+		escape(out, value);
+		out.append('"');
+		if (quantile != null) {
+			out.append(",quantile=\"").append(quantile).append('"'); //$NON-NLS-1$
+		}
+		out.append("} ").append(sample).append('\n'); //$NON-NLS-1$
+	}
+
+	private static void escape(StringBuilder out, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' || c == '"') {
+				out.append('\\').append(c);
+			} else if (c == '\n') {
+				out.append("\\n"); //$NON-NLS-1$
+			} else {
+				out.append(c);
+			}
+		}
+	}
+}
@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (C) 2022 IBM Corporation
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *******************************************************************************/
+
+package gdb.mi.service.command;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides how many MI commands may be on the wire to GDB at any one time.
+ * <p>
+ * The window starts at gdb.mi.window commands. When gdb.mi.window.adaptive is set (the default)
+ * it is re-evaluated once per round of replies, in the manner of TCP Vegas: comparing the average
+ * service time of the round with the fastest one seen recently estimates how many of the commands
+ * on the wire are merely queued inside GDB. While that is below GROW_THRESHOLD and commands are
+ * left waiting for a slot, the window grows by one; above SHRINK_THRESHOLD it shrinks by one.
+ * It never leaves [1, gdb.mi.window.max].
+ * <p>
+ * It also keeps the time commands spent waiting for a slot apart from the time GDB took to
+ * answer them, which tells whether the window or GDB itself is the bottleneck.
+ */
+public class CommandWindow {
+	static final String INITIAL_PROPERTY = "gdb.mi.window"; //$NON-NLS-1$
+	static final String MAX_PROPERTY = "gdb.mi.window.max"; //$NON-NLS-1$
+	static final String ADAPTIVE_PROPERTY = "gdb.mi.window.adaptive"; //$NON-NLS-1$
+
+	static final int DEFAULT_INITIAL = 3;
+	static final int DEFAULT_MAX = 32;
+
+	/** Grow while fewer than this many commands are estimated to be queued inside GDB. */
+	static final double GROW_THRESHOLD = 2.0;
+	/** Shrink once more than this many commands are estimated to be queued inside GDB. */
+	static final double SHRINK_THRESHOLD = 4.0;
+	/** Rounds after which the fastest service time is forgotten, as command costs change over a session. */
+	static final int MIN_SERVICE_ROUNDS = 50;
+
+	private final int fMax;
+	private final boolean fAdaptive;
+	private volatile int fLimit;
+
+	/*
+	 *  Round state, only touched by the RX thread.
+	 */
+	private int fRoundReplies;
+	private long fRoundServiceNanos;
+	private boolean fRoundBacklog;
+	private long fRoundMinServiceNanos = Long.MAX_VALUE;
+	private long fMinServiceNanos = Long.MAX_VALUE;
+	private int fRounds;
+
+	private final AtomicLong fReplies = new AtomicLong();
+	private final AtomicLong fQueueWaitNanos = new AtomicLong();
+	private final AtomicLong fMaxQueueWaitNanos = new AtomicLong();
+	private final AtomicLong fServiceNanos = new AtomicLong();
+	private final AtomicLong fMaxServiceNanos = new AtomicLong();
+
+	public CommandWindow(int initial, int max, boolean adaptive) {
+		fMax = Math.max(1, max);
+		fLimit = Math.min(Math.max(1, initial), fMax);
+		fAdaptive = adaptive;
+	}
+
+	/**
+	 * Creates a window configured from the gdb.mi.window* system properties.
+	 */
+	public static CommandWindow fromProperties() {
+		int initial = Integer.getInteger(INITIAL_PROPERTY, DEFAULT_INITIAL);
+		int max = Integer.getInteger(MAX_PROPERTY, Math.max(initial, DEFAULT_MAX));
+		boolean adaptive = Boolean.parseBoolean(System.getProperty(ADAPTIVE_PROPERTY, "true")); //$NON-NLS-1$
+		return new CommandWindow(initial, max, adaptive);
+	}
+
+	/**
+	 * Returns the number of commands currently allowed on the wire.
+	 */
+	public int getLimit() {
+		return fLimit;
+	}
+
+	public int getMax() {
+		return fMax;
+	}
+
+	public boolean isAdaptive() {
+		return fAdaptive;
+	}
+
+	/**
+	 * Records the reply to a command.
+	 *
+	 * @param queueWaitNanos time the command waited for a slot before it was sent
+	 * @param serviceNanos time from sending the command until its result record arrived
+	 * @param backlog whether commands are still waiting for a slot
+	 */
+	void onReply(long queueWaitNanos, long serviceNanos, boolean backlog) {
+		fReplies.incrementAndGet();
+		fQueueWaitNanos.addAndGet(queueWaitNanos);
+		fServiceNanos.addAndGet(serviceNanos);
+		updateMax(fMaxQueueWaitNanos, queueWaitNanos);
+		updateMax(fMaxServiceNanos, serviceNanos);
+
+		if (!fAdaptive) {
+			return;
+		}
+		fRoundMinServiceNanos = Math.min(fRoundMinServiceNanos, serviceNanos);
+		fMinServiceNanos = Math.min(fMinServiceNanos, serviceNanos);
+		fRoundServiceNanos += serviceNanos;
+		fRoundBacklog |= backlog;
+		if (++fRoundReplies < fLimit) {
+			return;
+		}
+
+		int limit = fLimit;
+		double average = (double) fRoundServiceNanos / fRoundReplies;
+		double queued = average > 0 ? limit * (1 - fMinServiceNanos / average) : 0;
+		if (queued > SHRINK_THRESHOLD) {
+			limit--;
+		} else if (fRoundBacklog && queued < GROW_THRESHOLD) {
+			limit++;
+		}
+		fLimit = Math.min(Math.max(1, limit), fMax);
+
+		if (++fRounds % MIN_SERVICE_ROUNDS == 0) {
+			fMinServiceNanos = fRoundMinServiceNanos;
+		}
+		fRoundReplies = 0;
+		fRoundServiceNanos = 0;
+		fRoundMinServiceNanos = Long.MAX_VALUE;
+		fRoundBacklog = false;
+	}
+
+	private static void updateMax(AtomicLong max, long value) {
+		long current;
+		while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+			// retry
+		}
+	}
+
+	public long getReplies() {
+		return fReplies.get();
+	}
+
+	/**
+	 * Returns the average time in microseconds commands waited for a slot.
+	 */
+	public long getAverageQueueWaitMicros() {
+		long replies = fReplies.get();
+		return replies == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(fQueueWaitNanos.get() / replies);
+	}
+
+	public long getMaxQueueWaitMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(fMaxQueueWaitNanos.get());
+	}
+
+	/**
+	 * Returns the average time in microseconds GDB took to answer a command.
+	 */
+	public long getAverageServiceMicros() {
+		long replies = fReplies.get();
+		return replies == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(fServiceNanos.get() / replies);
+	}
+
+	public long getMaxServiceMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(fMaxServiceNanos.get());
+	}
+
+	@Override
+	public String toString() {
+		return "CommandWindow [limit=" + fLimit + ", max=" + fMax + ", adaptive=" + fAdaptive //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				+ ", replies=" + getReplies() //$NON-NLS-1$
+				+ ", queueWait avg/max us=" + getAverageQueueWaitMicros() + "/" + getMaxQueueWaitMicros() //$NON-NLS-1$ //$NON-NLS-2$
+				+ ", service avg/max us=" + getAverageServiceMicros() + "/" + getMaxServiceMicros() + "]"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+}
@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright (C) 2022 IBM Corporation
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *******************************************************************************/
+
+package gdb.mi.service.command;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A "gdb --interpreter=mi" process debugging the given executable.
+ */
+public class GDBProcessBackend implements MIBackend {
+
+	private final Process fProcess;
+
+	private GDBProcessBackend(Process process) {
+		fProcess = process;
+	}
+
+	/**
+	 * Starts GDB on the executable. Its error output is merged into its MI output, so that it
+	 * can be ignored.
+	 */
+	public static GDBProcessBackend start(String executable) throws IOException {
+		ProcessBuilder builder = new ProcessBuilder("gdb", "--interpreter=mi", executable); //$NON-NLS-1$ //$NON-NLS-2$
+		builder.redirectErrorStream(true);
+		return new GDBProcessBackend(builder.start());
+	}
+
+	@Override
+	public OutputStream getMIInput() {
+		return fProcess.getOutputStream();
+	}
+
+	@Override
+	public InputStream getMIOutput() {
+		return fProcess.getInputStream();
+	}
+
+	@Override
+	public InputStream getErrorStream() {
+		return fProcess.getErrorStream();
+	}
+
+	@Override
+	public void destroy() {
+		fProcess.destroy();
+	}
+}
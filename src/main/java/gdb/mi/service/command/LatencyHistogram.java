@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (C) 2022 IBM Corporation
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *******************************************************************************/
+
+package gdb.mi.service.command;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds, in the manner of HdrHistogram: values below
+ * SUB_BUCKETS are counted exactly, larger ones in buckets that double in width from one power
+ * of two to the next, each power of two split in SUB_BUCKETS / 2 sub-buckets. A recorded value
+ * is thus known to within 1 / (SUB_BUCKETS / 2) of itself, about 3%, whatever its magnitude.
+ * <p>
+ * Recording takes no lock, so the counts read while values are being recorded may be off by
+ * the values in flight.
+ */
+public class LatencyHistogram {
+	static final int SUB_BUCKETS = 64;
+	private static final int HALF = SUB_BUCKETS / 2;
+	private static final int SUB_BUCKET_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+	/** Values from 2^40 ns, about 18 minutes, on are counted in the last bucket. */
+	static final long HIGHEST = (1L << 40) - 1;
+
+	private final AtomicLongArray fCounts = new AtomicLongArray(index(HIGHEST) + 1);
+	private final AtomicLong fCount = new AtomicLong();
+	private final AtomicLong fSum = new AtomicLong();
+	private final AtomicLong fMax = new AtomicLong();
+
+	static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) Math.max(value, 0);
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+		return SUB_BUCKETS + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+	}
+
+	/**
+	 * Returns the largest value counted in the bucket of the given index.
+	 */
+	static long highestInBucket(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = (index - SUB_BUCKETS) / HALF + 1;
+		long sub = (index - SUB_BUCKETS) % HALF + HALF;
+		return ((sub + 1) << shift) - 1;
+	}
+
+	public void record(long nanos) {
+		fCounts.incrementAndGet(index(Math.min(nanos, HIGHEST)));
+		fCount.incrementAndGet();
+		fSum.addAndGet(nanos);
+		long max;
+		while (nanos > (max = fMax.get()) && !fMax.compareAndSet(max, nanos)) {
+			// retry
+		}
+	}
+
+	public long getCount() {
+		return fCount.get();
+	}
+
+	/**
+	 * Returns the sum of the recorded values, in nanoseconds.
+	 */
+	public long getSum() {
+		return fSum.get();
+	}
+
+	public long getMax() {
+		return fMax.get();
+	}
+
+	public double getMean() {
+		long count = fCount.get();
+		return count == 0 ? 0 : (double) fSum.get() / count;
+	}
+
+	/**
+	 * Returns the value, in nanoseconds, that the given percentage of the recorded values do
+	 * not exceed, to within the precision of the buckets; 0 if nothing was recorded.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = 0;
+		for (int i = 0; i < fCounts.length(); i++) {
+			total += fCounts.get(i);
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < fCounts.length(); i++) {
+			seen += fCounts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestInBucket(i), fMax.get());
+			}
+		}
+		return fMax.get();
+	}
+}
@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright (C) 2022 IBM Corporation
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *******************************************************************************/
+
+package gdb.mi.service.command;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * What an MI control talks to: GDB itself, or a stand-in for it.
+ */
+public interface MIBackend {
+
+	/**
+	 * Returns the stream MI commands are written to.
+	 */
+	OutputStream getMIInput();
+
+	/**
+	 * Returns the stream MI output records are read from.
+	 */
+	InputStream getMIOutput();
+
+	/**
+	 * Returns the error stream of the backend, or null if it has none.
+	 */
+	InputStream getErrorStream();
+
+	/**
+	 * Stops the backend; its streams end.
+	 */
+	void destroy();
+}
@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright (C) 2022 IBM Corporation
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *******************************************************************************/
+
+package gdb.mi.service.command;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A Flight Recorder event spanning an MI command, from the time it was queued to the time its
+ * result record was parsed. It is committed on the MI RX thread; the packet id ties it to the
+ * JDWP command it was sent for.
+ */
+@Name("nativejdb.MICommand")
+@Label("MI Command")
+@Category({ "NativeJDB", "GDB/MI" })
+@Description("An MI command, from the time it was queued to the time its result record was parsed")
+class MICommandEvent extends Event {
+	@Label("Packet Id")
+	@Description("Id of the JDWP packet the command was sent for, or 0")
+	int packetId;
+
+	@Label("JDWP Command")
+	String command;
+
+	@Label("Token")
+	int token;
+
+	@Label("Operation")
+	String operation;
+
+	@Label("Queue Wait")
+	@Description("Time the command waited for a slot in the window")
+	@Timespan(Timespan.NANOSECONDS)
+	long queueWait;
+
+	@Label("Error")
+	boolean error;
+}
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (C) 2022 IBM Corporation
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *******************************************************************************/
+
+package gdb.mi.service.command;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Reads GDB output line by line into a reusable char buffer, so that the parser can work on
+ * the line in place instead of on a new String per line.
+ * <p>
+ * Lines are split on the raw bytes. MI output is almost always plain ASCII, which is widened
+ * into the char buffer directly; other lines are decoded with the platform charset, like the
+ * InputStreamReader this replaces did.
+ * <p>
+ * After {@link #next()} returned true the current line is buffer()[0, length()), without its
+ * line terminator. It stays valid until the next call to next().
+ */
+class MILineReader {
+	private static final int INITIAL_SIZE = 8192;
+
+	private final InputStream fInput;
+	private final Charset fCharset;
+	private byte[] fBytes = new byte[INITIAL_SIZE];
+	/** Start of the unread bytes. */
+	private int fNext;
+	/** End of the bytes read so far. */
+	private int fLimit;
+
+	private char[] fLine = new char[INITIAL_SIZE];
+	private int fLength;
+
+	MILineReader(InputStream in) {
+		this(in, Charset.defaultCharset());
+	}
+
+	MILineReader(InputStream in, Charset charset) {
+		fInput = in;
+		fCharset = charset;
+	}
+
+	/**
+	 * Advances to the next line and returns false at the end of the stream.
+	 */
+	boolean next() throws IOException {
+		int scan = fNext;
+		while (true) {
+			for (; scan < fLimit; scan++) {
+				if (fBytes[scan] == '\n') {
+					int end = scan > fNext && fBytes[scan - 1] == '\r' ? scan - 1 : scan;
+					setLine(fNext, end);
+					fNext = scan + 1;
+					return true;
+				}
+			}
+			int scanned = scan - fNext;
+			if (!fill()) {
+				if (fNext == fLimit) {
+					return false;
+				}
+				// Last line without a terminator.
+				setLine(fNext, fLimit);
+				fNext = fLimit;
+				return true;
+			}
+			scan = fNext + scanned;
+		}
+	}
+
+	/**
+	 * Reads more bytes, moving the unread part to the front of the buffer and growing it when needed.
+	 */
+	private boolean fill() throws IOException {
+		int remaining = fLimit - fNext;
+		if (fNext > 0) {
+			System.arraycopy(fBytes, fNext, fBytes, 0, remaining);
+			fNext = 0;
+			fLimit = remaining;
+		}
+		if (fLimit == fBytes.length) {
+			byte[] bigger = new byte[fBytes.length * 2];
+			System.arraycopy(fBytes, 0, bigger, 0, fLimit);
+			fBytes = bigger;
+		}
+		int read = fInput.read(fBytes, fLimit, fBytes.length - fLimit);
+		if (read <= 0) {
+			return false;
+		}
+		fLimit += read;
+		return true;
+	}
+
+	private void setLine(int start, int end) {
+		int length = end - start;
+		if (fLine.length < length) {
+			fLine = new char[Math.max(length, fLine.length * 2)];
+		}
+		for (int i = 0; i < length; i++) {
+			byte b = fBytes[start + i];
+			if (b < 0) {
+				// Not ASCII
+				String decoded = new String(fBytes, start, length, fCharset);
+				fLength = decoded.length();
+				if (fLine.length < fLength) {
+					fLine = new char[fLength];
+				}
+				decoded.getChars(0, fLength, fLine, 0);
+				return;
+			}
+			fLine[i] = (char) b;
+		}
+		fLength = length;
+	}
+
+	char[] buffer() {
+		return fLine;
+	}
+
+	int start() {
+		return 0;
+	}
+
+	int length() {
+		return fLength;
+	}
+
+	/**
+	 * Returns a copy of the current line.
+	 */
+	String line() {
+		return new String(fLine, 0, fLength);
+	}
+
+	void close() throws IOException {
+		fInput.close();
+	}
+}
@@ -30,6 +30,7 @@ import java.util.regex.Pattern;
 import gdb.mi.service.command.output.MIOOBRecord;
 import gdb.mi.service.command.output.MIOutput;
 import gdb.mi.service.command.output.MIExecAsyncOutput;
+import gdb.mi.service.command.output.MINotifyAsyncOutput;
 import gdb.mi.service.command.output.MIResult;
 import gdb.mi.service.command.output.MIValue;
 import gdb.mi.service.command.output.MIConst;
@@ -107,6 +108,16 @@ public class MIRunControlEventProcessor implements Listener {
 				MIExecAsyncOutput exec = (MIExecAsyncOutput) oobr;
 				// Change of state.
 				String state = exec.getAsyncClass();
+				if ("running".equals(state) || "stopped".equals(state)) { //$NON-NLS-1$ //$NON-NLS-2$
+					// Stacks and variables seen before are stale now.
+					fCommandControl.getStackCache().invalidate();
+					fCommandControl.getVariableObjects().invalidate();
+					fCommandControl.getNativeMemory().invalidate();
+					fCommandControl.getThreadTable().invalidate();
+				}
+				if ("running".equals(state)) { //$NON-NLS-1$
+					fCommandControl.getValueCache().invalidate();
+				}
 				if ("stopped".equals(state)) { //$NON-NLS-1$
 					// Re-set the thread and stack level to -1 when stopped event is recvd.
 					// This is to synchronize the state between GDB back-end and AbstractMIControl.
@@ -155,11 +166,29 @@ public class MIRunControlEventProcessor implements Listener {
 						}
 					}
 
-					for (MIEvent event : events) {
-						System.out.println("&&&&& " + event);
-						PacketStream packetStream = Translator.translate(fCommandControl, event);
-						if (packetStream != null) {
-							packetStream.send();
+					// An interrupt sent while too many events are held stops a running target with a SIGINT.
+					fCommandControl.getEventQueue().stopped(events.stream().anyMatch(e -> e instanceof MISignalEvent
+							&& "SIGINT".equals(((MISignalEvent) e).getName())));
+
+					// All the events of one stop go out together, as few composite packets as JDWP allows.
+					System.out.println("&&&&& " + events);
+					for (PacketStream packetStream : Translator.translate(fCommandControl, events)) {
+						fCommandControl.getEventQueue().send(packetStream);
+					}
+				}
+			} else if (oobr instanceof MINotifyAsyncOutput) {
+				MINotifyAsyncOutput notify = (MINotifyAsyncOutput) oobr;
+				String notification = notify.getAsyncClass();
+				if ("thread-created".equals(notification) || "thread-exited".equals(notification)) { //$NON-NLS-1$ //$NON-NLS-2$
+					// =thread-created,id="2",group-id="i1"
+					for (MIResult result : notify.getMIResults()) {
+						if (result.getVariable().equals("id") && result.getMIValue() instanceof MIConst) { //$NON-NLS-1$
+							long id = Long.parseLong(((MIConst) result.getMIValue()).getString());
+							if ("thread-created".equals(notification)) { //$NON-NLS-1$
+								fCommandControl.getThreadTable().created(id);
+							} else {
+								fCommandControl.getThreadTable().exited(id);
+							}
 						}
 					}
 				}
@@ -0,0 +1,266 @@
+/*******************************************************************************
+ * Copyright (C) 2022 IBM Corporation
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *******************************************************************************/
+
+package gdb.mi.service.command;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-process stand-in for GDB that answers commands from a recorded MI transcript, so that the
+ * server can be driven without a native image and GDB.
+ * <p>
+ * In a transcript, a line starting with "&gt; " is a command as it was sent, without its token, and
+ * the lines after it are the output GDB wrote for it, up to the next command. The output before the
+ * first command is written as soon as the backend starts. Blank lines and lines starting with '#'
+ * are ignored. For example:
+ * <pre>
+ * =thread-group-added,id="i1"
+ * (gdb)
+ * &gt; -stack-list-frames --thread 1
+ * ^done,stack=[frame={level="0",addr="0x401136",func="Hello::main(java.lang.String[] *)"}]
+ * (gdb)
+ * </pre>
+ * A command is answered with the output recorded for the same command text, or failing that for
+ * the same operation; when an operation was recorded several times, the recordings are used in
+ * turn. The token of the result record is replaced with the one of the command. Commands that were
+ * never recorded get an error record. Every answer is written gdb.mi.replay.latency milliseconds
+ * after its command, in the order the commands came.
+ */
+public class ReplayBackend implements MIBackend {
+	public static final String TRANSCRIPT_PROPERTY = "gdb.mi.replay"; //$NON-NLS-1$
+	public static final String LATENCY_PROPERTY = "gdb.mi.replay.latency"; //$NON-NLS-1$
+
+	private static final String COMMAND_PREFIX = "> "; //$NON-NLS-1$
+	private static final byte[] END = new byte[0];
+
+	/**
+	 * The recorded outputs of a command or operation, used in turn.
+	 */
+	private static final class Recordings {
+		private final List<List<String>> fOutputs = new ArrayList<>();
+		private int fNext = 0;
+
+		synchronized List<String> next() {
+			List<String> output = fOutputs.get(fNext);
+			fNext = (fNext + 1) % fOutputs.size();
+			return output;
+		}
+	}
+
+	private final Map<String, Recordings> fByCommand = new HashMap<>();
+	private final Map<String, Recordings> fByOperation = new HashMap<>();
+	private final long fLatency;
+	private final BlockingQueue<byte[]> fOutput = new LinkedBlockingQueue<>();
+	private final ScheduledExecutorService fScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "MI Replay"); //$NON-NLS-1$
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final InputStream fMIOutput = new OutputReader();
+	private final OutputStream fMIInput = new CommandWriter();
+
+	/**
+	 * Creates a backend replaying the given transcript lines, answering every command after the given
+	 * number of milliseconds.
+	 */
+	public ReplayBackend(List<String> transcript, long latency) {
+		fLatency = latency;
+		List<String> banner = new ArrayList<>();
+		List<String> output = banner;
+		for (String line : transcript) {
+			if (line.isEmpty() || line.startsWith("#")) { //$NON-NLS-1$
+				continue;
+			}
+			if (line.startsWith(COMMAND_PREFIX)) {
+				String command = line.substring(COMMAND_PREFIX.length()).trim();
+				output = new ArrayList<>();
+				fByCommand.computeIfAbsent(command, key -> new Recordings()).fOutputs.add(output);
+				fByOperation.computeIfAbsent(operation(command), key -> new Recordings()).fOutputs.add(output);
+			} else {
+				output.add(line);
+			}
+		}
+		if (!banner.isEmpty()) {
+			fScheduler.execute(() -> write(banner, null));
+		}
+	}
+
+	/**
+	 * Opens the transcript at the given path.
+	 */
+	public static ReplayBackend open(Path transcript, long latency) throws IOException {
+		return new ReplayBackend(Files.readAllLines(transcript, StandardCharsets.UTF_8), latency);
+	}
+
+	@Override
+	public OutputStream getMIInput() {
+		return fMIInput;
+	}
+
+	@Override
+	public InputStream getMIOutput() {
+		return fMIOutput;
+	}
+
+	@Override
+	public InputStream getErrorStream() {
+		return null;
+	}
+
+	@Override
+	public void destroy() {
+		fScheduler.shutdownNow();
+		fOutput.add(END);
+	}
+
+	private static String operation(String command) {
+		int space = command.indexOf(' ');
+		return space < 0 ? command : command.substring(0, space);
+	}
+
+	/**
+	 * Answers one command line, as written by the MI control.
+	 */
+	private void answer(String line) {
+		int start = 0;
+		while (start < line.length() && Character.isDigit(line.charAt(start))) {
+			start++;
+		}
+		String token = line.substring(0, start);
+		String command = line.substring(start).trim();
+		Recordings recordings = fByCommand.get(command);
+		if (recordings == null) {
+			recordings = fByOperation.get(operation(command));
+		}
+		List<String> output;
+		if (recordings != null) {
+			output = recordings.next();
+		} else {
+			output = new ArrayList<>();
+			output.add("^error,msg=\"No recorded reply for " + operation(command).replace("\"", "\\\"") + "\""); //$NON-NLS-1$ //$NON-NLS-2$
+			output.add("(gdb)"); //$NON-NLS-1$
+		}
+		if (fScheduler.isShutdown()) {
+			return;
+		}
+		if (fLatency > 0) {
+			fScheduler.schedule(() -> write(output, token), fLatency, TimeUnit.MILLISECONDS);
+		} else {
+			fScheduler.execute(() -> write(output, token));
+		}
+	}
+
+	/**
+	 * Writes recorded output, giving its result record the given token.
+	 */
+	private void write(List<String> output, String token) {
+		StringBuilder sb = new StringBuilder();
+		for (String line : output) {
+			int start = 0;
+			while (start < line.length() && Character.isDigit(line.charAt(start))) {
+				start++;
+			}
+			if (token != null && start < line.length() && line.charAt(start) == '^') {
+				sb.append(token).append(line, start, line.length());
+			} else {
+				sb.append(line);
+			}
+			sb.append('\n');
+		}
+		fOutput.add(sb.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Collects the bytes written by the MI control into lines, each one a command.
+	 */
+	private class CommandWriter extends OutputStream {
+		private final ByteArrayOutputStream fLine = new ByteArrayOutputStream();
+
+		@Override
+		public synchronized void write(int b) {
+			if (b == '\n') {
+				answer(new String(fLine.toByteArray(), StandardCharsets.UTF_8));
+				fLine.reset();
+			} else {
+				fLine.write(b);
+			}
+		}
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) {
+			for (int i = off; i < off + len; i++) {
+				write(b[i]);
+			}
+		}
+	}
+
+	/**
+	 * Hands out the answers in the order they were written, blocking until there is one.
+	 */
+	private class OutputReader extends InputStream {
+		private byte[] fChunk = new byte[0];
+		private int fPosition = 0;
+
+		private boolean fill() throws IOException {
+			while (fPosition == fChunk.length) {
+				if (fChunk == END) {
+					return false;
+				}
+				try {
+					fChunk = fOutput.take();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException(e);
+				}
+				fPosition = 0;
+			}
+			return true;
+		}
+
+		@Override
+		public synchronized int read() throws IOException {
+			return fill() ? fChunk[fPosition++] & 0xff : -1;
+		}
+
+		@Override
+		public synchronized int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (!fill()) {
+				return -1;
+			}
+			int n = Math.min(len, fChunk.length - fPosition);
+			System.arraycopy(fChunk, fPosition, b, off, n);
+			fPosition += n;
+			return n;
+		}
+
+		@Override
+		public synchronized int available() {
+			return fChunk.length - fPosition;
+		}
+	}
+}
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (C) 2022 IBM Corporation
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *******************************************************************************/
+
+package gdb.mi.service.command;
+
+/**
+ * The JDWP command on whose behalf a thread works, so that the MI commands it queues can be
+ * traced back to the packet of the IDE that caused them.
+ * <p>
+ * The context is attached to the thread replying to the packet. Commands queued while it is
+ * attached carry it, and it is attached again on the MI RX thread while their futures are
+ * completed, so that commands queued by dependent actions carry it too.
+ */
+public final class TraceContext {
+	private static final ThreadLocal<TraceContext> CURRENT = new ThreadLocal<>();
+
+	private final int fPacketId;
+	private final String fName;
+
+	public TraceContext(int packetId, String name) {
+		fPacketId = packetId;
+		fName = name;
+	}
+
+	/**
+	 * Returns the id of the JDWP packet being replied to.
+	 */
+	public int getPacketId() {
+		return fPacketId;
+	}
+
+	/**
+	 * Returns the name of the JDWP command being replied to, such as VirtualMachine.AllThreads.
+	 */
+	public String getName() {
+		return fName;
+	}
+
+	/**
+	 * Returns the context attached to the current thread, or null.
+	 */
+	public static TraceContext current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Attaches the given context, or none if null, to the current thread, and returns the one
+	 * it replaces so that it can be attached again afterwards.
+	 */
+	public static TraceContext attach(TraceContext context) {
+		TraceContext previous = CURRENT.get();
+		if (context != null) {
+			CURRENT.set(context);
+		} else {
+			CURRENT.remove();
+		}
+		return previous;
+	}
+
+	@Override
+	public String toString() {
+		return fName + " #" + fPacketId; //$NON-NLS-1$
+	}
+}
@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright (C) 2022 IBM Corporation
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *******************************************************************************/
+
+package gdb.mi.service.command.commands;
+
+import gdb.mi.service.command.output.MIDataEvaluateExpressionInfo;
+import gdb.mi.service.command.output.MIOutput;
+
+/**
+ * -data-evaluate-expression [ --thread THREAD --frame FRAME ] EXPR
+ *
+ * Evaluates EXPR as an expression, in the given frame of the given thread if any.
+ */
+public class MIDataEvaluateExpression extends MICommand<MIDataEvaluateExpressionInfo> {
+
+	public MIDataEvaluateExpression(String expression) {
+		super("-data-evaluate-expression", new String[] { expression }); //$NON-NLS-1$
+	}
+
+	public MIDataEvaluateExpression(String threadId, String frameId, String expression) {
+		// passed as parameters, like MIVarCreate does
+		super("-data-evaluate-expression", new String[] { "--thread", threadId, "--frame", frameId, expression }); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	@Override
+	public MIDataEvaluateExpressionInfo getResult(MIOutput out) {
+		return new MIDataEvaluateExpressionInfo(out);
+	}
+}
@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Copyright (C) 2022 IBM Corporation
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *******************************************************************************/
+
+package gdb.mi.service.command.commands;
+
+import gdb.mi.service.command.output.MIDataReadMemoryBytesInfo;
+import gdb.mi.service.command.output.MIOutput;
+
+/**
+ * -data-read-memory-bytes [ -o OFFSET ] ADDRESS COUNT
+ *
+ * Where:
+ *
+ * 'ADDRESS'
+ *     An expression specifying the start of the memory range to read.
+ *
+ * 'COUNT'
+ *     The number of bytes to read.
+ *
+ * 'OFFSET'
+ *     The offset relative to ADDRESS at which to start reading.
+ *
+ * The range is returned as blocks of hex encoded contents, leaving out the parts that could not
+ * be read.
+ */
+public class MIDataReadMemoryBytes extends MICommand<MIDataReadMemoryBytesInfo> {
+
+	public MIDataReadMemoryBytes(long address, int count) {
+		super("-data-read-memory-bytes", new String[] { "0x" + Long.toHexString(address), Integer.toString(count) }); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	@Override
+	public MIDataReadMemoryBytesInfo getResult(MIOutput out) {
+		return new MIDataReadMemoryBytesInfo(out);
+	}
+}
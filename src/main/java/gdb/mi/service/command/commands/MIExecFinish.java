@@ -0,0 +1,33 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2009 QNX Software Systems and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     QNX Software Systems - Initial API and implementation
+ *     Wind River Systems   - Modified for new DSF Reference Implementation
+ *******************************************************************************/
+
+package gdb.mi.service.command.commands;
+
+import gdb.mi.service.command.output.MIInfo;
+
+/**
+ *
+ *    -exec-finish
+ *
+ *  Asynchronous command.  Resumes the execution of the inferior program
+ *  until the current function is exited.  Displays the results returned by
+ *  the function.
+ *
+ */
+public class MIExecFinish extends MICommand<MIInfo> {
+	public MIExecFinish() {
+		super("-exec-finish"); //$NON-NLS-1$
+	}
+}
@@ -61,6 +61,15 @@ public class MIVarCreate extends MICommand<MIVarCreateInfo> {
 		super("-var-create", new String[] { name, frameAddr, expression }); //$NON-NLS-1$
 	}
 
+	/**
+	 * Creates the variable object in the given frame of the given thread, rather than in the
+	 * selected one.
+	 */
+	public MIVarCreate(String threadId, String frameId, String name, String frameAddr, String expression) {
+		// passed as parameters, like MIStackListVariables does, so that no "--" separator precedes the name "-"
+		super("-var-create", new String[] { "--thread", threadId, "--frame", frameId, name, frameAddr, expression }); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
 	@Override
 	public MIVarCreateInfo getResult(MIOutput out) {
 		return new MIVarCreateInfo(out);
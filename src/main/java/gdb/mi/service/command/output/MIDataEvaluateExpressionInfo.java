@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright (C) 2022 IBM Corporation
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *******************************************************************************/
+
+package gdb.mi.service.command.output;
+
+/**
+ * -data-evaluate-expression parsing.
+ *
+ *   ^done,value="42"
+ */
+public class MIDataEvaluateExpressionInfo extends MIInfo {
+
+	private String value = ""; //$NON-NLS-1$
+
+	public MIDataEvaluateExpressionInfo(MIOutput out) {
+		super(out);
+		if (isDone()) {
+			MIResultRecord rr = out.getMIResultRecord();
+			MIValue v = rr == null ? null : rr.getField("value"); //$NON-NLS-1$
+			if (v instanceof MIConst) {
+				value = ((MIConst) v).getString();
+			}
+		}
+	}
+
+	public String getValue() {
+		return value;
+	}
+}
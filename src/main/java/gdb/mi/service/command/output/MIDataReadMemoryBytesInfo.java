@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (C) 2022 IBM Corporation
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *******************************************************************************/
+
+package gdb.mi.service.command.output;
+
+/**
+ * -data-read-memory-bytes parsing.
+ *
+ *   ^done,memory=[{begin="0x601040",offset="0x0",end="0x601048",contents="0100000002000000"}]
+ *
+ * The blocks are decoded into a single array, in which the bytes GDB could not read are left 0.
+ */
+public class MIDataReadMemoryBytesInfo extends MIInfo {
+
+	private byte[] bytes;
+	private int readCount;
+
+	public MIDataReadMemoryBytesInfo(MIOutput out) {
+		super(out);
+		bytes = new byte[0];
+		if (isDone()) {
+			MIResultRecord rr = out.getMIResultRecord();
+			MIValue memory = rr == null ? null : rr.getField("memory"); //$NON-NLS-1$
+			if (memory instanceof MIList) {
+				parse((MIList) memory);
+			}
+		}
+	}
+
+	private void parse(MIList memory) {
+		MIValue[] blocks = memory.getMIValues();
+		long start = Long.MAX_VALUE;
+		long end = Long.MIN_VALUE;
+		for (MIValue block : blocks) {
+			long begin = address(block, "begin") + address(block, "offset"); //$NON-NLS-1$ //$NON-NLS-2$
+			start = Math.min(start, begin);
+			end = Math.max(end, begin + contents(block).length() / 2);
+		}
+		if (blocks.length == 0) {
+			return;
+		}
+		bytes = new byte[(int) (end - start)];
+		for (MIValue block : blocks) {
+			int position = (int) (address(block, "begin") + address(block, "offset") - start); //$NON-NLS-1$ //$NON-NLS-2$
+			String contents = contents(block);
+			for (int i = 0; i + 1 < contents.length(); i += 2) {
+				bytes[position++] = (byte) ((digit(contents.charAt(i)) << 4) | digit(contents.charAt(i + 1)));
+			}
+			readCount += contents.length() / 2;
+		}
+	}
+
+	private static long address(MIValue block, String name) {
+		MIValue value = ((MITuple) block).getField(name);
+		if (!(value instanceof MIConst)) {
+			return 0;
+		}
+		String s = ((MIConst) value).getCString();
+		return s.startsWith("0x") ? Long.parseUnsignedLong(s.substring(2), 16) : Long.parseLong(s); //$NON-NLS-1$
+	}
+
+	private static String contents(MIValue block) {
+		MIValue value = ((MITuple) block).getField("contents"); //$NON-NLS-1$
+		// plain hex, nothing to unescape
+		return value instanceof MIConst ? ((MIConst) value).getCString() : ""; //$NON-NLS-1$
+	}
+
+	private static int digit(char c) {
+		if (c <= '9') {
+			return c - '0';
+		}
+		return (c | 0x20) - 'a' + 10;
+	}
+
+	/**
+	 * Returns the bytes read, from the lowest address GDB returned.
+	 */
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Returns the number of bytes GDB could actually read.
+	 */
+	public int getReadCount() {
+		return readCount;
+	}
+}
@@ -0,0 +1,404 @@
+/*******************************************************************************
+ * Copyright (C) 2022 IBM Corporation
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *******************************************************************************/
+
+package gdb.mi.service.command.output;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single pass GDB/MI parser working over a range of a char array, typically the line buffer
+ * of the reader the output comes from.
+ * <p>
+ * It builds the same record trees as {@link MIParser}, including its handling of malformed
+ * input, but walks the line with an index instead of deleting parsed characters from a copy of it.
+ * The only strings it creates are the ones that end up in the tree; variable names and async
+ * classes repeat all the time and are shared through a small cache.
+ * <p>
+ * An instance keeps state between calls and must only be used by one thread.
+ */
+public class MIStreamParser {
+	private static final int NAME_CACHE_SIZE = 512;
+	private static final int MAX_CACHED_NAME_LENGTH = 32;
+	private static final MIResult[] NO_RESULTS = new MIResult[0];
+	private static final MIValue[] NO_VALUES = new MIValue[0];
+
+	public String primaryPrompt = "(gdb)"; //$NON-NLS-1$
+
+	private final String[] fNames = new String[NAME_CACHE_SIZE];
+	private final StringBuilder fCString = new StringBuilder();
+
+	/*
+	 *  The line being parsed: fBuf[fPos, fEnd).
+	 */
+	private char[] fBuf;
+	private int fPos;
+	private int fEnd;
+
+	public MIParser.RecordType getRecordType(char[] buf, int offset, int length) {
+		int end = offset + length;
+		int i = offset;
+		while (i < end && Character.isDigit(buf[i])) {
+			i++;
+		}
+		if (i < end && buf[i] == '^') {
+			return MIParser.RecordType.ResultRecord;
+		} else if (regionMatches(buf, i, end, primaryPrompt)) {
+			return MIParser.RecordType.PrimaryPrompt;
+		} else {
+			return MIParser.RecordType.OOBRecord;
+		}
+	}
+
+	public MIParser.RecordType getRecordType(String line) {
+		return getRecordType(line.toCharArray(), 0, line.length());
+	}
+
+	public MIResultRecord parseMIResultRecord(char[] buf, int offset, int length) {
+		reset(buf, offset, length);
+		MIResultRecord rr = new MIResultRecord();
+		rr.setToken(parseToken());
+		// Consume the '^'
+		fPos++;
+
+		String resultClass = matchResultClass();
+		if (resultClass != null) {
+			rr.setResultClass(resultClass);
+			fPos += resultClass.length();
+		}
+
+		// Results are separated by commas.
+		if (fPos < fEnd && fBuf[fPos] == ',') {
+			fPos++;
+			rr.setMIResults(processMIResults());
+		}
+		release();
+		return rr;
+	}
+
+	public MIResultRecord parseMIResultRecord(String line) {
+		return parseMIResultRecord(line.toCharArray(), 0, line.length());
+	}
+
+	public MIOOBRecord parseMIOOBRecord(char[] buf, int offset, int length) {
+		reset(buf, offset, length);
+		int id = parseToken();
+		MIOOBRecord oob;
+		char c = fPos < fEnd ? fBuf[fPos] : 0;
+		if (c == '*' || c == '+' || c == '=') {
+			fPos++;
+			MIAsyncRecord async;
+			if (c == '*') {
+				async = new MIExecAsyncOutput();
+			} else if (c == '+') {
+				async = new MIStatusAsyncOutput();
+			} else {
+				async = new MINotifyAsyncOutput();
+			}
+			async.setToken(id);
+			int comma = indexOf(',', fPos);
+			if (comma != -1) {
+				async.setAsyncClass(name(fPos, comma));
+				fPos = comma + 1;
+			} else {
+				async.setAsyncClass(trimmedName(fPos, fEnd));
+				fPos = fEnd;
+			}
+			async.setMIResults(processMIResults());
+			oob = async;
+		} else if (c == '~' || c == '@' || c == '&') {
+			fPos++;
+			MIStreamRecord stream;
+			if (c == '~') {
+				stream = new MIConsoleStreamOutput();
+			} else if (c == '@') {
+				stream = new MITargetStreamOutput();
+			} else {
+				stream = new MILogStreamOutput();
+			}
+			if (fPos < fEnd && fBuf[fPos] == '"') {
+				fPos++;
+			}
+			// Backslashes within stream records aren't escaped.
+			stream.setCString(translateCString(false));
+			oob = stream;
+		} else {
+			// Badly format MI line, just pass it to the user as target stream
+			MIStreamRecord stream = new MITargetStreamOutput();
+			stream.setCString(new String(buf, offset, length) + "\n"); //$NON-NLS-1$
+			oob = stream;
+		}
+		release();
+		return oob;
+	}
+
+	public MIOOBRecord parseMIOOBRecord(String line) {
+		return parseMIOOBRecord(line.toCharArray(), 0, line.length());
+	}
+
+	private void reset(char[] buf, int offset, int length) {
+		fBuf = buf;
+		fPos = offset;
+		fEnd = offset + length;
+	}
+
+	private void release() {
+		// Do not pin the caller's buffer.
+		fBuf = null;
+	}
+
+	private int parseToken() {
+		int start = fPos;
+		while (fPos < fEnd && Character.isDigit(fBuf[fPos])) {
+			fPos++;
+		}
+		if (fPos == start) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(new String(fBuf, start, fPos - start));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private String matchResultClass() {
+		if (regionMatches(fBuf, fPos, fEnd, MIResultRecord.DONE)) {
+			return MIResultRecord.DONE;
+		} else if (regionMatches(fBuf, fPos, fEnd, MIResultRecord.ERROR)) {
+			return MIResultRecord.ERROR;
+		} else if (regionMatches(fBuf, fPos, fEnd, MIResultRecord.EXIT)) {
+			return MIResultRecord.EXIT;
+		} else if (regionMatches(fBuf, fPos, fEnd, MIResultRecord.RUNNING)) {
+			return MIResultRecord.RUNNING;
+		} else if (regionMatches(fBuf, fPos, fEnd, MIResultRecord.CONNECTED)) {
+			return MIResultRecord.CONNECTED;
+		}
+		return null;
+	}
+
+	/**
+	 * Extracts the comma separated results, assuming the leading comma was consumed.
+	 */
+	private MIResult[] processMIResults() {
+		MIResult first = processMIResult();
+		if (fPos >= fEnd || fBuf[fPos] != ',') {
+			return new MIResult[] { first };
+		}
+		List<MIResult> aList = new ArrayList<>();
+		aList.add(first);
+		while (fPos < fEnd && fBuf[fPos] == ',') {
+			fPos++;
+			aList.add(processMIResult());
+		}
+		return aList.toArray(NO_RESULTS);
+	}
+
+	private MIResult processMIResult() {
+		MIResult result = new MIResult();
+		int equal;
+		if (fPos < fEnd && Character.isLetter(fBuf[fPos]) && (equal = indexOf('=', fPos)) != -1) {
+			// Result is a variable and value
+			result.setVariable(name(fPos, equal));
+			fPos = equal + 1;
+			result.setMIValue(processMIValue());
+		} else {
+			MIValue value = processMIValue();
+			if (value != null) {
+				// Result is a value only (bug 527419)
+				result.setMIValue(value);
+			} else {
+				result.setVariable(new String(fBuf, fPos, fEnd - fPos));
+				result.setMIValue(new MIConst()); // Empty string:???
+				fPos = fEnd;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the value at the current position, or null if there is none.
+	 */
+	private MIValue processMIValue() {
+		if (fPos >= fEnd) {
+			return null;
+		}
+		char c = fBuf[fPos];
+		if (c == '{') {
+			fPos++;
+			MITuple tuple = new MITuple();
+			processMIValues(tuple, '}');
+			return tuple;
+		} else if (c == '[') {
+			fPos++;
+			MIList list = new MIList();
+			processMIValues(list, ']');
+			return list;
+		} else if (c == '"') {
+			fPos++;
+			MIConst cnst = new MIConst();
+			// Backslashes within result and out of band records are escaped.
+			cnst.setCString(translateCString(true));
+			return cnst;
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the values and results of a tuple or list up to the closing character,
+	 * assuming the opening one was consumed.
+	 */
+	private void processMIValues(MIValue container, char closing) {
+		List<MIValue> valueList = null;
+		List<MIResult> resultList = null;
+		while (fPos < fEnd && fBuf[fPos] != closing) {
+			// Try for the MIValue first
+			MIValue value = processMIValue();
+			if (value != null) {
+				if (valueList == null) {
+					valueList = new ArrayList<>();
+				}
+				valueList.add(value);
+			} else {
+				if (resultList == null) {
+					resultList = new ArrayList<>();
+				}
+				resultList.add(processMIResult());
+			}
+			if (fPos < fEnd && fBuf[fPos] == ',') {
+				fPos++;
+			}
+		}
+		if (fPos < fEnd && fBuf[fPos] == closing) {
+			fPos++;
+		}
+		MIValue[] values = valueList == null ? NO_VALUES : valueList.toArray(NO_VALUES);
+		MIResult[] results = resultList == null ? NO_RESULTS : resultList.toArray(NO_RESULTS);
+		if (container instanceof MITuple) {
+			((MITuple) container).setMIValues(values);
+			((MITuple) container).setMIResults(results);
+		} else {
+			((MIList) container).setMIValues(values);
+			((MIList) container).setMIResults(results);
+		}
+	}
+
+	/**
+	 * Reads a C string up to and including its closing double quote, assuming the opening one
+	 * was consumed, and returns it without the quotes. Escaped quotes and backslashes are
+	 * unescaped when parseBackslashes is set; other escape sequences are kept as they are,
+	 * exactly like {@link MIParser} does.
+	 */
+	private String translateCString(boolean parseBackslashes) {
+		int start = fPos;
+		int i = fPos;
+		// Fast path: no escapes, the string is a plain copy of the line.
+		while (i < fEnd) {
+			char c = fBuf[i];
+			if (c == '"') {
+				fPos = i + 1;
+				return new String(fBuf, start, i - start);
+			} else if (c == '\\') {
+				break;
+			}
+			i++;
+		}
+
+		StringBuilder sb = fCString;
+		sb.setLength(0);
+		sb.append(fBuf, start, i - start);
+		boolean escape = false;
+		for (; i < fEnd; i++) {
+			char c = fBuf[i];
+			if (c == '\\') {
+				if (escape) {
+					sb.append(c);
+					if (!parseBackslashes) {
+						sb.append(c);
+					}
+					escape = false;
+				} else {
+					escape = true;
+				}
+			} else if (c == '"') {
+				if (escape) {
+					sb.append(c);
+					escape = false;
+				} else {
+					// Bail out.
+					i++;
+					break;
+				}
+			} else {
+				if (escape) {
+					sb.append('\\');
+				}
+				sb.append(c);
+				escape = false;
+			}
+		}
+		fPos = i;
+		return sb.toString();
+	}
+
+	private int indexOf(char c, int from) {
+		for (int i = from; i < fEnd; i++) {
+			if (fBuf[i] == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean regionMatches(char[] buf, int from, int end, String s) {
+		int len = s.length();
+		if (end - from < len) {
+			return false;
+		}
+		for (int i = 0; i < len; i++) {
+			if (buf[from + i] != s.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String trimmedName(int start, int end) {
+		while (start < end && fBuf[start] <= ' ') {
+			start++;
+		}
+		while (end > start && fBuf[end - 1] <= ' ') {
+			end--;
+		}
+		return name(start, end);
+	}
+
+	/**
+	 * Returns the string for fBuf[start, end), shared with earlier occurrences of short names.
+	 */
+	private String name(int start, int end) {
+		int len = end - start;
+		if (len > MAX_CACHED_NAME_LENGTH) {
+			return new String(fBuf, start, len);
+		}
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + fBuf[i];
+		}
+		int slot = (hash ^ (hash >>> 16)) & (NAME_CACHE_SIZE - 1);
+		String cached = fNames[slot];
+		if (cached != null && cached.length() == len && regionMatches(fBuf, start, end, cached)) {
+			return cached;
+		}
+		String name = new String(fBuf, start, len);
+		fNames[slot] = name;
+		return name;
+	}
+}
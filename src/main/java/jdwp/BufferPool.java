@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Direct buffers that packets are written into, reused from one packet to the next.
+ *
+ * Buffers of {@link #BUFFER_SIZE} bytes are pooled, up to {@link #MAX_POOLED} of them. Packets that
+ * outgrow that size (class bytes, large arrays) get a heap buffer that is dropped on release, so that
+ * the pool never pins more than a few hundred kilobytes of native memory.
+ */
+final class BufferPool {
+    static final int BUFFER_SIZE = Integer.getInteger("jdwp.buffer.size", 8192);
+    static final int MAX_POOLED = 32;
+
+    private static final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private BufferPool() {
+    }
+
+    /**
+     * Returns a cleared buffer of {@link #BUFFER_SIZE} bytes.
+     */
+    static ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        pooled.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a cleared buffer of at least the given capacity.
+     */
+    static ByteBuffer acquire(int capacity) {
+        return capacity <= BUFFER_SIZE ? acquire() : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Hands a buffer back to the pool. The caller must not use it afterwards.
+     */
+    static void release(ByteBuffer buffer) {
+        if (!buffer.isDirect() || buffer.capacity() != BUFFER_SIZE) {
+            return;
+        }
+        if (pooled.incrementAndGet() <= MAX_POOLED) {
+            free.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import gdb.mi.service.command.commands.MICommand;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * The event packets on their way to the IDE.
+ *
+ * Events are sent as soon as they are translated, unless the IDE asked for them to be held with
+ * VirtualMachine.HoldEvents. They then wait here, in order, until VirtualMachine.ReleaseEvents
+ * sends them back to back. Events cannot be dropped, so when jdwp.events.buffer of them are
+ * waiting the target is interrupted. Only a stop makes events, so the target is most often
+ * stopped already and the interrupt does nothing; it is continued again on release only if the
+ * interrupt did stop it, and none of the events released told the IDE that threads are suspended.
+ */
+public class EventQueue {
+    static final String CAPACITY_PROPERTY = "jdwp.events.buffer";
+    static final int CAPACITY = Integer.getInteger(CAPACITY_PROPERTY, 256);
+
+    private final GDBControl gc;
+    private final int capacity;
+    private final Deque<PacketStream> held = new ArrayDeque<>();
+    private boolean holding = false;
+    private boolean interrupting = false; // the target was interrupted because too many events were held
+    private boolean interrupted = false; // and it was running: the next stop came from the interrupt
+    private boolean suspending = false; // an event held suspends threads
+
+    EventQueue(GDBControl gc) {
+        this(gc, CAPACITY);
+    }
+
+    EventQueue(GDBControl gc, int capacity) {
+        this.gc = gc;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Sends an event packet, or keeps it for later while events are held.
+     */
+    public synchronized void send(PacketStream packet) {
+        if (!holding) {
+            packet.send();
+            return;
+        }
+        held.add(packet);
+        suspending |= packet.suspendPolicy() != JDWP.SuspendPolicy.NONE;
+        if (held.size() >= capacity && !interrupting && !interrupted) {
+            // Called from the thread reading GDB's output, so the reply cannot be waited for.
+            MICommand cmd = gc.getCommandFactory().createMIExecInterrupt(true);
+            gc.queueAsyncCommand(JDWP.getNewTokenId(), cmd);
+            interrupting = true;
+        }
+    }
+
+    /**
+     * Notes that the target stopped, by the interrupt (a SIGINT) or for any other reason; the
+     * first stop after the interrupt tells whether the target was running when it was sent.
+     */
+    public synchronized void stopped(boolean byInterrupt) {
+        if (interrupting) {
+            interrupting = false;
+            interrupted = byInterrupt;
+        }
+    }
+
+    /**
+     * Starts holding events; ignored if they are held already.
+     */
+    synchronized void hold() {
+        holding = true;
+    }
+
+    /**
+     * Sends the events held so far and stops holding them, continuing the target if the interrupt
+     * stopped it and no event released suspends threads; ignored if events are not held.
+     */
+    synchronized void release() {
+        if (!holding) {
+            return;
+        }
+        holding = false;
+        for (PacketStream packet = held.poll(); packet != null; packet = held.poll()) {
+            packet.send();
+        }
+        if (interrupted && !suspending) {
+            MICommand cmd = gc.getCommandFactory().createMIExecContinue(true);
+            gc.queueAsyncCommand(JDWP.getNewTokenId(), cmd);
+        }
+        interrupting = false;
+        interrupted = false;
+        suspending = false;
+    }
+
+    synchronized int size() {
+        return held.size();
+    }
+}
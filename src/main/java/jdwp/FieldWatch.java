@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import gdb.mi.service.command.output.MIBreakInsertInfo;
+import jdwp.jdi.FieldImpl;
+import jdwp.jdi.ReferenceTypeImpl;
+
+/**
+ * A field access or modification request, and the GDB hardware watchpoint serving it.
+ *
+ * Only static fields can be watched: their address in the native image is known from the
+ * StaticFieldIndex, while object IDs refer to mirrors of the scaffolding VM and the objects of
+ * the image have none yet.
+ */
+class FieldWatch {
+    final MIBreakInsertInfo info;
+    final ReferenceTypeImpl referenceType;
+    final FieldImpl field;
+
+    FieldWatch(MIBreakInsertInfo info, ReferenceTypeImpl referenceType, FieldImpl field) {
+        this.info = info;
+        this.referenceType = referenceType;
+        this.field = field;
+    }
+
+    /**
+     * Returns the expression GDB watches for a field of the given type tag at the given address,
+     * so that the watchpoint covers exactly the size of the field.
+     */
+    static String expression(byte tag, long address) {
+        return "*(" + cType(tag) + " *)0x" + Long.toHexString(address);
+    }
+
+    private static String cType(byte tag) {
+        switch (tag) {
+            case JDWP.Tag.BOOLEAN:
+            case JDWP.Tag.BYTE:
+                return "char";
+            case JDWP.Tag.CHAR:
+            case JDWP.Tag.SHORT:
+                return "short";
+            case JDWP.Tag.INT:
+                return "int";
+            case JDWP.Tag.FLOAT:
+                return "float";
+            case JDWP.Tag.DOUBLE:
+                return "double";
+            default: // long and references
+                return "long";
+        }
+    }
+}
@@ -27,14 +27,30 @@ package jdwp;
 
 import com.sun.jdi.connect.spi.Connection;
 import gdb.mi.service.command.AbstractMIControl;
+import gdb.mi.service.command.CommandMetrics;
+import gdb.mi.service.command.GDBProcessBackend;
+import gdb.mi.service.command.MIBackend;
+import gdb.mi.service.command.ReplayBackend;
 import jdwp.jdi.VirtualMachineImpl;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
 
 public class GDBControl extends AbstractMIControl {
     private boolean initialized = false;
     private final Connection myConnection;
     public VirtualMachineImpl vm;
+    private final ThreadStackCache stackCache = new ThreadStackCache(this);
+    private final VariableObjects variableObjects = new VariableObjects(this);
+    private final NativeMemory nativeMemory = new NativeMemory(this);
+    private final ValueCache valueCache = new ValueCache();
+    private final StaticFieldIndex staticFieldIndex = new StaticFieldIndex(this);
+    private final ThreadTable threadTable = new ThreadTable(this);
+    private final EventQueue eventQueue = new EventQueue(this);
+    private final StepEngine stepEngine = new StepEngine(this);
+    private final MethodEvents methodEvents = new MethodEvents(this);
+    private final CommandMetrics packetMetrics = new CommandMetrics("queue", "reply", "send");
 
 
     int sizeofFieldRef = 8;
@@ -46,7 +62,7 @@ public class GDBControl extends AbstractMIControl {
     OutputStream gdbInput = null;
     InputStream  gdbOutput = null;
     InputStream  gdbError = null;
-    BufferedReader outputReader = null;
+    private MIBackend backend = null;
 
     public GDBControl(Connection myConnection, VirtualMachineImpl vm)  {
         super(); //AbstractMIControl sets up command factory
@@ -56,14 +72,15 @@ public class GDBControl extends AbstractMIControl {
         try {
             String exec = System.getProperty("native.exec");
             String src = System.getProperty("native.src");
-            ProcessBuilder builder = new ProcessBuilder("gdb", "--interpreter=mi", exec);
-            builder.redirectErrorStream(true); // so we can ignore the error stream
-
-            Process process = builder.start();
-            gdbInput = process.getOutputStream();
-            gdbOutput = process.getInputStream();
-            gdbError = process.getErrorStream();
-            outputReader = new BufferedReader(new InputStreamReader(gdbOutput, "UTF-8"));
+            String transcript = System.getProperty(ReplayBackend.TRANSCRIPT_PROPERTY);
+            if (transcript != null) {
+                backend = ReplayBackend.open(Paths.get(transcript), Long.getLong(ReplayBackend.LATENCY_PROPERTY, 0));
+            } else {
+                backend = GDBProcessBackend.start(exec);
+            }
+            gdbInput = backend.getMIInput();
+            gdbOutput = backend.getMIOutput();
+            gdbError = backend.getErrorStream();
 
             byte[] com = ("-environment-directory "+src+"\n").getBytes();
             gdbInput.write(com, 0, com.length);
@@ -85,6 +102,94 @@ public class GDBControl extends AbstractMIControl {
         }
     }
 
+    /**
+     * Creates a control that does not start GDB, for benchmarks and tools that only need the
+     * packet side, or that start command processing on streams of their own.
+     */
+    GDBControl(Connection myConnection) {
+        super();
+        this.myConnection = myConnection;
+    }
+
+    /**
+     * Returns what the MI commands are sent to: GDB, or the stand-in replaying a transcript when
+     * gdb.mi.replay is set.
+     */
+    public MIBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Returns the stacks and frame variables cached for the current stop.
+     */
+    public ThreadStackCache getStackCache() {
+        return stackCache;
+    }
+
+    /**
+     * Returns the GDB variable objects backing the locals of the frames seen so far.
+     */
+    public VariableObjects getVariableObjects() {
+        return variableObjects;
+    }
+
+    /**
+     * Returns the arrays and strings of the native image seen during the current stop.
+     */
+    public NativeMemory getNativeMemory() {
+        return nativeMemory;
+    }
+
+    /**
+     * Returns the values read since the target last started running.
+     */
+    public ValueCache getValueCache() {
+        return valueCache;
+    }
+
+    /**
+     * Returns the static fields of the native image, listed once per session.
+     */
+    public StaticFieldIndex getStaticFieldIndex() {
+        return staticFieldIndex;
+    }
+
+    /**
+     * Returns the threads of the target, listed once per stop.
+     */
+    public ThreadTable getThreadTable() {
+        return threadTable;
+    }
+
+    /**
+     * Returns the queue the event packets go through to the IDE.
+     */
+    public EventQueue getEventQueue() {
+        return eventQueue;
+    }
+
+    /**
+     * Returns the steps in progress.
+     */
+    public StepEngine getStepEngine() {
+        return stepEngine;
+    }
+
+    /**
+     * Returns the method entry and exit requests and their breakpoints.
+     */
+    public MethodEvents getMethodEvents() {
+        return methodEvents;
+    }
+
+    /**
+     * Returns the counts and latency histograms of the JDWP commands replied to so far: the time
+     * each waited to be handled, the time its reply took to build and the time it took to send.
+     */
+    public CommandMetrics getPacketMetrics() {
+        return packetMetrics;
+    }
+
     public void initialized() {
         initialized = true;
     }
@@ -114,27 +219,48 @@ public class GDBControl extends AbstractMIControl {
         }
     }
 
+    /**
+     * Reads GDB's output up to its next prompt. The output is read without buffering, so that
+     * nothing is taken from the stream that the MI RX thread will need once it is started.
+     */
     public String getGDBOutput() {
-        String result = "";
+        StringBuilder result = new StringBuilder();
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
         try {
-            boolean done = false;
-            while(!done) {
-                if (outputReader.ready()) {
-                    result += outputReader.readLine() + "\n";
-                    if (result.contains("(gdb)")) {
-                        done = true;
-                    }
+            for (int b = gdbOutput.read(); b != -1; b = gdbOutput.read()) {
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+                String text = line.toString("UTF-8");
+                result.append(text).append('\n');
+                if (text.contains("(gdb)")) {
+                    break;
                 }
+                line.reset();
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
-        return result;
+        return result.toString();
     }
 
     public void sendToTarget(Packet pkt) {
+        sendToTarget(pkt, ByteBuffer.wrap(pkt.data));
+    }
+
+    /**
+     * Sends the packet with the given data, from the position to the limit of the buffer.
+     */
+    public void sendToTarget(Packet pkt, ByteBuffer data) {
         try {
-            myConnection.writePacket(pkt.toByteArray());
+            if (myConnection instanceof SocketConnection) {
+                ((SocketConnection) myConnection).writePacket(pkt, data);
+            } else {
+                pkt.data = new byte[data.remaining()];
+                data.get(pkt.data);
+                myConnection.writePacket(pkt.toByteArray());
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -29,6 +29,11 @@ import gdb.mi.service.command.output.*;
 import jdwp.jdi.*;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Java(tm) Debug Wire Protocol
@@ -41,17 +46,23 @@ public class JDWP {
     public static final int DEF_REQUEST_TIMEOUT = 300000;
 
     /**
-     * Global maps to store breakpoint information for both async (by bkpt#) and sync (by requestID) processing
+     * Milliseconds GDB has to answer a breakpoint insert that was not waited for, before its request is given up.
      */
-    static Map<Integer, MIBreakInsertInfo> bkptsByBreakpointNumber = new HashMap<>(); //for async events processing
-    static Map<Integer, LocationImpl> bkptsLocation = new HashMap<>(); //for async events processing
-    static Map<Integer, MIBreakInsertInfo> bkptsByRequestID = new HashMap<>(); //for sync event requests
+    static final String INSERT_TIMEOUT_PROPERTY = "jdwp.insert.timeout";
+    static final long INSERT_TIMEOUT = Long.getLong(INSERT_TIMEOUT_PROPERTY, 10000);
 
-    static Map<Long, MIInfo> stepByThreadID = new HashMap<>(); //for async events processing
+    /**
+     * Global maps to store breakpoint information for both async (by bkpt#) and sync (by requestID) processing
+     */
+    static Map<Integer, MIBreakInsertInfo> bkptsByBreakpointNumber = new ConcurrentHashMap<>(); //for async events processing
+    static Map<Integer, LocationImpl> bkptsLocation = new ConcurrentHashMap<>(); //for async events processing
+    static Map<Integer, MIBreakInsertInfo> bkptsByRequestID = new ConcurrentHashMap<>(); //for sync event requests
+    static Map<Integer, FieldWatch> watchesByBreakpointNumber = new ConcurrentHashMap<>(); //for async events processing
+    static Map<Integer, CompletableFuture<Void>> bkptsPending = new ConcurrentHashMap<>(); //inserts GDB has not answered yet, by requestID
 
-    static Map<Integer, MIFrame> framesById = new HashMap<>();
+    static Map<Long, MIInfo> stepByThreadID = new ConcurrentHashMap<>(); //for async events processing
 
-    static Map<Integer, LocalVariableImpl> localsByID = new HashMap<>();
+    static Map<Integer, LocalVariableImpl> localsByID = new ConcurrentHashMap<>();
 
     static ArrayList<ReferenceTypeImpl> stringClasses = new ArrayList<>();  // get java/lang/String class for asm variable
 
@@ -66,7 +77,11 @@ public class JDWP {
     // A variable to be used for local variables that are optimized out by gdb
     final static long optimizedVarID = -Long.MAX_VALUE;
 
-    static int getNewTokenId() {
+    // IDs of the arrays and strings read from the native image count up from here, away from the asm IDs
+    static final long NATIVE_ID_BASE = Long.MIN_VALUE / 2;
+    static long nativeIdCounter = NATIVE_ID_BASE;
+
+    static synchronized int getNewTokenId() {
         int count = ++fTokenIdCounter;
         // If we ever wrap around.
         if (count <= 0) {
@@ -75,7 +90,34 @@ public class JDWP {
         return count;
     }
 
-    static long getNewAsmId() {
+    /**
+     * Waits until GDB has answered the insert of the breakpoint with the given request ID, if it is still pending.
+     */
+    static void awaitBreakpoint(int requestID) {
+        CompletableFuture<Void> pending = bkptsPending.get(requestID);
+        if (pending != null) {
+            await(pending);
+        }
+    }
+
+    /**
+     * Waits until GDB has answered all pending breakpoint inserts.
+     */
+    static void awaitBreakpoints() {
+        await(CompletableFuture.allOf(bkptsPending.values().toArray(new CompletableFuture[0])));
+    }
+
+    private static void await(CompletableFuture<Void> future) {
+        try {
+            future.get(DEF_REQUEST_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            e.printStackTrace();
+        }
+    }
+
+    static synchronized long getNewAsmId() {
         long count = --asmIdCounter;
         // If we ever wrap around.
         if (count == optimizedVarID) {
@@ -84,6 +126,10 @@ public class JDWP {
         return count;
     }
 
+    static synchronized long getNewNativeId() {
+        return ++nativeIdCounter;
+    }
+
     interface Error {
         int NONE = 0;
         int INVALID_THREAD = 10;
@@ -217,6 +263,21 @@ public class JDWP {
         byte CLASS_OBJECT = 99;
     }
 
+    interface ModKind {
+        int COUNT = 1;
+        int CONDITIONAL = 2;
+        int THREAD_ONLY = 3;
+        int CLASS_ONLY = 4;
+        int CLASS_MATCH = 5;
+        int CLASS_EXCLUDE = 6;
+        int LOCATION_ONLY = 7;
+        int EXCEPTION_ONLY = 8;
+        int FIELD_ONLY = 9;
+        int STEP = 10;
+        int INSTANCE_ONLY = 11;
+        int SOURCE_NAME_MATCH = 12;
+    }
+
     interface StepDepth {
         int INTO = 0;
         int OVER = 1;
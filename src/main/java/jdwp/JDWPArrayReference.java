@@ -43,7 +43,21 @@ public class JDWPArrayReference  {
             static final int COMMAND = 1;
 
             public void reply(GDBControl gc, PacketStream answer, PacketStream command) {
-                ArrayReferenceImpl arrayReference = command.readArrayReference();
+                long uniqueID = command.readObjectRef();
+                NativeMemory.Array array = gc.getNativeMemory().getArray(uniqueID);
+                if (array != null) {
+                    answer.writeInt(array.length);
+                    return;
+                }
+                if (NativeMemory.isNativeId(uniqueID)) { // a string, or an array seen before the target last ran
+                    if (gc.getNativeMemory().contains(uniqueID)) {
+                        answer.pkt.errorCode = JDWP.Error.INVALID_ARRAY;
+                    } else {
+                        answer.pkt.errorCode = JDWP.Error.INVALID_OBJECT;
+                    }
+                    return;
+                }
+                ArrayReferenceImpl arrayReference = (ArrayReferenceImpl) gc.vm.objectMirror(uniqueID);
                 answer.writeInt(arrayReference.length());
             }
         }
@@ -56,10 +70,38 @@ public class JDWPArrayReference  {
             static final int COMMAND = 2;
 
             public void reply(GDBControl gc, PacketStream answer, PacketStream command) {
-                ArrayReferenceImpl arrayReference = command.readArrayReference();
+                long uniqueID = command.readObjectRef();
                 int start = command.readInt();
                 int length = command.readInt();
 
+                NativeMemory.Array array = gc.getNativeMemory().getArray(uniqueID);
+                if (array != null) {
+                    if (length == -1) { // -1 means the rest of the array
+                        length = array.length - start;
+                    }
+                    if (start < 0 || length < 0 || start + length > array.length) {
+                        answer.pkt.errorCode = JDWP.Error.INVALID_INDEX;
+                        return;
+                    }
+                    Object elements = gc.getNativeMemory().readElements(array, start, length);
+                    if (elements == null) {
+                        answer.pkt.errorCode = JDWP.Error.INTERNAL;
+                        return;
+                    }
+                    answer.writeArrayRegion(elements, array.tag);
+                    return;
+                }
+                if (NativeMemory.isNativeId(uniqueID)) { // a string, or an array seen before the target last ran
+                    if (gc.getNativeMemory().contains(uniqueID)) {
+                        answer.pkt.errorCode = JDWP.Error.INVALID_ARRAY;
+                    } else {
+                        answer.pkt.errorCode = JDWP.Error.INVALID_OBJECT;
+                    }
+                    return;
+                }
+
+                ArrayReferenceImpl arrayReference = (ArrayReferenceImpl) gc.vm.objectMirror(uniqueID);
+
                 byte tag;
                 try {
                     TypeImpl type = arrayReference.arrayType().componentType();
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A Flight Recorder event spanning the reply to a JDWP command, from the start of its handling to
+ * the time its reply was sent. The MI commands sent for it are nativejdb.MICommand events with
+ * the same packet id.
+ */
+@Name("nativejdb.JDWPCommand")
+@Label("JDWP Command")
+@Category({"NativeJDB", "JDWP"})
+@Description("The reply to a JDWP command, from the start of its handling to the time it was sent")
+class JDWPCommandEvent extends Event {
+    @Label("Packet Id")
+    int packetId;
+
+    @Label("Command")
+    String command;
+
+    @Label("Error Code")
+    int errorCode;
+
+    @Label("Queue Wait")
+    @Description("Time from reading the packet to starting its reply")
+    @Timespan(Timespan.NANOSECONDS)
+    long queueWait;
+}
@@ -32,12 +32,15 @@ import gdb.mi.service.command.commands.MICommand;
 import gdb.mi.service.command.output.MIBreakInsertInfo;
 import gdb.mi.service.command.output.MIInfo;
 import gdb.mi.service.command.output.MIResultRecord;
+import jdwp.jdi.FieldImpl;
 import jdwp.jdi.LocationImpl;
 import jdwp.jdi.ReferenceTypeImpl;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 public class JDWPEventRequest {
 
@@ -58,6 +61,16 @@ public class JDWPEventRequest {
         static class Set implements Command  {
             static final int COMMAND = 1;
 
+            private final long insertTimeout;
+
+            Set() {
+                this(JDWP.INSERT_TIMEOUT);
+            }
+
+            Set(long insertTimeout) {
+                this.insertTimeout = insertTimeout;
+            }
+
             private boolean differentBreakLine(MIBreakInsertInfo reply) {
                 int line = reply.getMIBreakpoint().getLine();
                 String originalLocation = reply.getMIBreakpoint().getOriginalLocation();
@@ -66,63 +79,191 @@ public class JDWPEventRequest {
                 return line != originalLine;
             }
 
+            /**
+             * Records the breakpoint GDB inserted for a request. Runs on the MI RX thread, before the
+             * events that follow the reply are processed.
+             */
+            private void breakpointInserted(GDBControl gc, MIBreakInsertInfo reply, String location, LocationImpl loc,
+                                            int requestID, byte eventKind, byte suspendPolicy) {
+                if (reply.getMIOutput().getMIResultRecord().getResultClass().equals(MIResultRecord.ERROR)) {
+                    // the IDE was already told the request succeeded: drop it, so that a Clear does not act on it
+                    System.out.println("Could not insert breakpoint at " + location + ": " + reply.getErrorMsg());
+                    return;
+                }
+
+                if (differentBreakLine(reply)) { // This is an invalid location in the source to set a breakpoint
+                    // disable the breakpoint in GDB
+                    System.out.println("Queueing MI command to disable breakpoint at "+location);
+                    MICommand cmd = gc.getCommandFactory().createMIBreakDisable(reply.getMIBreakpoint().getNumber());
+                    gc.queueAsyncCommand(JDWP.getNewTokenId(), cmd);
+                    return;
+                }
+
+                reply.setMIInfoRequestID(requestID);
+                reply.setMIInfoEventKind(eventKind);
+                reply.setMIInfoSuspendPolicy(suspendPolicy);
+
+                Integer bkptNumber = Integer.valueOf(reply.getMIBreakpoint().getNumber());
+                JDWP.bkptsByRequestID.put(reply.getMIInfoRequestID(), reply);
+                JDWP.bkptsByBreakpointNumber.put(bkptNumber, reply);
+                JDWP.bkptsLocation.put(bkptNumber, loc);
+            }
+
+            /**
+             * Inserts the breakpoint of a request. GDB filters the hits itself: a count becomes a
+             * temporary breakpoint ignoring the first count - 1 hits, a thread filter a breakpoint
+             * specific to that thread, so that no hit reaches the IDE before it should.
+             */
+            void insertBreakpoint(GDBControl gc, PacketStream answer, int requestID, LocationImpl loc, String location,
+                                          int count, long threadId, byte eventKind, byte suspendPolicy) {
+                System.out.println("Queueing MI command to insert breakpoint at "+location);
+                MICommand cmd = gc.getCommandFactory().createMIBreakInsert(count > 0, false, "", Math.max(0, count - 1),
+                        location, String.valueOf(threadId), false, false);
+                int tokenID = JDWP.getNewTokenId();
+
+                // Do not wait for GDB: the IDE sends the next request as soon as this one is
+                // answered, so that all inserts are on their way to GDB back to back. GDB runs
+                // them in order, before any later resume.
+                CompletableFuture<Void> inserted = new CompletableFuture<>();
+                JDWP.bkptsPending.put(requestID, inserted);
+                gc.queueAsyncCommand(tokenID, cmd).thenAccept(info -> {
+                    if (JDWP.bkptsPending.remove(requestID, inserted)) {
+                        breakpointInserted(gc, (MIBreakInsertInfo) info, location, loc, requestID, eventKind, suspendPolicy);
+                        inserted.complete(null);
+                    } else {
+                        deleteLateBreakpoint(gc, (MIBreakInsertInfo) info);
+                    }
+                });
+                // a Clear waits for the insert, so it must not wait for a GDB that never answers
+                CompletableFuture.delayedExecutor(insertTimeout, TimeUnit.MILLISECONDS).execute(() -> {
+                    if (JDWP.bkptsPending.remove(requestID, inserted)) {
+                        System.out.println("No reply from GDB within " + insertTimeout + " ms to the insert of breakpoint at " + location);
+                        inserted.complete(null);
+                    }
+                });
+                answer.writeInt(requestID);
+            }
+
+            /**
+             * Deletes a breakpoint that GDB inserted after its request was given up on.
+             */
+            private void deleteLateBreakpoint(GDBControl gc, MIBreakInsertInfo reply) {
+                if (reply.getMIOutput().getMIResultRecord().getResultClass().equals(MIResultRecord.ERROR)
+                        || reply.getMIBreakpoint() == null) {
+                    return;
+                }
+                MICommand cmd = gc.getCommandFactory().createMIBreakDelete(reply.getMIBreakpoint().getNumber());
+                gc.queueAsyncCommand(JDWP.getNewTokenId(), cmd);
+            }
+
+            /**
+             * Sets a hardware watchpoint on the address of a static field: a read watchpoint for a
+             * field access request, a write watchpoint for a field modification one.
+             */
+            private void watchField(GDBControl gc, PacketStream answer, int requestID, ReferenceTypeImpl refType, FieldImpl field,
+                                    byte eventKind, byte suspendPolicy) {
+                StaticFieldIndex index = gc.getStaticFieldIndex();
+                StaticFieldIndex.Symbol symbol = index.get(refType.name(), field.name());
+                long address = symbol == null ? -1 : index.address(symbol);
+                if (address == -1) {
+                    answer.pkt.errorCode = JDWP.Error.INVALID_FIELDID; // GDB does not know where it is
+                    return;
+                }
+                String expression = FieldWatch.expression((byte) field.signature().charAt(0), address);
+                System.out.println("Queueing MI command to watch " + symbol.name + " at " + expression);
+                MICommand cmd = gc.getCommandFactory().createMIBreakWatch(eventKind == JDWP.EventKind.FIELD_ACCESS, false, expression);
+                int tokenID = JDWP.getNewTokenId();
+                gc.queueCommand(tokenID, cmd);
+
+                MIBreakInsertInfo reply = (MIBreakInsertInfo) gc.getResponse(tokenID, JDWP.DEF_REQUEST_TIMEOUT);
+                if (reply == null || reply.getMIOutput().getMIResultRecord().getResultClass().equals(MIResultRecord.ERROR)
+                        || reply.getMIBreakpoint() == null) {
+                    answer.pkt.errorCode = JDWP.Error.INTERNAL;
+                    return;
+                }
+                reply.setMIInfoRequestID(requestID);
+                reply.setMIInfoEventKind(eventKind);
+                reply.setMIInfoSuspendPolicy(suspendPolicy);
+                JDWP.bkptsByRequestID.put(requestID, reply);
+                JDWP.watchesByBreakpointNumber.put(Integer.valueOf(reply.getMIBreakpoint().getNumber()), new FieldWatch(reply, refType, field));
+                answer.writeInt(requestID);
+            }
+
+            /**
+             * Reads past a modifier that is not translated for GDB, so that the ones after it can be read.
+             * The conditional modifier only carries an expression ID reserved by JDWP for future use.
+             */
+            static void skipModifier(PacketStream command, byte modKind) {
+                switch (modKind) {
+                    case JDWP.ModKind.COUNT:
+                    case JDWP.ModKind.CONDITIONAL:
+                        command.readInt();
+                        break;
+                    case JDWP.ModKind.THREAD_ONLY:
+                    case JDWP.ModKind.CLASS_ONLY:
+                    case JDWP.ModKind.INSTANCE_ONLY:
+                        command.readObjectRef();
+                        break;
+                    case JDWP.ModKind.CLASS_MATCH:
+                    case JDWP.ModKind.CLASS_EXCLUDE:
+                    case JDWP.ModKind.SOURCE_NAME_MATCH:
+                        command.readString();
+                        break;
+                    case JDWP.ModKind.LOCATION_ONLY:
+                        command.readByte();
+                        command.readObjectRef();
+                        command.readMethodRef();
+                        command.readLong();
+                        break;
+                    case JDWP.ModKind.EXCEPTION_ONLY:
+                        command.readObjectRef();
+                        command.readBoolean();
+                        command.readBoolean();
+                        break;
+                    case JDWP.ModKind.FIELD_ONLY:
+                        command.readObjectRef();
+                        command.readFieldRef();
+                        break;
+                    case JDWP.ModKind.STEP:
+                        command.readObjectRef();
+                        command.readInt();
+                        command.readInt();
+                        break;
+                    default:
+                        break;
+                }
+            }
+
             public void reply(GDBControl gc, PacketStream answer, PacketStream command) {
                 byte eventKind = command.readByte();
                 if (eventKind == JDWP.EventKind.BREAKPOINT) {
                     try {
                         byte suspendPolicy = command.readByte();
                         int modifiersCount = command.readInt();
+                        LocationImpl loc = null;
+                        String location = null;
+                        int count = 0;
+                        long threadId = 0;
                         for (int i = 0; i < modifiersCount; i++) {
                             byte modKind = command.readByte();
-                            if (modKind == 7) {
+                            if (modKind == JDWP.ModKind.LOCATION_ONLY) {
                                 byte typeTag = command.readByte();
                                 ReferenceTypeImpl refType = command.readReferenceType();
                                 long methodId = command.readMethodRef();
                                 long index = command.readLong();
-                                LocationImpl loc = new LocationImpl(refType.methodById(methodId), index);
-                                String location = refType.baseSourceName() + ":" + loc.lineNumber();
-
-                                System.out.println("Queueing MI command to insert breakpoint at "+location);
-                                MICommand cmd = gc.getCommandFactory().createMIBreakInsert(false, false, "", 0, location, "0", false, false);
-                                int tokenID = JDWP.getNewTokenId();
-                                gc.queueCommand(tokenID, cmd);
-
-                                MIBreakInsertInfo reply = (MIBreakInsertInfo) gc.getResponse(tokenID, JDWP.DEF_REQUEST_TIMEOUT);
-                                if (reply.getMIOutput().getMIResultRecord().getResultClass().equals(MIResultRecord.ERROR)) {
-                                    answer.pkt.errorCode = JDWP.Error.INTERNAL;
-                                    return;
-                                }
-
-                                if (differentBreakLine(reply)) { // This is an invalid location in the source to set a breakpoint
-                                    //answer.pkt.errorCode = JDWP.Error.INVALID_LOCATION;
-
-                                    // remove the breakpoint in GDB
-                                    System.out.println("Queueing MI command to disable breakpoint at "+location);
-                                    cmd = gc.getCommandFactory().createMIBreakDisable(reply.getMIBreakpoint().getNumber());
-                                    tokenID = JDWP.getNewTokenId();
-                                    gc.queueCommand(tokenID, cmd);
-//
-//                                    MIInfo reply1 = gc.getResponse(tokenID, JDWP.DEF_REQUEST_TIMEOUT);
-//                                    if (reply1.getMIOutput().getMIResultRecord().getResultClass().equals(MIResultRecord.ERROR)) {
-//                                        answer.pkt.errorCode = JDWP.Error.INTERNAL;
-//                                        return;
-//                                    }
-
-                                    answer.writeInt(command.pkt.id);
-                                    return;
-                                }
-
-                                reply.setMIInfoRequestID(command.pkt.id); //TODO maybe another unique ID??
-                                reply.setMIInfoEventKind(eventKind);
-                                reply.setMIInfoSuspendPolicy(suspendPolicy);
-
-                                Integer bkptNumber = Integer.valueOf(reply.getMIBreakpoint().getNumber());
-                                JDWP.bkptsByRequestID.put(reply.getMIInfoRequestID(), reply);
-                                JDWP.bkptsByBreakpointNumber.put(bkptNumber, reply);
-                                JDWP.bkptsLocation.put(bkptNumber, loc);
-                                answer.writeInt(reply.getMIInfoRequestID());
+                                loc = new LocationImpl(refType.methodById(methodId), index);
+                                location = refType.baseSourceName() + ":" + loc.lineNumber();
+                            } else if (modKind == JDWP.ModKind.COUNT) {
+                                count = command.readInt();
+                            } else if (modKind == JDWP.ModKind.THREAD_ONLY) {
+                                threadId = command.readObjectRef();
+                            } else {
+                                skipModifier(command, modKind);
                             }
                         }
+                        if (loc != null) {
+                            insertBreakpoint(gc, answer, command.pkt.id, loc, location, count, threadId, eventKind, suspendPolicy);
+                        }
 
                     } catch (Exception e) {
                         e.printStackTrace();
@@ -145,7 +286,7 @@ public class JDWPEventRequest {
                                     OVER	1	Step over any method calls that occur before the end of the step.
                                     OUT	    2	Step out of the current method.
                                  */
-                                int depth = command.readInt(); //TODO use stepdepth for GDB commands
+                                int depth = command.readInt();
 
 //                                System.out.println("Queueing MI command to select thread:" + threadId);
 //                                MICommand cmd = gc.getCommandFactory().createMISelectThread((int) threadId);
@@ -159,20 +300,8 @@ public class JDWPEventRequest {
 //                                }
 
                                 System.out.println("Queueing MI command to step by step size:" + size);
-                                MICommand cmd;
-                                if (depth == JDWP.StepDepth.INTO) {
-                                    cmd = gc.getCommandFactory().createMIExecStep(size);
-                                } else if (depth == JDWP.StepDepth.OUT) {
-                                    cmd = gc.getCommandFactory().createMIExecReturn();
-                                } else { //JDWP.StepDepth.OVER
-                                    cmd = gc.getCommandFactory().createMIExecNext();
-                                }
-
-                                int tokenID = JDWP.getNewTokenId();
-                                gc.queueCommand(tokenID, cmd);
-
-                                MIInfo reply = gc.getResponse(tokenID, JDWP.DEF_REQUEST_TIMEOUT);
-                                if (reply.getMIOutput().getMIResultRecord().getResultClass().equals(MIResultRecord.ERROR)) {
+                                MIInfo reply = gc.getStepEngine().step(threadId, size, depth);
+                                if (reply == null) {
                                     answer.pkt.errorCode = JDWP.Error.INTERNAL;
                                     return;
                                 }
@@ -183,6 +312,8 @@ public class JDWPEventRequest {
 
                                 JDWP.stepByThreadID.put(threadId, reply);
                                 answer.writeInt(reply.getMIInfoRequestID());
+                            } else {
+                                skipModifier(command, modKind);
                             }
                         }
                     } catch (Exception e) {
@@ -203,8 +334,12 @@ public class JDWPEventRequest {
                             ReferenceTypeImpl refType = ReferenceTypeImpl.refTypeByName.get(regex);
                             if (refType != null) {
                                 MIEvent event = new ClassPrepareEvent(0, null, requestId, suspendPolicy, refType);
-                                asyncEvents.add(event);
+                                synchronized (asyncEvents) {
+                                    asyncEvents.add(event);
+                                }
                             }
+                        } else {
+                            skipModifier(command, modKind);
                         }
                     }
                     answer.writeInt(0);
@@ -212,9 +347,55 @@ public class JDWPEventRequest {
                 } else if (eventKind == JDWP.EventKind.FIELD_ACCESS || eventKind == JDWP.EventKind.FIELD_MODIFICATION) {
                     byte suspendPolicy = command.readByte();
                     int modifiersCount = command.readInt();
+                    ReferenceTypeImpl refType = null;
+                    FieldImpl field = null;
+                    boolean instanceOnly = false;
+                    for (int i = 0; i < modifiersCount; i++) {
+                        byte modKind = command.readByte();
+                        if (modKind == JDWP.ModKind.FIELD_ONLY) {
+                            refType = command.readReferenceType();
+                            field = refType.fieldById(command.readFieldRef());
+                        } else if (modKind == JDWP.ModKind.INSTANCE_ONLY) {
+                            command.readObjectRef();
+                            instanceOnly = true;
+                        } else {
+                            skipModifier(command, modKind);
+                        }
+                    }
+                    if (field == null || !field.isStatic() || instanceOnly) {
+                        // the capabilities claim field watches for the static fields, the only ones served
+                        System.out.println("Refusing to watch " + (field == null ? "an unknown field" : refType.name() + "." + field.name())
+                                + ": only static fields can be watched, with no instance filter");
+                        answer.pkt.errorCode = JDWP.Error.NOT_IMPLEMENTED;
+                        return;
+                    }
+                    watchField(gc, answer, command.pkt.id, refType, field, eventKind, suspendPolicy);
+                } else if (eventKind == JDWP.EventKind.METHOD_ENTRY || eventKind == JDWP.EventKind.METHOD_EXIT) {
+                    byte suspendPolicy = command.readByte();
+                    int modifiersCount = command.readInt();
+                    List<String> patterns = new ArrayList<>();
+                    List<String> excluded = new ArrayList<>();
+                    long threadId = 0;
                     for (int i = 0; i < modifiersCount; i++) {
                         byte modKind = command.readByte();
+                        if (modKind == JDWP.ModKind.CLASS_MATCH) {
+                            patterns.add(command.readString());
+                        } else if (modKind == JDWP.ModKind.CLASS_EXCLUDE) {
+                            excluded.add(command.readString());
+                        } else if (modKind == JDWP.ModKind.CLASS_ONLY) {
+                            patterns.add(command.readReferenceType().name());
+                        } else if (modKind == JDWP.ModKind.THREAD_ONLY) {
+                            threadId = command.readObjectRef();
+                        } else {
+                            skipModifier(command, modKind);
+                        }
                     }
+                    MethodEvents.Request request = new MethodEvents.Request(command.pkt.id, eventKind, suspendPolicy, threadId);
+                    if (!gc.getMethodEvents().add(request, patterns, excluded)) {
+                        answer.pkt.errorCode = JDWP.Error.INTERNAL;
+                        return;
+                    }
+                    answer.writeInt(request.requestID);
                 } else {
                     answer.writeInt(0); // to allow jdwp.jdi GDBControl to initialize
                 }
@@ -234,10 +415,15 @@ public class JDWPEventRequest {
 
             public void reply(GDBControl gc, PacketStream answer, PacketStream command) {
                 byte eventKind = command.readByte();
-                if (eventKind == JDWP.EventKind.BREAKPOINT) {
+                if (eventKind == JDWP.EventKind.BREAKPOINT
+                        || eventKind == JDWP.EventKind.FIELD_ACCESS || eventKind == JDWP.EventKind.FIELD_MODIFICATION) {
                     try {
                         int requestID = command.readInt();
+                        JDWP.awaitBreakpoint(requestID);
                         MIBreakInsertInfo bkptInfo = JDWP.bkptsByRequestID.get(requestID);
+                        if (bkptInfo == null) {
+                            return; // never inserted, or disabled at an invalid line
+                        }
 
                         System.out.println("Queueing MI command to delete breakpoint");
                         String[] array = {bkptInfo.getMIBreakpoint().getNumber()};
@@ -251,9 +437,15 @@ public class JDWPEventRequest {
                             return;
                         }
                         JDWP.bkptsByRequestID.remove(requestID);
+                        Integer bkptNumber = Integer.valueOf(bkptInfo.getMIBreakpoint().getNumber());
+                        JDWP.bkptsByBreakpointNumber.remove(bkptNumber);
+                        JDWP.bkptsLocation.remove(bkptNumber);
+                        JDWP.watchesByBreakpointNumber.remove(bkptNumber);
                     } catch (Exception e) {
                         e.printStackTrace();
                     }
+                } else if (eventKind == JDWP.EventKind.METHOD_ENTRY || eventKind == JDWP.EventKind.METHOD_EXIT) {
+                    gc.getMethodEvents().remove(command.readInt());
                 }  else {
                     answer.writeInt(0); // to allow jdwp.jdi GDBControl to initialize
                 }
@@ -271,6 +463,7 @@ public class JDWPEventRequest {
                 byte eventKind = command.readByte();
                 if (eventKind == JDWP.EventKind.BREAKPOINT) {
                     try {
+                        JDWP.awaitBreakpoints();
                         String[] array = new String[JDWP.bkptsByBreakpointNumber.size()];
                         int i = 0;
                         for (Map.Entry<Integer, MIBreakInsertInfo> entry : JDWP.bkptsByBreakpointNumber.entrySet()) {
@@ -36,6 +36,18 @@ public class JDWPObjectReference {
         static final int COMMAND_SET = 9;
         private ObjectReference() {}  // hide constructor
 
+        /**
+         * Answers INVALID_OBJECT if the given native array or string ID was handed out before the
+         * target last ran, and returns whether it did.
+         */
+        static boolean isStale(GDBControl gc, PacketStream answer, long objectID) {
+            if (gc.getNativeMemory().contains(objectID)) {
+                return false;
+            }
+            answer.pkt.errorCode = JDWP.Error.INVALID_OBJECT;
+            return true;
+        }
+
         /**
          * Returns the runtime type of the object.
          * The runtime type will be a class or an array.
@@ -51,6 +63,17 @@ public class JDWPObjectReference {
 
                     // Class 1 is the ClassTypeImpl of the java/lang/String class
                     answer.writeObjectRef(JDWP.stringClasses.get(1).uniqueID());
+                } else if (NativeMemory.isNativeId(objectID)) {
+                    if (isStale(gc, answer, objectID)) {
+                        return;
+                    }
+                    ReferenceTypeImpl referenceType = gc.getNativeMemory().referenceType(objectID);
+                    if (referenceType == null) {
+                        answer.pkt.errorCode = JDWP.Error.INTERNAL;
+                        return;
+                    }
+                    answer.writeByte(referenceType.tag());
+                    answer.writeClassRef(referenceType.uniqueID());
                 } else {
                     ObjectReferenceImpl objectReference = gc.vm.objectMirror(objectID);
                     ReferenceTypeImpl referenceType = objectReference.referenceType();
@@ -74,6 +97,16 @@ public class JDWPObjectReference {
                 long objectID = command.readObjectRef();
                 if (objectID == JDWP.asmIdCounter || objectID == JDWP.optimizedVarID) {
                     answer.writeInt(0);
+                } else if (NativeMemory.isNativeId(objectID)) {
+                    if (isStale(gc, answer, objectID)) {
+                        return;
+                    }
+                    // arrays have no fields, and the fields of strings are only read through StringReference.Value
+                    if (command.readInt() == 0) {
+                        answer.writeInt(0);
+                    } else {
+                        answer.pkt.errorCode = JDWP.Error.INVALID_FIELDID;
+                    }
                 } else {
                     ObjectReferenceImpl objectReference = gc.vm.objectMirror(objectID);
                     ReferenceTypeImpl referenceType = objectReference.referenceType();
@@ -81,7 +114,8 @@ public class JDWPObjectReference {
                     answer.writeInt(count);
                     for (int i = 0; i < count; i++) {
                         long id = command.readFieldRef();
-                        answer.writeValue(objectReference.getValue(referenceType.fieldById(id)));
+                        answer.writeValue(gc.getValueCache().get("object " + objectID + "." + id,
+                                () -> objectReference.getValue(referenceType.fieldById(id))));
                     }
                 }
             }
@@ -116,7 +150,16 @@ public class JDWPObjectReference {
             static final int COMMAND = 5;
 
             public void reply(GDBControl gc, PacketStream answer, PacketStream command) {
-                ObjectReferenceImpl objectReference = gc.vm.objectMirror(command.readObjectRef());
+                long objectID = command.readObjectRef();
+                if (NativeMemory.isNativeId(objectID)) {
+                    if (!isStale(gc, answer, objectID)) { // not locked as far as the server can tell
+                        answer.writeNullObjectRef();
+                        answer.writeInt(0);
+                        answer.writeInt(0);
+                    }
+                    return;
+                }
+                ObjectReferenceImpl objectReference = gc.vm.objectMirror(objectID);
                 answer.writeThreadReference(objectReference.owningThread());
                 answer.writeInt(objectReference.entryCount());
                 List<ThreadReferenceImpl> waiting = objectReference.waitingThreads();
@@ -244,6 +287,10 @@ public class JDWPObjectReference {
             static final int COMMAND = 9;
 
             public void reply(GDBControl gc, PacketStream answer, PacketStream command) {
+                long objectID = command.readObjectRef();
+                if (NativeMemory.isNativeId(objectID) && isStale(gc, answer, objectID)) {
+                    return;
+                }
                 answer.writeBoolean(false);
             }
         }
@@ -262,7 +309,14 @@ public class JDWPObjectReference {
             static final int COMMAND = 10;
 
             public void reply(GDBControl gc, PacketStream answer, PacketStream command) {
-                ObjectReferenceImpl objectReference = gc.vm.objectMirror(command.readObjectRef());
+                long objectID = command.readObjectRef();
+                if (NativeMemory.isNativeId(objectID)) {
+                    if (!isStale(gc, answer, objectID)) { // the heap of the image is not walked
+                        answer.writeInt(0);
+                    }
+                    return;
+                }
+                ObjectReferenceImpl objectReference = gc.vm.objectMirror(objectID);
                 List<ObjectReferenceImpl> refs = objectReference.referringObjects(command.readInt());
                 answer.writeInt(refs.size());
                 for (ObjectReferenceImpl ref : refs) {
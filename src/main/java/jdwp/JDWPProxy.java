@@ -28,17 +28,27 @@ package jdwp;
 import gdb.mi.service.command.events.MIEvent;
 
 import com.sun.jdi.VMDisconnectedException;
+import com.sun.jdi.connect.spi.ClosedConnectionException;
 import com.sun.jdi.connect.spi.Connection;
+import gdb.mi.service.command.ChromeTrace;
 import gdb.mi.service.command.Listener;
 import gdb.mi.service.command.MIRunControlEventProcessor;
+import gdb.mi.service.command.TraceContext;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Paths;
 import java.util.*;
 
 public class JDWPProxy {
+    static final String TRACE_FILE_PROPERTY = "jdwp.trace.file";
+
     protected static final Map<Integer, Map<Integer, Command>> COMMANDS = new HashMap<Integer, Map<Integer, Command>>();
+    /**
+     * Names of the commands, such as VirtualMachine.AllThreads, keyed by (command set << 8 | command).
+     */
+    private static final Map<Integer, String> NAMES = new HashMap<>();
 
     static {
         try {
@@ -72,6 +82,7 @@ public class JDWPProxy {
                         try {
                             int commandId = (Integer) commandsClass.getDeclaredField("COMMAND").get(null);
                             commandsMap.put(commandId, (Command) commandsClass.getDeclaredConstructor().newInstance());
+                            NAMES.put(setId << 8 | commandId, declaredClass.getSimpleName() + "." + commandsClass.getSimpleName());
                         } catch (NoSuchFieldException ignored) {
                         }
                     }
@@ -87,51 +98,164 @@ public class JDWPProxy {
 
         GDBControl gdbControl = new GDBControl(connection, vm);
         Listener asyncListener = new MIRunControlEventProcessor(gdbControl);
+        PacketDispatcher dispatcher = new PacketDispatcher(gdbControl, asyncListener, connection, PacketDispatcher.workerCount());
+        ServerMetrics metrics = ServerMetrics.start(gdbControl);
+        gdbControl.setTrace(openTrace());
 
         try {
-            gdbControl.startCommandProcessing(gdbControl.gdbOutput, gdbControl.gdbInput, gdbControl.gdbError);
+            gdbControl.startCommandProcessing(gdbControl.getBackend());
             gdbControl.waitForInitialization();
+            gdbControl.getStaticFieldIndex().build();
 
             // Declare that the VM has started
             PacketStream VMStartedPkt = Translator.getVMStartedPacket(gdbControl);
             VMStartedPkt.send();
 
             while (true) {
-                byte[] b = connection.readPacket();
-                Packet p = Packet.fromByteArray(b);
-                int cmdSet = p.cmdSet;
-                int cmd = p.cmd;
-                PacketStream packetStream = new PacketStream(gdbControl, p.id, cmdSet, cmd);
-                Command command = COMMANDS.get(cmdSet).get(cmd);
+                Packet p = readPacket(connection);
+                p.received = System.nanoTime();
+                dispatcher.dispatch(p);
+            }
+        } catch (VMDisconnectedException ignored) {
+        } catch (IOException e) {
+            if (!dispatcher.isDisconnected()) {
+                throw e;
+            }
+        } finally {
+            metrics.close();
+            closeTrace(gdbControl);
+            dispatcher.shutdown();
+            connection.close();
+            if (gdbControl.getBackend() != null) { // null if GDB could not be started
+                gdbControl.getBackend().destroy(); // GDB, or the scheduler of the stand-in replaying a transcript
+            }
+            gdbControl.vm.dispose();
+        }
+    }
+
+    private static Packet readPacket(Connection connection) throws IOException {
+        if (connection instanceof SocketConnection) {
+            Packet p = ((SocketConnection) connection).receivePacket();
+            if (p == null) {
+                throw new ClosedConnectionException("connection is closed");
+            }
+            return p;
+        }
+        return Packet.fromByteArray(connection.readPacket());
+    }
+
+    /**
+     * Opens the Chrome trace file named by jdwp.trace.file, if set.
+     */
+    private static ChromeTrace openTrace() {
+        String file = System.getProperty(TRACE_FILE_PROPERTY);
+        if (file == null) {
+            return null;
+        }
+        try {
+            ChromeTrace trace = ChromeTrace.open(Paths.get(file));
+            System.out.println("Tracing to " + file);
+            return trace;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static void closeTrace(GDBControl gdbControl) {
+        ChromeTrace trace = gdbControl.getTrace();
+        if (trace != null) {
+            gdbControl.setTrace(null);
+            try {
+                trace.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Returns the name of the given command, such as VirtualMachine.AllThreads.
+     */
+    static String commandName(int cmdSet, int cmd) {
+        String name = NAMES.get(cmdSet << 8 | cmd);
+        return name != null ? name : cmdSet + "." + cmd;
+    }
+
+    /**
+     * Runs the command for the given packet and sends its reply, then processes the asynchronous
+     * events that the command may have produced.
+     */
+    static void handle(GDBControl gdbControl, Listener asyncListener, Packet p) {
+        int cmdSet = p.cmdSet;
+        int cmd = p.cmd;
+        long start = System.nanoTime();
+        String name = commandName(cmdSet, cmd);
+        JDWPCommandEvent jfrEvent = new JDWPCommandEvent();
+        jfrEvent.begin();
+        // the MI commands queued from here on are traced back to this packet
+        TraceContext context = new TraceContext(p.id, name);
+        TraceContext previous = TraceContext.attach(context);
+        try {
+            PacketStream packetStream = new PacketStream(gdbControl, p.id, cmdSet, cmd);
+            Command command = COMMANDS.get(cmdSet).get(cmd);
+            try {
+                command.reply(gdbControl, packetStream, new PacketStream(gdbControl, p));
+            } catch (VMDisconnectedException vde) {
+                throw  vde;
+            } catch (Exception e) {
+                e.printStackTrace();
+                packetStream.pkt.errorCode = JDWP.Error.INTERNAL;
+                packetStream.reset();
+
+                // serialize the original exception as a utf8 string
                 try {
-                    command.reply(gdbControl, packetStream, new PacketStream(gdbControl, p));
-                } catch (VMDisconnectedException vde) {
-                    throw  vde;
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    packetStream.pkt.errorCode = JDWP.Error.INTERNAL;
-                    packetStream.dataStream.reset();
-
-                    // serialize the original exception as a utf8 string
-                    try {
-                        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-                        PrintStream printStream = new PrintStream(byteStream, false, "UTF8");
-                        e.printStackTrace(printStream);
-                        printStream.close();
-                        packetStream.writeString(byteStream.toString("UTF8"));
-                    } catch (Exception ignored) {
-                    }
+                    ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+                    PrintStream printStream = new PrintStream(byteStream, false, "UTF8");
+                    e.printStackTrace(printStream);
+                    printStream.close();
+                    packetStream.writeString(byteStream.toString("UTF8"));
+                } catch (Exception ignored) {
                 }
-                packetStream.send();
+            }
+            long replied = System.nanoTime();
+            packetStream.send();
+            long sent = System.nanoTime();
+            short errorCode = packetStream.pkt.errorCode;
+            long queueWait = p.received == 0 ? 0 : start - p.received;
+            gdbControl.getPacketMetrics().record(name, errorCode != JDWP.Error.NONE, queueWait, replied - start, sent - replied);
+            traced(gdbControl, context, jfrEvent, errorCode, p.received == 0 ? start : p.received, queueWait, sent);
+            synchronized (JDWPEventRequest.asyncEvents) {
                 for (MIEvent event: JDWPEventRequest.asyncEvents) {
                     asyncListener.onEvent(event);
                 }
                 JDWPEventRequest.asyncEvents.clear();
             }
-        } catch (VMDisconnectedException ignored) {
         } finally {
-            connection.close();
-            gdbControl.vm.dispose();
+            TraceContext.attach(previous);
+        }
+    }
+
+    /**
+     * Ends the span of a JDWP command in Flight Recorder and in the trace if there is one.
+     */
+    private static void traced(GDBControl gdbControl, TraceContext context, JDWPCommandEvent jfrEvent, short errorCode,
+                               long received, long queueWait, long sent) {
+        jfrEvent.end();
+        if (jfrEvent.shouldCommit()) {
+            jfrEvent.packetId = context.getPacketId();
+            jfrEvent.command = context.getName();
+            jfrEvent.errorCode = errorCode;
+            jfrEvent.queueWait = queueWait;
+            jfrEvent.commit();
+        }
+        ChromeTrace trace = gdbControl.getTrace();
+        if (trace != null) {
+            Map<String, Object> args = new LinkedHashMap<>();
+            args.put("packetId", context.getPacketId());
+            args.put("errorCode", errorCode);
+            args.put("queueMicros", queueWait / 1000);
+            trace.span("jdwp", context.getName(), context, received, sent, args);
         }
     }
 
@@ -28,9 +28,12 @@ package jdwp;
 
 import com.sun.jdi.connect.spi.Connection;
 import com.sun.jdi.connect.spi.TransportService;
+import jdwp.jdi.MetadataSnapshot;
 import jdwp.jdi.VirtualMachineImpl;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 public class JDWPServer {
     static final String WAITING_FOR_DEBUGGER = "Waiting for debugger on: ";
@@ -43,6 +46,16 @@ public class JDWPServer {
         final VirtualMachineImpl vm = VirtualMachineImpl.createVirtualMachineForPID((int)p.pid(), 0);*/
 
         final VirtualMachineImpl vm = VirtualMachineImpl.createVirtualMachineForPID(Integer.parseInt(args[0]), 0); //process ID
+        // The snapshot spares reading the line and variable tables from the VM, not attaching to it.
+        String exec = System.getProperty("native.exec");
+        if (exec != null && Files.isRegularFile(MetadataSnapshot.pathFor(exec))) {
+            try {
+                vm.useMetadata(MetadataSnapshot.open(MetadataSnapshot.pathFor(exec), Path.of(exec)));
+                System.out.println("Serving line and variable tables from " + MetadataSnapshot.pathFor(exec));
+            } catch (IOException e) {
+                System.err.println("Ignoring " + MetadataSnapshot.pathFor(exec) + ": " + e.getMessage());
+            }
+        }
 
         // Attaching server
 //        String address = "host.docker.internal:8080"; // + args[1];
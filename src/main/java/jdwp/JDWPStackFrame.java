@@ -29,6 +29,11 @@ import gdb.mi.service.command.commands.MICommand;
 import gdb.mi.service.command.output.*;
 import jdwp.jdi.*;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 public class JDWPStackFrame {
     static class StackFrame {
         static final int COMMAND_SET = 16;
@@ -48,42 +53,73 @@ public class JDWPStackFrame {
 
             public void reply(GDBControl gc, PacketStream answer, PacketStream command) {
                 /*
-                    -stack-list-variables [ --no-frame-filters ] [ --skip-unavailable ] print-values
-                    Display the names of local variables and function arguments for the selected frame.
+                    -var-create --thread T --frame F - * name, once per local and frame,
+                    then -var-update 1 * once per stop for the values that changed.
+                    Values already read during this stop come from the value cache.
                 */
                 long threadID = command.readObjectRef();
                 int frameID = (int) command.readFrameRef();
                 int slots = command.readInt();
 
-                System.out.println("Queueing MI command to list local variables and function arguments");
-                MICommand cmd = gc.getCommandFactory().createMIStackListVariables(true, String.valueOf(threadID), String.valueOf(frameID));
-                int tokenID = JDWP.getNewTokenId();
-                gc.queueCommand(tokenID, cmd);
-
-                MIStackListVariablesInfo replyloc = (MIStackListVariablesInfo) gc.getResponse(tokenID, JDWP.DEF_REQUEST_TIMEOUT);
-                if (replyloc.getMIOutput().getMIResultRecord().getResultClass().equals(MIResultRecord.ERROR)) {
+                String threadId = String.valueOf(threadID);
+                ThreadStackCache.Stack stack = gc.getStackCache().getStack(threadId);
+                if (stack == null) {
                     answer.pkt.errorCode = JDWP.Error.INTERNAL;
+                    return;
+                }
+                MIFrame miFrame = stack.getMIFrame(frameID);
+                if (miFrame == null) {
+                    answer.pkt.errorCode = JDWP.Error.INVALID_FRAMEID;
+                    return;
                 }
-                MIArg[] vals = replyloc.getVariables();
 
-                int gdbSize = getGDBVariablesSize(vals);
-                answer.writeInt(slots);
-                if (gdbSize != slots) {
-                    System.out.println("GDB number of variables different from VM's. GDB: " + gdbSize + " VM:" + slots);
+                int[] slotIds = new int[slots];
+                byte[] tags = new byte[slots];
+                List<String> names = new ArrayList<>();
+                for (int i = 0; i < slots; i++) {
+                    slotIds[i] = command.readInt();
+                    tags[i] = command.readByte();
+                    String name = JDWP.localsByID.get(slotIds[i]).name();
+                    if (!name.equals("this") && !name.equals("$asm")) {
+                        names.add(name);
+                    }
+                }
+                ValueCache cache = gc.getValueCache();
+                Map<String, String> vals = new HashMap<>();
+                List<String> missing = new ArrayList<>();
+                for (String name : names) {
+                    String value = cache.getIfPresent(threadId, frameID, name);
+                    if (value != null) {
+                        vals.put(name, value);
+                    } else {
+                        missing.add(name);
+                    }
                 }
+                if (!missing.isEmpty()) {
+                    Map<String, String> read = gc.getVariableObjects().getValues(threadId, frameID, miFrame.getFunction(), missing);
+                    if (read == null) {
+                        answer.pkt.errorCode = JDWP.Error.INTERNAL;
+                        return;
+                    }
+                    for (Map.Entry<String, String> entry : read.entrySet()) {
+                        cache.put(threadId, frameID, entry.getKey(), entry.getValue());
+                    }
+                    vals.putAll(read);
+                }
+
+                answer.writeInt(slots);
                 for (int i = 0; i < slots; i++) {
-                    int slot = command.readInt();
-                    byte tag = command.readByte();
-
-                    LocalVariableImpl vmVar = JDWP.localsByID.get(slot);
-                    MIArg gdbVar = containsInGDBVariables(vals, vmVar.name());
-                    if (gdbVar != null) {
-                        String value = gdbVar.getValue();
-                        if (!gdbVar.getName().equals("this") && !value.equals("<optimized out>")) {
+                    byte tag = tags[i];
+
+                    LocalVariableImpl vmVar = JDWP.localsByID.get(slotIds[i]);
+                    String value = vals.get(vmVar.name());
+                    if (value != null) {
+                        if (!value.equals("<optimized out>")) {
                             answer.writeByte(tag); // get value via GDB print cmd: print *print->value
                             switch (tag) {
-                                case JDWP.Tag.ARRAY:
-                                    answer.writeUntaggedValue(null); //TODO Implement
+                                case JDWP.Tag.ARRAY: // the elements are read from memory when asked for
+                                    answer.writeObjectRef(isNull(value) ? 0 : cache.get(threadId, frameID, "&" + vmVar.name(),
+                                            () -> gc.getNativeMemory().arrayId(threadId, frameID, vmVar.name(), vmVar.signature())));
                                     break;
                                 case JDWP.Tag.BYTE:
                                     String[] splited = value.split("\\s+");
@@ -111,12 +147,13 @@ public class JDWPStackFrame {
                                     answer.writeBoolean(Boolean.parseBoolean(value));
                                     break;
                                 case JDWP.Tag.STRING:
-                                    answer.writeString(value);
+                                    answer.writeObjectRef(isNull(value) ? 0 : cache.get(threadId, frameID, "&" + vmVar.name(),
+                                            () -> gc.getNativeMemory().stringId(threadId, frameID, vmVar.name())));
                                     break;
                                 case JDWP.Tag.OBJECT:
                                     answer.writeNullObjectRef(); //TODO Implement
                             }
-                        } else if (value.equals("<optimized out>")) {
+                        } else {
                             answer.writeByte(JDWP.Tag.STRING);
                             answer.writeObjectRef(JDWP.optimizedVarID); // unique ID for optimized string
                         }
@@ -128,25 +165,10 @@ public class JDWPStackFrame {
                     }
                 }
                 // TODO write GDB variables that are not in the VM slots
-           }
-
-            private MIArg containsInGDBVariables(MIArg[] vals, String name) {
-                for (MIArg val : vals) {
-                    if (val.getName().equals(name)) {
-                        return val;
-                    }
-                }
-                return null;
             }
 
-            private int getGDBVariablesSize(MIArg[] vals) {
-                int gdbSize = vals.length;
-                for (MIArg val : vals) {
-                    if (val.getName().equals("this")) {
-                        gdbSize--;
-                    }
-                }
-                return gdbSize;
+            private static boolean isNull(String pointer) {
+                return pointer.equals("0x0") || pointer.endsWith(" 0x0");
             }
         }
 
@@ -186,14 +208,10 @@ public class JDWPStackFrame {
                 //ObjectReferenceImpl objectReference = frame.thisObject();
                 //answer.writeTaggedObjectReference(objectReference);
 
-                System.out.println("Queueing MI command to get \"this\" object");
-                MICommand cmd = gc.getCommandFactory().createMIStackListVariables(true, String.valueOf(threadID), String.valueOf(frameID)); //Todo: fix frame ID
-                int tokenID = JDWP.getNewTokenId();
-                gc.queueCommand(tokenID, cmd);
-
-                MIStackListVariablesInfo replyloc = (MIStackListVariablesInfo) gc.getResponse(tokenID, JDWP.DEF_REQUEST_TIMEOUT);
-                if (replyloc.getMIOutput().getMIResultRecord().getResultClass().equals(MIResultRecord.ERROR)) {
+                MIStackListVariablesInfo replyloc = gc.getStackCache().getVariables(String.valueOf(threadID), frameID); //Todo: fix frame ID
+                if (replyloc == null) {
                     answer.pkt.errorCode = JDWP.Error.INTERNAL;
+                    return;
                 }
 
                 MIArg[] vals = replyloc.getVariables();
@@ -201,8 +219,8 @@ public class JDWPStackFrame {
                     String name = vals[j].getName();
                     if (name.equals("this")) {
                         System.out.println("Queueing MI command to print \"this\" object");
-                        cmd = gc.getCommandFactory().createMIPrint("*this");
-                        tokenID = JDWP.getNewTokenId();
+                        MICommand cmd = gc.getCommandFactory().createMIPrint("*this");
+                        int tokenID = JDWP.getNewTokenId();
                         gc.queueCommand(tokenID, cmd);
 
                         MIInfo replyprint = gc.getResponse(tokenID, JDWP.DEF_REQUEST_TIMEOUT);
@@ -71,6 +71,22 @@ public class JDWPStringReference {
                     answer.writeString(instructions.toString());
                 } else if (uniqueID == JDWP.optimizedVarID) {
                     answer.writeString("<optimized out>");
+                } else if (NativeMemory.isNativeId(uniqueID)) {
+                    NativeMemory.Str string = gc.getNativeMemory().getString(uniqueID);
+                    if (string == null) {
+                        if (gc.getNativeMemory().contains(uniqueID)) {
+                            answer.pkt.errorCode = JDWP.Error.INVALID_STRING;
+                        } else {
+                            answer.pkt.errorCode = JDWP.Error.INVALID_OBJECT;
+                        }
+                        return;
+                    }
+                    String value = gc.getNativeMemory().readString(string);
+                    if (value != null) {
+                        answer.writeString(value);
+                    } else {
+                        answer.pkt.errorCode = JDWP.Error.INTERNAL;
+                    }
                 } else {
                     ObjectReferenceImpl objectReference = gc.vm.objectMirror(uniqueID);
                     if (objectReference instanceof StringReferenceImpl) {
@@ -31,7 +31,6 @@ import gdb.mi.service.command.output.*;
 import jdwp.jdi.*;
 
 import java.util.List;
-import java.util.ArrayList;
 
 public class JDWPThreadReference {
 
@@ -50,29 +49,14 @@ public class JDWPThreadReference {
             public void reply(GDBControl gc, PacketStream answer, PacketStream command) {
                 //answer.writeString(command.readThreadReference().name());
 
-                System.out.println("Queueing MI command to get thread name");
-                MICommand cmd = gc.getCommandFactory().createMIThreadInfo();
-                int tokenID = JDWP.getNewTokenId();
-                gc.queueCommand(tokenID, cmd);
-
-                MIThreadInfoInfo reply = (MIThreadInfoInfo) gc.getResponse(tokenID, JDWP.DEF_REQUEST_TIMEOUT);
-                if (reply.getMIOutput().getMIResultRecord().getResultClass().equals(MIResultRecord.ERROR)) {
-                    answer.pkt.errorCode = JDWP.Error.VM_DEAD;
-                    return;
-                }
-
                 long threadId = command.readObjectRef();
                 JDWP.currentThreadID = threadId; //TODO AAV hack!
-                System.out.println("Thread id is:" + threadId);
-                MIThread[] allThreads = reply.getThreadList();
-                for(MIThread thread: allThreads){
-                    long id = Long.parseLong(thread.getThreadId());
-                    System.out.println("id is:" + id);
-                    if (id == threadId) {
-                        System.out.println("Writing thread name:" + thread.getName());
-                        answer.writeString(thread.getName());
-                    }
+                ThreadTable.Entry thread = gc.getThreadTable().get(threadId);
+                if (thread == null) {
+                    answer.pkt.errorCode = JDWP.Error.INVALID_THREAD;
+                    return;
                 }
+                answer.writeString(thread.name);
             }
         }
 
@@ -154,8 +138,14 @@ public class JDWPThreadReference {
             static final int COMMAND = 4;
 
             public void reply(GDBControl gc, PacketStream answer, PacketStream command) {
-                answer.writeInt(2);
-                answer.writeInt(1);
+                ThreadTable.Entry thread = gc.getThreadTable().get(command.readObjectRef());
+                if (thread == null) {
+                    answer.writeInt(JDWP.ThreadStatus.ZOMBIE);
+                    answer.writeInt(0);
+                    return;
+                }
+                answer.writeInt(JDWP.ThreadStatus.RUNNING);
+                answer.writeInt(thread.stopped ? JDWP.SuspendStatus.SUSPEND_STATUS_SUSPENDED : 0);
 //                ThreadReferenceImpl thread = command.readThreadReference();
 //                answer.writeInt(thread.status());
 //                answer.writeInt(thread.suspendCount());
@@ -230,38 +220,16 @@ public class JDWPThreadReference {
             public void reply(GDBControl gc, PacketStream answer, PacketStream command) {
                 String threadId = command.readObjectRef() + "";
 
-                System.out.println("Queueing MI command to get frames");
-                //MICommand cmd = gc.getCommandFactory().createMIStackListFrames(String.valueOf(threadId));
-                MICommand cmd = gc.getCommandFactory().createMIStackListFrames(threadId);
-                int tokenID = JDWP.getNewTokenId();
-                gc.queueCommand(tokenID, cmd);
-
-                MIStackListFramesInfo reply = (MIStackListFramesInfo) gc.getResponse(tokenID, JDWP.DEF_REQUEST_TIMEOUT);
-                if (reply.getMIOutput().getMIResultRecord().getResultClass().equals(MIResultRecord.ERROR)) {
+                ThreadStackCache.Stack stack = gc.getStackCache().getStack(threadId);
+                if (stack == null) {
                     answer.pkt.errorCode = JDWP.Error.INTERNAL;
+                    return;
                 }
 
-                MIFrame[] frames = reply.getMIFrames();
-                int framesLength = 0;
-                List<Integer> frameIds = new ArrayList<>();
-                List<LocationImpl> locations = new ArrayList<>();
-
-
-                for (MIFrame frame: frames) {
-                    int frameId = frame.getLevel();
-                    JDWP.framesById.put(frameId, frame);
-
-                    LocationImpl loc = Translator.locationLookup(frame.getFunction(), frame.getLine());
-                    if (loc != null) {
-                        framesLength++;
-                        locations.add(loc);
-                        frameIds.add(frameId);
-                    }
-                }
-                answer.writeInt(framesLength);
-                for (int i = 0; i < framesLength; i++) {
-                    answer.writeFrameRef(frameIds.get(i));
-                    answer.writeLocation(locations.get(i));
+                answer.writeInt(stack.size());
+                for (int i = 0; i < stack.size(); i++) {
+                    answer.writeFrameRef(stack.frameIds.get(i));
+                    answer.writeLocation(stack.locations.get(i));
                 }
             }
         }
@@ -278,27 +246,12 @@ public class JDWPThreadReference {
             public void reply(GDBControl gc, PacketStream answer, PacketStream command) {
                 String threadId = command.readObjectRef() + "";
 
-                System.out.println("Queueing MI command to get frames");
-                //MICommand cmd = gc.getCommandFactory().createMIStackListFrames(String.valueOf(threadId));
-                MICommand cmd = gc.getCommandFactory().createMIStackListFrames(threadId);
-                int tokenID = JDWP.getNewTokenId();
-                gc.queueCommand(tokenID, cmd);
-
-                MIStackListFramesInfo reply = (MIStackListFramesInfo) gc.getResponse(tokenID, JDWP.DEF_REQUEST_TIMEOUT);
-                if (reply.getMIOutput().getMIResultRecord().getResultClass().equals(MIResultRecord.ERROR)) {
+                ThreadStackCache.Stack stack = gc.getStackCache().getStack(threadId);
+                if (stack == null) {
                     answer.pkt.errorCode = JDWP.Error.INTERNAL;
+                    return;
                 }
-
-                MIFrame[] frames = reply.getMIFrames();
-                int framesLength = 0;
-
-                for (MIFrame frame: frames) {
-                    LocationImpl loc = Translator.locationLookup(frame.getFunction(), frame.getLine());
-                    if (loc != null) {
-                        framesLength++;
-                    }
-                }
-                answer.writeInt(framesLength);
+                answer.writeInt(stack.size());
             }
         }
 
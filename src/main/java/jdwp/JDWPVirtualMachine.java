@@ -148,21 +148,15 @@ public class JDWPVirtualMachine {
 //                    answer.writeObjectRef(thread.uniqueID());
 //                }
 
-                System.out.println("Queueing MI command to get all threads application");
-                MICommand cmd = gc.getCommandFactory().createMIThreadInfo();
-                int tokenID = JDWP.getNewTokenId();
-                gc.queueCommand(tokenID, cmd);
-
-                MIThreadInfoInfo reply = (MIThreadInfoInfo) gc.getResponse(tokenID, JDWP.DEF_REQUEST_TIMEOUT);
-                if (reply.getMIOutput().getMIResultRecord().getResultClass().equals(MIResultRecord.ERROR)) {
+                List<ThreadTable.Entry> allThreads = gc.getThreadTable().all();
+                if (allThreads == null) {
                     answer.pkt.errorCode = JDWP.Error.VM_DEAD;
                     return;
                 }
 
-                MIThread[] allThreads = reply.getThreadList();
-                answer.writeInt(allThreads.length);
-                for(MIThread thread: allThreads){
-                    answer.writeObjectRef(Long.parseLong(thread.getThreadId()));
+                answer.writeInt(allThreads.size());
+                for (ThreadTable.Entry thread : allThreads) {
+                    answer.writeObjectRef(thread.id);
                 }
 
             }
@@ -392,8 +386,9 @@ public class JDWPVirtualMachine {
             static final int COMMAND = 12;
 
             public void reply(GDBControl gc, PacketStream answer, PacketStream command) {
-                answer.writeBoolean(gc.vm.canWatchFieldModification());
-                answer.writeBoolean(gc.vm.canWatchFieldAccess());
+                // JDWP has no flag for static fields only: instance field requests are refused, see FieldWatch
+                answer.writeBoolean(true); // canWatchFieldModification, static fields only
+                answer.writeBoolean(true); // canWatchFieldAccess, static fields only
                 answer.writeBoolean(gc.vm.canGetBytecodes());
                 answer.writeBoolean(gc.vm.canGetSyntheticAttribute());
                 answer.writeBoolean(gc.vm.canGetOwnedMonitorInfo());
@@ -479,6 +474,7 @@ public class JDWPVirtualMachine {
             static final int COMMAND = 15;
 
             public void reply(GDBControl gc, PacketStream answer, PacketStream command) {
+                gc.getEventQueue().hold();
             }
         }
 
@@ -492,6 +488,7 @@ public class JDWPVirtualMachine {
             static final int COMMAND = 16;
 
             public void reply(GDBControl gc, PacketStream answer, PacketStream command) {
+                gc.getEventQueue().release();
             }
         }
 
@@ -507,8 +504,9 @@ public class JDWPVirtualMachine {
             static final int COMMAND = 17;
 
             public void reply(GDBControl gc, PacketStream answer, PacketStream command) {
-                answer.writeBoolean(gc.vm.canWatchFieldModification());
-                answer.writeBoolean(gc.vm.canWatchFieldAccess());
+                // JDWP has no flag for static fields only: instance field requests are refused, see FieldWatch
+                answer.writeBoolean(true); // canWatchFieldModification, static fields only
+                answer.writeBoolean(true); // canWatchFieldAccess, static fields only
                 answer.writeBoolean(gc.vm.canGetBytecodes());
                 answer.writeBoolean(gc.vm.canGetSyntheticAttribute());
                 answer.writeBoolean(gc.vm.canGetOwnedMonitorInfo());
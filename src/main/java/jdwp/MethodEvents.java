@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import gdb.mi.service.command.commands.MICommand;
+import gdb.mi.service.command.output.MIBreakInsertInfo;
+import gdb.mi.service.command.output.MIFrame;
+import gdb.mi.service.command.output.MIInfo;
+import gdb.mi.service.command.output.MIResultRecord;
+import gdb.mi.service.command.output.MIStackListFramesInfo;
+import gdb.mi.service.command.output.MiSymbolInfoFunctionsInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Method entry and exit requests, served by breakpoints on the functions of the image.
+ *
+ * The Java functions of the image are listed with a single -symbol-info-functions the first
+ * time a request comes, and the functions matching each class filter are kept, so a filter
+ * used again costs nothing. Every matching function gets one breakpoint, shared by all the
+ * requests on it; the inserts are sent back to back without waiting, as a request with no class
+ * filter matches every Java function. When it is hit for an exit request, a temporary breakpoint
+ * is set on the return address of the caller, for that thread only and above the frame of the
+ * call, and the target is continued; the exit is reported once that one is hit. A call unwound
+ * by an exception never gets there: it is dropped, with its breakpoint, at the next stop of its
+ * thread above its frame. Requests with no suspend policy continue the target as soon as their
+ * events are translated.
+ */
+public class MethodEvents {
+
+    /**
+     * A method entry or exit request: its ID, kind, suspend policy, and thread if it has one.
+     */
+    static final class Request {
+        final int requestID;
+        final byte eventKind;
+        final byte suspendPolicy;
+        final long threadId; // 0 for all threads
+
+        Request(int requestID, byte eventKind, byte suspendPolicy, long threadId) {
+            this.requestID = requestID;
+            this.eventKind = eventKind;
+            this.suspendPolicy = suspendPolicy;
+            this.threadId = threadId;
+        }
+
+        boolean appliesTo(long threadId) {
+            return this.threadId == 0 || this.threadId == threadId;
+        }
+    }
+
+    /**
+     * A call waiting to return: the function, the thread and the exit requests to report, and the
+     * stack pointer of the called frame once known.
+     */
+    static final class Call {
+        final String function;
+        final long threadId;
+        final List<Request> requests;
+        long sp;
+
+        Call(String function, long threadId, List<Request> requests) {
+            this.function = function;
+            this.threadId = threadId;
+            this.requests = requests;
+        }
+    }
+
+    private final GDBControl gc;
+    private volatile List<String> functions; // listed once
+    private final Map<String, List<String>> functionsByFilter = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<String>> breakpointsByFunction = new ConcurrentHashMap<>(); // the number, null if GDB refused
+    private final Map<Integer, String> functionsByBreakpoint = new ConcurrentHashMap<>();
+    private final Map<String, List<Request>> requestsByFunction = new ConcurrentHashMap<>();
+    private final Map<Integer, Call> callsByBreakpoint = new ConcurrentHashMap<>();
+
+    MethodEvents(GDBControl gc) {
+        this.gc = gc;
+    }
+
+    /**
+     * Sets the breakpoints of a request on the functions of the classes matching all the given
+     * patterns and none of the excluded ones; patterns are class names that may start or end
+     * with '*'. Returns false if GDB could not list the functions.
+     */
+    synchronized boolean add(Request request, List<String> patterns, List<String> excluded) {
+        List<String> matching = functions(patterns, excluded);
+        if (matching == null) {
+            return false;
+        }
+        for (String function : matching) {
+            requestsByFunction.computeIfAbsent(function, key -> new CopyOnWriteArrayList<>()).add(request);
+            breakpointsByFunction.computeIfAbsent(function, this::insert);
+        }
+        return true;
+    }
+
+    /**
+     * Inserts the breakpoint of a function without waiting for GDB, which runs the inserts in
+     * order before any later resume. Returns its number, or null if GDB could not insert it.
+     */
+    private CompletableFuture<String> insert(String function) {
+        MICommand cmd = gc.getCommandFactory().createMIBreakInsert("'" + function + "'");
+        CompletableFuture<MIInfo> inserted = gc.queueAsyncCommand(JDWP.getNewTokenId(), cmd);
+        return inserted.thenApply(info -> {
+            MIBreakInsertInfo reply = (MIBreakInsertInfo) info;
+            if (reply == null || reply.getMIOutput().getMIResultRecord().getResultClass().equals(MIResultRecord.ERROR)
+                    || reply.getMIBreakpoint() == null) {
+                return null;
+            }
+            String number = reply.getMIBreakpoint().getNumber();
+            functionsByBreakpoint.put(Integer.valueOf(number), function);
+            return number;
+        });
+    }
+
+    /**
+     * Drops a request, deleting the breakpoints of the functions no other request needs.
+     */
+    synchronized void remove(int requestID) {
+        List<String> unused = new ArrayList<>();
+        for (Map.Entry<String, List<Request>> entry : requestsByFunction.entrySet()) {
+            entry.getValue().removeIf(request -> request.requestID == requestID);
+            if (entry.getValue().isEmpty()) {
+                unused.add(entry.getKey());
+            }
+        }
+        List<CompletableFuture<String>> inserts = new ArrayList<>();
+        for (String function : unused) {
+            requestsByFunction.remove(function);
+            CompletableFuture<String> insert = breakpointsByFunction.remove(function);
+            if (insert != null) {
+                inserts.add(insert);
+            }
+        }
+        if (inserts.isEmpty()) {
+            return;
+        }
+        // the inserts may still be on their way
+        CompletableFuture.allOf(inserts.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+            List<String> numbers = new ArrayList<>();
+            for (CompletableFuture<String> insert : inserts) {
+                String number = insert.join();
+                if (number != null) {
+                    functionsByBreakpoint.remove(Integer.valueOf(number));
+                    numbers.add(number);
+                }
+            }
+            delete(numbers);
+        });
+    }
+
+    /**
+     * Returns the function the given breakpoint was set on for method events, or null.
+     */
+    String function(int number) {
+        return functionsByBreakpoint.get(number);
+    }
+
+    /**
+     * Returns the requests on the given function that apply to the given thread.
+     */
+    List<Request> requests(String function, long threadId) {
+        List<Request> requests = new ArrayList<>();
+        for (Request request : requestsByFunction.getOrDefault(function, Collections.emptyList())) {
+            if (request.appliesTo(threadId)) {
+                requests.add(request);
+            }
+        }
+        return requests;
+    }
+
+    /**
+     * Returns, and forgets, the call that returned to the given temporary breakpoint, or null.
+     */
+    Call returned(int number) {
+        return callsByBreakpoint.remove(number);
+    }
+
+    /**
+     * Waits for a call to return: sets a temporary breakpoint on the return address of its caller,
+     * then continues the target if asked to. Called from the thread reading GDB's output, so it
+     * only chains the commands.
+     *
+     * The breakpoint only stops the thread above the frame of the call, so that the return of a
+     * recursive call, deeper in the stack, is not taken for it.
+     */
+    void awaitReturn(Call call, boolean resume) {
+        String threadId = String.valueOf(call.threadId);
+        MICommand frames = gc.getCommandFactory().createMIStackListFrames(threadId);
+        CompletableFuture<MIInfo> stack = gc.queueAsyncCommand(JDWP.getNewTokenId(), frames);
+        stack.thenCombine(StepEngine.stackPointer(gc, call.threadId), (info, sp) -> {
+            MIFrame caller = info instanceof MIStackListFramesInfo && ((MIStackListFramesInfo) info).getMIFrames().length > 1
+                    ? ((MIStackListFramesInfo) info).getMIFrames()[1] : null;
+            if (caller == null || caller.getAddress() == null || sp == null) {
+                return CompletableFuture.<MIInfo>completedFuture(null);
+            }
+            call.sp = sp;
+            MICommand insert = gc.getCommandFactory().createMIBreakInsert(true, false, StepEngine.STACK_POINTER + " > " + sp, 0,
+                    "*" + caller.getAddress(), threadId);
+            return gc.queueAsyncCommand(JDWP.getNewTokenId(), insert);
+        }).thenCompose(insert -> insert).thenAccept(info -> {
+            if (info instanceof MIBreakInsertInfo && ((MIBreakInsertInfo) info).getMIBreakpoint() != null) {
+                callsByBreakpoint.put(Integer.valueOf(((MIBreakInsertInfo) info).getMIBreakpoint().getNumber()), call);
+            }
+            if (resume) {
+                resume();
+            }
+        });
+    }
+
+    /**
+     * Drops the calls of the given thread that an exception unwound before they returned, and
+     * deletes their breakpoints. Called on every stop of the thread but the return of a call; the
+     * entry of a method is a stop at the same depth as a call before it that is gone. Returns once
+     * the breakpoints are being deleted, so that a resume chained on it comes after them.
+     */
+    CompletableFuture<Void> stopped(long threadId, boolean entry) {
+        if (callsByBreakpoint.values().stream().noneMatch(call -> call.threadId == threadId)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return StepEngine.stackPointer(gc, threadId).thenAccept(sp -> {
+            if (sp == null) {
+                return;
+            }
+            List<String> numbers = new ArrayList<>();
+            callsByBreakpoint.entrySet().removeIf(e -> {
+                Call call = e.getValue();
+                boolean unwound = call.threadId == threadId && (entry ? call.sp <= sp : call.sp < sp);
+                if (unwound) {
+                    numbers.add(String.valueOf(e.getKey()));
+                }
+                return unwound;
+            });
+            delete(numbers);
+        });
+    }
+
+    /**
+     * Continues the target after events that do not suspend it.
+     */
+    void resume() {
+        MICommand cmd = gc.getCommandFactory().createMIExecContinue();
+        gc.queueAsyncCommand(JDWP.getNewTokenId(), cmd);
+    }
+
+    private void delete(List<String> numbers) {
+        if (!numbers.isEmpty()) {
+            MICommand cmd = gc.getCommandFactory().createMIBreakDelete(numbers.toArray(new String[0]));
+            gc.queueAsyncCommand(JDWP.getNewTokenId(), cmd);
+        }
+    }
+
+    private List<String> functions(List<String> patterns, List<String> excluded) {
+        String filter = String.join(",", patterns) + "!" + String.join(",", excluded);
+        List<String> cached = functionsByFilter.get(filter);
+        if (cached != null) {
+            return cached;
+        }
+        if (functions == null) {
+            functions = listFunctions();
+            if (functions == null) {
+                return null;
+            }
+        }
+        List<String> matching = new ArrayList<>();
+        for (String function : functions) {
+            String className = function.substring(0, function.indexOf("::"));
+            if (patterns.stream().allMatch(pattern -> matches(pattern, className))
+                    && excluded.stream().noneMatch(pattern -> matches(pattern, className))) {
+                matching.add(function);
+            }
+        }
+        functionsByFilter.put(filter, matching);
+        return matching;
+    }
+
+    private List<String> listFunctions() {
+        MICommand cmd = gc.getCommandFactory().createMiSymbolInfoFunctions();
+        int tokenID = JDWP.getNewTokenId();
+        gc.queueCommand(tokenID, cmd);
+        MiSymbolInfoFunctionsInfo reply = (MiSymbolInfoFunctionsInfo) gc.getResponse(tokenID, JDWP.DEF_REQUEST_TIMEOUT);
+        if (reply == null || reply.getMIOutput().getMIResultRecord().getResultClass().equals(MIResultRecord.ERROR)) {
+            return null;
+        }
+        List<String> list = new ArrayList<>();
+        for (MiSymbolInfoFunctionsInfo.SymbolFileInfo file : reply.getSymbolFiles()) {
+            if (file.getSymbols() == null) {
+                continue;
+            }
+            for (MiSymbolInfoFunctionsInfo.Symbols symbol : file.getSymbols()) {
+                String name = symbol.getName();
+                if (name != null && name.indexOf("::") > 0) { // a Java method, "pkg.Class::name(args)"
+                    list.add(name);
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Matches a class name against a JDWP class pattern: an exact name, or one starting or ending with '*'.
+     */
+    static boolean matches(String pattern, String className) {
+        if (pattern.startsWith("*")) {
+            return className.endsWith(pattern.substring(1));
+        } else if (pattern.endsWith("*")) {
+            return className.startsWith(pattern.substring(0, pattern.length() - 1));
+        }
+        return className.equals(pattern);
+    }
+}
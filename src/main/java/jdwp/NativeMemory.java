@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import gdb.mi.service.command.commands.MICommand;
+import gdb.mi.service.command.output.MIDataEvaluateExpressionInfo;
+import gdb.mi.service.command.output.MIDataReadMemoryBytesInfo;
+import gdb.mi.service.command.output.MIResultRecord;
+import jdwp.jdi.ReferenceTypeImpl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Arrays and strings of the native image, read straight from its memory.
+ *
+ * The first time an array or string local is seen during a stop, its length and the address of
+ * its elements are evaluated once through the image's debug info, and it is given an object ID.
+ * ArrayReference.GetValues and StringReference.Value then fetch the elements with one
+ * -data-read-memory-bytes per contiguous range, at most gdb.mi.read.chunk bytes each and sent
+ * back to back, and decode them into a primitive array without any per-element evaluation.
+ *
+ * Objects may move once the target runs, so the IDs only hold until the next stop.
+ */
+public class NativeMemory {
+    static final String CHUNK_PROPERTY = "gdb.mi.read.chunk";
+    static final int CHUNK = Integer.getInteger(CHUNK_PROPERTY, 1 << 20);
+
+    /** The image targets (amd64, aarch64) are little-endian. */
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private static final String STRING_SIGNATURE = "Ljava/lang/String;";
+
+    /** Coder of the strings holding UTF-16 rather than Latin-1 bytes. */
+    private static final int UTF16 = 1;
+
+    /** The most bytes a single array or string may span, the largest byte array the server can allocate. */
+    static final long MAX_BYTES = Integer.MAX_VALUE - 8;
+
+    /**
+     * A primitive array of the image: where its elements start, how many there are and their type tag.
+     */
+    static final class Array {
+        final long data;
+        final int length;
+        final byte tag;
+
+        Array(long data, int length, byte tag) {
+            this.data = data;
+            this.length = length;
+            this.tag = tag;
+        }
+
+        String signature() {
+            return "[" + (char) tag;
+        }
+    }
+
+    /**
+     * A string of the image: its backing array and whether it holds UTF-16.
+     */
+    static final class Str {
+        final Array value;
+        final boolean utf16;
+
+        Str(Array value, boolean utf16) {
+            this.value = value;
+            this.utf16 = utf16;
+        }
+    }
+
+    private final GDBControl gc;
+    private final Map<Long, Object> objects = new ConcurrentHashMap<>();
+    private final Map<Long, Long> idsByAddress = new ConcurrentHashMap<>();
+
+    NativeMemory(GDBControl gc) {
+        this.gc = gc;
+    }
+
+    /**
+     * Returns the ID of the primitive array the given expression refers to in a frame, or 0 if it
+     * is null or cannot be evaluated. The array signature, "[I" say, gives the component type.
+     */
+    long arrayId(String threadId, int frameId, String expression, String signature) {
+        byte tag = (byte) signature.charAt(1);
+        if (signature.charAt(0) != '[' || PacketStream.isObjectTag(tag)) {
+            return 0;
+        }
+        String[] values = evaluate(threadId, frameId, expression + "->len", "(long)&" + expression + "->data[0]");
+        if (values == null) {
+            return 0;
+        }
+        try {
+            int length = Integer.parseInt(values[0]);
+            if (!fits(length, elementSize(tag))) {
+                return 0;
+            }
+            return register(new Array(Long.parseLong(values[1]), length, tag));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the ID of the string the given expression refers to in a frame, or 0 if it is null
+     * or cannot be evaluated.
+     */
+    long stringId(String threadId, int frameId, String expression) {
+        String[] values = evaluate(threadId, frameId, expression + "->value->len",
+                "(long)&" + expression + "->value->data[0]", "(int)" + expression + "->coder");
+        if (values == null) {
+            return 0;
+        }
+        try {
+            int length = Integer.parseInt(values[0]);
+            if (!fits(length, 1)) {
+                return 0;
+            }
+            Array value = new Array(Long.parseLong(values[1]), length, JDWP.Tag.BYTE);
+            return register(new Str(value, Integer.parseInt(values[2]) == UTF16));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns whether the given ID is one this class hands out, whether or not it still refers to
+     * an object.
+     */
+    static boolean isNativeId(long id) {
+        return id > JDWP.NATIVE_ID_BASE && id < JDWP.NATIVE_ID_BASE / 2;
+    }
+
+    /**
+     * Returns whether the given ID refers to an array or string seen since the last stop.
+     */
+    boolean contains(long id) {
+        return objects.containsKey(id);
+    }
+
+    /**
+     * Returns the type of the array or string with the given ID, or null if the ID is unknown or
+     * no longer valid.
+     */
+    ReferenceTypeImpl referenceType(long id) {
+        Object object = objects.get(id);
+        if (object instanceof Str) {
+            for (ReferenceTypeImpl type : JDWP.stringClasses) {
+                if (type.signature().equals(STRING_SIGNATURE)) {
+                    return type;
+                }
+            }
+            return first(gc.vm.findReferenceTypes(STRING_SIGNATURE));
+        }
+        if (object instanceof Array) {
+            return first(gc.vm.findReferenceTypes(((Array) object).signature()));
+        }
+        return null;
+    }
+
+    private static ReferenceTypeImpl first(List<ReferenceTypeImpl> types) {
+        return types.isEmpty() ? null : types.get(0);
+    }
+
+    /**
+     * Returns the array with the given ID, or null.
+     */
+    Array getArray(long id) {
+        Object object = objects.get(id);
+        return object instanceof Array ? (Array) object : null;
+    }
+
+    /**
+     * Returns the string with the given ID, or null.
+     */
+    Str getString(long id) {
+        Object object = objects.get(id);
+        return object instanceof Str ? (Str) object : null;
+    }
+
+    /**
+     * Reads the elements [start, start + length) of the given array into a primitive array of
+     * its component type, or returns null if GDB could not read them.
+     */
+    Object readElements(Array array, int start, int length) {
+        int size = elementSize(array.tag);
+        if (!fits(length, size)) {
+            return null;
+        }
+        ByteBuffer bytes = read(array.data + (long) start * size, (int) ((long) length * size));
+        return bytes == null ? null : decode(bytes, array.tag, length);
+    }
+
+    /**
+     * Reads the primitive value of the given type at the given address into a one element array,
+     * or returns null if GDB could not read it.
+     */
+    Object readValue(long address, byte tag) {
+        return readElements(new Array(address, 1, tag), 0, 1);
+    }
+
+    /**
+     * Reads the characters of the given string, or returns null if GDB could not read them.
+     */
+    String readString(Str string) {
+        ByteBuffer bytes = read(string.value.data, string.value.length);
+        if (bytes == null) {
+            return null;
+        }
+        if (string.utf16) {
+            return new String((char[]) decode(bytes, JDWP.Tag.CHAR, string.value.length / 2));
+        }
+        return new String(bytes.array(), 0, string.value.length, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Forgets the objects seen so far; called whenever the target starts or stops running.
+     */
+    public void invalidate() {
+        objects.clear();
+        idsByAddress.clear();
+    }
+
+    private long register(Object object) {
+        long address = object instanceof Str ? ((Str) object).value.data : ((Array) object).data;
+        return idsByAddress.computeIfAbsent(address, key -> {
+            long id = JDWP.getNewNativeId();
+            objects.put(id, object);
+            return id;
+        });
+    }
+
+    /**
+     * Evaluates the given expressions in a frame, back to back, or returns null if one of them fails.
+     */
+    private String[] evaluate(String threadId, int frameId, String... expressions) {
+        int[] tokens = new int[expressions.length];
+        for (int i = 0; i < expressions.length; i++) {
+            MICommand cmd = gc.getCommandFactory().createMIDataEvaluateExpression(threadId, String.valueOf(frameId), expressions[i]);
+            tokens[i] = JDWP.getNewTokenId();
+            gc.queueCommand(tokens[i], cmd);
+        }
+        String[] values = new String[expressions.length];
+        boolean failed = false;
+        for (int i = 0; i < tokens.length; i++) {
+            MIDataEvaluateExpressionInfo reply = (MIDataEvaluateExpressionInfo) gc.getResponse(tokens[i], JDWP.DEF_REQUEST_TIMEOUT);
+            if (reply == null || reply.getMIOutput().getMIResultRecord().getResultClass().equals(MIResultRecord.ERROR)) {
+                failed = true;
+            } else {
+                values[i] = reply.getValue();
+            }
+        }
+        return failed ? null : values;
+    }
+
+    /**
+     * Reads count bytes at the given address, in chunks sent back to back.
+     */
+    private ByteBuffer read(long address, int count) {
+        if (count == 0) {
+            return ByteBuffer.allocate(0).order(ORDER);
+        }
+        int chunks = Math.max(1, (count + CHUNK - 1) / CHUNK);
+        int[] tokens = new int[chunks];
+        for (int i = 0; i < chunks; i++) {
+            int offset = i * CHUNK;
+            MICommand cmd = gc.getCommandFactory().createMIDataReadMemoryBytes(address + offset, Math.min(CHUNK, count - offset));
+            tokens[i] = JDWP.getNewTokenId();
+            gc.queueCommand(tokens[i], cmd);
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(count).order(ORDER);
+        boolean failed = false;
+        for (int i = 0; i < chunks; i++) {
+            MIDataReadMemoryBytesInfo reply = (MIDataReadMemoryBytesInfo) gc.getResponse(tokens[i], JDWP.DEF_REQUEST_TIMEOUT);
+            int expected = Math.min(CHUNK, count - i * CHUNK);
+            if (reply == null || reply.getReadCount() != expected) {
+                failed = true; // keep collecting, so that no reply is left behind
+            } else {
+                bytes.put(reply.getBytes(), 0, expected);
+            }
+        }
+        if (failed) {
+            return null;
+        }
+        bytes.flip();
+        return bytes;
+    }
+
+    /**
+     * Returns whether length elements of the given size can be read in one go. The lengths come
+     * from target memory, which may hold anything when a variable is not initialized yet.
+     */
+    private static boolean fits(int length, int size) {
+        return length >= 0 && (long) length * size <= MAX_BYTES;
+    }
+
+    static int elementSize(byte tag) {
+        switch (tag) {
+            case JDWP.Tag.CHAR:
+            case JDWP.Tag.SHORT:
+                return 2;
+            case JDWP.Tag.INT:
+            case JDWP.Tag.FLOAT:
+                return 4;
+            case JDWP.Tag.LONG:
+            case JDWP.Tag.DOUBLE:
+                return 8;
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * Decodes count elements of the given primitive type into an array of that type.
+     */
+    static Object decode(ByteBuffer bytes, byte tag, int count) {
+        switch (tag) {
+            case JDWP.Tag.BOOLEAN: {
+                boolean[] values = new boolean[count];
+                for (int i = 0; i < count; i++) {
+                    values[i] = bytes.get(i) != 0;
+                }
+                return values;
+            }
+            case JDWP.Tag.CHAR: {
+                char[] values = new char[count];
+                bytes.asCharBuffer().get(values);
+                return values;
+            }
+            case JDWP.Tag.SHORT: {
+                short[] values = new short[count];
+                bytes.asShortBuffer().get(values);
+                return values;
+            }
+            case JDWP.Tag.INT: {
+                int[] values = new int[count];
+                bytes.asIntBuffer().get(values);
+                return values;
+            }
+            case JDWP.Tag.FLOAT: {
+                float[] values = new float[count];
+                bytes.asFloatBuffer().get(values);
+                return values;
+            }
+            case JDWP.Tag.LONG: {
+                long[] values = new long[count];
+                bytes.asLongBuffer().get(values);
+                return values;
+            }
+            case JDWP.Tag.DOUBLE: {
+                double[] values = new double[count];
+                bytes.asDoubleBuffer().get(values);
+                return values;
+            }
+            default: {
+                byte[] values = new byte[count];
+                bytes.get(values);
+                return values;
+            }
+        }
+    }
+}
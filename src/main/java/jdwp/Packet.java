@@ -39,6 +39,7 @@
 package jdwp;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class Packet {
     public final static short NoFlags = 0x0;
@@ -58,6 +59,10 @@ public class Packet {
     short errorCode;
     byte[] data;
     volatile boolean replied = false;
+    /**
+     * System.nanoTime() at which the packet was read from the IDE, or 0
+     */
+    long received;
 
     /**
      * Return byte representation of the packet
@@ -87,6 +92,37 @@ public class Packet {
         return b;
     }
 
+    /**
+     * Write the 11 byte header of the packet, for a packet with the given data length
+     */
+    void writeHeader(ByteBuffer b, int dataLength) {
+        b.putInt(dataLength + 11);
+        b.putInt(id);
+        b.put((byte)flags);
+        if ((flags & Packet.Reply) == 0) {
+            b.put((byte)cmdSet);
+            b.put((byte)cmd);
+        } else {
+            b.putShort(errorCode);
+        }
+    }
+
+    /**
+     * Read a packet header, after its length, and return the packet without data
+     */
+    static Packet readHeader(ByteBuffer b) {
+        Packet p = new Packet();
+        p.id = b.getInt();
+        p.flags = (short)(b.get() & 0xff);
+        if ((p.flags & Packet.Reply) == 0) {
+            p.cmdSet = (short)(b.get() & 0xff);
+            p.cmd = (short)(b.get() & 0xff);
+        } else {
+            p.errorCode = b.getShort();
+        }
+        return p;
+    }
+
     /**
      * Create a packet from its byte array representation
      */
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import com.sun.jdi.VMDisconnectedException;
+import com.sun.jdi.connect.spi.Connection;
+import gdb.mi.service.command.Listener;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dispatches JDWP command packets read from the IDE connection.
+ *
+ * In serial mode (the default) every command is replied to on the reading thread before the next
+ * packet is read. When the jdwp.workers system property is set to a positive number, commands that
+ * only inspect the suspended target are handed to a pool of that many workers so that their GDB
+ * round trips overlap, and the replies go out in completion order (the IDE matches them by packet id).
+ * Any other command acts as a barrier: it waits for all in-flight commands to complete and then
+ * runs on the reading thread, so that run control, event requests and commands that update shared
+ * state are seen in the same order the IDE sent them.
+ */
+public class PacketDispatcher {
+    static final String WORKERS_PROPERTY = "jdwp.workers";
+
+    /**
+     * Commands that may run concurrently with each other, keyed by (command set << 8 | command).
+     * A command of -1 stands for the whole command set.
+     */
+    private static final Set<Integer> CONCURRENT = new HashSet<>();
+
+    static {
+        concurrent(JDWPVirtualMachine.VirtualMachine.COMMAND_SET, 1, 2, 3, 4, 5, 7, 12, 13, 17, 20, 21, 22);
+        concurrent(JDWPReferenceType.ReferenceType.COMMAND_SET, -1);
+        concurrent(JDWPClassType.ClassType.COMMAND_SET, 1);
+        concurrent(JDWPMethod.Method.COMMAND_SET, 1, 3, 4); // VariableTable(WithGeneric) updates JDWP.localsByID
+        concurrent(JDWPField.Field.COMMAND_SET, -1);
+        concurrent(JDWPObjectReference.ObjectReference.COMMAND_SET, 1, 2, 5, 9, 10);
+        concurrent(JDWPStringReference.StringReference.COMMAND_SET, -1);
+        concurrent(JDWPThreadReference.ThreadReference.COMMAND_SET, 4, 5, 6, 7, 8, 9, 12, 13); // Name sets JDWP.currentThreadID
+        concurrent(JDWPThreadGroupReference.ThreadGroupReference.COMMAND_SET, -1);
+        concurrent(JDWPArrayReference.ArrayReference.COMMAND_SET, 1, 2);
+        concurrent(JDWPClassLoaderReference.ClassLoaderReference.COMMAND_SET, -1);
+        concurrent(JDWPStackFrame.StackFrame.COMMAND_SET, 1, 3);
+        concurrent(JDWPClassObjectReference.ClassObjectReference.COMMAND_SET, -1);
+        concurrent(JDWPModuleReference.ModuleReference.COMMAND_SET, -1);
+    }
+
+    private static void concurrent(int cmdSet, int... cmds) {
+        for (int cmd : cmds) {
+            CONCURRENT.add(key(cmdSet, cmd));
+        }
+    }
+
+    private static int key(int cmdSet, int cmd) {
+        return (cmdSet << 8) | (cmd & 0xff);
+    }
+
+    static boolean isConcurrent(int cmdSet, int cmd) {
+        return CONCURRENT.contains(key(cmdSet, -1)) || CONCURRENT.contains(key(cmdSet, cmd));
+    }
+
+    private final GDBControl gc;
+    private final Listener asyncListener;
+    private final Connection connection;
+    private final ExecutorService workers;
+    private final Object inFlightLock = new Object();
+    private int inFlight = 0;
+    private volatile VMDisconnectedException disconnected;
+
+    PacketDispatcher(GDBControl gc, Listener asyncListener, Connection connection, int workerCount) {
+        this.gc = gc;
+        this.asyncListener = asyncListener;
+        this.connection = connection;
+        this.workers = workerCount > 0 ? Executors.newFixedThreadPool(workerCount, new WorkerFactory()) : null;
+    }
+
+    static int workerCount() {
+        return Integer.getInteger(WORKERS_PROPERTY, 0);
+    }
+
+    /**
+     * Replies to the given command packet, either right away or on a worker thread.
+     */
+    public void dispatch(Packet p) {
+        if (disconnected != null) {
+            throw disconnected;
+        }
+        if (workers == null || !isConcurrent(p.cmdSet, p.cmd)) {
+            awaitInFlight();
+            JDWPProxy.handle(gc, asyncListener, p);
+            return;
+        }
+
+        synchronized (inFlightLock) {
+            inFlight++;
+        }
+        workers.execute(() -> {
+            try {
+                JDWPProxy.handle(gc, asyncListener, p);
+            } catch (VMDisconnectedException vde) {
+                disconnected = vde;
+                try {
+                    connection.close(); // unblocks the reading thread
+                } catch (IOException ignored) {
+                }
+            } finally {
+                synchronized (inFlightLock) {
+                    if (--inFlight == 0) {
+                        inFlightLock.notifyAll();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits until every command handed to the workers has been replied to.
+     */
+    void awaitInFlight() {
+        synchronized (inFlightLock) {
+            while (inFlight > 0) {
+                try {
+                    inFlightLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true once a worker has seen the VM go away and closed the connection.
+     */
+    boolean isDisconnected() {
+        return disconnected != null;
+    }
+
+    public void shutdown() {
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+    }
+
+    private static class WorkerFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "JDWP Worker " + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
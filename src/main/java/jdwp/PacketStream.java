@@ -41,14 +41,14 @@ package jdwp;
 import jdwp.jdi.*;
 import com.sun.jdi.InternalException;
 
-import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 public class PacketStream {
     final GDBControl gc;
     private int inCursor = 0;
     final Packet pkt;
-    ByteArrayOutputStream dataStream = new ByteArrayOutputStream();
+    private ByteBuffer dataBuffer;
     private boolean isCommitted = false;
 
     PacketStream(GDBControl gc, int id, int cmdSet, int cmd) {
@@ -78,53 +78,78 @@ public class PacketStream {
         return pkt.id;
     }
 
+    /**
+     * Returns the suspend policy of a composite event packet, the first byte written.
+     */
+    byte suspendPolicy() {
+        return dataBuffer == null ? JDWP.SuspendPolicy.NONE : dataBuffer.get(0);
+    }
+
     public void send() {
         if (!isCommitted) {
-            pkt.data = dataStream.toByteArray();
-            gc.sendToTarget(pkt);
+            ByteBuffer data = dataBuffer;
+            if (data == null) {
+                data = ByteBuffer.wrap(Packet.nullData);
+            } else {
+                data.flip();
+            }
+            gc.sendToTarget(pkt, data);
+            if (dataBuffer != null) {
+                BufferPool.release(dataBuffer);
+                dataBuffer = null;
+            }
             isCommitted = true;
         }
     }
 
-    public void writeBoolean(boolean data) {
-        if (data) {
-            dataStream.write(1);
-        } else {
-            dataStream.write(0);
+    /**
+     * Discards the data written so far.
+     */
+    void reset() {
+        if (dataBuffer != null) {
+            dataBuffer.clear();
         }
     }
 
+    /**
+     * Returns the data buffer with room for the given number of bytes, acquiring
+     * it from the pool on the first write and growing it when it is full.
+     */
+    private ByteBuffer data(int size) {
+        if (dataBuffer == null) {
+            dataBuffer = BufferPool.acquire(size);
+        } else if (dataBuffer.remaining() < size) {
+            ByteBuffer grown = BufferPool.acquire(Math.max(dataBuffer.capacity() * 2, dataBuffer.position() + size));
+            dataBuffer.flip();
+            grown.put(dataBuffer);
+            BufferPool.release(dataBuffer);
+            dataBuffer = grown;
+        }
+        return dataBuffer;
+    }
+
+    public void writeBoolean(boolean data) {
+        data(1).put(data ? (byte) 1 : (byte) 0);
+    }
+
     public void writeByte(byte data) {
-        dataStream.write(data);
+        data(1).put(data);
     }
 
     public void writeChar(char data) {
-        dataStream.write((byte) ((data >>> 8) & 0xFF));
-        dataStream.write((byte) ((data >>> 0) & 0xFF));
+        data(2).putChar(data);
     }
 
     public void writeShort(short data) {
-        dataStream.write((byte) ((data >>> 8) & 0xFF));
-        dataStream.write((byte) ((data >>> 0) & 0xFF));
+        data(2).putShort(data);
     }
 
     public void writeInt(int data) {
-        dataStream.write((byte) ((data >>> 24) & 0xFF));
-        dataStream.write((byte) ((data >>> 16) & 0xFF));
-        dataStream.write((byte) ((data >>> 8) & 0xFF));
-        dataStream.write((byte) ((data >>> 0) & 0xFF));
+        data(4).putInt(data);
     }
 
     public void writeLong(long data) {
-        dataStream.write((byte) ((data >>> 56) & 0xFF));
-        dataStream.write((byte) ((data >>> 48) & 0xFF));
-        dataStream.write((byte) ((data >>> 40) & 0xFF));
-        dataStream.write((byte) ((data >>> 32) & 0xFF));
-
-        dataStream.write((byte) ((data >>> 24) & 0xFF));
-        dataStream.write((byte) ((data >>> 16) & 0xFF));
-        dataStream.write((byte) ((data >>> 8) & 0xFF));
-        dataStream.write((byte) ((data >>> 0) & 0xFF));
+        data(8).putLong(data);
     }
 
     public void writeFloat(float data) {
@@ -176,7 +201,7 @@ public class PacketStream {
     }
 
     void writeByteArray(byte[] data) {
-        dataStream.write(data, 0, data.length);
+        data(data.length).put(data);
     }
 
     void writeStringOrEmpty(String string) {
@@ -591,6 +616,61 @@ public class PacketStream {
             }
         }
     }
+
+    /**
+     * Writes a region of a primitive array, given as a Java array of the component type.
+     */
+    void writeArrayRegion(Object elements, byte typeTag) {
+        writeByte(typeTag);
+        writeInt(java.lang.reflect.Array.getLength(elements));
+        writeUntaggedValues(elements, typeTag);
+    }
+
+    /**
+     * Writes the values of a Java array of the given primitive type, without tags.
+     */
+    void writeUntaggedValues(Object elements, byte typeTag) {
+        data(java.lang.reflect.Array.getLength(elements) * NativeMemory.elementSize(typeTag));
+        switch (typeTag) {
+            case JDWP.Tag.BOOLEAN:
+                for (boolean value : (boolean[]) elements) {
+                    writeBoolean(value);
+                }
+                break;
+            case JDWP.Tag.CHAR:
+                for (char value : (char[]) elements) {
+                    writeChar(value);
+                }
+                break;
+            case JDWP.Tag.SHORT:
+                for (short value : (short[]) elements) {
+                    writeShort(value);
+                }
+                break;
+            case JDWP.Tag.INT:
+                for (int value : (int[]) elements) {
+                    writeInt(value);
+                }
+                break;
+            case JDWP.Tag.FLOAT:
+                for (float value : (float[]) elements) {
+                    writeFloat(value);
+                }
+                break;
+            case JDWP.Tag.LONG:
+                for (long value : (long[]) elements) {
+                    writeLong(value);
+                }
+                break;
+            case JDWP.Tag.DOUBLE:
+                for (double value : (double[]) elements) {
+                    writeDouble(value);
+                }
+                break;
+            default:
+                writeByteArray((byte[]) elements);
+        }
+    }
     //
 //    int skipBytes(int n) {
 //        inCursor += n;
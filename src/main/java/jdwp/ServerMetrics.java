@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import com.sun.net.httpserver.HttpServer;
+import gdb.mi.service.command.CommandMetrics;
+import gdb.mi.service.command.LatencyHistogram;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exposes the counts and latency histograms of the JDWP commands and of the MI commands of a
+ * session: through JMX, as the ServerMetricsMXBean, and when jdwp.metrics.port is set, in the
+ * Prometheus text format at http://127.0.0.1:{port}/metrics. The endpoint only listens on the
+ * loopback interface.
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+    static final String PORT_PROPERTY = "jdwp.metrics.port";
+    static final String OBJECT_NAME = "jdwp:type=ServerMetrics";
+
+    /**
+     * The latencies of one phase of a command, in microseconds.
+     */
+    public static final class PhaseSummary {
+        private final String phase;
+        private final double mean;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+        private final long max;
+
+        PhaseSummary(String phase, LatencyHistogram histogram) {
+            this.phase = phase;
+            this.mean = histogram.getMean() / 1000;
+            this.p50 = histogram.getValueAtPercentile(50) / 1000;
+            this.p90 = histogram.getValueAtPercentile(90) / 1000;
+            this.p99 = histogram.getValueAtPercentile(99) / 1000;
+            this.max = histogram.getMax() / 1000;
+        }
+
+        public String getPhase() {
+            return phase;
+        }
+
+        public double getMeanMicros() {
+            return mean;
+        }
+
+        public long getP50Micros() {
+            return p50;
+        }
+
+        public long getP90Micros() {
+            return p90;
+        }
+
+        public long getP99Micros() {
+            return p99;
+        }
+
+        public long getMaxMicros() {
+            return max;
+        }
+    }
+
+    /**
+     * The count, errors and phase latencies of one command.
+     */
+    public static final class CommandSummary {
+        private final String name;
+        private final long count;
+        private final long errors;
+        private final List<PhaseSummary> phases = new ArrayList<>();
+
+        CommandSummary(CommandMetrics.Row row, String[] phases) {
+            this.name = row.getName();
+            this.count = row.getCount();
+            this.errors = row.getErrors();
+            for (int i = 0; i < phases.length; i++) {
+                this.phases.add(new PhaseSummary(phases[i], row.getPhase(i)));
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public List<PhaseSummary> getPhases() {
+            return phases;
+        }
+    }
+
+    private final GDBControl gc;
+    private ObjectName objectName;
+    private HttpServer httpServer;
+
+    ServerMetrics(GDBControl gc) {
+        this.gc = gc;
+    }
+
+    /**
+     * Registers the metrics of the session with the platform MBean server, and starts the HTTP
+     * endpoint if jdwp.metrics.port is set.
+     */
+    static ServerMetrics start(GDBControl gc) {
+        ServerMetrics metrics = new ServerMetrics(gc);
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(metrics, name);
+            metrics.objectName = name;
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+        Integer port = Integer.getInteger(PORT_PROPERTY);
+        if (port != null) {
+            try {
+                metrics.serve(port);
+                System.out.println("Metrics on http://127.0.0.1:" + metrics.getPort() + "/metrics");
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return metrics;
+    }
+
+    void serve(int port) throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        httpServer.createContext("/metrics", exchange -> {
+            byte[] body = getPrometheusText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        httpServer.start();
+    }
+
+    /**
+     * Returns the port of the HTTP endpoint, or -1 if it is not started.
+     */
+    int getPort() {
+        return httpServer != null ? httpServer.getAddress().getPort() : -1;
+    }
+
+    private static List<CommandSummary> summaries(CommandMetrics metrics) {
+        List<CommandSummary> summaries = new ArrayList<>();
+        String[] phases = metrics.getPhases();
+        for (CommandMetrics.Row row : metrics.getRows()) {
+            summaries.add(new CommandSummary(row, phases));
+        }
+        return summaries;
+    }
+
+    @Override
+    public List<CommandSummary> getJDWPCommands() {
+        return summaries(gc.getPacketMetrics());
+    }
+
+    @Override
+    public List<CommandSummary> getMICommands() {
+        return summaries(gc.getCommandMetrics());
+    }
+
+    @Override
+    public int getMICommandWindow() {
+        return gc.getCommandWindow().getLimit();
+    }
+
+    @Override
+    public String getPrometheusText() {
+        StringBuilder out = new StringBuilder();
+        gc.getPacketMetrics().writePrometheus(out, "nativejdb_jdwp", "command");
+        gc.getCommandMetrics().writePrometheus(out, "nativejdb_mi", "operation");
+        out.append("# TYPE nativejdb_mi_window_limit gauge\n");
+        out.append("nativejdb_mi_window_limit ").append(getMICommandWindow()).append('\n');
+        return out.toString();
+    }
+
+    /**
+     * Stops the HTTP endpoint and unregisters the MBean.
+     */
+    void close() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpServer = null;
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException ignored) {
+            }
+            objectName = null;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import java.util.List;
+
+/**
+ * The metrics of the server as seen through JMX, under {@link ServerMetrics#OBJECT_NAME}.
+ */
+public interface ServerMetricsMXBean {
+
+    /**
+     * Returns the JDWP commands replied to so far, timed in the queue, reply and send phases.
+     */
+    List<ServerMetrics.CommandSummary> getJDWPCommands();
+
+    /**
+     * Returns the MI operations answered so far, timed in the queue, service and parse phases.
+     */
+    List<ServerMetrics.CommandSummary> getMICommands();
+
+    /**
+     * Returns the number of MI commands currently allowed on the wire to GDB.
+     */
+    int getMICommandWindow();
+
+    /**
+     * Returns all metrics in the Prometheus text format.
+     */
+    String getPrometheusText();
+}
@@ -31,9 +31,10 @@ import com.sun.jdi.connect.spi.Connection;
 import com.sun.jdi.connect.spi.TransportService;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.ResourceBundle;
 
 /*
@@ -206,7 +207,7 @@ public class SocketTransportService extends TransportService {
         }
 
         // open TCP connection to VM
-        Socket s = new Socket();
+        Socket s = SocketChannel.open().socket();
         try {
             s.connect(sa, (int)attachTimeout);
         } catch (SocketTimeoutException exc) {
@@ -226,7 +227,7 @@ public class SocketTransportService extends TransportService {
             throw exc;
         }
 
-        return new SocketConnection(s);
+        return new SocketConnection(s.getChannel());
     }
 
     private static int parsePort(String portStr) {
@@ -248,7 +249,7 @@ public class SocketTransportService extends TransportService {
         } else {
             sa = new InetSocketAddress(localaddress, port);
         }
-        ServerSocket ss = new ServerSocket();
+        ServerSocket ss = ServerSocketChannel.open().socket();
         ss.bind(sa);
         return new SocketListenKey(ss);
     }
@@ -342,7 +343,7 @@ public class SocketTransportService extends TransportService {
         // handshake here
         handshake(s, handshakeTimeout);
 
-        return new SocketConnection(s);
+        return new SocketConnection(s.getChannel());
     }
 
     public String toString() {
@@ -352,22 +353,26 @@ public class SocketTransportService extends TransportService {
 
 
 /*
- * The Connection returned by attach and accept is one of these
+ * The Connection returned by attach and accept is one of these.
+ *
+ * Packets are read through a direct buffer that is refilled with as many bytes as the
+ * socket has, so that a packet header costs no read of its own. Packets built by a
+ * PacketStream are sent from its pooled buffer with one gathering write of header and data.
  */
 class SocketConnection extends Connection {
-    private Socket socket;
+    private final SocketChannel channel;
     private boolean closed = false;
-    private OutputStream socketOutput;
-    private InputStream socketInput;
+    private final ByteBuffer input = ByteBuffer.allocateDirect(BufferPool.BUFFER_SIZE);
+    private final ByteBuffer header = ByteBuffer.allocateDirect(11);
+    private final ByteBuffer[] gather = new ByteBuffer[2];
     private Object receiveLock = new Object();
     private Object sendLock = new Object();
     private Object closeLock = new Object();
 
-    SocketConnection(Socket socket) throws IOException {
-        this.socket = socket;
-        socket.setTcpNoDelay(true);
-        socketInput = socket.getInputStream();
-        socketOutput = socket.getOutputStream();
+    SocketConnection(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        channel.socket().setTcpNoDelay(true);
+        input.flip();
     }
 
     public void close() throws IOException {
@@ -375,9 +380,7 @@ class SocketConnection extends Connection {
             if (closed) {
                 return;
             }
-            socketOutput.close();
-            socketInput.close();
-            socket.close();
+            channel.close();
             closed = true;
         }
     }
@@ -389,69 +392,68 @@ class SocketConnection extends Connection {
     }
 
     public byte[] readPacket() throws IOException {
+        Packet p = receivePacket();
+        return p == null ? new byte[0] : p.toByteArray();
+    }
+
+    /**
+     * Reads the next packet, or returns null at EOF.
+     */
+    Packet receivePacket() throws IOException {
         if (!isOpen()) {
             throw new ClosedConnectionException("connection is closed");
         }
         synchronized (receiveLock) {
-            int b1,b2,b3,b4;
-
-            // length
-            try {
-                b1 = socketInput.read();
-                b2 = socketInput.read();
-                b3 = socketInput.read();
-                b4 = socketInput.read();
-            } catch (IOException ioe) {
-                if (!isOpen()) {
-                    throw new ClosedConnectionException("connection is closed");
-                } else {
-                    throw ioe;
+            while (input.remaining() < 11) {
+                if (fill() < 0) {
+                    if (input.hasRemaining()) {
+                        throw new IOException("protocol error - premature EOF");
+                    }
+                    return null;
                 }
             }
 
-            // EOF
-            if (b1<0) {
-                return new byte[0];
-            }
-
-            if (b2<0 || b3<0 || b4<0) {
-                throw new IOException("protocol error - premature EOF");
-            }
-
-            int len = ((b1 << 24) | (b2 << 16) | (b3 << 8) | (b4 << 0));
-
-            if (len < 0) {
+            int len = input.getInt();
+            if (len < 11) {
                 throw new IOException("protocol error - invalid length");
             }
-
-            byte b[] = new byte[len];
-            b[0] = (byte)b1;
-            b[1] = (byte)b2;
-            b[2] = (byte)b3;
-            b[3] = (byte)b4;
-
-            int off = 4;
-            len -= off;
-
-            while (len > 0) {
-                int count;
-                try {
-                    count = socketInput.read(b, off, len);
-                } catch (IOException ioe) {
-                    if (!isOpen()) {
-                        throw new ClosedConnectionException("connection is closed");
-                    } else {
-                        throw ioe;
+            Packet p = Packet.readHeader(input);
+
+            byte[] data = new byte[len - 11];
+            int off = Math.min(data.length, input.remaining());
+            input.get(data, 0, off);
+            if (off < data.length) {
+                // the rest of a large packet goes straight into its data
+                ByteBuffer rest = ByteBuffer.wrap(data, off, data.length - off);
+                while (rest.hasRemaining()) {
+                    if (read(rest) < 0) {
+                        throw new IOException("protocol error - premature EOF");
                     }
                 }
-                if (count < 0) {
-                    throw new IOException("protocol error - premature EOF");
-                }
-                len -= count;
-                off += count;
             }
+            p.data = data;
+            return p;
+        }
+    }
 
-            return b;
+    private int fill() throws IOException {
+        input.compact();
+        try {
+            return read(input);
+        } finally {
+            input.flip();
+        }
+    }
+
+    private int read(ByteBuffer b) throws IOException {
+        try {
+            return channel.read(b);
+        } catch (IOException ioe) {
+            if (!isOpen()) {
+                throw new ClosedConnectionException("connection is closed");
+            } else {
+                throw ioe;
+            }
         }
     }
 
@@ -483,18 +485,60 @@ class SocketConnection extends Connection {
         }
 
         synchronized (sendLock) {
+            /*
+             * Send the packet (ignoring any bytes that follow
+             * the packet in the byte array).
+             */
+            ByteBuffer buffer = ByteBuffer.wrap(b, 0, len);
+            while (buffer.hasRemaining()) {
+                write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Sends the packet with the given data, from the position to the limit of the buffer.
+     */
+    void writePacket(Packet pkt, ByteBuffer data) throws IOException {
+        if (!isOpen()) {
+            throw new ClosedConnectionException("connection is closed");
+        }
+        synchronized (sendLock) {
+            header.clear();
+            pkt.writeHeader(header, data.remaining());
+            header.flip();
+            gather[0] = header;
+            gather[1] = data;
             try {
-                /*
-                 * Send the packet (ignoring any bytes that follow
-                 * the packet in the byte array).
-                 */
-                socketOutput.write(b, 0, len);
-            } catch (IOException ioe) {
-                if (!isOpen()) {
-                    throw new ClosedConnectionException("connection is closed");
-                } else {
-                    throw ioe;
+                while (header.hasRemaining() || data.hasRemaining()) {
+                    write(gather);
                 }
+            } finally {
+                gather[1] = null;
+            }
+        }
+    }
+
+    private void write(ByteBuffer b) throws IOException {
+        try {
+            channel.write(b);
+        } catch (IOException ioe) {
+            if (!isOpen()) {
+                throw new ClosedConnectionException("connection is closed");
+            } else {
+                throw ioe;
+            }
+        }
+    }
+
+    private void write(ByteBuffer[] b) throws IOException {
+        try {
+            channel.write(b);
+        } catch (IOException ioe) {
+            if (!isOpen()) {
+                throw new ClosedConnectionException("connection is closed");
+            } else {
+                throw ioe;
             }
         }
     }
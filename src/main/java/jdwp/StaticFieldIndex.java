@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import gdb.mi.service.command.commands.MICommand;
+import gdb.mi.service.command.output.MIDataEvaluateExpressionInfo;
+import gdb.mi.service.command.output.MIResultRecord;
+import gdb.mi.service.command.output.MiSymbolInfoVariablesInfo;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The static fields of the native image, by class and field name.
+ *
+ * ReferenceType.GetValues used to list the globals of the class with -symbol-info-variables on
+ * every call and then look for each field by splitting all their names. The globals are now
+ * listed once, when the session starts, into a map per class. The address of a field is
+ * evaluated the first time it is read and kept for the whole session, as statics do not move,
+ * so reading a primitive static afterwards is a single memory read.
+ */
+public class StaticFieldIndex {
+
+    /**
+     * A static field as known to GDB: its global's name and type, and its address once known.
+     */
+    static final class Symbol {
+        final String name;
+        final String type;
+        volatile long address = -1; // not evaluated yet
+        volatile boolean unknown = false; // GDB could not evaluate its address
+
+        Symbol(String name, String type) {
+            this.name = name;
+            this.type = type;
+        }
+    }
+
+    private final GDBControl gc;
+    private final CompletableFuture<Map<String, Map<String, Symbol>>> classes = new CompletableFuture<>();
+
+    StaticFieldIndex(GDBControl gc) {
+        this.gc = gc;
+    }
+
+    /**
+     * Lists the globals of the image in the background; the first lookup waits for it.
+     */
+    public void build() {
+        CompletableFuture.runAsync(this::scan);
+    }
+
+    void scan() {
+        Map<String, Map<String, Symbol>> index = new HashMap<>();
+        try {
+            MICommand cmd = gc.getCommandFactory().createMiSymbolInfoVariables();
+            int tokenID = JDWP.getNewTokenId();
+            gc.queueCommand(tokenID, cmd);
+            MiSymbolInfoVariablesInfo reply = (MiSymbolInfoVariablesInfo) gc.getResponse(tokenID, JDWP.DEF_REQUEST_TIMEOUT);
+            if (reply != null && !reply.getMIOutput().getMIResultRecord().getResultClass().equals(MIResultRecord.ERROR)) {
+                for (MiSymbolInfoVariablesInfo.SymbolVariableInfo file : reply.getSymbolVariables()) {
+                    if (file.getSymbols() == null) {
+                        continue;
+                    }
+                    for (MiSymbolInfoVariablesInfo.Symbols symbol : file.getSymbols()) {
+                        String name = symbol.getName();
+                        int separator = name == null ? -1 : name.lastIndexOf("::");
+                        if (separator > 0) {
+                            index.computeIfAbsent(name.substring(0, separator), key -> new HashMap<>())
+                                    .put(name.substring(separator + 2), new Symbol(name, symbol.getType()));
+                        }
+                    }
+                }
+            }
+        } finally {
+            classes.complete(index);
+        }
+    }
+
+    /**
+     * Returns the static field of the given class, "com.example.Hello" say, or null if GDB does not know it.
+     */
+    Symbol get(String className, String fieldName) {
+        return fields(className).get(fieldName);
+    }
+
+    /**
+     * Returns the static fields of the given class by name.
+     */
+    Map<String, Symbol> fields(String className) {
+        try {
+            return classes.get(JDWP.DEF_REQUEST_TIMEOUT, TimeUnit.MILLISECONDS).getOrDefault(className, Collections.emptyMap());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            e.printStackTrace();
+        }
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Returns the address of the given field, evaluating it the first time, or -1 if GDB cannot tell.
+     */
+    long address(Symbol symbol) {
+        if (symbol.address != -1 || symbol.unknown) {
+            return symbol.address;
+        }
+        MICommand cmd = gc.getCommandFactory().createMIDataEvaluateExpression("(long)&'" + symbol.name + "'");
+        int tokenID = JDWP.getNewTokenId();
+        gc.queueCommand(tokenID, cmd);
+        MIDataEvaluateExpressionInfo reply = (MIDataEvaluateExpressionInfo) gc.getResponse(tokenID, JDWP.DEF_REQUEST_TIMEOUT);
+        if (reply == null) {
+            return -1; // try again next time
+        }
+        try {
+            if (!reply.getMIOutput().getMIResultRecord().getResultClass().equals(MIResultRecord.ERROR)) {
+                symbol.address = Long.parseLong(reply.getValue());
+                return symbol.address;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        symbol.unknown = true;
+        return -1;
+    }
+}
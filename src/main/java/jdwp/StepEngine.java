@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import com.sun.jdi.AbsentInformationException;
+import gdb.mi.service.command.commands.MICommand;
+import gdb.mi.service.command.output.MIBreakInsertInfo;
+import gdb.mi.service.command.output.MIDataEvaluateExpressionInfo;
+import gdb.mi.service.command.output.MIFrame;
+import gdb.mi.service.command.output.MIInfo;
+import gdb.mi.service.command.output.MIResultRecord;
+import jdwp.jdi.LocationImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Single steps by Java line.
+ *
+ * -exec-next and -exec-step step by the lines of the native image, which often stop in code
+ * with no Java location, so the IDE had to step again and saw every intermediate stop. A step
+ * over now sets temporary breakpoints, for the thread only, on all the other lines of the Java
+ * method and on the return address of its Java caller, then continues once: the first one hit
+ * ends the step and the others are deleted. A step out only needs the one on the return address.
+ * The breakpoints are conditioned on the stack pointer, so that deeper frames of the same method
+ * do not end the step.
+ * When the line table of the method is not known, when the method has no Java caller to set a
+ * breakpoint in (the last line of main or run), or for a step into, the step falls back on
+ * -exec-next, -exec-finish and -exec-step, and a stop outside Java code, or on the line the step
+ * started from, silently steps again instead of being reported.
+ */
+public class StepEngine {
+
+    /**
+     * A step in progress: its depth, where it started, the stack pointer of its frame if its
+     * breakpoints are conditioned on it, and the temporary breakpoints ending it.
+     */
+    static final class Step {
+        final int depth;
+        final LocationImpl from;
+        Long sp;
+        final List<String> breakpoints = new ArrayList<>();
+
+        Step(int depth, LocationImpl from) {
+            this.depth = depth;
+            this.from = from;
+        }
+    }
+
+    static final String STACK_POINTER = "(long)$sp";
+
+    private final GDBControl gc;
+    private final Map<Long, Step> steps = new ConcurrentHashMap<>();
+    private final Map<Integer, Long> threadsByBreakpoint = new ConcurrentHashMap<>();
+
+    StepEngine(GDBControl gc) {
+        this.gc = gc;
+    }
+
+    /**
+     * Starts a step of the given thread and returns the reply to the command resuming it, or null
+     * if GDB could not resume it.
+     */
+    MIInfo step(long threadId, int size, int depth) {
+        ThreadStackCache.Stack stack = gc.getStackCache().getStack(String.valueOf(threadId));
+        LocationImpl from = stack != null && stack.size() > 0 && stack.frameIds.get(0) == 0 ? stack.locations.get(0) : null;
+        MIFrame caller = stack != null && stack.size() > 1 ? stack.getMIFrame(stack.frameIds.get(1)) : null;
+        return step(threadId, size, depth, from, caller);
+    }
+
+    /**
+     * Starts a step from the given location of the top frame, whose Java caller is the given frame.
+     */
+    MIInfo step(long threadId, int size, int depth, LocationImpl from, MIFrame caller) {
+        Step step = new Step(depth, from);
+        finished(threadId); // a step left over by a previous stop
+        steps.put(threadId, step);
+
+        MICommand cmd;
+        // with no return address, a return or an exception would run the target free
+        if (depth != JDWP.StepDepth.INTO && from != null && caller != null && caller.getAddress() != null
+                && insertBreakpoints(threadId, step, caller)) {
+            cmd = gc.getCommandFactory().createMIExecContinue();
+        } else if (depth == JDWP.StepDepth.INTO) {
+            cmd = gc.getCommandFactory().createMIExecStep(size);
+        } else if (depth == JDWP.StepDepth.OUT) {
+            cmd = gc.getCommandFactory().createMIExecFinish();
+        } else { //JDWP.StepDepth.OVER
+            cmd = gc.getCommandFactory().createMIExecNext();
+        }
+        int tokenID = JDWP.getNewTokenId();
+        gc.queueCommand(tokenID, cmd);
+        MIInfo reply = gc.getResponse(tokenID, JDWP.DEF_REQUEST_TIMEOUT);
+        if (reply == null || reply.getMIOutput().getMIResultRecord().getResultClass().equals(MIResultRecord.ERROR)) {
+            finished(threadId);
+            return null;
+        }
+        return reply;
+    }
+
+    /**
+     * Returns true if the given breakpoint is one of those ending a step.
+     */
+    boolean isStepBreakpoint(int number) {
+        return threadsByBreakpoint.containsKey(number);
+    }
+
+    /**
+     * Tells whether a stop of the given thread at the given location ends its step. If not, the
+     * thread is stepped again; called from the thread reading GDB's output, so without waiting.
+     */
+    boolean stopped(long threadId, LocationImpl loc) {
+        Step step = steps.get(threadId);
+        if (step == null) {
+            return true;
+        }
+        boolean sameLine = loc != null && step.from != null && step.breakpoints.isEmpty()
+                && loc.method().equals(step.from.method()) && loc.lineNumber() == step.from.lineNumber();
+        if (loc != null && !sameLine) {
+            finished(threadId);
+            return true;
+        }
+        MICommand cmd = step.depth == JDWP.StepDepth.INTO
+                ? gc.getCommandFactory().createMIExecStep()
+                : gc.getCommandFactory().createMIExecNext();
+        gc.queueAsyncCommand(JDWP.getNewTokenId(), cmd);
+        return false;
+    }
+
+    /**
+     * Tells whether a stop of the given thread on a breakpoint of the IDE, at the given location,
+     * ends its step too: in the frame the step started from on another line for a step over, or
+     * in a caller of that frame. A hit in a callee, or deeper in a recursion, leaves the step
+     * going. Called from the thread reading GDB's output, so the stack pointer is not waited for.
+     */
+    CompletableFuture<Boolean> endsStep(long threadId, LocationImpl loc) {
+        Step step = steps.get(threadId);
+        if (step == null || step.depth == JDWP.StepDepth.INTO) {
+            return CompletableFuture.completedFuture(loc != null);
+        }
+        // without the stack pointer, only a new line of the same method is known to end the step
+        boolean newLine = loc != null && step.from != null && step.depth == JDWP.StepDepth.OVER
+                && loc.method().equals(step.from.method()) && loc.lineNumber() != step.from.lineNumber();
+        if (loc == null || step.sp == null) {
+            return CompletableFuture.completedFuture(newLine);
+        }
+        long from = step.sp;
+        return stackPointer(gc, threadId).thenApply(sp -> sp == null ? newLine : sp > from || sp == from && newLine);
+    }
+
+    /**
+     * Forgets the step of the given thread, deleting the breakpoints it still has.
+     */
+    void finished(long threadId) {
+        Step step = steps.remove(threadId);
+        if (step == null || step.breakpoints.isEmpty()) {
+            return;
+        }
+        for (String number : step.breakpoints) {
+            threadsByBreakpoint.remove(Integer.valueOf(number));
+        }
+        MICommand cmd = gc.getCommandFactory().createMIBreakDelete(step.breakpoints.toArray(new String[0]));
+        gc.queueAsyncCommand(JDWP.getNewTokenId(), cmd);
+    }
+
+    /**
+     * Sets the temporary breakpoints ending a step over or out, all sent back to back. Returns
+     * false if none could be set.
+     *
+     * They only stop the thread in the frame the step started from or in one of its callers: a
+     * recursive call, or a copy of the method inlined in a callee, hits the same lines and return
+     * address deeper in the stack, with a lower stack pointer.
+     */
+    private boolean insertBreakpoints(long threadId, Step step, MIFrame caller) {
+        List<String> locations = new ArrayList<>();
+        if (step.depth == JDWP.StepDepth.OVER) {
+            try {
+                Set<Integer> lines = lines(step.from);
+                lines.remove(step.from.lineNumber());
+                String file = step.from.declaringType().baseSourceName();
+                for (int line : lines) {
+                    locations.add(file + ":" + line);
+                }
+            } catch (AbsentInformationException e) {
+                return false;
+            }
+        }
+        locations.add("*" + caller.getAddress());
+        String sp = stackPointer(threadId);
+        String condition = sp == null ? "" : STACK_POINTER + " >= " + sp;
+        step.sp = sp == null ? null : Long.valueOf(sp);
+
+        int[] tokens = new int[locations.size()];
+        for (int i = 0; i < tokens.length; i++) {
+            MICommand cmd = gc.getCommandFactory().createMIBreakInsert(true, false, condition, 0, locations.get(i),
+                    String.valueOf(threadId), false, false);
+            tokens[i] = JDWP.getNewTokenId();
+            gc.queueCommand(tokens[i], cmd);
+        }
+        for (int token : tokens) {
+            MIBreakInsertInfo reply = (MIBreakInsertInfo) gc.getResponse(token, JDWP.DEF_REQUEST_TIMEOUT);
+            if (reply != null && !reply.getMIOutput().getMIResultRecord().getResultClass().equals(MIResultRecord.ERROR)
+                    && reply.getMIBreakpoint() != null) {
+                String number = reply.getMIBreakpoint().getNumber();
+                step.breakpoints.add(number);
+                threadsByBreakpoint.put(Integer.valueOf(number), threadId);
+            }
+        }
+        return !step.breakpoints.isEmpty();
+    }
+
+    /**
+     * Returns the lines of the method of the given location, in order.
+     */
+    Set<Integer> lines(LocationImpl loc) throws AbsentInformationException {
+        Set<Integer> lines = new TreeSet<>();
+        for (LocationImpl line : loc.method().allLineLocations()) {
+            lines.add(line.lineNumber());
+        }
+        return lines;
+    }
+
+    /**
+     * Returns the stack pointer of the top frame of the given thread, or null if GDB cannot tell.
+     */
+    private String stackPointer(long threadId) {
+        MICommand cmd = gc.getCommandFactory().createMIDataEvaluateExpression(String.valueOf(threadId), "0", STACK_POINTER);
+        int tokenID = JDWP.getNewTokenId();
+        gc.queueCommand(tokenID, cmd);
+        MIDataEvaluateExpressionInfo reply = (MIDataEvaluateExpressionInfo) gc.getResponse(tokenID, JDWP.DEF_REQUEST_TIMEOUT);
+        if (reply == null || reply.getMIOutput().getMIResultRecord().getResultClass().equals(MIResultRecord.ERROR)) {
+            return null;
+        }
+        try {
+            return String.valueOf(Long.parseLong(reply.getValue().trim()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the stack pointer of the top frame of the given thread without waiting; null if GDB
+     * cannot tell.
+     */
+    static CompletableFuture<Long> stackPointer(GDBControl gc, long threadId) {
+        MICommand cmd = gc.getCommandFactory().createMIDataEvaluateExpression(String.valueOf(threadId), "0", STACK_POINTER);
+        CompletableFuture<MIInfo> value = gc.queueAsyncCommand(JDWP.getNewTokenId(), cmd);
+        return value.thenApply(info -> {
+            if (!(info instanceof MIDataEvaluateExpressionInfo)
+                    || info.getMIOutput().getMIResultRecord().getResultClass().equals(MIResultRecord.ERROR)) {
+                return null;
+            }
+            try {
+                return Long.parseLong(((MIDataEvaluateExpressionInfo) info).getValue().trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import gdb.mi.service.command.commands.MICommand;
+import gdb.mi.service.command.output.MIFrame;
+import gdb.mi.service.command.output.MIInfo;
+import gdb.mi.service.command.output.MIResultRecord;
+import gdb.mi.service.command.output.MIStackListFramesInfo;
+import gdb.mi.service.command.output.MIStackListVariablesInfo;
+import jdwp.jdi.LocationImpl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Stacks and frame variables of the threads, as of the last time the target stopped.
+ *
+ * After a stop the IDE asks for FrameCount, Frames, GetValues and ThisObject of the same thread,
+ * and all of them used to run their own -stack-list-frames or -stack-list-variables. The first
+ * request for a thread (or frame) now runs the MI command and resolves the frame locations once;
+ * the others reuse the result, waiting for it if it is still on its way. Everything is dropped
+ * whenever GDB reports *running or *stopped.
+ *
+ * Error replies and timeouts are not cached, so the next request asks GDB again.
+ */
+public class ThreadStackCache {
+
+    /**
+     * The stack of a thread: the frames reported by GDB and, for those that map to a Java
+     * method, their frame ID and location.
+     */
+    static class Stack {
+        final MIStackListFramesInfo reply;
+        final List<Integer> frameIds;
+        final List<LocationImpl> locations;
+
+        Stack(MIStackListFramesInfo reply) {
+            this.reply = reply;
+            List<Integer> ids = new ArrayList<>();
+            List<LocationImpl> locs = new ArrayList<>();
+            for (MIFrame frame : reply.getMIFrames()) {
+                LocationImpl loc = Translator.locationLookup(frame.getFunction(), frame.getLine());
+                if (loc != null) {
+                    ids.add(frame.getLevel());
+                    locs.add(loc);
+                }
+            }
+            this.frameIds = Collections.unmodifiableList(ids);
+            this.locations = Collections.unmodifiableList(locs);
+        }
+
+        MIFrame[] getMIFrames() {
+            return reply.getMIFrames();
+        }
+
+        /**
+         * Returns the frame at the given level, or null.
+         */
+        MIFrame getMIFrame(int level) {
+            for (MIFrame frame : reply.getMIFrames()) {
+                if (frame.getLevel() == level) {
+                    return frame;
+                }
+            }
+            return null;
+        }
+
+        int size() {
+            return frameIds.size();
+        }
+    }
+
+    private final GDBControl gc;
+    private final Map<String, CompletableFuture<Stack>> stacks = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<MIStackListVariablesInfo>> variables = new ConcurrentHashMap<>();
+
+    ThreadStackCache(GDBControl gc) {
+        this.gc = gc;
+    }
+
+    /**
+     * Returns the stack of the given thread, or null if GDB failed to list it.
+     */
+    Stack getStack(String threadId) {
+        return get(stacks, threadId, key -> {
+            MIStackListFramesInfo reply = (MIStackListFramesInfo) send(gc.getCommandFactory().createMIStackListFrames(threadId));
+            return reply == null ? null : new Stack(reply);
+        });
+    }
+
+    /**
+     * Returns the locals and arguments, with their values, of a frame of the given thread,
+     * or null if GDB failed to list them.
+     */
+    MIStackListVariablesInfo getVariables(String threadId, int frameId) {
+        return get(variables, threadId + ":" + frameId, key ->
+                (MIStackListVariablesInfo) send(gc.getCommandFactory().createMIStackListVariables(true, threadId, String.valueOf(frameId))));
+    }
+
+    /**
+     * Forgets all stacks and variables; called whenever the target starts or stops running.
+     */
+    public void invalidate() {
+        stacks.clear();
+        variables.clear();
+    }
+
+    private <T> T get(Map<String, CompletableFuture<T>> cache, String key, Function<String, T> load) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        CompletableFuture<T> cached = cache.putIfAbsent(key, future);
+        if (cached != null) {
+            return cached.join();
+        }
+        T value = null;
+        try {
+            value = load.apply(key);
+        } finally {
+            if (value == null) {
+                cache.remove(key, future);
+            }
+            future.complete(value);
+        }
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private MIInfo send(MICommand cmd) {
+        int tokenID = JDWP.getNewTokenId();
+        gc.queueCommand(tokenID, cmd);
+        MIInfo reply = gc.getResponse(tokenID, JDWP.DEF_REQUEST_TIMEOUT);
+        if (reply == null || reply.getMIOutput().getMIResultRecord().getResultClass().equals(MIResultRecord.ERROR)) {
+            return null;
+        }
+        return reply;
+    }
+}
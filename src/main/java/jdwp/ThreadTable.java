@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import gdb.mi.service.command.commands.MICommand;
+import gdb.mi.service.command.output.MIResultRecord;
+import gdb.mi.service.command.output.MIThread;
+import gdb.mi.service.command.output.MIThreadInfoInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The threads of the target, by GDB thread ID.
+ *
+ * ThreadReference.Name used to run a full -thread-info and scan it for every thread the IDE
+ * asked about, and VirtualMachine.AllThreads ran yet another one. The table is now filled by a
+ * single -thread-info the first time it is looked at after a stop, and kept current in between
+ * from the =thread-created and =thread-exited notifications. A thread created since the last
+ * -thread-info has no name yet, so asking for it refreshes the table once.
+ */
+public class ThreadTable {
+
+    /**
+     * A thread as last reported by GDB.
+     */
+    static final class Entry {
+        final long id;
+        final String name; // null until -thread-info reports the thread
+        final boolean stopped;
+
+        Entry(long id, String name, boolean stopped) {
+            this.id = id;
+            this.name = name;
+            this.stopped = stopped;
+        }
+    }
+
+    private final GDBControl gc;
+    private volatile Map<Long, Entry> threads = new ConcurrentSkipListMap<>();
+    private volatile boolean stale = true;
+
+    ThreadTable(GDBControl gc) {
+        this.gc = gc;
+    }
+
+    /**
+     * Returns the thread with the given ID, or null if there is none or GDB failed to list them.
+     */
+    Entry get(long id) {
+        if (!refresh(false)) {
+            return null;
+        }
+        Entry entry = threads.get(id);
+        if (entry != null && entry.name == null && refresh(true)) {
+            entry = threads.get(id);
+        }
+        return entry;
+    }
+
+    /**
+     * Returns all threads, by increasing ID, or null if GDB failed to list them.
+     */
+    List<Entry> all() {
+        return refresh(false) ? new ArrayList<>(threads.values()) : null;
+    }
+
+    /**
+     * Marks the table as out of date; called whenever the target starts or stops running.
+     */
+    public void invalidate() {
+        stale = true;
+    }
+
+    /**
+     * Adds a thread GDB reported by =thread-created.
+     */
+    public void created(long id) {
+        threads.putIfAbsent(id, new Entry(id, null, false));
+    }
+
+    /**
+     * Removes a thread GDB reported by =thread-exited.
+     */
+    public void exited(long id) {
+        threads.remove(id);
+    }
+
+    private boolean refresh(boolean force) {
+        if (!stale && !force) {
+            return true;
+        }
+        synchronized (this) {
+            if (!stale && !force) {
+                return true;
+            }
+            MICommand cmd = gc.getCommandFactory().createMIThreadInfo();
+            int tokenID = JDWP.getNewTokenId();
+            gc.queueCommand(tokenID, cmd);
+            MIThreadInfoInfo reply = (MIThreadInfoInfo) gc.getResponse(tokenID, JDWP.DEF_REQUEST_TIMEOUT);
+            if (reply == null || reply.getMIOutput().getMIResultRecord().getResultClass().equals(MIResultRecord.ERROR)) {
+                return false;
+            }
+            Map<Long, Entry> listed = new ConcurrentSkipListMap<>();
+            for (MIThread thread : reply.getThreadList()) {
+                long id = Long.parseLong(thread.getThreadId());
+                String name = thread.getName() != null ? thread.getName() : thread.getTargetId();
+                listed.put(id, new Entry(id, name == null ? "" : name, MIThread.MI_THREAD_STATE_STOPPED.equals(thread.getState())));
+            }
+            threads = listed; // swapped whole, so that lookups never see it half filled
+            stale = false;
+            return true;
+        }
+    }
+}
@@ -11,17 +11,22 @@
 
 package jdwp;
 
+import gdb.mi.service.command.commands.MICommand;
 import gdb.mi.service.command.events.*;
 import gdb.mi.service.command.output.MIBreakInsertInfo;
 import gdb.mi.service.command.output.MIResult;
 import gdb.mi.service.command.output.MIValue;
 import gdb.mi.service.command.output.MIInfo;
+import com.sun.jdi.AbsentInformationException;
 import jdwp.jdi.LocationImpl;
 import jdwp.jdi.MethodImpl;
 import jdwp.jdi.ConcreteMethodImpl;
 import jdwp.jdi.ThreadReferenceImpl;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -38,6 +43,7 @@ public class Translator {
 	static final String JAVA_VOID = "void";
 
 	static final Map<String, String> typeSignature;	// primitive type signature mapping from C/C++ to JNI
+	private static final Map<String, String> normalizedFuncs = new ConcurrentHashMap<>();	// normalizeFunc results
 	static {
 		typeSignature = new HashMap<>();
 
@@ -65,9 +71,74 @@ public class Translator {
 	}
 
 
+	/**
+	 * One event of a composite event packet: its suspend policy, the group of events it may be
+	 * sent with, and the writer of its kind, request ID and data.
+	 */
+	static final class Event {
+		final byte suspendPolicy;
+		final String group;
+		final Consumer<PacketStream> body;
+
+		Event(byte suspendPolicy, String group, Consumer<PacketStream> body) {
+			this.suspendPolicy = suspendPolicy;
+			this.group = group;
+			this.body = body;
+		}
+	}
+
+	/**
+	 * Translates the MI events of one GDB stop into as few composite packets as JDWP allows: the
+	 * events of one thread (breakpoints, step) go together, class prepare events only with those
+	 * of the same class. Each packet gets the strongest suspend policy of its events.
+	 */
+	public static List<PacketStream> translate(GDBControl gc, List<? extends MIEvent> events) {
+		List<Event> translated = new ArrayList<>();
+		for (MIEvent event : events) {
+			translated.addAll(toEvents(gc, event));
+		}
+		return batch(gc, translated);
+	}
+
 	public static PacketStream translate(GDBControl gc, MIEvent event) {
+		List<PacketStream> packets = translate(gc, Collections.singletonList(event));
+		return packets.isEmpty() ? null : packets.get(0);
+	}
+
+	/**
+	 * Puts the events of the same group in one packet each, in the order the groups first appear.
+	 */
+	static List<PacketStream> batch(GDBControl gc, List<Event> events) {
+		Map<String, List<Event>> groups = new LinkedHashMap<>();
+		for (Event event : events) {
+			groups.computeIfAbsent(event.group, key -> new ArrayList<>()).add(event);
+		}
+		List<PacketStream> packets = new ArrayList<>(groups.size());
+		for (List<Event> group : groups.values()) {
+			packets.add(compose(gc, group));
+		}
+		return packets;
+	}
+
+	static PacketStream compose(GDBControl gc, List<Event> events) {
+		PacketStream packetStream = new PacketStream(gc);
+		byte suspendPolicy = JDWP.SuspendPolicy.NONE;
+		for (Event event : events) {
+			suspendPolicy = (byte) Math.max(suspendPolicy, event.suspendPolicy);
+		}
+		packetStream.writeByte(suspendPolicy);
+		packetStream.writeInt(events.size()); // Number of events in this composite packet
+		for (Event event : events) {
+			event.body.accept(packetStream);
+		}
+		return packetStream;
+	}
+
+	private static List<Event> toEvents(GDBControl gc, MIEvent event) {
 		if (event instanceof MIBreakpointHitEvent) {
 			return translateBreakpointHit(gc, (MIBreakpointHitEvent) event);
+		} else if (event instanceof MIWatchpointTriggerEvent) {
+			return translateWatchpointTrigger(gc, (MIWatchpointTriggerEvent) event);
 		} else if (event instanceof MISteppingRangeEvent) {
 			return translateSteppingRange(gc, (MISteppingRangeEvent) event);
 		} else if (event instanceof MIInferiorExitEvent) {
@@ -75,64 +146,281 @@ public class Translator {
 		} else if (event instanceof ClassPrepareEvent) {
 			return translateClassPrepare(gc, (ClassPrepareEvent) event);
 		}
-		return null;
+		return Collections.emptyList();
 	}
 
-	private static PacketStream translateClassPrepare(GDBControl gc, ClassPrepareEvent event) {
-		PacketStream packetStream = new PacketStream(gc);
-		byte eventKind = JDWP.EventKind.CLASS_PREPARE;
-
-		packetStream.writeByte(event.suspendPolicy);
-		packetStream.writeInt(1);
-		packetStream.writeByte(eventKind);
-		packetStream.writeInt(event.requestID);
-		packetStream.writeObjectRef(getMainThreadId(gc));
-		packetStream.writeByte(event.referenceType.tag());
-		packetStream.writeObjectRef(event.referenceType.uniqueID());
-		packetStream.writeString(event.referenceType.signature());
-		packetStream.writeInt(7);
-		return packetStream;
+	private static List<Event> translateClassPrepare(GDBControl gc, ClassPrepareEvent event) {
+		return Collections.singletonList(new Event(event.suspendPolicy, "prepare " + event.referenceType.signature(), packetStream -> {
+			packetStream.writeByte((byte) JDWP.EventKind.CLASS_PREPARE);
+			packetStream.writeInt(event.requestID);
+			packetStream.writeObjectRef(getMainThreadId(gc));
+			packetStream.writeByte(event.referenceType.tag());
+			packetStream.writeObjectRef(event.referenceType.uniqueID());
+			packetStream.writeString(event.referenceType.signature());
+			packetStream.writeInt(7);
+		}));
 	}
 
-	private static PacketStream translateExitEvent(GDBControl gc, MIInferiorExitEvent event) {
-		PacketStream packetStream = new PacketStream(gc);
-		byte suspendPolicy = JDWP.SuspendPolicy.NONE;
-		byte eventKind = JDWP.EventKind.VM_DEATH;
-		packetStream.writeByte(suspendPolicy);
-		packetStream.writeInt(1); // Number of events in this response packet
-		packetStream.writeByte(eventKind);
-		packetStream.writeInt(0);
-		return packetStream;
+	private static List<Event> translateExitEvent(GDBControl gc, MIInferiorExitEvent event) {
+		return Collections.singletonList(new Event((byte) JDWP.SuspendPolicy.NONE, "vm", packetStream -> {
+			packetStream.writeByte((byte) JDWP.EventKind.VM_DEATH);
+			packetStream.writeInt(0);
+		}));
 	}
 
-	private static PacketStream translateBreakpointHit(GDBControl gc, MIBreakpointHitEvent event) {
-		PacketStream packetStream = new PacketStream(gc);
+	/**
+	 * Reports the breakpoint GDB stopped at, the other breakpoint requests at the same location,
+	 * and the step of the thread if the hit ends it, as JDWP wants them in the same packet.
+	 */
+	private static List<Event> translateBreakpointHit(GDBControl gc, MIBreakpointHitEvent event) {
 		Integer eventNumber = Integer.parseInt(event.getNumber());
 
 		if (eventNumber == 1) { // This is the very first breakpoint due the use of start
 			gc.initialized();
-			return null;
+			return Collections.emptyList();
 		}
 
+		long threadID = getThreadId(event);
+		System.out.println("THREAD ID FOR HIT: "+ threadID);
+		//long threadID = getMainThreadId(gc);
 		MIBreakInsertInfo info = JDWP.bkptsByBreakpointNumber.get(eventNumber);
+		if (info == null && gc.getStepEngine().isStepBreakpoint(eventNumber)) { // the end of a step over or out
+			gc.getMethodEvents().stopped(threadID, false);
+			return translateStepEnd(gc, threadID, event, threadID);
+		}
+		String function = info == null ? gc.getMethodEvents().function(eventNumber) : null;
+		if (function != null) { // the entry of a method
+			return translateMethodEntry(gc, function, threadID, event);
+		}
+		MethodEvents.Call call = info == null ? gc.getMethodEvents().returned(eventNumber) : null;
+		if (call != null) { // the return of a method
+			return translateMethodExit(gc, call, threadID);
+		}
+		gc.getMethodEvents().stopped(threadID, false);
 		if (info == null) { // This happens for a synthetic breakpoint (not set by the user)
-			return null;
+			return Collections.emptyList();
 		}
-		byte suspendPolicy = info.getMIInfoSuspendPolicy();
-		int requestId = info.getMIInfoRequestID();
-		byte eventKind = info.getMIInfoEventKind();
 		LocationImpl loc = JDWP.bkptsLocation.get(eventNumber);
+		if (info.getMIBreakpoint().isTemporary()) { // a count filter: GDB deleted the breakpoint as it fired
+			JDWP.bkptsByBreakpointNumber.remove(eventNumber);
+			JDWP.bkptsLocation.remove(eventNumber);
+			JDWP.bkptsByRequestID.remove(info.getMIInfoRequestID(), info);
+		}
+
+		List<Event> events = new ArrayList<>();
+		events.add(locationEvent(info, threadID, loc));
+		for (Map.Entry<Integer, LocationImpl> other : JDWP.bkptsLocation.entrySet()) {
+			MIBreakInsertInfo otherInfo = JDWP.bkptsByBreakpointNumber.get(other.getKey());
+			if (!other.getKey().equals(eventNumber) && otherInfo != null && other.getValue().equals(loc)
+					&& appliesTo(otherInfo, threadID)) {
+				events.add(locationEvent(otherInfo, threadID, loc));
+			}
+		}
+		MIInfo step = JDWP.stepByThreadID.get(threadID);
+		if (step == null) {
+			return events;
+		}
+		CompletableFuture<Boolean> endsStep = gc.getStepEngine().endsStep(threadID, loc);
+		if (endsStep.isDone()) {
+			stepEndedOnBreakpoint(gc, events, step, threadID, loc, endsStep.join());
+			return events;
+		}
+		// the stack pointer tells whether the step ended: the events of the hit wait for it, to go in one packet
+		endsStep.thenAccept(ended -> {
+			stepEndedOnBreakpoint(gc, events, step, threadID, loc, ended);
+			batch(gc, events).forEach(gc.getEventQueue()::send);
+		});
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Adds the end of the step of a thread to the events of the breakpoint it stopped at, if that
+	 * ends the step; a hit in a callee, or deeper in a recursion, leaves the step going.
+	 */
+	private static void stepEndedOnBreakpoint(GDBControl gc, List<Event> events, MIInfo step, long threadID,
+											  LocationImpl loc, boolean ended) {
+		if (ended && JDWP.stepByThreadID.remove(threadID, step)) {
+			gc.getStepEngine().finished(threadID);
+			events.add(locationEvent(step, threadID, loc));
+		}
+	}
+
+	/**
+	 * Returns whether a breakpoint GDB did not stop at would have reported a hit of the given
+	 * thread at its location: its thread filter matches, and it has no count filter, which GDB
+	 * keeps for the hits of the breakpoint itself.
+	 */
+	private static boolean appliesTo(MIBreakInsertInfo info, long threadID) {
+		String filter = info.getMIBreakpoint().getThreadId();
+		return !info.getMIBreakpoint().isTemporary() && (filter.equals("0") || filter.equals(String.valueOf(threadID)));
+	}
+
+	/**
+	 * Reports the access or modification of a watched static field, with the value it is about to
+	 * get for the latter as GDB printed it. An access with no Java location to report, from code
+	 * of the image that is not Java, continues the target.
+	 */
+	private static List<Event> translateWatchpointTrigger(GDBControl gc, MIWatchpointTriggerEvent event) {
+		FieldWatch watch = JDWP.watchesByBreakpointNumber.get(Integer.parseInt(event.getNumber()));
+		if (watch == null || event.getFrame() == null) {
+			resume(gc);
+			return Collections.emptyList();
+		}
+		LocationImpl loc = locationLookup(event.getFrame().getFunction(), event.getFrame().getLine());
+		if (loc == null) { // not in Java code
+			resume(gc);
+			return Collections.emptyList();
+		}
 		long threadID = getThreadId(event);
-		System.out.println("THREAD ID FOR HIT: "+ threadID);
-		//long threadID = getMainThreadId(gc);
+		gc.getMethodEvents().stopped(threadID, false);
+		MIInfo info = watch.info;
+		return Collections.singletonList(new Event(info.getMIInfoSuspendPolicy(), "thread " + threadID, packetStream -> {
+			packetStream.writeByte(info.getMIInfoEventKind());
+			packetStream.writeInt(info.getMIInfoRequestID());
+			packetStream.writeObjectRef(threadID);
+			packetStream.writeLocation(loc);
+			packetStream.writeByte(watch.referenceType.tag());
+			packetStream.writeObjectRef(watch.referenceType.uniqueID());
+			packetStream.writeFieldRef(watch.field.uniqueID());
+			packetStream.writeByte(JDWP.Tag.OBJECT);
+			packetStream.writeNullObjectRef(); // static fields only
+			if (info.getMIInfoEventKind() == JDWP.EventKind.FIELD_MODIFICATION) {
+				writeValue(packetStream, (byte) watch.field.signature().charAt(0), event.getNewValue());
+			}
+		}));
+	}
 
-		packetStream.writeByte(suspendPolicy);
-		packetStream.writeInt(1); // Number of events in this response packet
-		packetStream.writeByte(eventKind);
-		packetStream.writeInt(requestId);
-		packetStream.writeObjectRef(threadID);
-		packetStream.writeLocation(loc);
-		return packetStream;
+	/**
+	 * Writes a value as GDB printed it, "97 'a'" say for a char, tagged with the given type.
+	 * References are written as null, their objects having no ID.
+	 */
+	static void writeValue(PacketStream packetStream, byte tag, String value) {
+		String number = value == null ? "" : value.trim().split(" ")[0];
+		if (PacketStream.isObjectTag(tag)) {
+			packetStream.writeByte(JDWP.Tag.OBJECT);
+			packetStream.writeNullObjectRef();
+			return;
+		}
+		packetStream.writeByte(tag);
+		switch (tag) {
+			case JDWP.Tag.BOOLEAN:
+				packetStream.writeBoolean(number.equals("true") || number.equals("1"));
+				break;
+			case JDWP.Tag.FLOAT:
+				packetStream.writeFloat((float) parseDouble(number));
+				break;
+			case JDWP.Tag.DOUBLE:
+				packetStream.writeDouble(parseDouble(number));
+				break;
+			case JDWP.Tag.BYTE:
+				packetStream.writeByte((byte) parseLong(number));
+				break;
+			case JDWP.Tag.CHAR:
+				packetStream.writeChar((char) parseLong(number));
+				break;
+			case JDWP.Tag.SHORT:
+				packetStream.writeShort((short) parseLong(number));
+				break;
+			case JDWP.Tag.INT:
+				packetStream.writeInt((int) parseLong(number));
+				break;
+			default:
+				packetStream.writeLong(parseLong(number));
+				break;
+		}
+	}
+
+	private static long parseLong(String number) {
+		try {
+			return Long.decode(number);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static double parseDouble(String number) {
+		try {
+			return Double.parseDouble(number);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Reports the entry of a method to its entry requests, and has its exit requests wait for the
+	 * call to return. The target goes on at once if no event suspends it, once the calls of the
+	 * thread an exception unwound are dropped.
+	 */
+	private static List<Event> translateMethodEntry(GDBControl gc, String function, long threadID, MIStoppedEvent event) {
+		MethodEvents methodEvents = gc.getMethodEvents();
+		CompletableFuture<Void> unwound = methodEvents.stopped(threadID, true);
+		LocationImpl loc = event.getFrame() == null ? null : locationLookup(event.getFrame().getFunction(), event.getFrame().getLine());
+		List<Event> events = new ArrayList<>();
+		List<MethodEvents.Request> exits = new ArrayList<>();
+		for (MethodEvents.Request request : methodEvents.requests(function, threadID)) {
+			if (request.eventKind == JDWP.EventKind.METHOD_EXIT) {
+				exits.add(request);
+			} else if (loc != null) {
+				events.add(methodEvent(request, threadID, loc));
+			}
+		}
+		boolean resume = events.stream().allMatch(e -> e.suspendPolicy == JDWP.SuspendPolicy.NONE);
+		if (!exits.isEmpty()) {
+			methodEvents.awaitReturn(new MethodEvents.Call(function, threadID, exits), resume);
+		} else if (resume) {
+			unwound.thenRun(methodEvents::resume);
+		}
+		return events;
+	}
+
+	/**
+	 * Reports the return of a call to the exit requests waiting for it, at the last line of the method.
+	 */
+	private static List<Event> translateMethodExit(GDBControl gc, MethodEvents.Call call, long threadID) {
+		MethodImpl method = MethodImpl.methods.get(normalizeFunc(call.function));
+		LocationImpl loc = null;
+		try {
+			List<LocationImpl> lines = method == null ? Collections.emptyList() : method.allLineLocations();
+			loc = lines.isEmpty() ? null : lines.get(lines.size() - 1);
+		} catch (AbsentInformationException ignored) {
+		}
+		List<Event> events = new ArrayList<>();
+		if (loc != null) {
+			for (MethodEvents.Request request : call.requests) {
+				events.add(methodEvent(request, threadID, loc));
+			}
+		}
+		if (events.stream().allMatch(e -> e.suspendPolicy == JDWP.SuspendPolicy.NONE)) {
+			gc.getMethodEvents().resume();
+		}
+		return events;
+	}
+
+	/**
+	 * Continues the target after a stop nothing is reported for. Called from the thread reading
+	 * GDB's output, so without waiting.
+	 */
+	private static void resume(GDBControl gc) {
+		MICommand cmd = gc.getCommandFactory().createMIExecContinue();
+		gc.queueAsyncCommand(JDWP.getNewTokenId(), cmd);
+	}
+
+	private static Event methodEvent(MethodEvents.Request request, long threadID, LocationImpl loc) {
+		return new Event(request.suspendPolicy, "thread " + threadID, packetStream -> {
+			packetStream.writeByte(request.eventKind);
+			packetStream.writeInt(request.requestID);
+			packetStream.writeObjectRef(threadID);
+			packetStream.writeLocation(loc);
+		});
+	}
+
+	private static Event locationEvent(MIInfo info, long threadID, LocationImpl loc) {
+		return new Event(info.getMIInfoSuspendPolicy(), "thread " + threadID, packetStream -> {
+			packetStream.writeByte(info.getMIInfoEventKind());
+			packetStream.writeInt(info.getMIInfoRequestID());
+			packetStream.writeObjectRef(threadID);
+			packetStream.writeLocation(loc);
+		});
 	}
 
 	public static long getMainThreadId(GDBControl gc) {
@@ -157,37 +445,46 @@ public class Translator {
 		return id;
 	}
 
-	private static PacketStream  translateSteppingRange(GDBControl gc, MISteppingRangeEvent event) {
+	private static List<Event> translateSteppingRange(GDBControl gc, MISteppingRangeEvent event) {
 		System.out.println("Translating end-stepping-range");
-		PacketStream packetStream = new PacketStream(gc);
-		Long threadID = getThreadId(event);
 		//long threadID = getMainThreadId(gc);
+		gc.getMethodEvents().stopped(getThreadId(event), false);
+		return translateStepEnd(gc, getThreadId(event), event, getMainThreadId(gc));
+	}
+
+	/**
+	 * Reports the end of the step of a thread, unless the StepEngine stepped it again because it
+	 * stopped outside Java code or still on the line the step started from.
+	 */
+	private static List<Event> translateStepEnd(GDBControl gc, long threadID, MIStoppedEvent event, long reportedThreadID) {
 		MIInfo info = JDWP.stepByThreadID.get(threadID);
 		if (info == null) {
 			System.out.println("Returning null");
-			return null;
+			return Collections.emptyList();
 		}
 
-		packetStream.writeByte(info.getMIInfoSuspendPolicy());
-		packetStream.writeInt(1); // Number of events in this response packet
-		packetStream.writeByte(info.getMIInfoEventKind());
-		packetStream.writeInt(info.getMIInfoRequestID());
-		packetStream.writeObjectRef(getMainThreadId(gc));
-		LocationImpl loc = locationLookup(event.getFrame().getFunction(), event.getFrame().getLine());
-		if (loc != null) {
-			packetStream.writeLocation(loc);
-			JDWP.stepByThreadID.remove(threadID);
-			return packetStream;
-
+		LocationImpl loc = event.getFrame() == null ? null : locationLookup(event.getFrame().getFunction(), event.getFrame().getLine());
+		if (!gc.getStepEngine().stopped(threadID, loc) || loc == null) {
+			return Collections.emptyList();
 		}
-		return packetStream;
+		JDWP.stepByThreadID.remove(threadID);
+		return Collections.singletonList(locationEvent(info, reportedThreadID, loc));
 	}
 
 	private static  boolean isPrimitive(String type) {
 		return typeSignature.containsKey(type);
 	}
 
+	/**
+	 * Converts a GDB function name, such as "HelloMethod.HelloMethod::main(java.lang.String[] *)",
+	 * into the signature MethodImpl.methods is keyed by, "HelloMethod/HelloMethod::main([Ljava/lang/String;)".
+	 * GDB reports the same few functions over and over, so the results are kept.
+	 */
 	public static String normalizeFunc(String func) {
+		return normalizedFuncs.computeIfAbsent(func, Translator::doNormalizeFunc);
+	}
+
+	static String doNormalizeFunc(String func) {
 		StringBuilder finalSignature = new StringBuilder();
 
 		if (!func.contains("(")) { // Function does not contain parameter types
@@ -238,27 +535,26 @@ public class Translator {
 		String name = normalizeFunc(func);
 		MethodImpl impl = MethodImpl.methods.get(name);
 		if (impl != null) {
-			List<LocationImpl> list = ((ConcreteMethodImpl) impl).getBaseLocations().lineMapper.get(line);
-			if (list != null && list.size() >= 1) {
-				return list.get(0);
-			}
-			return null;
+			return firstLocation(impl, line);
 		}
 		if (!name.contains("(")) {
-			Set<String> keys = MethodImpl.methods.keySet();
-			for (String key: keys) {
-				if (key.contains(name)) {
-					ConcreteMethodImpl impl1 = (ConcreteMethodImpl) MethodImpl.methods.get(key);
-					List<LocationImpl> list = ((ConcreteMethodImpl) impl1).getBaseLocations().lineMapper.get(line);
-					if (list != null && list.size() >= 1) {
-						return list.get(0);
-					}
+			for (MethodImpl method : MethodImpl.methods.withName(name)) {
+				LocationImpl loc = firstLocation(method, line);
+				if (loc != null) {
+					return loc;
 				}
 			}
 		}
 		return null;
 	}
 
+	private static LocationImpl firstLocation(MethodImpl method, int line) {
+		if (!(method instanceof ConcreteMethodImpl)) {
+			return null; // native or abstract
+		}
+		return ((ConcreteMethodImpl) method).getBaseLocations().lineTable.first(line);
+	}
+
 	/**
 	 * May or may not be helpful since we may be able to get this info from
 	 * MISymbolInfoFunctionsInfo.SymbolFileInfo.getFile()
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Values read while the target is stopped, by thread, frame and expression.
+ *
+ * While the user expands trees, hovers and re-evaluates watches, the IDE asks for the same locals,
+ * static fields and object fields over and over. StackFrame, ObjectReference and ReferenceType
+ * GetValues look them up here first, so within one stop each of them is read once. Like in
+ * ThreadStackCache, concurrent requests for a value that is still being read wait for it, and
+ * failures (null) are not cached. Everything is dropped when GDB reports *running.
+ */
+public class ValueCache {
+    /** Thread and frame of the values that do not belong to a frame, such as fields. */
+    private static final String NO_FRAME = "-:-:";
+
+    private final Map<String, CompletableFuture<Object>> values = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Returns the cached value of an expression in a frame of the given thread, reading it with
+     * the given loader if there is none yet.
+     */
+    <T> T get(String threadId, int frameId, String expression, Supplier<T> load) {
+        return load(threadId + ":" + frameId + ":" + expression, load);
+    }
+
+    /**
+     * Returns the cached value of an expression that does not depend on a frame.
+     */
+    <T> T get(String expression, Supplier<T> load) {
+        return load(NO_FRAME + expression, load);
+    }
+
+    /**
+     * Returns the cached value of an expression in a frame of the given thread, or null. For the
+     * callers that read the missing values together rather than one by one.
+     */
+    String getIfPresent(String threadId, int frameId, String expression) {
+        CompletableFuture<Object> cached = values.get(threadId + ":" + frameId + ":" + expression);
+        Object value = cached == null ? null : cached.join();
+        if (value instanceof String) {
+            hits.incrementAndGet();
+            return (String) value;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Caches the value of an expression in a frame of the given thread.
+     */
+    void put(String threadId, int frameId, String expression, String value) {
+        values.put(threadId + ":" + frameId + ":" + expression, CompletableFuture.completedFuture(value));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T load(String key, Supplier<T> load) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> cached = values.putIfAbsent(key, future);
+        if (cached != null) {
+            Object value = cached.join();
+            if (value != null) {
+                hits.incrementAndGet();
+                return (T) value;
+            }
+            misses.incrementAndGet(); // the read it waited for failed
+            return load.get();
+        }
+        misses.incrementAndGet();
+        T value = null;
+        try {
+            value = load.get();
+        } finally {
+            if (value == null) {
+                values.remove(key, future);
+            }
+            future.complete(value);
+        }
+        return value;
+    }
+
+    /**
+     * Forgets all values; called whenever the target starts running.
+     */
+    public void invalidate() {
+        values.clear();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    int size() {
+        return values.size();
+    }
+
+    @Override
+    public String toString() {
+        return "ValueCache [hits=" + getHits() + ", misses=" + getMisses() + "]";
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import gdb.mi.service.command.commands.MICommand;
+import gdb.mi.service.command.output.MIInfo;
+import gdb.mi.service.command.output.MIResultRecord;
+import gdb.mi.service.command.output.MIVarChange;
+import gdb.mi.service.command.output.MIVarCreateInfo;
+import gdb.mi.service.command.output.MIVarUpdateInfo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * GDB variable objects for the locals of the frames the IDE looks at.
+ *
+ * GetValues used to list every variable of a frame, values included, after each stop. A local now
+ * gets a variable object the first time its value is asked for, and the first request after a stop
+ * runs a single -var-update for all of them, which only reports the values that changed. Stepping
+ * through a method with many or large locals thus only transfers what the step modified.
+ *
+ * The variable objects of a frame are deleted once GDB reports them out of scope, or when a
+ * different function is found at the frame's level.
+ */
+public class VariableObjects {
+
+    /**
+     * A local of a frame, and the name of its variable object.
+     */
+    static final class Var {
+        final String name;
+        volatile String value;
+        volatile boolean inScope = true;
+
+        Var(String name, String value) {
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    /**
+     * The locals of one invocation of a function, by their name in the source.
+     */
+    static final class Frame {
+        final String function;
+        final Map<String, Var> vars = new ConcurrentHashMap<>();
+        final Set<String> unknown = ConcurrentHashMap.newKeySet(); // not known to GDB as of the last stop
+
+        Frame(String function) {
+            this.function = function;
+        }
+    }
+
+    private final GDBControl gc;
+    private final Map<String, Frame> frames = new ConcurrentHashMap<>();
+    private final Map<String, Var> byObjectName = new ConcurrentHashMap<>();
+    private final Object updateLock = new Object();
+    private volatile boolean stale = false;
+
+    VariableObjects(GDBControl gc) {
+        this.gc = gc;
+    }
+
+    /**
+     * Returns the values of the given locals of a frame of the given thread, by name, or null if
+     * GDB failed to update them. Locals GDB does not know have no entry.
+     */
+    Map<String, String> getValues(String threadId, int frameId, String function, Collection<String> names) {
+        if (!update()) {
+            return null;
+        }
+
+        Frame[] replaced = new Frame[1];
+        Frame frame = frames.compute(threadId + ":" + frameId, (key, old) -> {
+            if (old != null && old.function.equals(function)) {
+                return old;
+            }
+            replaced[0] = old;
+            return new Frame(function);
+        });
+        if (replaced[0] != null) {
+            delete(replaced[0].vars.values());
+        }
+
+        synchronized (frame) {
+            // create the missing ones back to back
+            Map<String, Integer> tokens = new HashMap<>();
+            List<Var> outOfScope = new ArrayList<>();
+            for (String name : names) {
+                Var var = frame.vars.get(name);
+                if (var != null && !var.inScope) {
+                    frame.vars.remove(name, var);
+                    outOfScope.add(var);
+                    var = null;
+                }
+                if (var == null && !frame.unknown.contains(name) && !tokens.containsKey(name)) {
+                    MICommand cmd = gc.getCommandFactory().createMIVarCreate(threadId, String.valueOf(frameId), "-", "*", name);
+                    int tokenID = JDWP.getNewTokenId();
+                    gc.queueCommand(tokenID, cmd);
+                    tokens.put(name, tokenID);
+                }
+            }
+            delete(outOfScope);
+            for (Map.Entry<String, Integer> entry : tokens.entrySet()) {
+                MIVarCreateInfo reply = (MIVarCreateInfo) gc.getResponse(entry.getValue(), JDWP.DEF_REQUEST_TIMEOUT);
+                if (reply == null || reply.getMIOutput().getMIResultRecord().getResultClass().equals(MIResultRecord.ERROR)) {
+                    frame.unknown.add(entry.getKey()); // ask again after the next stop
+                    continue;
+                }
+                Var var = new Var(reply.getName(), reply.getValue());
+                byObjectName.put(var.name, var);
+                frame.vars.put(entry.getKey(), var);
+            }
+
+            Map<String, String> values = new HashMap<>();
+            for (String name : names) {
+                Var var = frame.vars.get(name);
+                if (var != null) {
+                    values.put(name, var.value);
+                }
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Marks all values as possibly changed; called whenever the target starts or stops running.
+     */
+    public void invalidate() {
+        stale = true;
+    }
+
+    /**
+     * Number of variable objects currently known to GDB.
+     */
+    int size() {
+        return byObjectName.size();
+    }
+
+    private boolean update() {
+        synchronized (updateLock) {
+            if (!stale) {
+                return true;
+            }
+            stale = false;
+            for (Frame frame : frames.values()) {
+                frame.unknown.clear();
+            }
+            if (byObjectName.isEmpty()) {
+                return true;
+            }
+            MICommand cmd = gc.getCommandFactory().createMIVarUpdate("*");
+            int tokenID = JDWP.getNewTokenId();
+            gc.queueCommand(tokenID, cmd);
+            MIInfo reply = gc.getResponse(tokenID, JDWP.DEF_REQUEST_TIMEOUT);
+            if (reply == null || reply.getMIOutput().getMIResultRecord().getResultClass().equals(MIResultRecord.ERROR)) {
+                stale = true;
+                return false;
+            }
+            for (MIVarChange change : ((MIVarUpdateInfo) reply).getMIVarChanges()) {
+                Var var = byObjectName.get(change.getVarName());
+                if (var == null) {
+                    continue;
+                }
+                if (change.isInScope()) {
+                    var.value = change.getValue();
+                } else {
+                    var.inScope = false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private void delete(Collection<Var> vars) {
+        for (Var var : vars) {
+            if (byObjectName.remove(var.name, var)) {
+                MICommand cmd = gc.getCommandFactory().createMIVarDelete(var.name);
+                gc.queueAsyncCommand(JDWP.getNewTokenId(), cmd);
+            }
+        }
+    }
+}
@@ -54,6 +54,7 @@ public class ConcreteMethodImpl extends MethodImpl {
     static public class SoftLocationXRefs {
         final String stratumID;   // The stratum of this information
         public final Map<Integer, List<LocationImpl>> lineMapper;     // Maps line number to location(s)
+        public final LineTable<LocationImpl> lineTable;               // First location of each line
         final List<LocationImpl> lineLocations; // List of locations ordered by code index
 
         /*
@@ -68,6 +69,7 @@ public class ConcreteMethodImpl extends MethodImpl {
         SoftLocationXRefs(String stratumID, Map<Integer, List<LocationImpl>> lineMapper, List<LocationImpl> lineLocations, int lowestLine, int highestLine) {
             this.stratumID = stratumID;
             this.lineMapper = Collections.unmodifiableMap(lineMapper);
+            this.lineTable = new LineTable<>(lineMapper);
             this.lineLocations = Collections.unmodifiableList(lineLocations);
             this.lowestLine = lowestLine;
             this.highestLine = highestLine;
@@ -164,24 +166,33 @@ public class ConcreteMethodImpl extends MethodImpl {
         firstIndex = 0;
         lastIndex = codeBuf.length - 1;
 
-        boolean hasLineInfo = saMethod.hasLineNumberTable();
-        LineNumberTableElement[] lntab = null;
-        int count;
-
-        if (hasLineInfo) {
-            lntab = saMethod.getLineNumberTable();
-            count = lntab.length;
+        long[] bcis;
+        int[] lines;
+        MetadataSnapshot.MethodInfo snapshot = snapshotInfo();
+        if (snapshot != null) {
+            bcis = snapshot.codeIndexes;
+            lines = snapshot.lines;
+        } else if (saMethod.hasLineNumberTable()) {
+            LineNumberTableElement[] lntab = saMethod.getLineNumberTable();
+            bcis = new long[lntab.length];
+            lines = new int[lntab.length];
+            for (int i = 0; i < lntab.length; i++) {
+                bcis[i] = lntab[i].getStartBCI();
+                lines[i] = lntab[i].getLineNumber();
+            }
         } else {
-            count = 0;
+            bcis = new long[0];
+            lines = new int[0];
         }
+        int count = bcis.length;
 
         List<LocationImpl> lineLocations = new ArrayList<LocationImpl>(count);
         Map<Integer, List<LocationImpl>> lineMapper = new HashMap<Integer, List<LocationImpl>>();
         int lowestLine = -1;
         int highestLine = -1;
         for (int i = 0; i < count; i++) {
-            long bci = lntab[i].getStartBCI();
-            int lineNumber = lntab[i].getLineNumber();
+            long bci = bcis[i];
+            int lineNumber = lines[i];
 
             /*
              * Some compilers will point multiple consecutive
@@ -191,7 +202,7 @@ public class ConcreteMethodImpl extends MethodImpl {
              * to record only the last line entry at a particular
              * location.
              */
-            if ((i + 1 == count) || (bci != lntab[i+1].getStartBCI())) {
+            if ((i + 1 == count) || (bci != bcis[i+1])) {
                 // Remember the largest/smallest line number
                 if (lineNumber > highestLine) {
                     highestLine = lineNumber;
@@ -299,6 +310,17 @@ public class ConcreteMethodImpl extends MethodImpl {
         return bytecodes.clone();
     }
 
+    /**
+     * Returns what the VM's metadata snapshot, if it has one, knows about this method.
+     */
+    private MetadataSnapshot.MethodInfo snapshotInfo() {
+        MetadataSnapshot metadata = vm().metadata();
+        if (metadata == null) {
+            return null;
+        }
+        return metadata.method(declaringType.name(), name(), signature());
+    }
+
     private List<LocalVariableImpl> getVariables() throws AbsentInformationException {
         List<LocalVariableImpl> variables = (variablesRef == null) ? null :
                 variablesRef.get();
@@ -313,6 +335,20 @@ public class ConcreteMethodImpl extends MethodImpl {
            return variables;
         }
 
+        MetadataSnapshot.MethodInfo snapshot = snapshotInfo();
+        if (snapshot != null) {
+            // the snapshot was written from variables(), so "this" entries are already left out
+            variables = new ArrayList<LocalVariableImpl>(snapshot.locals.size());
+            for (MetadataSnapshot.LocalInfo local : snapshot.locals) {
+                variables.add(new LocalVariableImpl(this, local.slot,
+                        new LocationImpl(this, local.start), new LocationImpl(this, local.start + local.length),
+                        local.name, local.signature, local.genericSignature));
+            }
+            variables = Collections.unmodifiableList(variables);
+            variablesRef = new SoftReference<List<LocalVariableImpl>>(variables);
+            return variables;
+        }
+
         if (! saMethod.hasLocalVariableTable()) {
             throw new AbsentInformationException();
         }
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp.jdi;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Methods by signature, in the form "pkg/Class::name(Ljava/lang/String;I)", and by name.
+ *
+ * The name of a method is its signature without the parameter list, "pkg/Class::name", and
+ * every shorter form of it that starts after a '/', such as "Class::name". GDB reports
+ * functions in either form when it has no parameter types for them.
+ *
+ * Both lookups are hash lookups; the index is updated as methods are created.
+ */
+public class FunctionIndex<T> {
+    private final Map<String, T> bySignature = new ConcurrentHashMap<>();
+    private final Map<String, List<T>> byName = new ConcurrentHashMap<>();
+
+    /**
+     * Adds a method, replacing the one previously added with the same signature.
+     */
+    public void put(String signature, T method) {
+        T previous = bySignature.put(signature, method);
+        int paren = signature.indexOf('(');
+        String name = paren == -1 ? signature : signature.substring(0, paren);
+        int scope = name.indexOf("::");
+        int start = 0;
+        while (true) {
+            List<T> methods = byName.computeIfAbsent(name.substring(start), key -> new CopyOnWriteArrayList<>());
+            if (previous != null) {
+                methods.remove(previous);
+            }
+            methods.add(method);
+            int slash = name.indexOf('/', start);
+            if (slash == -1 || (scope != -1 && slash > scope)) {
+                break;
+            }
+            start = slash + 1;
+        }
+    }
+
+    /**
+     * Returns the method with the given signature, or null.
+     */
+    public T get(String signature) {
+        return bySignature.get(signature);
+    }
+
+    /**
+     * Returns the methods with the given name, overloads included.
+     */
+    public List<T> withName(String name) {
+        List<T> methods = byName.get(name);
+        return methods == null ? Collections.emptyList() : methods;
+    }
+
+    public int size() {
+        return bySignature.size();
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp.jdi;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The first location of every line of a method, as sorted arrays searched by bisection.
+ */
+public class LineTable<T> {
+    private final int[] lines;
+    private final Object[] locations;
+
+    public LineTable(Map<Integer, List<T>> lineMapper) {
+        lines = new int[lineMapper.size()];
+        int count = 0;
+        for (Map.Entry<Integer, List<T>> entry : lineMapper.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                lines[count++] = entry.getKey();
+            }
+        }
+        Arrays.sort(lines, 0, count);
+        locations = new Object[count];
+        for (int i = 0; i < count; i++) {
+            locations[i] = lineMapper.get(lines[i]).get(0);
+        }
+    }
+
+    /**
+     * Returns the first location of the given line, or null if the line has no code.
+     */
+    @SuppressWarnings("unchecked")
+    public T first(int line) {
+        int i = Arrays.binarySearch(lines, 0, locations.length, line);
+        return i < 0 ? null : (T) locations[i];
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp.jdi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The debug metadata of an application (classes, methods, line tables, local variable tables and
+ * SDE) as extracted from a HotSpot run of it, in a compact binary file that is memory-mapped when read.
+ *
+ * Layout, all numbers big-endian:
+ * <pre>
+ *   magic "NJDBMETA", int version, long executable size, long executable modification time (ms)
+ *   int stringCount, int[stringCount] string offsets, strings (int length, UTF-8 bytes)
+ *   int classCount, int[classCount] class offsets, classes sorted by name
+ *   class:  int name, int signature, int sourceName, int sde, int modifiers, long id, int methodCount, methods
+ *   method: int name, int signature, int modifiers, long id,
+ *           int lineCount, lineCount * (long codeIndex, int line),
+ *           int localCount, localCount * (int name, int signature, int genericSignature, int slot,
+ *                                         long start, int length)
+ * </pre>
+ * Strings are referenced by index, -1 standing for null. Classes and strings are decoded when they
+ * are looked up, so opening a snapshot costs one mapping whatever its size. The size and
+ * modification time of the executable it was written for are checked when it is opened, so that
+ * a rebuilt image is not served the tables of the previous one.
+ */
+public final class MetadataSnapshot implements Closeable {
+    public static final String SUFFIX = ".jdbmeta";
+
+    private static final byte[] MAGIC = "NJDBMETA".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 2;
+    private static final int HEADER = MAGIC.length + 4 + 8 + 8;
+
+    public static final class ClassInfo {
+        public final String name;
+        public final String signature;
+        public final String sourceName;
+        public final String sourceDebugExtension;
+        public final int modifiers;
+        public final long id;
+        public final List<MethodInfo> methods;
+
+        public ClassInfo(String name, String signature, String sourceName, String sourceDebugExtension,
+                         int modifiers, long id, List<MethodInfo> methods) {
+            this.name = name;
+            this.signature = signature;
+            this.sourceName = sourceName;
+            this.sourceDebugExtension = sourceDebugExtension;
+            this.modifiers = modifiers;
+            this.id = id;
+            this.methods = methods;
+        }
+    }
+
+    public static final class MethodInfo {
+        public final String name;
+        public final String signature;
+        public final int modifiers;
+        public final long id;
+        public final long[] codeIndexes;
+        public final int[] lines;
+        public final List<LocalInfo> locals;
+
+        public MethodInfo(String name, String signature, int modifiers, long id,
+                          long[] codeIndexes, int[] lines, List<LocalInfo> locals) {
+            this.name = name;
+            this.signature = signature;
+            this.modifiers = modifiers;
+            this.id = id;
+            this.codeIndexes = codeIndexes;
+            this.lines = lines;
+            this.locals = locals;
+        }
+    }
+
+    public static final class LocalInfo {
+        public final String name;
+        public final String signature;
+        public final String genericSignature;
+        public final int slot;
+        public final long start;
+        public final int length;
+
+        public LocalInfo(String name, String signature, String genericSignature, int slot, long start, int length) {
+            this.name = name;
+            this.signature = signature;
+            this.genericSignature = genericSignature;
+            this.slot = slot;
+            this.start = start;
+            this.length = length;
+        }
+    }
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final int stringTable;
+    private final int classTable;
+    private final int classCount;
+
+    private MetadataSnapshot(FileChannel channel, ByteBuffer buffer, Path executable) throws IOException {
+        this.channel = channel;
+        this.buffer = buffer;
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.limit() <= i || buffer.get(i) != MAGIC[i]) {
+                throw new IOException("not a metadata snapshot");
+            }
+        }
+        int version = buffer.getInt(MAGIC.length);
+        if (version != VERSION) {
+            throw new IOException("unsupported metadata snapshot version " + version);
+        }
+        if (buffer.getLong(MAGIC.length + 4) != Files.size(executable)
+                || buffer.getLong(MAGIC.length + 12) != Files.getLastModifiedTime(executable).toMillis()) {
+            throw new IOException("stale metadata snapshot: " + executable + " changed since it was written");
+        }
+        int stringCount = buffer.getInt(HEADER);
+        stringTable = HEADER + 4;
+        int stringsEnd = stringCount == 0 ? stringTable : endOfString(buffer.getInt(stringTable + 4 * (stringCount - 1)));
+        classCount = buffer.getInt(stringsEnd);
+        classTable = stringsEnd + 4;
+    }
+
+    /**
+     * Maps the given snapshot, written for the given executable; fails if the executable changed since.
+     */
+    public static MetadataSnapshot open(Path path, Path executable) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new MetadataSnapshot(channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), executable);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the snapshot that goes with the given native executable.
+     */
+    public static Path pathFor(String executable) {
+        return Path.of(executable + SUFFIX);
+    }
+
+    public int classCount() {
+        return classCount;
+    }
+
+    /**
+     * Returns the class at the given index, classes being sorted by name.
+     */
+    public ClassInfo classAt(int index) {
+        return readClass(buffer.getInt(classTable + 4 * index));
+    }
+
+    /**
+     * Returns the class with the given name, in the form "java/lang/String", or null.
+     */
+    public ClassInfo classByName(String name) {
+        int low = 0;
+        int high = classCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int offset = buffer.getInt(classTable + 4 * mid);
+            int cmp = string(buffer.getInt(offset)).compareTo(name);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return readClass(offset);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the method with the given name and signature of the class with the given name, or null.
+     */
+    public MethodInfo method(String className, String name, String signature) {
+        ClassInfo c = classByName(className);
+        if (c == null) {
+            return null;
+        }
+        for (MethodInfo m : c.methods) {
+            if (m.name.equals(name) && m.signature.equals(signature)) {
+                return m;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int endOfString(int offset) {
+        return offset + 4 + buffer.getInt(offset);
+    }
+
+    private String string(int index) {
+        if (index < 0) {
+            return null;
+        }
+        int offset = buffer.getInt(stringTable + 4 * index);
+        byte[] bytes = new byte[buffer.getInt(offset)];
+        ByteBuffer b = buffer.duplicate();
+        b.position(offset + 4);
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private ClassInfo readClass(int offset) {
+        ByteBuffer b = buffer.duplicate();
+        b.position(offset);
+        String name = string(b.getInt());
+        String signature = string(b.getInt());
+        String sourceName = string(b.getInt());
+        String sde = string(b.getInt());
+        int modifiers = b.getInt();
+        long id = b.getLong();
+        int methodCount = b.getInt();
+        List<MethodInfo> methods = new ArrayList<>(methodCount);
+        for (int i = 0; i < methodCount; i++) {
+            String methodName = string(b.getInt());
+            String methodSignature = string(b.getInt());
+            int methodModifiers = b.getInt();
+            long methodId = b.getLong();
+            int lineCount = b.getInt();
+            long[] codeIndexes = new long[lineCount];
+            int[] lines = new int[lineCount];
+            for (int j = 0; j < lineCount; j++) {
+                codeIndexes[j] = b.getLong();
+                lines[j] = b.getInt();
+            }
+            int localCount = b.getInt();
+            List<LocalInfo> locals = new ArrayList<>(localCount);
+            for (int j = 0; j < localCount; j++) {
+                locals.add(new LocalInfo(string(b.getInt()), string(b.getInt()), string(b.getInt()), b.getInt(), b.getLong(),
+                        b.getInt()));
+            }
+            methods.add(new MethodInfo(methodName, methodSignature, methodModifiers, methodId, codeIndexes, lines,
+                    Collections.unmodifiableList(locals)));
+        }
+        return new ClassInfo(name, signature, sourceName, sde, modifiers, id, Collections.unmodifiableList(methods));
+    }
+
+    /**
+     * Writes a snapshot of the given classes of the given executable.
+     */
+    public static void write(Path path, List<ClassInfo> classes, Path executable) throws IOException {
+        try (OutputStream out = Files.newOutputStream(path)) {
+            write(out, classes, Files.size(executable), Files.getLastModifiedTime(executable).toMillis());
+        }
+    }
+
+    static void write(OutputStream stream, List<ClassInfo> classes, long executableSize, long executableModified)
+            throws IOException {
+        List<ClassInfo> sorted = new ArrayList<>(classes);
+        sorted.sort(Comparator.comparing(c -> c.name));
+
+        Map<String, Integer> indexes = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(classBytes);
+        int[] classOffsets = new int[sorted.size()];
+        for (int i = 0; i < sorted.size(); i++) {
+            ClassInfo c = sorted.get(i);
+            classOffsets[i] = data.size();
+            data.writeInt(intern(c.name, indexes, strings));
+            data.writeInt(intern(c.signature, indexes, strings));
+            data.writeInt(intern(c.sourceName, indexes, strings));
+            data.writeInt(intern(c.sourceDebugExtension, indexes, strings));
+            data.writeInt(c.modifiers);
+            data.writeLong(c.id);
+            data.writeInt(c.methods.size());
+            for (MethodInfo m : c.methods) {
+                data.writeInt(intern(m.name, indexes, strings));
+                data.writeInt(intern(m.signature, indexes, strings));
+                data.writeInt(m.modifiers);
+                data.writeLong(m.id);
+                data.writeInt(m.lines.length);
+                for (int j = 0; j < m.lines.length; j++) {
+                    data.writeLong(m.codeIndexes[j]);
+                    data.writeInt(m.lines[j]);
+                }
+                data.writeInt(m.locals.size());
+                for (LocalInfo l : m.locals) {
+                    data.writeInt(intern(l.name, indexes, strings));
+                    data.writeInt(intern(l.signature, indexes, strings));
+                    data.writeInt(intern(l.genericSignature, indexes, strings));
+                    data.writeInt(l.slot);
+                    data.writeLong(l.start);
+                    data.writeInt(l.length);
+                }
+            }
+        }
+
+        DataOutputStream out = new DataOutputStream(stream);
+        out.write(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(executableSize);
+        out.writeLong(executableModified);
+        out.writeInt(strings.size());
+        int offset = HEADER + 4 + 4 * strings.size();
+        List<byte[]> encoded = new ArrayList<>(strings.size());
+        for (String s : strings) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            encoded.add(bytes);
+            out.writeInt(offset);
+            offset += 4 + bytes.length;
+        }
+        for (byte[] bytes : encoded) {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        out.writeInt(sorted.size());
+        int classesStart = offset + 4 + 4 * sorted.size();
+        for (int classOffset : classOffsets) {
+            out.writeInt(classesStart + classOffset);
+        }
+        classBytes.writeTo(out);
+        out.flush();
+    }
+
+    private static int intern(String s, Map<String, Integer> indexes, List<String> strings) {
+        if (s == null) {
+            return -1;
+        }
+        return indexes.computeIfAbsent(s, key -> {
+            strings.add(key);
+            return strings.size() - 1;
+        });
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp.jdi;
+
+import com.sun.jdi.AbsentInformationException;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Build time tool that attaches to a HotSpot run of the application and writes its debug
+ * metadata next to the native executable, see {@link MetadataSnapshot}.
+ *
+ * Usage: MetadataSnapshotTool &lt;pid&gt; &lt;native executable&gt;
+ */
+public class MetadataSnapshotTool {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: MetadataSnapshotTool <pid> <native executable>");
+            System.exit(1);
+        }
+        VirtualMachineImpl vm = VirtualMachineImpl.createVirtualMachineForPID(Integer.parseInt(args[0]), 0);
+        try {
+            List<MetadataSnapshot.ClassInfo> classes = snapshot(vm);
+            Path path = MetadataSnapshot.pathFor(args[1]);
+            MetadataSnapshot.write(path, classes, Path.of(args[1]));
+            System.out.println("Wrote " + classes.size() + " classes to " + path);
+        } finally {
+            vm.dispose();
+        }
+    }
+
+    static List<MetadataSnapshot.ClassInfo> snapshot(VirtualMachineImpl vm) {
+        List<MetadataSnapshot.ClassInfo> classes = new ArrayList<>();
+        for (ReferenceTypeImpl type : vm.allClasses()) {
+            try {
+                classes.add(classInfo(type));
+            } catch (RuntimeException e) {
+                System.err.println("Skipping " + type.name() + ": " + e);
+            }
+        }
+        return classes;
+    }
+
+    private static MetadataSnapshot.ClassInfo classInfo(ReferenceTypeImpl type) {
+        String sourceName = null;
+        String sde = null;
+        try {
+            sourceName = type.baseSourceName();
+        } catch (AbsentInformationException ignored) {
+        }
+        try {
+            sde = type.sourceDebugExtension();
+        } catch (AbsentInformationException | UnsupportedOperationException ignored) {
+        }
+
+        List<MetadataSnapshot.MethodInfo> methods = new ArrayList<>();
+        if (type.isPrepared()) {
+            for (MethodImpl method : type.methods()) {
+                methods.add(methodInfo(method));
+            }
+        }
+        return new MetadataSnapshot.ClassInfo(type.name(), type.signature(), sourceName, sde,
+                type.modifiers(), type.uniqueID(), methods);
+    }
+
+    private static MetadataSnapshot.MethodInfo methodInfo(MethodImpl method) {
+        long[] codeIndexes = new long[0];
+        int[] lines = new int[0];
+        List<MetadataSnapshot.LocalInfo> locals = Collections.emptyList();
+        if (method instanceof ConcreteMethodImpl) {
+            try {
+                List<LocationImpl> locations = method.allLineLocations();
+                codeIndexes = new long[locations.size()];
+                lines = new int[locations.size()];
+                for (int i = 0; i < locations.size(); i++) {
+                    codeIndexes[i] = locations.get(i).codeIndex();
+                    lines[i] = locations.get(i).lineNumber();
+                }
+            } catch (AbsentInformationException ignored) {
+            }
+            try {
+                locals = new ArrayList<>();
+                for (LocalVariableImpl local : ((ConcreteMethodImpl) method).variables()) {
+                    locals.add(new MetadataSnapshot.LocalInfo(local.name(), local.signature(), local.genericSignature(),
+                            local.slot(), local.getStart(), local.getLength()));
+                }
+            } catch (AbsentInformationException ignored) {
+            }
+        }
+        return new MetadataSnapshot.MethodInfo(method.name(), method.signature(), method.modifiers(),
+                method.uniqueID(), codeIndexes, lines, locals);
+    }
+}
@@ -40,14 +40,12 @@ import com.sun.jdi.AbsentInformationException;
 import sun.jvm.hotspot.oops.Method;
 import sun.jvm.hotspot.oops.Symbol;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.List;
 
 public abstract class MethodImpl extends TypeComponentImpl {
     Method saMethod;
 
-    public static Map<String, MethodImpl> methods = new HashMap<>();
+    public static final FunctionIndex<MethodImpl> methods = new FunctionIndex<>();
 
     public abstract int argSlotCount();
     abstract List<LocationImpl> allLineLocations(SDE.Stratum stratum) throws AbsentInformationException;
@@ -60,6 +60,7 @@ import sun.jvm.hotspot.runtime.JavaThread;
 import sun.jvm.hotspot.runtime.VM;
 import sun.jvm.hotspot.utilities.Assert;
 
+import java.io.IOException;
 import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
@@ -72,6 +73,7 @@ public class VirtualMachineImpl {
     private Universe         saUniverse;
     private SystemDictionary saSystemDictionary;
     private ObjectHeap       saObjectHeap;
+    private MetadataSnapshot metadata;
 
     VM saVM() {
         return saVM;
@@ -152,6 +154,17 @@ public class VirtualMachineImpl {
         return myvm;
     }
 
+    /**
+     * Serves line and local variable tables from the given snapshot rather than from the attached VM.
+     */
+    public void useMetadata(MetadataSnapshot metadata) {
+        this.metadata = metadata;
+    }
+
+    MetadataSnapshot metadata() {
+        return metadata;
+    }
+
     static public VirtualMachineImpl dummyVirtualMachine() {
         VirtualMachineImpl myvm = new VirtualMachineImpl(Bootstrap.virtualMachineManager(), 0);
         myvm.saAgent.startServer(1);
@@ -326,6 +339,12 @@ public class VirtualMachineImpl {
 
     public void dispose() {
         saAgent.detach();
+        if (metadata != null) {
+            try {
+                metadata.close();
+            } catch (IOException ignored) {
+            }
+        }
 //        notifyDispose();
     }
 
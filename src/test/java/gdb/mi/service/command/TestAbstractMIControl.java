@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package gdb.mi.service.command;
+
+import gdb.mi.service.command.output.MIInfo;
+import gdb.mi.service.command.output.MIResultRecord;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestAbstractMIControl {
+
+	private static final String NO_REPLY = "";
+
+	private AbstractMIControl control;
+	private PipedOutputStream gdbOutput;
+	/**
+	 * Reply records by token; commands with no entry are answered with ^done.
+	 */
+	private final Map<Integer, String> replies = new ConcurrentHashMap<>();
+
+	/**
+	 * Stands in for GDB: answers every command as soon as it is written.
+	 */
+	private class FakeGDBInput extends OutputStream {
+		@Override
+		public void write(int b) {
+			write(new byte[]{(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			String command = new String(b, off, len, StandardCharsets.UTF_8);
+			int token = Integer.parseInt(command.substring(0, command.indexOf('-')));
+			String reply = replies.getOrDefault(token, "^done");
+			if (reply == NO_REPLY) {
+				return;
+			}
+			try {
+				gdbOutput.write((token + reply + "\n").getBytes(StandardCharsets.UTF_8));
+				gdbOutput.flush();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		control = new AbstractMIControl() {
+		};
+		gdbOutput = new PipedOutputStream();
+		control.startCommandProcessing(new PipedInputStream(gdbOutput), new FakeGDBInput(), null);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		gdbOutput.close();
+	}
+
+	private CompletableFuture<MIInfo> breakDelete(int token) {
+		return control.queueCommand(token, control.getCommandFactory().createMIBreakDelete(String.valueOf(token)));
+	}
+
+	private static String resultClass(CompletableFuture<MIInfo> future) throws Exception {
+		return future.get(5, TimeUnit.SECONDS).getMIOutput().getMIResultRecord().getResultClass();
+	}
+
+	@Test
+	public void futureCompletesWithReply() throws Exception {
+		assertEquals(MIResultRecord.DONE, resultClass(breakDelete(1)));
+	}
+
+	@Test
+	public void repliesAreMatchedByToken() throws Exception {
+		replies.put(2, "^error,msg=\"No breakpoint number 2.\"");
+
+		CompletableFuture<MIInfo> first = breakDelete(1);
+		CompletableFuture<MIInfo> second = breakDelete(2);
+
+		assertEquals(MIResultRecord.DONE, resultClass(first));
+		assertEquals(MIResultRecord.ERROR, resultClass(second));
+	}
+
+	@Test
+	public void getResponseReturnsCompletedReply() throws Exception {
+		CompletableFuture<MIInfo> future = breakDelete(3);
+
+		MIInfo info = control.getResponse(3, 5000);
+		assertSame(future.get(), info);
+		// the reply is handed out only once
+		assertNull(control.getResponse(3, 0));
+	}
+
+	@Test
+	public void getResponseTimesOut() {
+		replies.put(4, NO_REPLY);
+		CompletableFuture<MIInfo> future = breakDelete(4);
+
+		assertNull(control.getResponse(4, 50));
+		assertTrue(future.isCompletedExceptionally());
+	}
+
+	@Test
+	public void moreCommandsThanSlotsAreAllAnswered() throws Exception {
+		int count = 10;
+		@SuppressWarnings("unchecked")
+		CompletableFuture<MIInfo>[] futures = new CompletableFuture[count];
+		for (int i = 0; i < count; i++) {
+			futures[i] = breakDelete(100 + i);
+		}
+		for (int i = 0; i < count; i++) {
+			assertEquals(MIResultRecord.DONE, resultClass(futures[i]));
+		}
+	}
+
+	@Test
+	public void asyncCommandsAreAnsweredButNotKept() throws Exception {
+		int count = 200;
+		@SuppressWarnings("unchecked")
+		CompletableFuture<MIInfo>[] futures = new CompletableFuture[count];
+		for (int i = 0; i < count; i++) {
+			int token = 200 + i;
+			futures[i] = control.queueAsyncCommand(token, control.getCommandFactory().createMIBreakDelete(String.valueOf(token)));
+		}
+		CompletableFuture.allOf(futures).get(5, TimeUnit.SECONDS);
+		for (int i = 0; i < count; i++) {
+			assertEquals(MIResultRecord.DONE, resultClass(futures[i]));
+			assertNull(control.getResponse(200 + i, 0));
+		}
+	}
+
+	@Test
+	public void recordsMetricsPerOperation() throws Exception {
+		replies.put(301, "^error,msg=\"No breakpoint number 301.\"");
+		resultClass(breakDelete(300));
+		resultClass(breakDelete(301));
+
+		CommandMetrics.Row row = control.getCommandMetrics().getRow("-break-delete");
+		assertEquals(2, row.getCount());
+		assertEquals(1, row.getErrors());
+		assertEquals(2, row.getPhase(1).getCount());
+	}
+
+	@Test
+	public void tracesCommandsBackToTheirPacket() throws Exception {
+		StringWriter out = new StringWriter();
+		control.setTrace(new ChromeTrace(out));
+		TraceContext previous = TraceContext.attach(new TraceContext(42, "StackFrame.GetValues"));
+		CompletableFuture<MIInfo> dependent;
+		try {
+			// the second command is queued on the RX thread, once the first is answered
+			dependent = breakDelete(400).thenCompose(info -> breakDelete(401));
+		} finally {
+			TraceContext.attach(previous);
+		}
+		resultClass(dependent);
+		resultClass(breakDelete(402));
+
+		String trace = out.toString();
+		assertTrue(trace, trace.contains("\"name\":\"-break-delete\",\"cat\":\"mi\",\"ph\":\"b\",\"id\":\"42\""));
+		assertTrue(trace, trace.contains("\"args\":{\"token\":401,"));
+		assertEquals(trace, 2, trace.split("\"ph\":\"b\",\"id\":\"42\"").length - 1);
+		assertEquals(trace, 1, trace.split("\"ph\":\"b\",\"id\":\"0\"").length - 1);
+	}
+
+	@Test
+	public void recordsFlightRecorderEvents() throws Exception {
+		Path file = Files.createTempFile("mi", ".jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable("nativejdb.MICommand");
+			recording.start();
+			TraceContext previous = TraceContext.attach(new TraceContext(43, "ThreadReference.Frames"));
+			try {
+				resultClass(breakDelete(500));
+			} finally {
+				TraceContext.attach(previous);
+			}
+			recording.stop();
+			recording.dump(file);
+
+			List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+			assertEquals(1, events.size());
+			RecordedEvent event = events.get(0);
+			assertEquals(43, event.getInt("packetId"));
+			assertEquals("ThreadReference.Frames", event.getString("command"));
+			assertEquals(500, event.getInt("token"));
+			assertEquals("-break-delete", event.getString("operation"));
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package gdb.mi.service.command;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestCommandMetrics {
+
+	@Test
+	public void recordsEveryPhasePerCommand() {
+		CommandMetrics metrics = new CommandMetrics("queue", "service");
+		metrics.record("-stack-list-frames", false, 1000, 2000);
+		metrics.record("-stack-list-frames", true, 3000, 4000);
+		metrics.record("-break-insert", false, 5, 6);
+
+		assertEquals(2, metrics.getRows().size());
+		assertEquals("-break-insert", metrics.getRows().get(0).getName());
+		CommandMetrics.Row frames = metrics.getRow("-stack-list-frames");
+		assertEquals(2, frames.getCount());
+		assertEquals(1, frames.getErrors());
+		assertEquals(4000, frames.getPhase(0).getSum());
+		assertEquals(4000, frames.getPhase(1).getMax());
+	}
+
+	@Test
+	public void writesPrometheusText() {
+		CommandMetrics metrics = new CommandMetrics("queue", "service");
+		metrics.record("-var-create", false, 1000, 2_000_000);
+
+		StringBuilder out = new StringBuilder();
+		metrics.writePrometheus(out, "nativejdb_mi", "operation");
+		String text = out.toString();
+		assertTrue(text, text.contains("# TYPE nativejdb_mi_commands_total counter\n"));
+		assertTrue(text, text.contains("nativejdb_mi_commands_total{operation=\"-var-create\"} 1\n"));
+		assertTrue(text, text.contains("nativejdb_mi_errors_total{operation=\"-var-create\"} 0\n"));
+		assertTrue(text, text.contains("# TYPE nativejdb_mi_service_seconds summary\n"));
+		assertTrue(text, text.contains("nativejdb_mi_service_seconds{operation=\"-var-create\",quantile=\"0.99\"} 0.002"));
+		assertTrue(text, text.contains("nativejdb_mi_service_seconds_sum{operation=\"-var-create\"} 0.002\n"));
+		assertTrue(text, text.contains("nativejdb_mi_queue_seconds_count{operation=\"-var-create\"} 1\n"));
+	}
+}
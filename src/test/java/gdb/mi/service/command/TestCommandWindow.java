@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package gdb.mi.service.command;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestCommandWindow {
+
+	private static void round(CommandWindow window, long serviceNanos, boolean backlog) {
+		for (int i = window.getLimit(); i > 0; i--) {
+			window.onReply(0, serviceNanos, backlog);
+		}
+	}
+
+	@Test
+	public void growsWhileServiceTimeHoldsAndCommandsWait() {
+		CommandWindow window = new CommandWindow(3, 8, true);
+		round(window, 1000, true);
+		assertEquals(4, window.getLimit());
+		for (int i = 0; i < 10; i++) {
+			round(window, 1000, true);
+		}
+		assertEquals(8, window.getLimit());
+	}
+
+	@Test
+	public void doesNotGrowWithoutBacklog() {
+		CommandWindow window = new CommandWindow(3, 8, true);
+		for (int i = 0; i < 5; i++) {
+			round(window, 1000, false);
+		}
+		assertEquals(3, window.getLimit());
+	}
+
+	@Test
+	public void shrinksWhenCommandsQueueInsideGDB() {
+		CommandWindow window = new CommandWindow(8, 8, true);
+		round(window, 1000, true);
+		// every command now takes as long as eight serial ones: seven of them are waiting in GDB
+		round(window, 8000, true);
+		assertEquals(7, window.getLimit());
+		for (int i = 0; i < 10; i++) {
+			round(window, 1000L * window.getLimit(), true);
+		}
+		assertEquals(5, window.getLimit());
+	}
+
+	@Test
+	public void fixedWindowKeepsItsLimit() {
+		CommandWindow window = new CommandWindow(3, 8, false);
+		round(window, 1000, true);
+		round(window, 1000, true);
+		assertEquals(3, window.getLimit());
+	}
+
+	@Test
+	public void separatesQueueWaitFromServiceTime() {
+		CommandWindow window = new CommandWindow(3, 8, false);
+		window.onReply(2000_000, 1000_000, true);
+		window.onReply(4000_000, 3000_000, false);
+		assertEquals(2, window.getReplies());
+		assertEquals(3000, window.getAverageQueueWaitMicros());
+		assertEquals(4000, window.getMaxQueueWaitMicros());
+		assertEquals(2000, window.getAverageServiceMicros());
+		assertEquals(3000, window.getMaxServiceMicros());
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package gdb.mi.service.command;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestLatencyHistogram {
+
+	@Test
+	public void bucketsCoverEveryValueOnce() {
+		for (long value = 0; value < 1 << 16; value++) {
+			int index = LatencyHistogram.index(value);
+			assertTrue(value <= LatencyHistogram.highestInBucket(index));
+			assertTrue(index == 0 || value > LatencyHistogram.highestInBucket(index - 1));
+		}
+	}
+
+	@Test
+	public void smallValuesAreExact() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 50; i++) {
+			histogram.record(i);
+		}
+		assertEquals(25, histogram.getValueAtPercentile(50));
+		assertEquals(50, histogram.getValueAtPercentile(100));
+		assertEquals(50, histogram.getMax());
+		assertEquals(1275, histogram.getSum());
+		assertEquals(25.5, histogram.getMean(), 0);
+	}
+
+	@Test
+	public void percentilesKeepTheirPrecisionAtAnyMagnitude() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		// 1 us to 1 s
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1_000_000L);
+		}
+		assertEquals(500e6, histogram.getValueAtPercentile(50), 500e6 / 32);
+		assertEquals(990e6, histogram.getValueAtPercentile(99), 990e6 / 32);
+		assertEquals(1000, histogram.getCount());
+	}
+
+	@Test
+	public void hugeValuesGoToTheLastBucket() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(Long.MAX_VALUE / 2);
+		assertEquals(1, histogram.getCount());
+		assertEquals(Long.MAX_VALUE / 2, histogram.getMax());
+		assertTrue(histogram.getValueAtPercentile(50) >= LatencyHistogram.HIGHEST);
+	}
+}
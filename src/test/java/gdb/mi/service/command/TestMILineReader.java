@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package gdb.mi.service.command;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestMILineReader {
+
+	private static List<String> readAll(String input) throws IOException {
+		MILineReader reader = new MILineReader(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)),
+				StandardCharsets.UTF_8);
+		List<String> lines = new ArrayList<>();
+		while (reader.next()) {
+			lines.add(reader.line());
+		}
+		return lines;
+	}
+
+	@Test
+	public void splitsLines() throws IOException {
+		assertEquals(Arrays.asList("1^done", "", "(gdb)", "last"), readAll("1^done\n\r\n(gdb)\r\nlast"));
+	}
+
+	@Test
+	public void decodesNonAsciiLines() throws IOException {
+		assertEquals(Arrays.asList("~\"gr\u00fc\u00dfe \u2603\"", "ok"), readAll("~\"gr\u00fc\u00dfe \u2603\"\nok\n"));
+	}
+
+	@Test
+	public void readsLinesLongerThanTheBuffer() throws IOException {
+		char[] chars = new char[100000];
+		Arrays.fill(chars, 'x');
+		String longLine = new String(chars);
+		assertEquals(Arrays.asList("a", longLine, "b"), readAll("a\n" + longLine + "\nb\n"));
+	}
+}
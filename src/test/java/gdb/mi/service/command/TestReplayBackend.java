@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package gdb.mi.service.command;
+
+import com.sun.jdi.connect.spi.Connection;
+import gdb.mi.service.command.commands.MICommand;
+import gdb.mi.service.command.output.MIInfo;
+import gdb.mi.service.command.output.MIResultRecord;
+import gdb.mi.service.command.output.MIStackListFramesInfo;
+import jdwp.GDBControl;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestReplayBackend {
+
+	private static final String TRANSCRIPT = "src/test/data/mi/hellonested.transcript";
+
+	private MIBackend backend;
+
+	@After
+	public void tearDown() {
+		System.clearProperty(ReplayBackend.TRANSCRIPT_PROPERTY);
+		if (backend != null) {
+			backend.destroy();
+		}
+	}
+
+	private AbstractMIControl start(MIBackend backend) {
+		this.backend = backend;
+		AbstractMIControl control = new AbstractMIControl() {
+		};
+		control.startCommandProcessing(backend);
+		return control;
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static MIInfo send(AbstractMIControl control, int token, MICommand cmd) throws Exception {
+		CompletableFuture<MIInfo> future = control.queueCommand(token, cmd);
+		return future.get(5, TimeUnit.SECONDS);
+	}
+
+	private static String resultClass(MIInfo info) {
+		return info.getMIOutput().getMIResultRecord().getResultClass();
+	}
+
+	@Test
+	public void answersFromTheTranscript() throws Exception {
+		AbstractMIControl control = start(ReplayBackend.open(Paths.get(TRANSCRIPT), 0));
+
+		MIInfo frames = send(control, 1, control.getCommandFactory().createMIStackListFrames("1"));
+		assertEquals(MIResultRecord.DONE, resultClass(frames));
+		assertEquals(3, ((MIStackListFramesInfo) frames).getMIFrames().length);
+
+		MIInfo unknown = send(control, 2, control.getCommandFactory().createMIGDBExit());
+		assertEquals(MIResultRecord.ERROR, resultClass(unknown));
+	}
+
+	@Test
+	public void usesRecordingsInTurn() throws Exception {
+		AbstractMIControl control = start(new ReplayBackend(Arrays.asList(
+				"> -break-delete 1", "^done", "(gdb)",
+				"> -break-delete 2", "^error,msg=\"No breakpoint number 2.\"", "(gdb)"), 0));
+
+		// the exact command text first, then any recording of the operation in turn
+		assertEquals(MIResultRecord.ERROR, resultClass(send(control, 7, control.getCommandFactory().createMIBreakDelete("2"))));
+		assertEquals(MIResultRecord.DONE, resultClass(send(control, 8, control.getCommandFactory().createMIBreakDelete("3"))));
+		assertEquals(MIResultRecord.ERROR, resultClass(send(control, 9, control.getCommandFactory().createMIBreakDelete("3"))));
+	}
+
+	@Test
+	public void answersAfterTheLatency() throws Exception {
+		AbstractMIControl control = start(new ReplayBackend(Arrays.asList("> -break-delete 1", "^done", "(gdb)"), 100));
+
+		long start = System.nanoTime();
+		send(control, 1, control.getCommandFactory().createMIBreakDelete("1"));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+	}
+
+	@Test
+	public void startsGDBControlOnTheTranscript() throws Exception {
+		System.setProperty(ReplayBackend.TRANSCRIPT_PROPERTY, TRANSCRIPT);
+		GDBControl gc = new GDBControl(Mockito.mock(Connection.class), null);
+		backend = gc.getBackend();
+		assertTrue(backend instanceof ReplayBackend);
+
+		// the start-up exchange must leave the rest of the output to the MI control
+		gc.startCommandProcessing(backend);
+		MIInfo threads = send(gc, 1, gc.getCommandFactory().createMIThreadInfo());
+		assertEquals(MIResultRecord.DONE, resultClass(threads));
+	}
+}
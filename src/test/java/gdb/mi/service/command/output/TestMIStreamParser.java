@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package gdb.mi.service.command.output;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class TestMIStreamParser {
+
+	private static final String SESSION = "src/test/data/mi/gdb-session.mi";
+
+	/**
+	 * Checks that both parsers build the same tree for every line of a recorded GDB session,
+	 * malformed ones included.
+	 */
+	@Test
+	public void parsesLikeMIParser() throws IOException {
+		MIParser reference = new MIParser();
+		MIStreamParser parser = new MIStreamParser();
+		List<String> lines = Files.readAllLines(Paths.get(SESSION), StandardCharsets.UTF_8);
+		for (String line : lines) {
+			// parse each line out of a larger buffer, as the RX thread does
+			char[] buf = ("xx" + line + "yy").toCharArray();
+			MIParser.RecordType type = reference.getRecordType(line);
+			assertEquals(line, type, parser.getRecordType(buf, 2, line.length()));
+			if (type == MIParser.RecordType.ResultRecord) {
+				assertSameRecord(line, reference.parseMIResultRecord(line), parser.parseMIResultRecord(buf, 2, line.length()));
+			} else if (type == MIParser.RecordType.OOBRecord) {
+				assertSameRecord(line, reference.parseMIOOBRecord(line), parser.parseMIOOBRecord(buf, 2, line.length()));
+			}
+		}
+	}
+
+	@Test
+	public void unescapesResultValues() {
+		MIResultRecord rr = new MIStreamParser().parseMIResultRecord("6^done,value=\"say \\\"hi\\\" \\\\ \\n\"");
+		assertEquals(6, rr.getToken());
+		assertSame(MIResultRecord.DONE, rr.getResultClass());
+		assertEquals("say \"hi\" \\ \\n", ((MIConst) rr.getField("value")).getCString());
+	}
+
+	@Test
+	public void sharesRepeatedNames() {
+		MIStreamParser parser = new MIStreamParser();
+		MIResultRecord first = parser.parseMIResultRecord("1^done,frame={level=\"0\"}");
+		MIResultRecord second = parser.parseMIResultRecord("2^done,frame={level=\"1\"}");
+		assertSame(first.getMIResults()[0].getVariable(), second.getMIResults()[0].getVariable());
+	}
+
+	private static void assertSameRecord(String line, MIResultRecord expected, MIResultRecord actual) {
+		assertEquals(line, expected.getToken(), actual.getToken());
+		assertEquals(line, expected.getResultClass(), actual.getResultClass());
+		assertSameResults(line, expected.getMIResults(), actual.getMIResults());
+	}
+
+	private static void assertSameRecord(String line, MIOOBRecord expected, MIOOBRecord actual) {
+		assertEquals(line, expected.getClass(), actual.getClass());
+		if (expected instanceof MIAsyncRecord) {
+			MIAsyncRecord e = (MIAsyncRecord) expected;
+			MIAsyncRecord a = (MIAsyncRecord) actual;
+			assertEquals(line, e.getToken(), a.getToken());
+			assertEquals(line, e.getAsyncClass(), a.getAsyncClass());
+			assertSameResults(line, e.getMIResults(), a.getMIResults());
+		} else {
+			assertEquals(line, ((MIStreamRecord) expected).getCString(), ((MIStreamRecord) actual).getCString());
+		}
+	}
+
+	private static void assertSameResults(String line, MIResult[] expected, MIResult[] actual) {
+		assertEquals(line, expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(line, expected[i].getVariable(), actual[i].getVariable());
+			assertSameValue(line, expected[i].getMIValue(), actual[i].getMIValue());
+		}
+	}
+
+	private static void assertSameValue(String line, MIValue expected, MIValue actual) {
+		if (expected == null) {
+			assertEquals(line, null, actual);
+			return;
+		}
+		assertEquals(line, expected.getClass(), actual.getClass());
+		if (expected instanceof MIConst) {
+			assertEquals(line, ((MIConst) expected).getCString(), ((MIConst) actual).getCString());
+		} else if (expected instanceof MITuple) {
+			assertSameValues(line, ((MITuple) expected).getMIValues(), ((MITuple) actual).getMIValues());
+			assertSameResults(line, ((MITuple) expected).getMIResults(), ((MITuple) actual).getMIResults());
+		} else {
+			assertSameValues(line, ((MIList) expected).getMIValues(), ((MIList) actual).getMIValues());
+			assertSameResults(line, ((MIList) expected).getMIResults(), ((MIList) actual).getMIResults());
+		}
+	}
+
+	private static void assertSameValues(String line, MIValue[] expected, MIValue[] actual) {
+		assertEquals(line, expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertSameValue(line, expected[i], actual[i]);
+		}
+	}
+}
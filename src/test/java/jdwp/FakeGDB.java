@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import gdb.mi.service.command.CommandFactory;
+import gdb.mi.service.command.commands.MICommand;
+import gdb.mi.service.command.output.MIOOBRecord;
+import gdb.mi.service.command.output.MIOutput;
+import gdb.mi.service.command.output.MIStreamParser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * A mocked GDBControl for the classes that talk to GDB: the commands queued with queueCommand
+ * are answered when their response is asked for, with the result record the test gives for
+ * each command. Those queued with queueAsyncCommand get theirs at once, or never if the test
+ * gives none.
+ */
+class FakeGDB {
+    /** The mocked control, to hand to the class under test. */
+    final GDBControl gc = mock(GDBControl.class);
+    /** The MI commands sent, without token and newline. */
+    final List<String> sent = new ArrayList<>();
+    private final Map<Integer, MICommand<?>> commands = new HashMap<>();
+
+    /**
+     * @param replies the result record, with or without token, that GDB answers to a command
+     */
+    FakeGDB(Function<MICommand<?>, String> replies) {
+        when(gc.getCommandFactory()).thenReturn(new CommandFactory());
+        when(gc.queueCommand(anyInt(), any())).thenAnswer(invocation -> {
+            MICommand<?> cmd = invocation.getArgument(1);
+            sent.add(cmd.constructCommand().trim());
+            commands.put(invocation.getArgument(0), cmd);
+            return null;
+        });
+        when(gc.queueAsyncCommand(anyInt(), any())).thenAnswer(invocation -> {
+            MICommand<?> cmd = invocation.getArgument(1);
+            sent.add(cmd.constructCommand().trim());
+            CompletableFuture<Object> future = new CompletableFuture<>();
+            String reply = replies.apply(cmd);
+            if (reply != null) {
+                future.complete(cmd.getResult(output(reply)));
+            }
+            return future;
+        });
+        when(gc.getResponse(anyInt(), anyLong())).thenAnswer(invocation -> {
+            MICommand<?> cmd = commands.remove(invocation.<Integer>getArgument(0));
+            return cmd == null ? null : cmd.getResult(output(replies.apply(cmd)));
+        });
+    }
+
+    static MIOutput output(String line) {
+        return new MIOutput(new MIStreamParser().parseMIResultRecord(line), new MIOOBRecord[0]);
+    }
+}
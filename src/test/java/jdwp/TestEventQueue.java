@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import gdb.mi.service.command.CommandFactory;
+import gdb.mi.service.command.commands.MICommand;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests that events are held between HoldEvents and ReleaseEvents, and that the target is
+ * interrupted while too many of them are.
+ */
+public class TestEventQueue {
+
+    private GDBControl gc;
+    private EventQueue queue;
+    /** The first int after the suspend policy of the event packets sent to the IDE. */
+    private final List<Integer> sent = new ArrayList<>();
+    /** The MI commands sent, without token and newline. */
+    private final List<String> commands = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        gc = mock(GDBControl.class);
+        when(gc.getCommandFactory()).thenReturn(new CommandFactory());
+        when(gc.queueAsyncCommand(anyInt(), any())).thenAnswer(invocation -> {
+            MICommand<?> cmd = invocation.getArgument(1);
+            commands.add(cmd.constructCommand().trim());
+            return new CompletableFuture<>();
+        });
+        doAnswer(invocation -> {
+            ByteBuffer data = invocation.getArgument(1);
+            data.get();
+            sent.add(data.getInt());
+            return null;
+        }).when(gc).sendToTarget(any(), any(ByteBuffer.class));
+        queue = new EventQueue(gc, 2);
+    }
+
+    private PacketStream event(int number) {
+        return event(JDWP.SuspendPolicy.NONE, number);
+    }
+
+    private PacketStream event(int suspendPolicy, int number) {
+        PacketStream packet = new PacketStream(gc);
+        packet.writeByte((byte) suspendPolicy);
+        packet.writeInt(number);
+        return packet;
+    }
+
+    @Test
+    public void sendsRightAwayUnlessHeld() {
+        queue.send(event(1));
+        assertEquals(Collections.singletonList(1), sent);
+
+        queue.hold();
+        queue.send(event(2));
+        assertEquals(1, sent.size());
+        assertEquals(1, queue.size());
+
+        queue.release();
+        assertEquals(Arrays.asList(1, 2), sent);
+        assertEquals(0, queue.size());
+        queue.release(); // ignored
+        assertEquals(Collections.emptyList(), commands);
+    }
+
+    @Test
+    public void interruptsWhileFull() {
+        queue.hold();
+        queue.send(event(1));
+        queue.send(event(2));
+        queue.send(event(3));
+        assertEquals(Collections.singletonList("-exec-interrupt --all"), commands);
+        assertEquals(Collections.emptyList(), sent);
+
+        queue.stopped(true); // the target was running
+        queue.release();
+        assertEquals(Arrays.asList(1, 2, 3), sent);
+        assertEquals(Arrays.asList("-exec-interrupt --all", "-exec-continue --all"), commands);
+    }
+
+    @Test
+    public void staysStoppedOnSuspendingEvents() {
+        queue.hold();
+        queue.send(event(1));
+        queue.send(event(JDWP.SuspendPolicy.ALL, 2)); // the stop that filled the buffer
+        queue.stopped(true);
+        queue.release();
+        assertEquals(Arrays.asList(1, 2), sent);
+        assertEquals(Collections.singletonList("-exec-interrupt --all"), commands);
+    }
+
+    @Test
+    public void staysStoppedIfTheInterruptDidNothing() {
+        queue.hold();
+        queue.send(event(1));
+        queue.send(event(2));
+        queue.stopped(false); // the next stop is a breakpoint: the target was not running
+        queue.release();
+        assertEquals(Arrays.asList(1, 2), sent);
+        assertEquals(Collections.singletonList("-exec-interrupt --all"), commands);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests that the modifiers of an event request that are not translated for GDB are read past, and
+ * that a breakpoint GDB does not insert drops its request.
+ */
+public class TestEventRequest {
+
+    @Test
+    public void skipsModifiers() {
+        GDBControl gc = mock(GDBControl.class);
+        gc.sizeofObjectRef = 8;
+        gc.sizeofFieldRef = 8;
+        gc.sizeofMethodRef = 8;
+        byte[] pattern = "java.*".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer data = ByteBuffer.allocate(128);
+        data.put((byte) JDWP.ModKind.CLASS_EXCLUDE).putInt(pattern.length).put(pattern);
+        data.put((byte) JDWP.ModKind.CONDITIONAL).putInt(5);
+        data.put((byte) JDWP.ModKind.INSTANCE_ONLY).putLong(42);
+        data.put((byte) JDWP.ModKind.LOCATION_ONLY).put(JDWP.TypeTag.CLASS).putLong(1).putLong(2).putLong(3);
+        data.put((byte) JDWP.ModKind.EXCEPTION_ONLY).putLong(4).put((byte) 1).put((byte) 0);
+        data.put((byte) JDWP.ModKind.FIELD_ONLY).putLong(5).putLong(6);
+        data.putInt(0xCAFE);
+        Packet packet = new Packet();
+        packet.data = Arrays.copyOf(data.array(), data.position());
+
+        PacketStream command = new PacketStream(gc, packet);
+        for (int i = 0; i < 6; i++) {
+            JDWPEventRequest.EventRequest.Set.skipModifier(command, command.readByte());
+        }
+        assertEquals(0xCAFE, command.readInt());
+    }
+
+    private static void insert(FakeGDB gdb, int requestID, long insertTimeout) {
+        PacketStream answer = new PacketStream(gdb.gc, requestID, JDWPEventRequest.EventRequest.COMMAND_SET,
+                JDWPEventRequest.EventRequest.Set.COMMAND);
+        new JDWPEventRequest.EventRequest.Set(insertTimeout).insertBreakpoint(gdb.gc, answer, requestID, null, "Hello.java:5", 0, 0,
+                (byte) JDWP.EventKind.BREAKPOINT, (byte) JDWP.SuspendPolicy.ALL);
+    }
+
+    @Test
+    public void dropsRejectedBreakpoints() {
+        FakeGDB gdb = new FakeGDB(cmd -> "^error,msg=\"No source file named Hello.java.\"");
+        insert(gdb, 900, JDWP.INSERT_TIMEOUT);
+
+        assertEquals(Arrays.asList("-break-insert Hello.java:5"), gdb.sent);
+        assertNull(JDWP.bkptsByRequestID.get(900));
+        assertNull(JDWP.bkptsPending.get(900));
+    }
+
+    @Test
+    public void givesUpOnInsertsGDBDoesNotAnswer() {
+        FakeGDB gdb = new FakeGDB(cmd -> null); // never answers
+        insert(gdb, 901, 50);
+        assertNotNull(JDWP.bkptsPending.get(901));
+
+        JDWP.awaitBreakpoint(901);
+        assertNull(JDWP.bkptsPending.get(901));
+        assertNull(JDWP.bkptsByRequestID.get(901));
+    }
+}
@@ -13,9 +13,14 @@
 package jdwp;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import com.sun.jdi.VMDisconnectedException;
 import com.sun.jdi.connect.spi.Connection;
+import gdb.mi.service.command.ChromeTrace;
+import gdb.mi.service.command.Listener;
+import gdb.mi.service.command.TraceContext;
 import jdwp.*;
 import jdwp.jdi.VirtualMachineImpl;
 import org.junit.Test;
@@ -23,6 +28,7 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
 
@@ -52,4 +58,22 @@ public class TestJDWPProxy {
         }
     }
 
+    @Test
+    public void tracesPacketsToChromeTrace() throws IOException {
+        GDBControl gdbControl = new GDBControl(Mockito.mock(Connection.class));
+        StringWriter out = new StringWriter();
+        gdbControl.setTrace(new ChromeTrace(out));
+
+        Packet p = new Packet();
+        p.id = 77;
+        p.cmdSet = 1;
+        p.cmd = 7;
+        p.data = new byte[0];
+        JDWPProxy.handle(gdbControl, Mockito.mock(Listener.class), p);
+
+        String trace = out.toString();
+        assertTrue(trace, trace.contains("{\"name\":\"VirtualMachine.IDSizes\",\"cat\":\"jdwp\",\"ph\":\"b\",\"id\":\"77\""));
+        assertTrue(trace, trace.contains("\"args\":{\"packetId\":77,\"errorCode\":0,"));
+        assertNull(TraceContext.current());
+    }
 }
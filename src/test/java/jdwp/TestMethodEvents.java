@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import gdb.mi.service.command.commands.MICommand;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that method events list the functions once and share a breakpoint per function, and
+ * that the return of a call is awaited in its own frame.
+ */
+public class TestMethodEvents {
+
+    private static final String MAIN = "com.example.Hello::main(java.lang.String[] *)";
+    private static final String GREET = "com.example.Hello::greet()";
+    private static final String OTHER = "org.other.Util::run()";
+
+    private MethodEvents events;
+    private List<String> sent;
+    private int breakpoints = 1;
+    private long sp = 140737488345648L;
+
+    private static String symbol(String name) {
+        return "{line=\"3\",name=\"" + name + "\",type=\"void ()\",description=\"void " + name + ";\"}";
+    }
+
+    private String reply(MICommand<?> cmd) {
+        if (cmd.getOperation().equals("-symbol-info-functions")) {
+            return "^done,symbols={debug=[{filename=\"Hello.java\",fullname=\"/src/Hello.java\",symbols=["
+                    + symbol(MAIN) + "," + symbol(GREET) + "," + symbol("memcpy") + "]},"
+                    + "{filename=\"Util.java\",fullname=\"/src/Util.java\",symbols=[" + symbol(OTHER) + "]}]}";
+        } else if (cmd.getOperation().equals("-break-insert")) {
+            return "^done,bkpt={number=\"" + (++breakpoints) + "\",type=\"breakpoint\"}";
+        } else if (cmd.getOperation().equals("-stack-list-frames")) {
+            return "^done,stack=[frame={level=\"0\",addr=\"0x401000\",func=\"" + GREET + "\"},"
+                    + "frame={level=\"1\",addr=\"0x401200\",func=\"" + MAIN + "\"}]";
+        } else if (cmd.getOperation().equals("-data-evaluate-expression")) {
+            return "^done,value=\"" + sp + "\"";
+        }
+        return "^done";
+    }
+
+    @Before
+    public void setUp() {
+        FakeGDB gdb = new FakeGDB(this::reply);
+        sent = gdb.sent;
+        events = new MethodEvents(gdb.gc);
+    }
+
+    @Test
+    public void sharesBreakpointsPerFunction() {
+        MethodEvents.Request entry = new MethodEvents.Request(10, (byte) JDWP.EventKind.METHOD_ENTRY, (byte) JDWP.SuspendPolicy.ALL, 0);
+        MethodEvents.Request exit = new MethodEvents.Request(11, (byte) JDWP.EventKind.METHOD_EXIT, (byte) JDWP.SuspendPolicy.NONE, 1);
+        assertTrue(events.add(entry, Collections.singletonList("com.example.*"), Collections.emptyList()));
+        assertTrue(events.add(exit, Collections.singletonList("*.Hello"), Collections.emptyList()));
+        assertEquals(Arrays.asList("-symbol-info-functions", "-break-insert \"'" + MAIN + "'\"", "-break-insert '" + GREET + "'"), sent);
+
+        assertEquals(MAIN, events.function(2));
+        assertEquals(2, events.requests(MAIN, 1).size());
+        assertEquals(1, events.requests(MAIN, 2).size()); // the exit request is for thread 1 only
+
+        sent.clear();
+        events.remove(11);
+        assertEquals(Collections.emptyList(), sent); // still used by the entry request
+        events.remove(10);
+        assertEquals(1, sent.size());
+        assertTrue(sent.get(0).equals("-break-delete 2 3") || sent.get(0).equals("-break-delete 3 2"));
+        assertNull(events.function(2));
+    }
+
+    @Test
+    public void awaitsReturnAboveTheCallFrame() {
+        MethodEvents.Request exit = new MethodEvents.Request(11, (byte) JDWP.EventKind.METHOD_EXIT, (byte) JDWP.SuspendPolicy.NONE, 0);
+        events.awaitReturn(new MethodEvents.Call(GREET, 1, Collections.singletonList(exit)), true);
+        assertEquals(Arrays.asList(
+                "-stack-list-frames --thread 1",
+                "-data-evaluate-expression --thread 1 --frame 0 (long)$sp",
+                "-break-insert -t -c \"(long)$sp > 140737488345648\" -p 1 *0x401200",
+                "-exec-continue"), sent);
+
+        sent.clear();
+        sp -= 64; // a stop deeper in the call
+        events.stopped(1, false).join();
+        events.stopped(2, false).join();
+        assertEquals(Collections.singletonList("-data-evaluate-expression --thread 1 --frame 0 (long)$sp"), sent);
+
+        sent.clear();
+        sp += 128; // an exception unwound the call
+        events.stopped(1, false).join();
+        assertEquals(Arrays.asList("-data-evaluate-expression --thread 1 --frame 0 (long)$sp", "-break-delete 2"), sent);
+        assertNull(events.returned(2));
+    }
+
+    @Test
+    public void matchesClassPatterns() {
+        assertTrue(MethodEvents.matches("com.example.*", "com.example.Hello"));
+        assertTrue(MethodEvents.matches("*.Hello", "com.example.Hello"));
+        assertTrue(MethodEvents.matches("com.example.Hello", "com.example.Hello"));
+        assertEquals(false, MethodEvents.matches("com.example.Hello", "com.example.Hello2"));
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests that arrays and strings are read with -data-read-memory-bytes and decoded in one go.
+ */
+public class TestNativeMemory {
+
+    private NativeMemory memory;
+    private GDBControl gc;
+    private List<String> sent;
+    /** Replies by MI command. */
+    private final Map<String, String> replies = new HashMap<>();
+
+    @Before
+    public void setUp() {
+        FakeGDB gdb = new FakeGDB(cmd -> replies.getOrDefault(cmd.constructCommand().trim(), "^error,msg=\"Cannot access memory\""));
+        sent = gdb.sent;
+        gc = gdb.gc;
+        gc.sizeofObjectRef = 8;
+        memory = new NativeMemory(gc);
+        when(gc.getNativeMemory()).thenReturn(memory);
+    }
+
+    private void evaluates(String expression, String value) {
+        replies.put("-data-evaluate-expression --thread 1 --frame 0 " + expression, "^done,value=\"" + value + "\"");
+    }
+
+    private void contains(long address, int count, String hex) {
+        replies.put("-data-read-memory-bytes 0x" + Long.toHexString(address) + " " + count,
+                "^done,memory=[{begin=\"0x" + Long.toHexString(address) + "\",offset=\"0x0\",end=\"0x"
+                        + Long.toHexString(address + count) + "\",contents=\"" + hex + "\"}]");
+    }
+
+    @Test
+    public void readsArrayRegions() {
+        evaluates("a->len", "4");
+        evaluates("(long)&a->data[0]", "4096");
+        long id = memory.arrayId("1", 0, "a", "[I");
+        assertNotEquals(0, id);
+        assertEquals(id, memory.arrayId("1", 0, "a", "[I")); // same array, same ID
+
+        NativeMemory.Array array = memory.getArray(id);
+        assertEquals(4, array.length);
+        contains(4096 + 4, 8, "02000000ffffffff");
+        sent.clear();
+        assertArrayEquals(new int[]{2, -1}, (int[]) memory.readElements(array, 1, 2));
+        assertEquals(Arrays.asList("-data-read-memory-bytes 0x1004 8"), sent);
+
+        // unreadable memory
+        assertNull(memory.readElements(array, 0, 4));
+
+        memory.invalidate();
+        assertNull(memory.getArray(id));
+    }
+
+    @Test
+    public void readsLatin1AndUtf16Strings() {
+        evaluates("s->value->len", "2");
+        evaluates("(long)&s->value->data[0]", "8192");
+        evaluates("(int)s->coder", "0");
+        evaluates("u->value->len", "4");
+        evaluates("(long)&u->value->data[0]", "8448");
+        evaluates("(int)u->coder", "1");
+        contains(8192, 2, "6869");
+        contains(8448, 4, "ac202000");
+
+        assertEquals("hi", memory.readString(memory.getString(memory.stringId("1", 0, "s"))));
+        assertEquals("€ ", memory.readString(memory.getString(memory.stringId("1", 0, "u"))));
+    }
+
+    @Test
+    public void ignoresWhatCannotBeEvaluated() {
+        assertEquals(0, memory.arrayId("1", 0, "a", "[I"));
+        assertEquals(0, memory.arrayId("1", 0, "o", "[Ljava/lang/Object;"));
+        assertEquals(0, memory.stringId("1", 0, "s"));
+        assertEquals(0, sent.stream().filter(c -> c.contains(" o->")).count());
+    }
+
+    @Test
+    public void rejectsLengthsFromGarbage() {
+        evaluates("a->len", "-1");
+        evaluates("(long)&a->data[0]", "4096");
+        evaluates("l->len", String.valueOf(Integer.MAX_VALUE / 4));
+        evaluates("(long)&l->data[0]", "4096");
+        assertEquals(0, memory.arrayId("1", 0, "a", "[I"));
+        assertEquals(0, memory.arrayId("1", 0, "l", "[J")); // more than 2GB of longs
+    }
+
+    private PacketStream ask(int commandSet, int command, long objectID, Command handler) {
+        Packet packet = new Packet();
+        packet.data = ByteBuffer.allocate(8).putLong(objectID).array();
+        PacketStream answer = new PacketStream(gc, 1, commandSet, command);
+        handler.reply(gc, answer, new PacketStream(gc, packet));
+        return answer;
+    }
+
+    @Test
+    public void staleIdsAreInvalidObjects() {
+        evaluates("a->len", "4");
+        evaluates("(long)&a->data[0]", "4096");
+        long id = memory.arrayId("1", 0, "a", "[I");
+        assertTrue(NativeMemory.isNativeId(id));
+        assertEquals(JDWP.Error.NONE, ask(JDWPArrayReference.ArrayReference.COMMAND_SET,
+                JDWPArrayReference.ArrayReference.Length.COMMAND, id,
+                new JDWPArrayReference.ArrayReference.Length()).pkt.errorCode);
+        assertEquals(JDWP.Error.INVALID_STRING, ask(JDWPStringReference.StringReference.COMMAND_SET,
+                JDWPStringReference.StringReference.Value.COMMAND, id,
+                new JDWPStringReference.StringReference.Value()).pkt.errorCode);
+
+        memory.invalidate();
+        assertEquals(JDWP.Error.INVALID_OBJECT, ask(JDWPObjectReference.ObjectReference.COMMAND_SET,
+                JDWPObjectReference.ObjectReference.ReferenceType.COMMAND, id,
+                new JDWPObjectReference.ObjectReference.ReferenceType()).pkt.errorCode);
+        assertEquals(JDWP.Error.INVALID_OBJECT, ask(JDWPArrayReference.ArrayReference.COMMAND_SET,
+                JDWPArrayReference.ArrayReference.Length.COMMAND, id,
+                new JDWPArrayReference.ArrayReference.Length()).pkt.errorCode);
+        assertEquals(JDWP.Error.INVALID_OBJECT, ask(JDWPStringReference.StringReference.COMMAND_SET,
+                JDWPStringReference.StringReference.Value.COMMAND, id,
+                new JDWPStringReference.StringReference.Value()).pkt.errorCode);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import com.sun.jdi.connect.spi.Connection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that the metrics of a session can be read through JMX and over HTTP.
+ */
+public class TestServerMetrics {
+    private GDBControl gc;
+    private ServerMetrics metrics;
+
+    @Before
+    public void setUp() {
+        gc = new GDBControl(Mockito.mock(Connection.class));
+        gc.getPacketMetrics().record(JDWPProxy.commandName(1, 4), false, 1000, 2_000_000, 3000);
+        gc.getPacketMetrics().record(JDWPProxy.commandName(1, 4), true, 1000, 4_000_000, 3000);
+        metrics = ServerMetrics.start(gc);
+    }
+
+    @After
+    public void tearDown() {
+        metrics.close();
+    }
+
+    @Test
+    public void namesCommandsBySetAndCommand() {
+        assertEquals("VirtualMachine.AllThreads", JDWPProxy.commandName(1, 4));
+        assertEquals("ThreadReference.Frames", JDWPProxy.commandName(11, 6));
+    }
+
+    @Test
+    public void exposesCommandsThroughJMX() throws Exception {
+        ObjectName name = new ObjectName(ServerMetrics.OBJECT_NAME);
+        CompositeData[] commands = (CompositeData[]) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "JDWPCommands");
+        assertEquals(1, commands.length);
+        assertEquals("VirtualMachine.AllThreads", commands[0].get("name"));
+        assertEquals(2L, commands[0].get("count"));
+        assertEquals(1L, commands[0].get("errors"));
+        CompositeData[] phases = (CompositeData[]) commands[0].get("phases");
+        assertEquals("reply", phases[1].get("phase"));
+        assertEquals(4000L, ((Long) phases[1].get("maxMicros")).longValue());
+
+        metrics.close();
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    @Test
+    public void servesPrometheusText() throws Exception {
+        metrics.serve(0);
+        URL url = new URL("http://127.0.0.1:" + metrics.getPort() + "/metrics");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        String text;
+        try (InputStream in = connection.getInputStream()) {
+            text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(connection.getContentType().startsWith("text/plain"));
+        assertTrue(text, text.contains("nativejdb_jdwp_commands_total{command=\"VirtualMachine.AllThreads\"} 2\n"));
+        assertTrue(text, text.contains("nativejdb_jdwp_errors_total{command=\"VirtualMachine.AllThreads\"} 1\n"));
+        assertTrue(text, text.contains("# TYPE nativejdb_jdwp_reply_seconds summary\n"));
+        assertTrue(text, text.contains("# TYPE nativejdb_mi_commands_total counter\n"));
+        assertTrue(text, text.contains("nativejdb_mi_window_limit "));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import com.sun.jdi.connect.spi.TransportService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Exchanges packets with a plain socket client over the channel based connection.
+ */
+public class TestSocketConnection {
+    private static final byte[] HELLO = "JDWP-Handshake".getBytes(StandardCharsets.UTF_8);
+
+    private SocketTransportService service;
+    private TransportService.ListenKey key;
+    private Socket client;
+    private SocketConnection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        service = new SocketTransportService();
+        key = service.startListening("127.0.0.1:0");
+        int port = Integer.parseInt(key.address().substring(key.address().lastIndexOf(':') + 1));
+        CompletableFuture<Socket> debugger = CompletableFuture.supplyAsync(() -> {
+            try {
+                Socket s = new Socket("127.0.0.1", port);
+                s.getOutputStream().write(HELLO);
+                new DataInputStream(s.getInputStream()).readFully(new byte[HELLO.length]);
+                return s;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        connection = (SocketConnection) service.accept(key, 5000, 5000);
+        client = debugger.get(5, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        connection.close();
+        service.stopListening(key);
+    }
+
+    private static byte[] command(int id, int cmdSet, int cmd, byte[] data) {
+        ByteBuffer b = ByteBuffer.allocate(11 + data.length);
+        b.putInt(11 + data.length).putInt(id).put((byte) 0).put((byte) cmdSet).put((byte) cmd).put(data);
+        return b.array();
+    }
+
+    @Test
+    public void readsPacketsLargerThanTheInputBuffer() throws Exception {
+        byte[] small = { 1, 2, 3 };
+        byte[] large = new byte[BufferPool.BUFFER_SIZE * 3 + 5];
+        Arrays.fill(large, (byte) 7);
+        DataOutputStream out = new DataOutputStream(client.getOutputStream());
+        out.write(command(1, 1, 7, small));
+        out.write(command(2, 2, 9, large));
+        out.write(command(3, 15, 1, new byte[0]));
+        client.shutdownOutput();
+
+        Packet p = connection.receivePacket();
+        assertEquals(1, p.id);
+        assertEquals(1, p.cmdSet);
+        assertEquals(7, p.cmd);
+        assertArrayEquals(small, p.data);
+        p = connection.receivePacket();
+        assertEquals(2, p.id);
+        assertArrayEquals(large, p.data);
+        p = connection.receivePacket();
+        assertEquals(3, p.id);
+        assertEquals(15, p.cmdSet);
+        assertEquals(0, p.data.length);
+        assertNull(connection.receivePacket());
+    }
+
+    @Test
+    public void sendsPacketStreamReplies() throws Exception {
+        GDBControl gc = mock(GDBControl.class, invocation -> {
+            if (invocation.getMethod().getName().equals("sendToTarget")) {
+                connection.writePacket(invocation.getArgument(0), invocation.getArgument(1));
+            }
+            return null;
+        });
+        PacketStream reply = new PacketStream(gc, 42, 1, 1);
+        reply.writeInt(0xcafe);
+        reply.writeString("x".repeat(BufferPool.BUFFER_SIZE));
+        reply.writeLong(-1L);
+        reply.send();
+
+        DataInputStream in = new DataInputStream(client.getInputStream());
+        int length = in.readInt();
+        assertEquals(11 + 4 + 4 + BufferPool.BUFFER_SIZE + 8, length);
+        assertEquals(42, in.readInt());
+        assertEquals(Packet.Reply, in.readUnsignedByte());
+        assertEquals(0, in.readShort());
+        assertEquals(0xcafe, in.readInt());
+        assertEquals(BufferPool.BUFFER_SIZE, in.readInt());
+        in.readFully(new byte[BufferPool.BUFFER_SIZE]);
+        assertEquals(-1L, in.readLong());
+    }
+}
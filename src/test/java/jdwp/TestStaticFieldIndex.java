@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import gdb.mi.service.command.commands.MICommand;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests that the globals are listed once and that each address is evaluated once.
+ */
+public class TestStaticFieldIndex {
+
+    private StaticFieldIndex index;
+    private List<String> sent;
+
+    private static String reply(MICommand<?> cmd) {
+        if (cmd.getOperation().equals("-symbol-info-variables")) {
+            return "^done,symbols={debug=[{filename=\"Hello.java\",fullname=\"/src/Hello.java\",symbols=["
+                    + "{line=\"3\",name=\"com.example.Hello::count\",type=\"int\",description=\"static int com.example.Hello::count;\"},"
+                    + "{line=\"4\",name=\"com.example.Hello::gone\",type=\"int\",description=\"static int com.example.Hello::gone;\"}]}]}";
+        } else if (cmd.getParameters()[0].contains("count")) {
+            return "^done,value=\"4096\"";
+        }
+        return "^error,msg=\"No symbol \\\"gone\\\" in current context.\"";
+    }
+
+    @Before
+    public void setUp() {
+        FakeGDB gdb = new FakeGDB(TestStaticFieldIndex::reply);
+        sent = gdb.sent;
+        index = new StaticFieldIndex(gdb.gc);
+    }
+
+    @Test
+    public void listsOnceAndEvaluatesAddressesOnce() {
+        index.scan();
+        StaticFieldIndex.Symbol count = index.get("com.example.Hello", "count");
+        assertEquals("int", count.type);
+        assertNull(index.get("com.example.Hello", "other"));
+        assertNull(index.get("com.example.Other", "count"));
+
+        assertEquals(4096, index.address(count));
+        assertEquals(4096, index.address(count));
+        StaticFieldIndex.Symbol gone = index.get("com.example.Hello", "gone");
+        assertEquals(-1, index.address(gone));
+        assertEquals(-1, index.address(gone));
+
+        assertEquals(Arrays.asList("-symbol-info-variables", "-data-evaluate-expression (long)&'com.example.Hello::count'",
+                "-data-evaluate-expression (long)&'com.example.Hello::gone'"), sent);
+    }
+}
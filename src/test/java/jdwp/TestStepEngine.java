@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import gdb.mi.service.command.output.MIFrame;
+import gdb.mi.service.command.output.MIStackListFramesInfo;
+import jdwp.jdi.ClassTypeImpl;
+import jdwp.jdi.LocationImpl;
+import jdwp.jdi.MethodImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests that a step sets breakpoints on the lines of its method, for its own frame only, and that
+ * a step outside Java code steps again rather than being reported.
+ */
+public class TestStepEngine {
+
+    private static final MethodImpl FACT = mock(MethodImpl.class);
+
+    private StepEngine engine;
+    private List<String> sent;
+    private int breakpoints = 1;
+    private long sp = 140737488345648L;
+
+    @Before
+    public void setUp() {
+        FakeGDB gdb = new FakeGDB(cmd -> {
+            String command = cmd.constructCommand();
+            if (command.startsWith("-exec")) {
+                return "^running";
+            } else if (command.startsWith("-data-evaluate-expression --thread 1 --frame 0 (long)$sp")) {
+                return "^done,value=\"" + sp + "\"";
+            } else if (command.startsWith("-break-insert")) {
+                return "^done,bkpt={number=\"" + (++breakpoints) + "\",type=\"breakpoint\",disp=\"del\"}";
+            }
+            return "^error,msg=\"No registers.\"";
+        });
+        when(gdb.gc.getStackCache()).thenReturn(new ThreadStackCache(gdb.gc));
+        sent = gdb.sent;
+        engine = new StepEngine(gdb.gc) {
+            @Override
+            Set<Integer> lines(LocationImpl loc) {
+                return new TreeSet<>(Arrays.asList(5, 6, 7)); // the line table of fact(int)
+            }
+        };
+    }
+
+    @Test
+    public void stepsAgainOutsideJavaCode() {
+        // no stack, so no line table: falls back on -exec-next
+        assertNotNull(engine.step(1, 1, JDWP.StepDepth.OVER));
+        assertEquals(Arrays.asList("-stack-list-frames --thread 1", "-exec-next 1"), sent);
+
+        sent.clear();
+        assertFalse(engine.stopped(1, null));
+        assertEquals(Arrays.asList("-exec-next 1"), sent);
+
+        engine.finished(1);
+        assertTrue(engine.stopped(1, null)); // no step any more
+    }
+
+    /**
+     * Returns a location at the given line of Hello.java.
+     */
+    private static LocationImpl at(int line) throws Exception {
+        return at(line, FACT);
+    }
+
+    private static LocationImpl at(int line, MethodImpl method) throws Exception {
+        ClassTypeImpl type = mock(ClassTypeImpl.class);
+        when(type.baseSourceName()).thenReturn("Hello.java");
+        LocationImpl loc = mock(LocationImpl.class);
+        when(loc.lineNumber()).thenReturn(line);
+        when(loc.declaringType()).thenReturn(type);
+        when(loc.method()).thenReturn(method);
+        return loc;
+    }
+
+    private static MIFrame caller() {
+        return ((MIStackListFramesInfo) new MIStackListFramesInfo(FakeGDB.output(
+                "^done,stack=[frame={level=\"1\",addr=\"0x401200\",func=\"Hello::main(java.lang.String[])\"}]")))
+                .getMIFrames()[0];
+    }
+
+    @Test
+    public void stepsOverInItsOwnFrame() throws Exception {
+        // fact(n) calls fact(n - 1) on line 6: the recursive call hits lines 6 and 7 with a lower $sp
+        assertNotNull(engine.step(1, 1, JDWP.StepDepth.OVER, at(5), caller()));
+
+        String condition = "-c \"(long)$sp >= 140737488345648\"";
+        assertEquals(Arrays.asList(
+                "-data-evaluate-expression --thread 1 --frame 0 (long)$sp",
+                "-break-insert -t " + condition + " -p 1 Hello.java:6",
+                "-break-insert -t " + condition + " -p 1 Hello.java:7",
+                "-break-insert -t " + condition + " -p 1 *0x401200",
+                "-exec-continue"), sent);
+        assertTrue(engine.isStepBreakpoint(2));
+        assertTrue(engine.isStepBreakpoint(4));
+
+        sent.clear();
+        engine.finished(1);
+        assertEquals(Arrays.asList("-break-delete 2 3 4"), sent);
+        assertFalse(engine.isStepBreakpoint(2));
+    }
+
+    @Test
+    public void stepsWithGDBWithoutACaller() throws Exception {
+        // the last line of main: no return address to stop at
+        assertNotNull(engine.step(1, 1, JDWP.StepDepth.OVER, at(7), null));
+        assertEquals(Arrays.asList("-exec-next 1"), sent);
+
+        sent.clear();
+        assertNotNull(engine.step(1, 1, JDWP.StepDepth.OUT, at(7), null));
+        assertEquals(Arrays.asList("-exec-finish"), sent);
+    }
+
+    @Test
+    public void endsStepOnlyOnBreakpointsOfItsFrameOrCallers() throws Exception {
+        assertNotNull(engine.step(1, 1, JDWP.StepDepth.OVER, at(5), caller()));
+
+        sp -= 64; // a recursive call of fact(int)
+        assertFalse(engine.endsStep(1, at(7)).join());
+        assertFalse(engine.endsStep(1, at(3, mock(MethodImpl.class))).join()); // a callee
+
+        sp += 64;
+        assertFalse(engine.endsStep(1, at(5)).join()); // back on the line of the step, in a loop
+        assertTrue(engine.endsStep(1, at(7)).join());
+
+        sp += 64;
+        assertTrue(engine.endsStep(1, at(12, mock(MethodImpl.class))).join()); // the caller, past an exception
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import gdb.mi.service.command.output.MIStackListVariablesInfo;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests that the stack cache asks GDB once per thread and frame between two state changes.
+ */
+public class TestThreadStackCache {
+
+    private static final String FRAMES = "1^done,stack=[frame={level=\"0\",addr=\"0x401136\",func=\"Hello::main(java.lang.String[])\",file=\"Hello.java\",line=\"5\"}]";
+    private static final String VARIABLES = "2^done,variables=[{name=\"i\",value=\"42\"}]";
+    private static final String ERROR = "3^error,msg=\"Thread ID 9 not known.\"";
+
+    private FakeGDB gdb;
+    private String reply;
+    private ThreadStackCache cache;
+
+    @Before
+    public void setUp() {
+        gdb = new FakeGDB(cmd -> reply);
+        cache = new ThreadStackCache(gdb.gc);
+    }
+
+    @Test
+    public void reusesStackUntilInvalidated() {
+        reply = FRAMES;
+
+        ThreadStackCache.Stack stack = cache.getStack("1");
+        assertEquals(1, stack.getMIFrames().length);
+        assertSame(stack, cache.getStack("1"));
+        assertEquals(1, gdb.sent.size());
+
+        cache.invalidate();
+        cache.getStack("1");
+        assertEquals(2, gdb.sent.size());
+    }
+
+    @Test
+    public void cachesVariablesPerFrame() {
+        reply = VARIABLES;
+
+        MIStackListVariablesInfo variables = cache.getVariables("1", 0);
+        assertEquals("42", variables.getVariables()[0].getValue());
+        assertSame(variables, cache.getVariables("1", 0));
+        cache.getVariables("1", 1);
+        assertEquals(2, gdb.sent.size());
+    }
+
+    @Test
+    public void doesNotCacheErrors() {
+        reply = ERROR;
+
+        assertNull(cache.getStack("9"));
+        assertNull(cache.getStack("9"));
+        assertEquals(2, gdb.sent.size());
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the threads are listed once per stop and followed through notifications in between.
+ */
+public class TestThreadTable {
+
+    private ThreadTable table;
+    private FakeGDB gdb;
+    private String threads = "{id=\"1\",target-id=\"Thread 0x1 (LWP 10)\",name=\"main\",state=\"stopped\"},"
+            + "{id=\"2\",target-id=\"Thread 0x2 (LWP 11)\",name=\"worker-1\",state=\"stopped\"}";
+
+    @Before
+    public void setUp() {
+        gdb = new FakeGDB(cmd -> "^done,threads=[" + threads + "],current-thread-id=\"1\"");
+        table = new ThreadTable(gdb.gc);
+    }
+
+    @Test
+    public void listsOncePerStop() {
+        assertEquals("main", table.get(1).name);
+        assertEquals("worker-1", table.get(2).name);
+        assertTrue(table.get(2).stopped);
+        assertEquals(2, table.all().size());
+        assertNull(table.get(3));
+        assertEquals(1, gdb.sent.size());
+
+        table.invalidate();
+        assertEquals(2, table.all().size());
+        assertEquals(2, gdb.sent.size());
+    }
+
+    @Test
+    public void followsNotifications() {
+        table.all();
+        table.exited(2);
+        assertNull(table.get(2));
+        assertEquals(1, table.all().size());
+        assertEquals(1, gdb.sent.size());
+
+        // a new thread has no name until the table is listed again
+        threads += ",{id=\"3\",target-id=\"Thread 0x3 (LWP 12)\",name=\"worker-2\",state=\"running\"}";
+        table.created(3);
+        assertEquals("worker-2", table.get(3).name);
+        assertEquals(2, gdb.sent.size());
+        assertEquals("worker-2", table.get(3).name);
+        assertEquals(2, gdb.sent.size());
+    }
+}
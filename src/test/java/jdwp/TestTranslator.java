@@ -12,9 +12,32 @@
 
 package jdwp;
 
+import gdb.mi.service.command.events.MIBreakpointHitEvent;
+import gdb.mi.service.command.events.MIInferiorExitEvent;
+import gdb.mi.service.command.events.MIWatchpointTriggerEvent;
+import gdb.mi.service.command.output.MIBreakInsertInfo;
+import gdb.mi.service.command.output.MIExecAsyncOutput;
+import gdb.mi.service.command.output.MIResult;
+import gdb.mi.service.command.output.MIStreamParser;
+import jdwp.jdi.ClassTypeImpl;
+import jdwp.jdi.LocationImpl;
+import org.junit.After;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 /**
  * Tests the Translator class for converting C/C++ info to Java.
@@ -93,4 +116,173 @@ public class TestTranslator {
         String output = "java/util/Map.java";
         assertEquals(output, Translator.getQbiccFilename(input));
     }
+
+    /**
+     * Returns a mock whose packets sent to the IDE are added, as bytes, to the given list.
+     */
+    private static GDBControl sending(List<ByteBuffer> sent) {
+        GDBControl gc = mock(GDBControl.class);
+        doAnswer(invocation -> {
+            ByteBuffer data = invocation.getArgument(1);
+            ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+            copy.put(data).flip();
+            sent.add(copy);
+            return null;
+        }).when(gc).sendToTarget(any(), any(ByteBuffer.class));
+        return gc;
+    }
+
+    private static Translator.Event event(int policy, String group, int requestId) {
+        return new Translator.Event((byte) policy, group, packetStream -> {
+            packetStream.writeByte((byte) JDWP.EventKind.BREAKPOINT);
+            packetStream.writeInt(requestId);
+        });
+    }
+
+    @Test
+    public void testBatchesEventsOfOneStop() {
+        List<ByteBuffer> sent = new ArrayList<>();
+        GDBControl gc = sending(sent);
+        List<PacketStream> packets = Translator.batch(gc, Arrays.asList(
+                event(JDWP.SuspendPolicy.EVENT_THREAD, "thread 1", 10),
+                event(JDWP.SuspendPolicy.NONE, "prepare LHello;", 11),
+                event(JDWP.SuspendPolicy.ALL, "thread 1", 12)));
+        assertEquals(2, packets.size());
+        packets.forEach(PacketStream::send);
+
+        ByteBuffer first = sent.get(0);
+        assertEquals(JDWP.SuspendPolicy.ALL, first.get()); // the strongest of the two
+        assertEquals(2, first.getInt());
+        assertEquals(JDWP.EventKind.BREAKPOINT, first.get());
+        assertEquals(10, first.getInt());
+        assertEquals(JDWP.EventKind.BREAKPOINT, first.get());
+        assertEquals(12, first.getInt());
+        assertEquals(0, first.remaining());
+
+        ByteBuffer second = sent.get(1);
+        assertEquals(JDWP.SuspendPolicy.NONE, second.get());
+        assertEquals(1, second.getInt());
+    }
+
+    @Test
+    public void testTranslatesExit() {
+        List<ByteBuffer> sent = new ArrayList<>();
+        GDBControl gc = sending(sent);
+        Translator.translate(gc, new MIInferiorExitEvent(0, new MIResult[0], 0)).send();
+
+        ByteBuffer packet = sent.get(0);
+        assertEquals(JDWP.SuspendPolicy.NONE, packet.get());
+        assertEquals(1, packet.getInt());
+        assertEquals(JDWP.EventKind.VM_DEATH, packet.get());
+        assertEquals(0, packet.getInt());
+    }
+
+    @Test
+    public void testWritesWatchedValues() {
+        List<ByteBuffer> sent = new ArrayList<>();
+        GDBControl gc = sending(sent);
+        PacketStream packetStream = new PacketStream(gc);
+        Translator.writeValue(packetStream, JDWP.Tag.CHAR, "97 'a'");
+        Translator.writeValue(packetStream, JDWP.Tag.INT, "-3");
+        Translator.writeValue(packetStream, JDWP.Tag.BOOLEAN, "true");
+        Translator.writeValue(packetStream, JDWP.Tag.DOUBLE, "0.5");
+        packetStream.send();
+
+        ByteBuffer packet = sent.get(0);
+        assertEquals(JDWP.Tag.CHAR, packet.get());
+        assertEquals('a', packet.getChar());
+        assertEquals(JDWP.Tag.INT, packet.get());
+        assertEquals(-3, packet.getInt());
+        assertEquals(JDWP.Tag.BOOLEAN, packet.get());
+        assertEquals(1, packet.get());
+        assertEquals(JDWP.Tag.DOUBLE, packet.get());
+        assertEquals(0.5, packet.getDouble(), 0);
+
+        assertEquals("*(short *)0x1000", FieldWatch.expression(JDWP.Tag.CHAR, 4096));
+        assertEquals("*(long *)0x1000", FieldWatch.expression(JDWP.Tag.OBJECT, 4096));
+    }
+
+    @After
+    public void tearDown() {
+        JDWP.bkptsByBreakpointNumber.clear();
+        JDWP.bkptsLocation.clear();
+        JDWP.bkptsByRequestID.clear();
+        JDWP.watchesByBreakpointNumber.clear();
+    }
+
+    /**
+     * Records a breakpoint request as JDWPEventRequest does once GDB inserted it, with the given
+     * GDB breakpoint attributes ("thread" for a thread filter, "disp=del" for a count).
+     */
+    private static void inserted(int number, int requestID, String attributes, LocationImpl loc) {
+        MIBreakInsertInfo info = new MIBreakInsertInfo(FakeGDB.output("^done,bkpt={number=\"" + number
+                + "\",type=\"breakpoint\"," + attributes + "}"));
+        info.setMIInfoRequestID(requestID);
+        info.setMIInfoEventKind((byte) JDWP.EventKind.BREAKPOINT);
+        info.setMIInfoSuspendPolicy((byte) JDWP.SuspendPolicy.ALL);
+        JDWP.bkptsByRequestID.put(requestID, info);
+        JDWP.bkptsByBreakpointNumber.put(number, info);
+        JDWP.bkptsLocation.put(number, loc);
+    }
+
+    private static MIBreakpointHitEvent hit(int number, int threadID) {
+        MIExecAsyncOutput record = (MIExecAsyncOutput) new MIStreamParser().parseMIOOBRecord(
+                "*stopped,reason=\"breakpoint-hit\",disp=\"keep\",bkptno=\"" + number + "\",thread-id=\"" + threadID + "\"");
+        return MIBreakpointHitEvent.parse(0, record.getMIResults());
+    }
+
+    /**
+     * Returns the request IDs of the events in the packet sent for the given stop.
+     */
+    private static Set<Integer> reported(MIBreakpointHitEvent event) {
+        List<ByteBuffer> sent = new ArrayList<>();
+        GDBControl gc = sending(sent);
+        when(gc.getMethodEvents()).thenReturn(new MethodEvents(gc)); // no call awaits a return
+        gc.sizeofObjectRef = 8;
+        gc.sizeofClassRef = 8;
+        gc.sizeofMethodRef = 8;
+        Translator.translate(gc, Arrays.asList(event)).forEach(PacketStream::send);
+
+        ByteBuffer packet = sent.get(0);
+        packet.get();
+        int count = packet.getInt();
+        Set<Integer> requests = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            assertEquals(JDWP.EventKind.BREAKPOINT, packet.get());
+            requests.add(packet.getInt());
+            packet.position(packet.position() + 8 + 1 + 8 + 8 + 8); // thread, location
+        }
+        return requests;
+    }
+
+    @Test
+    public void testReportsColocatedRequestsOfTheThread() {
+        LocationImpl loc = mock(LocationImpl.class);
+        when(loc.declaringType()).thenReturn(mock(ClassTypeImpl.class));
+        inserted(2, 20, "disp=\"keep\"", loc);
+        inserted(3, 30, "disp=\"keep\",thread=\"7\"", loc); // another thread
+        inserted(4, 40, "disp=\"del\"", loc); // a count, GDB counts its own hits
+        inserted(5, 50, "disp=\"keep\",thread=\"2\"", loc);
+
+        assertEquals(new HashSet<>(Arrays.asList(20, 50)), reported(hit(2, 2)));
+
+        // the count is reached: GDB deletes the temporary breakpoint as it reports it
+        assertEquals(new HashSet<>(Arrays.asList(40, 20, 50)), reported(hit(4, 2)));
+        assertFalse(JDWP.bkptsByBreakpointNumber.containsKey(4));
+        assertFalse(JDWP.bkptsLocation.containsKey(4));
+        assertFalse(JDWP.bkptsByRequestID.containsKey(40));
+    }
+
+    @Test
+    public void testContinuesOnWatchpointsOutsideJavaCode() {
+        JDWP.watchesByBreakpointNumber.put(6, new FieldWatch(null, null, null));
+        MIExecAsyncOutput record = (MIExecAsyncOutput) new MIStreamParser().parseMIOOBRecord(
+                "*stopped,reason=\"read-watchpoint-trigger\",hw-rwpt={number=\"6\",exp=\"*(int *)0x1000\"},"
+                        + "value={value=\"3\"},frame={addr=\"0x401000\",func=\"memcpy\",args=[]},thread-id=\"1\"");
+        FakeGDB gdb = new FakeGDB(cmd -> "^running");
+        List<PacketStream> packets = Translator.translate(gdb.gc,
+                Arrays.asList(MIWatchpointTriggerEvent.parse(0, record.getMIResults())));
+        assertEquals(Collections.emptyList(), packets);
+        assertEquals(Collections.singletonList("-exec-continue"), gdb.sent);
+    }
 }
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests that values are read once per stop and that failures are read again.
+ */
+public class TestValueCache {
+
+    private final ValueCache cache = new ValueCache();
+    private final AtomicInteger reads = new AtomicInteger();
+
+    private String read() {
+        return "v" + reads.incrementAndGet();
+    }
+
+    @Test
+    public void readsOncePerStop() {
+        assertEquals("v1", cache.get("1", 0, "i", this::read));
+        assertEquals("v1", cache.get("1", 0, "i", this::read));
+        assertEquals("v2", cache.get("1", 1, "i", this::read)); // other frame
+        assertEquals("v3", cache.get("i", this::read)); // no frame
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+
+        cache.invalidate();
+        assertEquals("v4", cache.get("1", 0, "i", this::read));
+        assertEquals(1, cache.getHits());
+        assertEquals(4, cache.getMisses());
+    }
+
+    @Test
+    public void doesNotCacheFailures() {
+        assertNull(cache.get("1", 0, "i", () -> null));
+        assertEquals("v1", cache.get("1", 0, "i", this::read));
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void sharesWhatWasPut() {
+        assertNull(cache.getIfPresent("1", 0, "i"));
+        cache.put("1", 0, "i", "42");
+        assertEquals("42", cache.getIfPresent("1", 0, "i"));
+        assertEquals("42", cache.get("1", 0, "i", this::read));
+        assertEquals(0, reads.get());
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp;
+
+import gdb.mi.service.command.commands.MICommand;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that locals are created as variable objects once and then only updated.
+ */
+public class TestVariableObjects {
+
+    private VariableObjects vars;
+    private List<String> sent;
+    private String update = "^done,changelist=[]";
+    private int nextVar = 1;
+
+    private String reply(MICommand<?> cmd) {
+        String[] params = cmd.getParameters();
+        if (cmd.getOperation().equals("-var-update")) {
+            return update;
+        } else if (cmd.getOperation().equals("-var-delete")) {
+            return "^done,ndeleted=\"1\"";
+        } else if (params[params.length - 1].equals("unknown")) {
+            return "^error,msg=\"No symbol \\\"unknown\\\" in current context.\"";
+        }
+        return "^done,name=\"var" + nextVar++ + "\",numchild=\"0\",value=\"1\",type=\"int\",has_more=\"0\"";
+    }
+
+    @Before
+    public void setUp() {
+        FakeGDB gdb = new FakeGDB(this::reply);
+        sent = gdb.sent;
+        vars = new VariableObjects(gdb.gc);
+    }
+
+    @Test
+    public void createsOnceAndUpdatesAfterStop() {
+        Map<String, String> values = vars.getValues("1", 0, "Hello::main", Arrays.asList("i", "unknown"));
+        assertEquals(Collections.singletonMap("i", "1"), values);
+        assertEquals(2, sent.size());
+        assertEquals("-var-create --thread 1 --frame 0 - * i", sent.get(0));
+
+        // same stop: nothing is asked again, not even the unknown local
+        vars.getValues("1", 0, "Hello::main", Arrays.asList("i", "unknown"));
+        assertEquals(2, sent.size());
+
+        update = "^done,changelist=[{name=\"var1\",value=\"2\",in_scope=\"true\",type_changed=\"false\",has_more=\"0\"}]";
+        vars.invalidate();
+        values = vars.getValues("1", 0, "Hello::main", Collections.singletonList("i"));
+        assertEquals("2", values.get("i"));
+        assertEquals(Collections.singletonList("-var-update 1 *"), sent.subList(2, sent.size()));
+    }
+
+    @Test
+    public void recreatesWhenOutOfScopeOrFunctionChanges() {
+        vars.getValues("1", 0, "Hello::main", Collections.singletonList("i"));
+
+        update = "^done,changelist=[{name=\"var1\",in_scope=\"false\",type_changed=\"false\",has_more=\"0\"}]";
+        vars.invalidate();
+        vars.getValues("1", 0, "Hello::main", Collections.singletonList("i"));
+        assertEquals(Arrays.asList("-var-update 1 *", "-var-create --thread 1 --frame 0 - * i", "-var-delete var1"),
+                sent.subList(1, sent.size()));
+        assertEquals(1, vars.size());
+
+        sent.clear();
+        update = "^done,changelist=[]";
+        vars.invalidate();
+        vars.getValues("1", 0, "Hello::other", Collections.singletonList("j"));
+        assertEquals(Arrays.asList("-var-update 1 *", "-var-delete var2", "-var-create --thread 1 --frame 0 - * j"), sent);
+        assertEquals(1, vars.size());
+    }
+}
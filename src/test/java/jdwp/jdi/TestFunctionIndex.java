@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp.jdi;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests the lookups used to map GDB frames to Java locations.
+ */
+public class TestFunctionIndex {
+
+    @Test
+    public void findsMethodsBySignatureAndName() {
+        FunctionIndex<String> index = new FunctionIndex<>();
+        index.put("io/quarkus/Main::run(I)", "run(int)");
+        index.put("io/quarkus/Main::run(Ljava/lang/String;)", "run(String)");
+        index.put("io/quarkus/Other::run()", "Other.run()");
+
+        assertEquals("run(String)", index.get("io/quarkus/Main::run(Ljava/lang/String;)"));
+        assertNull(index.get("io/quarkus/Main::run"));
+        assertEquals(Arrays.asList("run(int)", "run(String)"), index.withName("io/quarkus/Main::run"));
+        assertEquals(Arrays.asList("run(int)", "run(String)"), index.withName("quarkus/Main::run"));
+        assertEquals(Arrays.asList("run(int)", "run(String)"), index.withName("Main::run"));
+        assertEquals(Collections.singletonList("Other.run()"), index.withName("Other::run"));
+        assertEquals(Collections.emptyList(), index.withName("run"));
+    }
+
+    @Test
+    public void replacesRecreatedMethods() {
+        FunctionIndex<String> index = new FunctionIndex<>();
+        index.put("Main::run()", "first");
+        index.put("Main::run()", "second");
+
+        assertEquals(1, index.size());
+        assertEquals("second", index.get("Main::run()"));
+        assertEquals(Collections.singletonList("second"), index.withName("Main::run"));
+    }
+
+    @Test
+    public void findsFirstLocationOfLine() {
+        Map<Integer, List<String>> lineMapper = new HashMap<>();
+        lineMapper.put(20, Arrays.asList("bci 8", "bci 30"));
+        lineMapper.put(12, Collections.singletonList("bci 0"));
+        lineMapper.put(15, Collections.singletonList("bci 4"));
+        LineTable<String> table = new LineTable<>(lineMapper);
+
+        assertEquals("bci 0", table.first(12));
+        assertEquals("bci 8", table.first(20));
+        assertNull(table.first(13));
+        assertNull(table.first(99));
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2022 IBM Corporation
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License v2 with Classpath Exception.
+ * The text of the license is available in the file LICENSE.TXT.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See LICENSE.TXT for more details.
+ */
+
+package jdwp.jdi;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Writes a snapshot and reads it back through the mapping.
+ */
+public class TestMetadataSnapshot {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static MetadataSnapshot.ClassInfo hello() {
+        MetadataSnapshot.LocalInfo args = new MetadataSnapshot.LocalInfo("args", "[Ljava/lang/String;", null, 0, 0, 12);
+        MetadataSnapshot.LocalInfo names = new MetadataSnapshot.LocalInfo("names", "Ljava/util/List;",
+                "Ljava/util/List<Ljava/lang/String;>;", 1, 4, 8);
+        MetadataSnapshot.MethodInfo main = new MetadataSnapshot.MethodInfo("main", "([Ljava/lang/String;)V", 9, 0x1234,
+                new long[]{0, 8}, new int[]{5, 6}, Arrays.asList(args, names));
+        MetadataSnapshot.MethodInfo init = new MetadataSnapshot.MethodInfo("<init>", "()V", 1, 0x1240,
+                new long[]{0}, new int[]{1}, Collections.emptyList());
+        return new MetadataSnapshot.ClassInfo("Hello", "LHello;", "Hello.java", null, 33, 0x7f00,
+                Arrays.asList(init, main));
+    }
+
+    private static MetadataSnapshot.ClassInfo empty(String name) {
+        return new MetadataSnapshot.ClassInfo(name, "L" + name + ";", null, null, 1, name.hashCode(), Collections.emptyList());
+    }
+
+    @Test
+    public void readsBackWhatWasWritten() throws IOException {
+        Path executable = folder.newFile("Hello").toPath();
+        Path path = MetadataSnapshot.pathFor(executable.toString());
+        MetadataSnapshot.write(path, Arrays.asList(empty("java/lang/String"), hello(), empty("java/lang/Object")), executable);
+
+        try (MetadataSnapshot snapshot = MetadataSnapshot.open(path, executable)) {
+            assertEquals(3, snapshot.classCount());
+            assertEquals("Hello", snapshot.classAt(0).name);
+            assertEquals("java/lang/String", snapshot.classAt(2).name);
+
+            MetadataSnapshot.ClassInfo hello = snapshot.classByName("Hello");
+            assertEquals("LHello;", hello.signature);
+            assertEquals("Hello.java", hello.sourceName);
+            assertNull(hello.sourceDebugExtension);
+            assertEquals(0x7f00, hello.id);
+            assertEquals(2, hello.methods.size());
+
+            MetadataSnapshot.MethodInfo main = hello.methods.get(1);
+            assertEquals("main", main.name);
+            assertEquals(0x1234, main.id);
+            assertArrayEquals(new long[]{0, 8}, main.codeIndexes);
+            assertArrayEquals(new int[]{5, 6}, main.lines);
+            assertEquals("args", main.locals.get(0).name);
+            assertEquals(12, main.locals.get(0).length);
+            assertNull(main.locals.get(0).genericSignature);
+            assertEquals("Ljava/util/List<Ljava/lang/String;>;", main.locals.get(1).genericSignature);
+
+            assertEquals(0x1234, snapshot.method("Hello", "main", "([Ljava/lang/String;)V").id);
+            assertNull(snapshot.method("Hello", "main", "()V"));
+            assertNull(snapshot.method("Goodbye", "main", "([Ljava/lang/String;)V"));
+
+            assertEquals("java/lang/Object", snapshot.classByName("java/lang/Object").name);
+            assertNull(snapshot.classByName("java/lang/Integer"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        Path path = folder.newFile("Hello").toPath();
+        Files.write(path, new byte[]{0x7f, 'E', 'L', 'F'});
+        MetadataSnapshot.open(path, path);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsSnapshotsOfAnOlderBuild() throws IOException {
+        Path executable = folder.newFile("Hello").toPath();
+        Path path = MetadataSnapshot.pathFor(executable.toString());
+        MetadataSnapshot.write(path, Collections.singletonList(hello()), executable);
+        Files.write(executable, new byte[]{0x7f, 'E', 'L', 'F'}); // rebuilt
+        MetadataSnapshot.open(path, executable).close();
+    }
+}